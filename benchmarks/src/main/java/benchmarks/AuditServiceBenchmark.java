@@ -0,0 +1,72 @@
+package benchmarks;
+
+import audit.AuditAction;
+import audit.AuditService;
+import audit.OverflowPolicy;
+import counters.CounterType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Запись в {@link AuditService}. С {@link OverflowPolicy#BLOCK} замеряется устойчивая пропускная способность
+ * вместе с фоновой записью в файл, с {@link OverflowPolicy#DROP_NEWEST} - стоимость самого вызова.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuditServiceBenchmark {
+    @Param({"BLOCK", "DROP_NEWEST"})
+    public OverflowPolicy overflowPolicy;
+
+    private Path directory;
+    private AuditService auditService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("audit-benchmark");
+        auditService = new AuditService(directory, 64 * 1024, overflowPolicy, 16L * 1024 * 1024, 4);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        auditService.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public boolean log() {
+        int userId = ThreadLocalRandom.current().nextInt(1, 100_000);
+        return auditService.log(AuditAction.SUBMIT_READING, userId, CounterType.HEATING, 2024 * 12, userId);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean logConcurrent() {
+        return log();
+    }
+}
@@ -0,0 +1,160 @@
+package benchmarks;
+
+import counters.CounterService;
+import counters.CounterType;
+import counters.ReadingArena;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import storage.Durability;
+import storage.FileStorage;
+import storage.InMemoryStorage;
+import users.UserIdAllocator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Подача и чтение показаний через {@link CounterService}: в памяти кучи, вне кучи ({@link ReadingArena})
+ * и с журналом {@link FileStorage} в режиме {@link Durability#ASYNC}. Перед замером у каждого пользователя
+ * есть показания отопления за год.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CounterServiceBenchmark {
+    private static final YearMonth FIRST_MONTH = YearMonth.of(2024, 1);
+
+    @Param({"100000"})
+    public int users;
+
+    @Param({"MEMORY", "OFF_HEAP", "ASYNC"})
+    public String storage;
+
+    private CounterService counterService;
+    private FileStorage fileStorage;
+    private Path directory;
+    private final AtomicInteger nextWriter = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if ("MEMORY".equals(storage)) {
+            counterService = new CounterService(InMemoryStorage.INSTANCE);
+        } else if ("OFF_HEAP".equals(storage)) {
+            counterService = new CounterService(InMemoryStorage.INSTANCE, new UserIdAllocator(),
+                    CounterService.DEFAULT_LATEST_CACHE_CAPACITY, new ReadingArena());
+        } else {
+            directory = Files.createTempDirectory("counter-benchmark");
+            fileStorage = new FileStorage(directory, Durability.valueOf(storage));
+            counterService = new CounterService(fileStorage);
+        }
+        for (int userId = 1; userId <= users; userId++) {
+            for (int month = 0; month < 12; month++) {
+                counterService.submitCounterReading(userId, CounterType.HEATING, FIRST_MONTH.plusMonths(month), month * 10);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (fileStorage != null) {
+            fileStorage.close();
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Курсор подачи потока: у каждого потока свой диапазон пользователей, месяц растет после каждого прохода,
+     * поэтому подачи не конфликтуют и всегда принимаются.
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+        int firstUser;
+        int userCount;
+        int offset;
+        int month;
+
+        @Setup(Level.Trial)
+        public void setUp(CounterServiceBenchmark benchmark) {
+            int writer = benchmark.nextWriter.getAndIncrement();
+            userCount = Math.max(1, benchmark.users / 4);
+            firstUser = 1 + (writer % 4) * userCount;
+            month = 12 + writer / 4 * 100_000;
+        }
+
+        int nextUser() {
+            int userId = firstUser + offset;
+            if (++offset == userCount) {
+                offset = 0;
+                month++;
+            }
+            return userId;
+        }
+    }
+
+    @Benchmark
+    public void submitReading(Writer writer) {
+        int userId = writer.nextUser();
+        counterService.submitCounterReading(userId, CounterType.HOT_WATER, FIRST_MONTH.plusMonths(writer.month), writer.month);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void submitReadingConcurrent(Writer writer) {
+        submitReading(writer);
+    }
+
+    @Benchmark
+    public int latestReading() {
+        return counterService.getLatestCounterReading(randomUser(), CounterType.HEATING);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int latestReadingConcurrent() {
+        return latestReading();
+    }
+
+    @Benchmark
+    public void history(Blackhole blackhole) {
+        Map<YearMonth, Integer> history = counterService.getCounterHistory(randomUser(), CounterType.HEATING);
+        for (Map.Entry<YearMonth, Integer> entry : history.entrySet()) {
+            blackhole.consume(entry.getValue());
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void historyConcurrent(Blackhole blackhole) {
+        history(blackhole);
+    }
+
+    private int randomUser() {
+        return 1 + ThreadLocalRandom.current().nextInt(users);
+    }
+}
@@ -0,0 +1,109 @@
+package benchmarks;
+
+import api.HttpApiServer;
+import audit.AuditService;
+import counters.CounterService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import storage.InMemoryStorage;
+import users.PasswordHasher;
+import users.PasswordVerifier;
+import users.UserRepository;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Полный цикл HTTP-запроса к {@link HttpApiServer} через loopback: разбор запроса, проверка токена,
+ * чтение показания и сериализация ответа.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpApiBenchmark {
+    private Path directory;
+    private AuditService auditService;
+    private HttpApiServer server;
+    private HttpClient client;
+    private HttpRequest latestReading;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("api-benchmark");
+        auditService = new AuditService(directory);
+        UserRepository userRepository = new UserRepository(InMemoryStorage.INSTANCE, new PasswordHasher(1),
+                new PasswordVerifier());
+        CounterService counterService = new CounterService();
+        server = new HttpApiServer(userRepository, counterService, auditService, new InetSocketAddress("127.0.0.1", 0));
+        server.start();
+
+        client = HttpClient.newHttpClient();
+        String base = "http://127.0.0.1:" + server.getPort();
+        post(base + "/register", "{\"username\":\"bench\",\"password\":\"password\"}", null);
+        String token = post(base + "/authenticate", "{\"username\":\"bench\",\"password\":\"password\"}", null)
+                .replaceAll(".*\"token\":\"([^\"]+)\".*", "$1");
+        for (int month = 1; month <= 12; month++) {
+            YearMonth yearMonth = YearMonth.of(2024, month);
+            post(base + "/submit-reading", "{\"counterType\":\"HEATING\",\"year\":\"" + yearMonth.getYear()
+                    + "\",\"month\":\"" + month + "\",\"value\":\"" + month * 10 + "\"}", token);
+        }
+        latestReading = HttpRequest.newBuilder(URI.create(base + "/latest-reading?counterType=HEATING"))
+                .header("Authorization", "Bearer " + token).GET().build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.stop();
+        auditService.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public String latestReading() throws Exception {
+        return client.send(latestReading, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String latestReadingConcurrent() throws Exception {
+        return latestReading();
+    }
+
+    private String post(String url, String body, String token) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url)).POST(HttpRequest.BodyPublishers.ofString(body));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(url + ": " + response.body());
+        }
+        return response.body();
+    }
+}
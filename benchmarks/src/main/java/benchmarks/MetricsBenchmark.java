@@ -0,0 +1,49 @@
+package benchmarks;
+
+import metrics.MetricsRegistry;
+import metrics.Timer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Накладные расходы инструментирования горячего пути: замер времени и запись в {@link Timer},
+ * в том числе из нескольких потоков в один таймер.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsBenchmark {
+    private static final IllegalStateException ERROR = new IllegalStateException();
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final Timer timer = metrics.timer("benchmark_duration_seconds", "endpoint", "/latest-reading");
+
+    @Benchmark
+    public void recordSince() {
+        timer.recordSince(System.nanoTime());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordSinceConcurrent() {
+        recordSince();
+    }
+
+    @Benchmark
+    public void recordError() {
+        metrics.recordError(ERROR);
+    }
+}
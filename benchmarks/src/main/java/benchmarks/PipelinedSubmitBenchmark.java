@@ -0,0 +1,97 @@
+package benchmarks;
+
+import counters.CounterService;
+import counters.CounterType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import storage.Durability;
+import storage.FileStorage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Подача показаний с журналом {@link FileStorage} в режиме {@link Durability#FSYNC}: с ожиданием {@code fsync}
+ * на каждое показание и конвейером из {@value #PIPELINE_DEPTH} показаний, ожидающих общий сброс.
+ * Число потоков одинаково, поэтому разница показывает выигрыш от конвейера на одного клиента.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class PipelinedSubmitBenchmark {
+    private static final int PIPELINE_DEPTH = 64;
+    private static final int USERS = 100_000;
+    private static final YearMonth FIRST_MONTH = YearMonth.of(2000, 1);
+
+    private CounterService counterService;
+    private FileStorage fileStorage;
+    private Path directory;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("pipelined-benchmark");
+        fileStorage = new FileStorage(directory, Durability.FSYNC);
+        counterService = new CounterService(fileStorage);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fileStorage.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void blocking() {
+        long next = sequence.getAndIncrement();
+        counterService.submitCounterReading(userOf(next), CounterType.HEATING, monthOf(next), 1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE_DEPTH)
+    public void pipelined() {
+        long first = sequence.getAndAdd(PIPELINE_DEPTH);
+        CompletableFuture<?>[] submissions = new CompletableFuture<?>[PIPELINE_DEPTH];
+        for (int i = 0; i < PIPELINE_DEPTH; i++) {
+            submissions[i] = counterService.submitCounterReadingAsync(userOf(first + i), CounterType.HEATING,
+                    monthOf(first + i), 1);
+        }
+        CompletableFuture.allOf(submissions).join();
+    }
+
+    /**
+     * Каждый номер подачи дает свою пару (пользователь, месяц), поэтому все подачи принимаются.
+     */
+    private static int userOf(long sequence) {
+        return (int) (sequence % USERS) + 1;
+    }
+
+    private static YearMonth monthOf(long sequence) {
+        return FIRST_MONTH.plusMonths(sequence / USERS);
+    }
+}
@@ -0,0 +1,103 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import storage.InMemoryStorage;
+import users.PasswordHasher;
+import users.PasswordVerifier;
+import users.Role;
+import users.User;
+import users.UserRepository;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Регистрация и авторизация в {@link UserRepository}. Стоимость определяется количеством итераций
+ * PBKDF2, поэтому оно задается параметром; авторизация замеряется с кэшем проверенных паролей и без него.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserRepositoryBenchmark {
+    /**
+     * Пользователей для авторизации немного: каждая регистрация стоит полного хэширования пароля.
+     */
+    private static final int USERS = 64;
+    private static final String PASSWORD = "password";
+
+    @State(Scope.Benchmark)
+    public static class Registration {
+        @Param({"10000", "600000"})
+        public int iterations;
+
+        UserRepository userRepository;
+        final AtomicLong registered = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            userRepository = new UserRepository(InMemoryStorage.INSTANCE, new PasswordHasher(iterations),
+                    new PasswordVerifier());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Authentication {
+        @Param({"10000", "600000"})
+        public int iterations;
+
+        @Param({"true", "false"})
+        public boolean cached;
+
+        UserRepository userRepository;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            int threads = Runtime.getRuntime().availableProcessors();
+            PasswordVerifier passwordVerifier = new PasswordVerifier(threads, 1024,
+                    cached ? Duration.ofMinutes(10) : Duration.ZERO, USERS);
+            userRepository = new UserRepository(InMemoryStorage.INSTANCE, new PasswordHasher(iterations),
+                    passwordVerifier);
+            IntStream.range(0, USERS).parallel()
+                    .forEach(i -> userRepository.registerUser("user" + i, PASSWORD, Role.USER));
+        }
+    }
+
+    @Benchmark
+    public void register(Registration state) {
+        state.userRepository.registerUser("user" + state.registered.incrementAndGet(), PASSWORD, Role.USER);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void registerConcurrent(Registration state) {
+        register(state);
+    }
+
+    @Benchmark
+    public User authenticate(Authentication state) {
+        return state.userRepository.authenticateUser("user" + ThreadLocalRandom.current().nextInt(USERS), PASSWORD);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public User authenticateConcurrent(Authentication state) {
+        return authenticate(state);
+    }
+}
@@ -0,0 +1,47 @@
+package analytics;
+
+import counters.CounterType;
+
+import java.time.YearMonth;
+
+/**
+ * Аномальное потребление, обнаруженное при подаче показания.
+ */
+public final class Anomaly {
+    private final int userId;
+    private final CounterType counterType;
+    private final YearMonth yearMonth;
+    private final long consumption;
+    private final AnomalyKind kind;
+
+    Anomaly(int userId, CounterType counterType, YearMonth yearMonth, long consumption, AnomalyKind kind) {
+        this.userId = userId;
+        this.counterType = counterType;
+        this.yearMonth = yearMonth;
+        this.consumption = consumption;
+        this.kind = kind;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public CounterType getCounterType() {
+        return counterType;
+    }
+
+    public YearMonth getYearMonth() {
+        return yearMonth;
+    }
+
+    /**
+     * @return Потребление за месяц: разница с предыдущим показанием, отрицательная для {@link AnomalyKind#DECREASE}.
+     */
+    public long getConsumption() {
+        return consumption;
+    }
+
+    public AnomalyKind getKind() {
+        return kind;
+    }
+}
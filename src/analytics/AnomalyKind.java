@@ -0,0 +1,15 @@
+package analytics;
+
+/**
+ * Вид аномального потребления.
+ */
+public enum AnomalyKind {
+    /**
+     * Показание меньше предыдущего: счетчик заменен, сброшен или показание ошибочно.
+     */
+    DECREASE,
+    /**
+     * Потребление за месяц многократно превышает среднее по всем пользователям для этого типа счетчика.
+     */
+    JUMP
+}
@@ -0,0 +1,292 @@
+package analytics;
+
+import counters.CounterService;
+import counters.CounterType;
+import counters.MeterTypeRegistry;
+import counters.EpochMonths;
+import counters.ReadingListener;
+import counters.ReadingVisitor;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Аналитика потребления по всем пользователям: сумма, среднее и процентили месячного потребления по типу
+ * счетчика и месяцу, а также обнаружение аномалий.
+ * <p>
+ * Сводки поддерживаются инкрементально: аналитика подключается к {@link CounterService} как
+ * {@link ReadingListener} и при каждом записанном показании пересчитывает только затронутые потребления -
+ * за месяц показания и за следующий месяц с показанием. Поэтому запрос сводки стоит O(1) независимо
+ * от количества пользователей. Полный пересчет {@link #recompute} обходит все показания параллельно
+ * и нужен для начальной загрузки и сверки.
+ * <p>
+ * Аномалии обнаруживаются только при подаче новых показаний и хранятся в кольцевом буфере последних
+ * {@value #ANOMALY_LOG_CAPACITY} записей.
+ */
+public class ConsumptionAnalytics implements ReadingListener {
+    /**
+     * Во сколько раз потребление должно превысить среднее за месяц, чтобы считаться скачком.
+     */
+    public static final int JUMP_FACTOR = 5;
+    /**
+     * Минимальное количество потреблений за месяц, после которого среднее считается достаточным для сравнения.
+     */
+    public static final int JUMP_MIN_SAMPLES = 20;
+
+    private static final int ANOMALY_LOG_CAPACITY = 1024;
+
+    private final Map<Integer, Aggregate> monthly = new ConcurrentHashMap<>();
+    private final Aggregate[] totals = new Aggregate[MeterTypeRegistry.MAX_TYPES];
+    private final Anomaly[] anomalies = new Anomaly[ANOMALY_LOG_CAPACITY];
+    private long anomalyCount;
+
+    /**
+     * Создает пустую аналитику.
+     */
+    public ConsumptionAnalytics() {
+        for (int type = 0; type < totals.length; type++) {
+            totals[type] = new Aggregate();
+        }
+    }
+
+    /**
+     * Строит аналитику по текущим показаниям и подключает ее к сервису счетчиков. Вызывается до начала
+     * приема показаний: показания, поданные во время пересчета, не будут учтены.
+     *
+     * @param counterService Сервис счетчиков.
+     * @return Подключенная аналитика.
+     */
+    public static ConsumptionAnalytics attach(CounterService counterService) {
+        ConsumptionAnalytics analytics = recompute(counterService, Runtime.getRuntime().availableProcessors());
+        counterService.setReadingListener(analytics);
+        return analytics;
+    }
+
+    /**
+     * Строит аналитику заново по всем показаниям сервиса. Пользователи делятся на {@code parallelism} частей,
+     * каждая часть обходится в отдельном потоке и пишет в общие сводки. Результат не подключается к сервису
+     * и не содержит аномалий; его можно сравнить с подключенной аналитикой.
+     *
+     * @param counterService Сервис счетчиков.
+     * @param parallelism    Количество потоков.
+     * @return Новая аналитика.
+     */
+    public static ConsumptionAnalytics recompute(CounterService counterService, int parallelism) {
+        ConsumptionAnalytics analytics = new ConsumptionAnalytics();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<?>> parts = new ArrayList<>(parallelism);
+            for (int part = 0; part < parallelism; part++) {
+                int current = part;
+                parts.add(executor.submit(() ->
+                        counterService.forEachReading(new DeltaCollector(analytics), current, parallelism)));
+            }
+            for (Future<?> part : parts) {
+                part.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Пересчет аналитики прерван.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ошибка пересчета аналитики.", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return analytics;
+    }
+
+    @Override
+    public void readingWritten(int userId, CounterType counterType, int epochMonth, int value,
+                               int replacedValue, int previousValue, int nextMonth, int nextValue) {
+        if (previousValue != NO_READING) {
+            if (replacedValue != NO_READING) {
+                remove(counterType, epochMonth, (long) replacedValue - previousValue);
+            }
+            add(counterType, epochMonth, (long) value - previousValue, userId);
+        }
+        if (nextValue != NO_READING) {
+            int oldBase = replacedValue != NO_READING ? replacedValue : previousValue;
+            if (oldBase != NO_READING) {
+                remove(counterType, nextMonth, (long) nextValue - oldBase);
+            }
+            add(counterType, nextMonth, (long) nextValue - value, userId);
+        }
+    }
+
+    @Override
+    public void readingRemoved(int userId, CounterType counterType, int epochMonth, int value,
+                               int previousValue, int nextMonth, int nextValue) {
+        if (previousValue != NO_READING) {
+            remove(counterType, epochMonth, (long) value - previousValue);
+        }
+        if (nextValue != NO_READING) {
+            remove(counterType, nextMonth, (long) nextValue - value);
+            if (previousValue != NO_READING) {
+                addRestored(counterType, nextMonth, (long) nextValue - previousValue);
+            }
+        }
+    }
+
+    /**
+     * Возвращает сводку потребления за месяц.
+     *
+     * @param counterType Тип счетчика.
+     * @param yearMonth   Месяц года.
+     * @return Сводка; пустая, если за месяц нет потреблений.
+     */
+    public ConsumptionStats getMonthlyStats(CounterType counterType, YearMonth yearMonth) {
+        Aggregate aggregate = monthly.get(key(counterType, EpochMonths.toEpochMonth(yearMonth)));
+        return aggregate != null ? aggregate.stats(counterType, yearMonth) : new Aggregate().stats(counterType, yearMonth);
+    }
+
+    /**
+     * Возвращает сводки потребления по всем месяцам.
+     *
+     * @param counterType Тип счетчика.
+     * @return Сводки в хронологическом порядке.
+     */
+    public List<ConsumptionStats> getMonthlyStats(CounterType counterType) {
+        List<ConsumptionStats> stats = new ArrayList<>();
+        for (Map.Entry<Integer, Aggregate> entry : monthly.entrySet()) {
+            if (Math.floorMod(entry.getKey(), MeterTypeRegistry.MAX_TYPES) == counterType.getId()) {
+                int epochMonth = Math.floorDiv(entry.getKey(), MeterTypeRegistry.MAX_TYPES);
+                stats.add(entry.getValue().stats(counterType, EpochMonths.toYearMonth(epochMonth)));
+            }
+        }
+        stats.sort(Comparator.comparing(ConsumptionStats::getYearMonth));
+        return stats;
+    }
+
+    /**
+     * Возвращает сводку потребления за все время.
+     *
+     * @param counterType Тип счетчика.
+     * @return Сводка без месяца.
+     */
+    public ConsumptionStats getTotalStats(CounterType counterType) {
+        return totals[counterType.getId()].stats(counterType, null);
+    }
+
+    /**
+     * Возвращает последние обнаруженные аномалии.
+     *
+     * @param limit Максимальное количество аномалий.
+     * @return Аномалии от новых к старым.
+     */
+    public synchronized List<Anomaly> getRecentAnomalies(int limit) {
+        int count = (int) Math.min(Math.min(anomalyCount, ANOMALY_LOG_CAPACITY), Math.max(0, limit));
+        List<Anomaly> recent = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            recent.add(anomalies[(int) ((anomalyCount - i) % ANOMALY_LOG_CAPACITY)]);
+        }
+        return recent;
+    }
+
+    private void add(CounterType counterType, int epochMonth, long consumption, int userId) {
+        Aggregate aggregate = monthly.computeIfAbsent(key(counterType, epochMonth), k -> new Aggregate());
+        AnomalyKind kind = null;
+        if (consumption < 0) {
+            kind = AnomalyKind.DECREASE;
+        } else {
+            long count = aggregate.count.sum();
+            if (count >= JUMP_MIN_SAMPLES && consumption > JUMP_FACTOR * aggregate.total.sum() / count) {
+                kind = AnomalyKind.JUMP;
+            }
+        }
+        aggregate.add(consumption);
+        totals[counterType.getId()].add(consumption);
+        if (kind != null) {
+            logAnomaly(new Anomaly(userId, counterType, EpochMonths.toYearMonth(epochMonth), consumption, kind));
+        }
+    }
+
+    private void addRestored(CounterType counterType, int epochMonth, long consumption) {
+        monthly.computeIfAbsent(key(counterType, epochMonth), k -> new Aggregate()).add(consumption);
+        totals[counterType.getId()].add(consumption);
+    }
+
+    private void remove(CounterType counterType, int epochMonth, long consumption) {
+        Aggregate aggregate = monthly.get(key(counterType, epochMonth));
+        if (aggregate != null) {
+            aggregate.remove(consumption);
+        }
+        totals[counterType.getId()].remove(consumption);
+    }
+
+    private synchronized void logAnomaly(Anomaly anomaly) {
+        anomalies[(int) (anomalyCount % ANOMALY_LOG_CAPACITY)] = anomaly;
+        anomalyCount++;
+    }
+
+    private static int key(CounterType counterType, int epochMonth) {
+        return epochMonth * MeterTypeRegistry.MAX_TYPES + counterType.getId();
+    }
+
+    /**
+     * Сводка потребления: счетчики на {@link LongAdder}, чтобы параллельные подачи не конкурировали.
+     */
+    private static final class Aggregate {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAdder decreases = new LongAdder();
+        private final ConsumptionHistogram histogram = new ConsumptionHistogram();
+
+        void add(long consumption) {
+            if (consumption < 0) {
+                decreases.increment();
+                return;
+            }
+            count.increment();
+            total.add(consumption);
+            histogram.add(consumption);
+        }
+
+        void remove(long consumption) {
+            if (consumption < 0) {
+                decreases.decrement();
+                return;
+            }
+            count.decrement();
+            total.add(-consumption);
+            histogram.remove(consumption);
+        }
+
+        ConsumptionStats stats(CounterType counterType, YearMonth yearMonth) {
+            return new ConsumptionStats(counterType, yearMonth, count.sum(), total.sum(),
+                    histogram.valueAt(0.5), histogram.valueAt(0.9), histogram.valueAt(0.99), decreases.sum());
+        }
+    }
+
+    /**
+     * Считает потребление по показаниям, которые приходят подряд по счетчику в порядке месяцев.
+     */
+    private static final class DeltaCollector implements ReadingVisitor {
+        private final ConsumptionAnalytics analytics;
+        private int userId;
+        private CounterType counterType;
+        private int previousValue;
+
+        DeltaCollector(ConsumptionAnalytics analytics) {
+            this.analytics = analytics;
+        }
+
+        @Override
+        public void visit(int userId, CounterType counterType, int epochMonth, int value) {
+            if (userId == this.userId && counterType == this.counterType) {
+                analytics.addRestored(counterType, epochMonth, (long) value - previousValue);
+            }
+            this.userId = userId;
+            this.counterType = counterType;
+            this.previousValue = value;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package analytics;
+
+import metrics.LogBuckets;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Потокобезопасная гистограмма потребления с логарифмическими корзинами фиксированного размера
+ * ({@link LogBuckets}).
+ * <p>
+ * Значения до 16 хранятся точно, каждая следующая степень двойки делится на 16 равных корзин, поэтому
+ * относительная погрешность процентиля не превышает 1/16 при любом количестве значений. Значения можно
+ * не только добавлять, но и удалять: дельта пересчитывается, когда показание вставляется между соседними.
+ * Гистограмм много - по одной на тип и месяц, - поэтому счетчики хранятся одним {@link AtomicLongArray}.
+ */
+final class ConsumptionHistogram {
+    private static final LogBuckets BUCKETS = new LogBuckets(4, Integer.SIZE);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS.size());
+
+    void add(long value) {
+        counts.incrementAndGet(BUCKETS.indexOf(value));
+    }
+
+    void remove(long value) {
+        counts.decrementAndGet(BUCKETS.indexOf(value));
+    }
+
+    /**
+     * Возвращает приближенное значение процентиля: середину корзины, в которую он попадает.
+     *
+     * @param quantile Доля от 0 до 1.
+     * @return Значение процентиля или 0, если гистограмма пуста.
+     */
+    long valueAt(double quantile) {
+        return BUCKETS.valueAt(quantile, counts::get);
+    }
+}
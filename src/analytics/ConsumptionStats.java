@@ -0,0 +1,94 @@
+package analytics;
+
+import counters.CounterType;
+
+import java.time.YearMonth;
+
+/**
+ * Сводка потребления по типу счетчика за месяц или за все время по всем пользователям.
+ * <p>
+ * Потребление за месяц - разница показания с показанием за ближайший предыдущий месяц того же счетчика.
+ * Отрицательные разницы не входят в сумму и процентили, а учитываются отдельно как уменьшения показаний.
+ */
+public final class ConsumptionStats {
+    private final CounterType counterType;
+    private final YearMonth yearMonth;
+    private final long count;
+    private final long total;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long decreases;
+
+    ConsumptionStats(CounterType counterType, YearMonth yearMonth, long count, long total,
+                     long p50, long p90, long p99, long decreases) {
+        this.counterType = counterType;
+        this.yearMonth = yearMonth;
+        this.count = count;
+        this.total = total;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.decreases = decreases;
+    }
+
+    public CounterType getCounterType() {
+        return counterType;
+    }
+
+    /**
+     * @return Месяц или {@code null} для сводки за все время.
+     */
+    public YearMonth getYearMonth() {
+        return yearMonth;
+    }
+
+    /**
+     * @return Количество учтенных месячных потреблений.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return Суммарное потребление.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return Среднее потребление или 0, если потреблений нет.
+     */
+    public double getAverage() {
+        return count > 0 ? (double) total / count : 0;
+    }
+
+    /**
+     * @return Медиана потребления, приближенно.
+     */
+    public long getP50() {
+        return p50;
+    }
+
+    /**
+     * @return 90-й процентиль потребления, приближенно.
+     */
+    public long getP90() {
+        return p90;
+    }
+
+    /**
+     * @return 99-й процентиль потребления, приближенно.
+     */
+    public long getP99() {
+        return p99;
+    }
+
+    /**
+     * @return Количество показаний меньше предыдущего.
+     */
+    public long getDecreases() {
+        return decreases;
+    }
+}
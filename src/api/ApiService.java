@@ -1,18 +1,30 @@
 package api;
 
+import audit.AuditAction;
+import audit.AuditEvent;
 import audit.AuditService;
+import counters.EpochMonths;
 import counters.CounterService;
 import counters.CounterType;
+import counters.MeterTypeRegistry;
+import counters.RejectionCode;
 import exceptions.AuthorizationException;
+import exceptions.ServiceOverloadedException;
+import metrics.MetricsRegistry;
+import metrics.Timer;
+import session.Session;
+import session.SessionService;
 import users.Role;
 import users.User;
 import users.UserRepository;
 
+import java.time.Duration;
 import java.time.Month;
+import java.time.YearMonth;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Scanner;
+import java.util.function.Supplier;
 
 /**
  * Веб-сервис для подачи показаний счетчиков отопления, горячей и холодной воды.
@@ -20,17 +32,64 @@ import java.util.Scanner;
 public class ApiService {
     private UserRepository userRepository;
     private CounterService counterService;
-    private User currentUser;
+    private AuditService auditService;
+    private SessionService sessionService;
+    private MetricsRegistry metrics;
+    private Timer registerTimer;
+    private Timer authenticateTimer;
+    private Timer submitTimer;
+    private Timer latestTimer;
+    private Timer historyTimer;
+    private Timer auditTimer;
+    private String sessionToken;
+    /**
+     * Конструктор для инициализации ApiService с сессиями, действительными только в этом процессе.
+     *
+     * @param userRepository Репозиторий пользователей.
+     * @param counterService Сервис счетчиков.
+     * @param auditService   Сервис аудита.
+     */
+
+    public ApiService(UserRepository userRepository, CounterService counterService, AuditService auditService) {
+        this(userRepository, counterService, auditService, new SessionService(Duration.ofHours(12)));
+    }
+
     /**
      * Конструктор для инициализации ApiService.
      *
      * @param userRepository Репозиторий пользователей.
      * @param counterService Сервис счетчиков.
+     * @param auditService   Сервис аудита.
+     * @param sessionService Сервис сессий, выдающий токен при авторизации.
      */
+    public ApiService(UserRepository userRepository, CounterService counterService, AuditService auditService,
+                      SessionService sessionService) {
+        this(userRepository, counterService, auditService, sessionService, new MetricsRegistry());
+    }
 
-    public ApiService(UserRepository userRepository, CounterService counterService) {
+    /**
+     * Конструктор для инициализации ApiService с общим реестром метрик. Длительность обращений к сервисам
+     * учитывается в таймере {@code console_operation_duration_seconds{operation=...}} без учета времени ввода.
+     *
+     * @param userRepository Репозиторий пользователей.
+     * @param counterService Сервис счетчиков.
+     * @param auditService   Сервис аудита.
+     * @param sessionService Сервис сессий, выдающий токен при авторизации.
+     * @param metrics        Реестр метрик.
+     */
+    public ApiService(UserRepository userRepository, CounterService counterService, AuditService auditService,
+                      SessionService sessionService, MetricsRegistry metrics) {
         this.userRepository = userRepository;
         this.counterService = counterService;
+        this.auditService = auditService;
+        this.sessionService = sessionService;
+        this.metrics = metrics;
+        this.registerTimer = operationTimer("register");
+        this.authenticateTimer = operationTimer("authenticate");
+        this.submitTimer = operationTimer("submit");
+        this.latestTimer = operationTimer("latest");
+        this.historyTimer = operationTimer("history");
+        this.auditTimer = operationTimer("audit");
     }
 
     /**
@@ -56,7 +115,7 @@ public class ApiService {
                     submitCounterReading(scanner);
                     break;
                 case 4:
-                    viewLatestReading();
+                    viewLatestReading(scanner);
                     break;
                 case 5:
                     viewCounterHistory(scanner);
@@ -100,9 +159,9 @@ public class ApiService {
 
         try {
             Role role = Role.valueOf(roleStr.toUpperCase());
-            userRepository.registerUser(username, password, role);
+            timed(registerTimer, () -> userRepository.registerUser(username, password, role));
             System.out.println("Пользователь зарегистрирован успешно.");
-            AuditService.log("Регистрация нового пользователя: " + username);
+            auditService.log(AuditAction.REGISTER, userRepository.getUserByUsername(username).getId());
         } catch (IllegalArgumentException e) {
             System.out.println("Некорректная роль. Регистрация не выполнена.");
         }
@@ -118,68 +177,79 @@ public class ApiService {
         String password = scanner.nextLine();
 
         try {
-            currentUser = userRepository.authenticateUser(username, password);
+            User user = timed(authenticateTimer, () -> userRepository.authenticateUser(username, password));
+            sessionToken = sessionService.issueToken(user);
             System.out.println("Авторизация успешна.");
-            AuditService.log("Пользователь авторизован: " + username);
+            auditService.log(AuditAction.AUTHENTICATE, user.getId());
         } catch (AuthorizationException e) {
             System.out.println("Неверные учетные данные.");
+        } catch (ServiceOverloadedException e) {
+            System.out.println(e.getMessage());
         }
     }
     /**
      * Метод для подачи показаний счетчика. Пользователь выбирает тип счетчика (отопление, горячая вода, холодная вода),
-     * месяц и вводит соответствующее показание. Затем вызывается сервис подачи показаний, и в случае успешной подачи,
+     * месяц, год и вводит соответствующее показание. Затем вызывается сервис подачи показаний, и в случае успешной подачи,
      * производится запись в аудит-лог.
      *
      * @param scanner Сканер для считывания данных от пользователя.
      */
 
     public void submitCounterReading(Scanner scanner) {
-        if (currentUser == null) {
-            System.out.println("Необходима авторизация.");
+        Session session = currentSession();
+        if (session == null) {
             return;
         }
 
-        System.out.print("Выберите тип счетчика (HEATING, HOT_WATER, COLD_WATER): ");
-        String counterTypeStr = scanner.nextLine();
+        CounterType counterType = readCounterType(scanner);
+        if (counterType == null) {
+            System.out.println("Некорректный тип счетчика. Подача показаний не выполнена.");
+            return;
+        }
 
-        try {
-            CounterType counterType = CounterType.valueOf(counterTypeStr.toUpperCase());
+        System.out.print("Введите месяц (1-12): ");
+        int monthValue = scanner.nextInt();
+        Month month = Month.of(monthValue);
 
-            System.out.print("Введите месяц (1-12): ");
-            int monthValue = scanner.nextInt();
-            Month month = Month.of(monthValue);
+        System.out.print("Введите год: ");
+        int year = scanner.nextInt();
+        YearMonth yearMonth = YearMonth.of(year, month);
 
-            System.out.print("Введите показание счетчика: ");
-            int value = scanner.nextInt();
+        System.out.print("Введите показание счетчика: ");
+        int value = scanner.nextInt();
 
-            counterService.submitCounterReading(currentUser, counterType, month, value);
-            System.out.println("Показания успешно поданы.");
-            AuditService.log("Пользователь подал показания для " + counterType + " за " + month);
-        } catch (IllegalArgumentException e) {
-            System.out.println("Некорректный тип счетчика. Подача показаний не выполнена.");
+        RejectionCode code = timed(submitTimer,
+                () -> counterService.trySubmitCounterReading(session.getUserId(), counterType, yearMonth, value));
+        if (code != null) {
+            metrics.counter("readings_rejected_total", "code", code.name()).increment();
+            System.out.println(code.getMessage() + " Подача показаний не выполнена.");
+            return;
         }
+        System.out.println("Показания успешно поданы.");
+        auditService.log(AuditAction.SUBMIT_READING, session.getUserId(), counterType,
+                EpochMonths.toEpochMonth(yearMonth), value);
     }
 
     /**
      * Метод для просмотра актуального показания счетчика. Пользователь выбирает тип счетчика (отопление, горячая вода, холодная вода),
      * и метод вызывает соответствующий сервис для получения актуального показания. Результат выводится на экран.
+     *
+     * @param scanner Сканер для считывания данных от пользователя.
      */
-    public void viewLatestReading() {
-        if (currentUser == null) {
-            System.out.println("Необходима авторизация.");
+    public void viewLatestReading(Scanner scanner) {
+        Session session = currentSession();
+        if (session == null) {
             return;
         }
 
-        System.out.print("Выберите тип счетчика (HEATING, HOT_WATER, COLD_WATER): ");
-        String counterTypeStr = new Scanner(System.in).nextLine();
-
-        try {
-            CounterType counterType = CounterType.valueOf(counterTypeStr.toUpperCase());
-            int latestReading = counterService.getLatestCounterReading(currentUser, counterType);
-            System.out.println("Актуальное показание: " + latestReading);
-        } catch (IllegalArgumentException e) {
+        CounterType counterType = readCounterType(scanner);
+        if (counterType == null) {
             System.out.println("Некорректный тип счетчика. Просмотр не выполнен.");
+            return;
         }
+        int latestReading = timed(latestTimer,
+                () -> counterService.getLatestCounterReading(session.getUserId(), counterType));
+        System.out.println("Актуальное показание: " + latestReading);
     }
 
     /**
@@ -189,28 +259,28 @@ public class ApiService {
      * @param scanner Сканер для считывания данных от пользователя.
      */
     public void viewCounterHistory(Scanner scanner) {
-        if (currentUser == null) {
-            System.out.println("Необходима авторизация.");
+        Session session = currentSession();
+        if (session == null) {
             return;
         }
 
-        System.out.print("Выберите тип счетчика (HEATING, HOT_WATER, COLD_WATER): ");
-        String counterTypeStr = scanner.nextLine();
-
-        try {
-            CounterType counterType = CounterType.valueOf(counterTypeStr.toUpperCase());
-            Map<Month, Integer> history = counterService.getCounterHistory(currentUser, counterType);
-
-            if (history.isEmpty()) {
-                System.out.println("История показаний пуста.");
-            } else {
-                System.out.println("История показаний:");
-                for (Map.Entry<Month, Integer> entry : history.entrySet()) {
-                    System.out.println(entry.getKey() + ": " + entry.getValue());
-                }
-            }
-        } catch (IllegalArgumentException e) {
+        CounterType counterType = readCounterType(scanner);
+        if (counterType == null) {
             System.out.println("Некорректный тип счетчика. Просмотр не выполнен.");
+            return;
+        }
+        int[] printed = {0};
+        // показания выводятся по мере обхода, без копирования истории
+        timed(historyTimer, () -> counterService.visitCounterHistory(session.getUserId(), counterType,
+                Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, (userId, type, epochMonth, value) -> {
+                    if (printed[0]++ == 0) {
+                        System.out.println("История показаний:");
+                    }
+                    System.out.println(EpochMonths.toYearMonth(epochMonth) + ": " + value);
+                }));
+
+        if (printed[0] == 0) {
+            System.out.println("История показаний пуста.");
         }
     }
     /**
@@ -219,7 +289,7 @@ public class ApiService {
      */
 
     public void viewAuditLog() {
-        List<String> auditLogEntries = retrieveAuditLog();
+        List<String> auditLogEntries = timed(auditTimer, this::retrieveAuditLog);
 
         if (auditLogEntries.isEmpty()) {
             System.out.println("Аудит-лог пуст.");
@@ -230,21 +300,79 @@ public class ApiService {
             }
         }
     }
+
+    /**
+     * Запрашивает тип счетчика из списка зарегистрированных в {@link MeterTypeRegistry} сервиса счетчиков.
+     *
+     * @return Тип счетчика или {@code null}, если такого типа нет.
+     */
+    private CounterType readCounterType(Scanner scanner) {
+        MeterTypeRegistry meterTypes = counterService.getMeterTypes();
+        StringBuilder names = new StringBuilder();
+        for (CounterType counterType : meterTypes.getTypes()) {
+            if (names.length() > 0) {
+                names.append(", ");
+            }
+            names.append(counterType.getName());
+        }
+        System.out.print("Выберите тип счетчика (" + names + "): ");
+        return meterTypes.find(scanner.nextLine().trim());
+    }
+
     /**
-     * Метод для получения записей аудит-лога. Реализация может быть разной в зависимости от того,
-     * каким образом ведется логирование действий пользователей. В данном примере используется
-     * фиктивный метод retrieveAuditLog(), который возвращает фиктивные записи.
+     * Восстанавливает сессию из токена. Если токена нет или он недействителен, выводит причину
+     * и возвращает {@code null}.
+     *
+     * @return Текущая сессия или {@code null}.
+     */
+    private Session currentSession() {
+        try {
+            return sessionService.validate(sessionToken);
+        } catch (AuthorizationException e) {
+            System.out.println(e.getMessage());
+            return null;
+        }
+    }
+
+    private Timer operationTimer(String operation) {
+        return metrics.timer("console_operation_duration_seconds", "operation", operation);
+    }
+
+    /**
+     * Выполняет обращение к сервису, учитывая его длительность в таймере и ошибку в реестре метрик.
+     */
+    private <T> T timed(Timer timer, Supplier<T> operation) {
+        long start = System.nanoTime();
+        try {
+            return operation.get();
+        } catch (RuntimeException e) {
+            metrics.recordError(e);
+            throw e;
+        } finally {
+            timer.recordSince(start);
+        }
+    }
+
+    private void timed(Timer timer, Runnable operation) {
+        timed(timer, () -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    /**
+     * Метод для получения записей аудит-лога за все время по всем пользователям. Записи хранятся в двоичном виде
+     * и переводятся в текст только здесь.
      *
      * @return Список строк, представляющих записи аудит-лога.
      */
 
     private List<String> retrieveAuditLog() {
-
         List<String> auditLog = new ArrayList<>();
-        auditLog.add("2022-01-28 12:30: Пользователь 'john_doe' зарегистрирован.");
-        auditLog.add("2022-01-29 14:45: Пользователь 'alice' авторизован.");
-        auditLog.add("2022-01-30 16:00: Подача показаний счетчика воды для пользователя 'bob'.");
-
+        for (AuditEvent event : auditService.retrieveAuditLog(null, null, null)) {
+            User user = userRepository.getUserById(event.getUserId());
+            auditLog.add(event.render(user != null ? user.getUsername() : "#" + event.getUserId()));
+        }
         return auditLog;
     }
 
@@ -0,0 +1,159 @@
+package api;
+
+import audit.AuditAction;
+import audit.AuditEvent;
+import audit.AuditService;
+import counters.CounterService;
+import counters.CounterType;
+import counters.EpochMonths;
+import exceptions.AuthorizationException;
+import session.Session;
+import session.SessionService;
+import users.Role;
+import users.User;
+import users.UserRepository;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Неблокирующие операции сервиса без ввода-вывода интерфейса: каждая операция возвращает
+ * {@link CompletableFuture}, а ошибки передаются через него, а не выбрасываются.
+ * <p>
+ * Подача показания не ждет записи в журнал: показание применяется в памяти, и future завершается, когда
+ * хранилище зафиксирует запись (см. {@link CounterService#submitCounterReadingAsync}). Поэтому клиент может
+ * подать много показаний подряд, не дожидаясь ответов, и все они будут зафиксированы одним сбросом на диск.
+ * Хэширование паролей, чтение аудит-лога и запись аудита о поданном показании выполняются в переданном
+ * исполнителе, чтение показаний - сразу в вызывающем потоке.
+ */
+public class AsyncApiService {
+    private final UserRepository userRepository;
+    private final CounterService counterService;
+    private final AuditService auditService;
+    private final SessionService sessionService;
+    private final Executor executor;
+
+    /**
+     * @param userRepository Репозиторий пользователей.
+     * @param counterService Сервис счетчиков.
+     * @param auditService   Сервис аудита.
+     * @param sessionService Сервис сессий.
+     * @param executor       Исполнитель для операций, нагружающих процессор или диск.
+     */
+    public AsyncApiService(UserRepository userRepository, CounterService counterService, AuditService auditService,
+                           SessionService sessionService, Executor executor) {
+        this.userRepository = userRepository;
+        this.counterService = counterService;
+        this.auditService = auditService;
+        this.sessionService = sessionService;
+        this.executor = executor;
+    }
+
+    /**
+     * Регистрирует пользователя.
+     *
+     * @param username Имя пользователя.
+     * @param password Пароль пользователя.
+     * @param role     Роль пользователя.
+     * @return Future, завершающееся после регистрации или {@link AuthorizationException}, если имя занято.
+     */
+    public CompletableFuture<Void> registerUser(String username, String password, Role role) {
+        return CompletableFuture.runAsync(() -> {
+            userRepository.registerUser(username, password, role);
+            auditService.log(AuditAction.REGISTER, userRepository.getUserByUsername(username).getId());
+        }, executor);
+    }
+
+    /**
+     * Авторизует пользователя.
+     *
+     * @param username Имя пользователя.
+     * @param password Пароль пользователя.
+     * @return Future с токеном сессии или {@link AuthorizationException}.
+     */
+    public CompletableFuture<String> authenticate(String username, String password) {
+        return CompletableFuture.supplyAsync(() -> {
+            User user = userRepository.authenticateUser(username, password);
+            String token = sessionService.issueToken(user);
+            auditService.log(AuditAction.AUTHENTICATE, user.getId());
+            return token;
+        }, executor);
+    }
+
+    /**
+     * Подает показание от имени владельца токена.
+     *
+     * @param token       Токен сессии.
+     * @param counterType Тип счетчика.
+     * @param yearMonth   Месяц года.
+     * @param value       Значение счетчика.
+     * @return Future, завершающееся после сохранения показания, или {@link AuthorizationException},
+     *         {@link exceptions.CounterSubmissionException}.
+     */
+    public CompletableFuture<Void> submitReading(String token, CounterType counterType, YearMonth yearMonth,
+                                                 int value) {
+        return call(() -> {
+            int userId = sessionService.validate(token).getUserId();
+            return counterService.submitCounterReadingAsync(userId, counterType, yearMonth, value)
+                    // не в потоке фиксации журнала: при OverflowPolicy.BLOCK запись аудита может ждать места
+                    // в кольце и задержала бы групповую фиксацию всех остальных показаний
+                    .thenRunAsync(() -> auditService.log(AuditAction.SUBMIT_READING, userId, counterType,
+                            EpochMonths.toEpochMonth(yearMonth), value), executor);
+        });
+    }
+
+    /**
+     * @param token       Токен сессии.
+     * @param counterType Тип счетчика.
+     * @return Future с последним показанием счетчика владельца токена.
+     */
+    public CompletableFuture<Integer> latestReading(String token, CounterType counterType) {
+        return call(() -> CompletableFuture.completedFuture(
+                counterService.getLatestCounterReading(sessionService.validate(token).getUserId(), counterType)));
+    }
+
+    /**
+     * @param token       Токен сессии.
+     * @param counterType Тип счетчика.
+     * @param from        Первый месяц диапазона.
+     * @param to          Последний месяц диапазона.
+     * @return Future с показаниями владельца токена за диапазон месяцев включительно.
+     */
+    public CompletableFuture<Map<YearMonth, Integer>> readingsHistory(String token, CounterType counterType,
+                                                                      YearMonth from, YearMonth to) {
+        return call(() -> CompletableFuture.completedFuture(counterService.getCounterHistory(
+                sessionService.validate(token).getUserId(), counterType, from, to)));
+    }
+
+    /**
+     * Читает аудит-лог; доступно только администратору.
+     *
+     * @param token  Токен сессии.
+     * @param from   Начало периода или {@code null}.
+     * @param to     Конец периода или {@code null}.
+     * @param userId Идентификатор пользователя или {@code null} для всех.
+     * @return Future с записями аудит-лога.
+     */
+    public CompletableFuture<List<AuditEvent>> auditLog(String token, Instant from, Instant to, Integer userId) {
+        return call(() -> {
+            Session session = sessionService.validate(token);
+            if (session.getRole() != Role.ADMIN) {
+                throw new AuthorizationException("Аудит доступен только администратору.");
+            }
+            return CompletableFuture.supplyAsync(() -> auditService.retrieveAuditLog(from, to, userId), executor);
+        });
+    }
+
+    private static <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> operation) {
+        try {
+            return operation.get();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
@@ -0,0 +1,1033 @@
+package api;
+
+import analytics.Anomaly;
+import analytics.ConsumptionAnalytics;
+import analytics.ConsumptionStats;
+import audit.AuditAction;
+import audit.AuditCursor;
+import audit.AuditService;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import counters.BatchResult;
+import counters.CounterService;
+import counters.CounterType;
+import counters.EpochMonths;
+import counters.HistoryCursor;
+import counters.ReadingSubmission;
+import counters.RejectionCode;
+import exceptions.AuthorizationException;
+import exceptions.CounterSubmissionException;
+import exceptions.ServiceOverloadedException;
+import metrics.MetricsRegistry;
+import metrics.Timer;
+import reports.ReportFormat;
+import reports.ReportGenerator;
+import session.Session;
+import session.SessionService;
+import users.Role;
+import users.User;
+import users.UserRepository;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP-интерфейс сервиса мониторинга на встроенном HTTP-сервере JDK.
+ * <p>
+ * Предоставляет те же операции, что и консольный {@link ApiService}, в виде JSON-эндпоинтов:
+ * <pre>
+ * POST /register          {"username", "password"}                     (всегда с ролью USER)
+ * POST /authenticate      {"username", "password"}                     -> {"token"}
+ * POST /submit-reading    {"counterType", "year", "month", "value"}    -> 409 {"error", "code"} при отклонении
+ * POST /submit-readings   строки "логин,тип счетчика,ГГГГ-ММ,показание" (только ADMIN)
+ *                                                                      -> {"accepted", "rejected": [{"line", "error", "code"}]}
+ * POST /submit-readings/stream  поток строк {"counterType", "year", "month", "value"}
+ *                                                                      -> поток строк {"line", "status"} или {"line", "error"[, "code"]}
+ * GET  /latest-reading    ?counterType=
+ * GET  /readings-history  ?counterType=[&amp;from=ГГГГ-ММ][&amp;to=ГГГГ-ММ][&amp;limit=][&amp;cursor=]
+ *                                                                      -> {"readings": [...], "next"}
+ * POST /users/register    {"username", "password", "role"} (только ADMIN)
+ * GET  /users             ?prefix= | ?username= [&amp;limit=] (только ADMIN, без учета регистра) -> {"users": [...]}
+ * GET  /meter-types                                                   -> {"types": [{"id", "name", "unit", ...}]}
+ * POST /meter-types/register {"name", "unit", "minValue", "maxValue"} (только ADMIN) -> {"id", "name", ...}
+ * GET  /audit             [?from=ISO-время][&amp;to=ISO-время][&amp;username=][&amp;limit=][&amp;cursor=] (только ADMIN)
+ *                                                                      -> {"entries": [...], "next"}
+ * GET  /analytics         ?counterType=[&amp;month=ГГГГ-ММ] (только ADMIN) -> {"total", "months"} или сводка за месяц
+ * GET  /analytics/anomalies [?limit=] (только ADMIN)                    -> {"anomalies": [...]}
+ * GET  /reports/readings  [?format=csv|json][&amp;from=ГГГГ-ММ][&amp;to=ГГГГ-ММ] (только ADMIN) -> поток CSV или JSON Lines
+ * GET  /metrics                                                        -> метрики в текстовом формате Prometheus
+ * </pre>
+ * Эндпоинты аналитики доступны, если серверу передана {@link ConsumptionAnalytics}.
+ * Длительность каждого запроса учитывается в таймере {@code http_request_duration_seconds{endpoint=...}},
+ * ошибки - в счетчике {@code errors_total} по типу исключения, отклоненные показания - в счетчике
+ * {@code readings_rejected_total} по коду {@link RejectionCode}, который также передается клиенту в поле {@code code}. Перегрузка ({@link ServiceOverloadedException})
+ * возвращается как 503 с заголовком {@code Retry-After}.
+ * Все эндпоинты, кроме регистрации, авторизации и метрик, требуют заголовок {@code Authorization: Bearer <token>}.
+ * Токен проверяется {@link SessionService} без состояния на сервере, поэтому узлы с общим секретом
+ * принимают токены друг друга.
+ * Каждый запрос обрабатывается в отдельном виртуальном потоке, если среда выполнения их поддерживает,
+ * иначе - в потоке из расширяемого пула.
+ */
+public class HttpApiServer {
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final int MAX_BATCH_BODY_BYTES = 16 * 1024 * 1024;
+    private static final int MAX_IN_FLIGHT = 1024;
+    private static final int DEFAULT_USERS_LIMIT = 100;
+    private static final int DEFAULT_AUDIT_LIMIT = 1000;
+
+    static {
+        // Заголовки и тело ответа уходят в сокет отдельными записями; без TCP_NODELAY алгоритм Нейгла вместе
+        // с отложенным подтверждением на стороне клиента добавляет около 40 мс к каждому запросу.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final UserRepository userRepository;
+    private final CounterService counterService;
+    private final AuditService auditService;
+    private final SessionService sessionService;
+    private final ConsumptionAnalytics analytics;
+    private final ReportGenerator reportGenerator;
+    private final AsyncApiService asyncApi;
+    private final MetricsRegistry metrics;
+    private final LongAdder[] rejections = new LongAdder[RejectionCode.values().length];
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Создает сервер, токены которого действительны только в этом процессе.
+     *
+     * @param userRepository Репозиторий пользователей.
+     * @param counterService Сервис счетчиков.
+     * @param auditService   Сервис аудита.
+     * @param address        Адрес для приема соединений; порт 0 - любой свободный.
+     */
+    public HttpApiServer(UserRepository userRepository, CounterService counterService, AuditService auditService,
+                         InetSocketAddress address) {
+        this(userRepository, counterService, auditService, new SessionService(Duration.ofHours(12)), address);
+    }
+
+    /**
+     * Создает сервер без эндпоинтов аналитики.
+     *
+     * @param userRepository Репозиторий пользователей.
+     * @param counterService Сервис счетчиков.
+     * @param auditService   Сервис аудита.
+     * @param sessionService Сервис сессий.
+     * @param address        Адрес для приема соединений; порт 0 - любой свободный.
+     */
+    public HttpApiServer(UserRepository userRepository, CounterService counterService, AuditService auditService,
+                         SessionService sessionService, InetSocketAddress address) {
+        this(userRepository, counterService, auditService, sessionService, null, address);
+    }
+
+    /**
+     * Создает сервер с собственным реестром метрик.
+     *
+     * @param userRepository Репозиторий пользователей.
+     * @param counterService Сервис счетчиков.
+     * @param auditService   Сервис аудита.
+     * @param sessionService Сервис сессий.
+     * @param analytics      Аналитика, подключенная к сервису счетчиков, или {@code null}.
+     * @param address        Адрес для приема соединений; порт 0 - любой свободный.
+     */
+    public HttpApiServer(UserRepository userRepository, CounterService counterService, AuditService auditService,
+                         SessionService sessionService, ConsumptionAnalytics analytics, InetSocketAddress address) {
+        this(userRepository, counterService, auditService, sessionService, analytics, new MetricsRegistry(), address);
+    }
+
+    /**
+     * Создает сервер. Для начала приема соединений вызовите {@link #start()}.
+     *
+     * @param userRepository Репозиторий пользователей.
+     * @param counterService Сервис счетчиков.
+     * @param auditService   Сервис аудита.
+     * @param sessionService Сервис сессий.
+     * @param analytics      Аналитика, подключенная к сервису счетчиков, или {@code null}.
+     * @param metrics        Реестр метрик.
+     * @param address        Адрес для приема соединений; порт 0 - любой свободный.
+     */
+    public HttpApiServer(UserRepository userRepository, CounterService counterService, AuditService auditService,
+                         SessionService sessionService, ConsumptionAnalytics analytics, MetricsRegistry metrics,
+                         InetSocketAddress address) {
+        this.userRepository = userRepository;
+        this.counterService = counterService;
+        this.auditService = auditService;
+        this.sessionService = sessionService;
+        this.analytics = analytics;
+        this.reportGenerator = new ReportGenerator(counterService, userRepository);
+        this.metrics = metrics;
+        for (RejectionCode code : RejectionCode.values()) {
+            rejections[code.ordinal()] = metrics.counter("readings_rejected_total", "code", code.name());
+        }
+        try {
+            this.server = HttpServer.create(address, 1024);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.executor = newRequestExecutor();
+        this.asyncApi = new AsyncApiService(userRepository, counterService, auditService, sessionService, executor);
+        server.setExecutor(executor);
+        route("/register", "POST", this::register);
+        route("/authenticate", "POST", this::authenticate);
+        route("/submit-reading", "POST", this::submitReading);
+        route("/submit-readings", "POST", this::submitReadings);
+        route("/submit-readings/stream", "POST", this::submitReadingStream);
+        route("/latest-reading", "GET", this::latestReading);
+        route("/readings-history", "GET", this::readingsHistory);
+        route("/users", "GET", this::users);
+        route("/users/register", "POST", this::registerWithRole);
+        route("/meter-types", "GET", this::meterTypes);
+        route("/meter-types/register", "POST", this::registerMeterType);
+        route("/audit", "GET", this::audit);
+        route("/reports/readings", "GET", this::readingsReport);
+        route("/metrics", "GET", this::metrics);
+        if (analytics != null) {
+            route("/analytics", "GET", this::analytics);
+            route("/analytics/anomalies", "GET", this::anomalies);
+        }
+    }
+
+    /**
+     * Начинает прием соединений.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * @return Порт, на котором сервер принимает соединения.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Останавливает сервер, давая текущим запросам до секунды на завершение.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        reportGenerator.close();
+    }
+
+    /**
+     * Открытая регистрация: роль из запроса не принимается, иначе любой клиент мог бы создать себе
+     * учетную запись администратора.
+     */
+    private String register(HttpExchange exchange) {
+        Map<String, String> body = readBody(exchange);
+        return register(required(body, "username"), required(body, "password"), Role.USER);
+    }
+
+    /**
+     * Регистрация с произвольной ролью, в том числе ADMIN, от имени администратора.
+     */
+    private String registerWithRole(HttpExchange exchange) {
+        if (session(exchange).getRole() != Role.ADMIN) {
+            throw new ApiException(403, "Регистрация с ролью доступна только администратору.");
+        }
+        Map<String, String> body = readBody(exchange);
+        Role role = parseEnum(Role.class, body.getOrDefault("role", "USER"), "Некорректная роль.");
+        return register(required(body, "username"), required(body, "password"), role);
+    }
+
+    private String register(String username, String password, Role role) {
+        try {
+            userRepository.registerUser(username, password, role);
+        } catch (AuthorizationException e) {
+            throw new ApiException(409, e.getMessage(), e);
+        }
+        auditService.log(AuditAction.REGISTER, userRepository.getUserByUsername(username).getId());
+        return "{\"status\":\"ok\"}";
+    }
+
+    private String authenticate(HttpExchange exchange) {
+        Map<String, String> body = readBody(exchange);
+        User user = userRepository.authenticateUser(required(body, "username"), required(body, "password"));
+        String token = sessionService.issueToken(user);
+        auditService.log(AuditAction.AUTHENTICATE, user.getId());
+        return Json.quote(new StringBuilder("{\"token\":"), token).append('}').toString();
+    }
+
+    private String submitReading(HttpExchange exchange) {
+        int userId = session(exchange).getUserId();
+        Map<String, String> body = readBody(exchange);
+        CounterType counterType = parseCounterType(required(body, "counterType"));
+        YearMonth yearMonth;
+        int value;
+        try {
+            yearMonth = YearMonth.of(Integer.parseInt(required(body, "year")), Integer.parseInt(required(body, "month")));
+            value = Integer.parseInt(required(body, "value"));
+        } catch (NumberFormatException | DateTimeException e) {
+            throw new ApiException(400, "Некорректный месяц или показание.");
+        }
+        RejectionCode code = counterService.trySubmitCounterReading(userId, counterType, yearMonth, value);
+        if (code != null) {
+            rejections[code.ordinal()].increment();
+            return respond(exchange, 409, error(code.getMessage(), code));
+        }
+        auditService.log(AuditAction.SUBMIT_READING, userId, counterType, EpochMonths.toEpochMonth(yearMonth), value);
+        return "{\"status\":\"ok\"}";
+    }
+
+    /**
+     * Пакетная подача показаний управляющей компанией. Строки с ошибками разбора отклоняются сразу,
+     * остальные передаются в {@link CounterService#submitCounterReadings} одним пакетом.
+     */
+    private String submitReadings(HttpExchange exchange) {
+        if (session(exchange).getRole() != Role.ADMIN) {
+            throw new ApiException(403, "Пакетная подача доступна только администратору.");
+        }
+        String[] lines = readText(exchange, MAX_BATCH_BODY_BYTES).split("\r?\n");
+        List<ReadingSubmission> submissions = new ArrayList<>(lines.length);
+        List<Integer> submissionLines = new ArrayList<>(lines.length);
+        StringBuilder rejected = new StringBuilder();
+        for (int line = 0; line < lines.length; line++) {
+            if (lines[line].trim().isEmpty()) {
+                continue;
+            }
+            ReadingSubmission submission = parseSubmission(lines[line]);
+            if (submission == null) {
+                appendRejected(rejected, line + 1, "Некорректная строка.", RejectionCode.INVALID);
+            } else {
+                submissions.add(submission);
+                submissionLines.add(line + 1);
+            }
+        }
+
+        BatchResult result = counterService.submitCounterReadings(submissions);
+        for (int i = 0; i < result.size(); i++) {
+            ReadingSubmission submission = submissions.get(i);
+            if (result.isAccepted(i)) {
+                auditService.log(AuditAction.SUBMIT_READING, submission.getUserId(), submission.getCounterType(),
+                        EpochMonths.toEpochMonth(submission.getYearMonth()), submission.getValue());
+            } else {
+                RejectionCode code = result.getRejectionCode(i);
+                rejections[code.ordinal()].increment();
+                appendRejected(rejected, submissionLines.get(i), code.getMessage(), code);
+            }
+        }
+        return "{\"accepted\":" + result.getAcceptedCount() + ",\"rejected\":[" + rejected + "]}";
+    }
+
+    /**
+     * Конвейерная подача показаний по одному соединению. Каждая строка запроса подается, не дожидаясь записи
+     * предыдущих в журнал, поэтому показания клиента фиксируются общими сбросами на диск. Ответ на строку
+     * отправляется по мере фиксации в порядке строк запроса; одновременно ожидается не больше
+     * {@value #MAX_IN_FLIGHT} строк.
+     */
+    private String submitReadingStream(HttpExchange exchange) {
+        String token = token(exchange);
+        sessionService.validate(token);
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+        try {
+            exchange.sendResponseHeaders(200, 0);
+            try (BufferedReader in = new BufferedReader(
+                    new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+                 Writer out = new BufferedWriter(
+                         new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+                ArrayDeque<PendingLine> pending = new ArrayDeque<>();
+                String text;
+                int line = 0;
+                while ((text = in.readLine()) != null) {
+                    line++;
+                    if (text.trim().isEmpty()) {
+                        continue;
+                    }
+                    pending.add(new PendingLine(line, submitStreamLine(token, text)));
+                    while (!pending.isEmpty() && (pending.peek().result.isDone() || pending.size() > MAX_IN_FLIGHT)) {
+                        writeStreamResult(out, pending.poll());
+                    }
+                    if (!in.ready()) {
+                        // клиент ждет ответов на отправленные строки
+                        out.flush();
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    writeStreamResult(out, pending.poll());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // заголовки уже отправлены, сообщить об ошибке нельзя: обрываем ответ
+            exchange.close();
+        }
+        return null;
+    }
+
+    private CompletableFuture<Void> submitStreamLine(String token, String text) {
+        try {
+            Map<String, String> body = Json.parseObject(text);
+            CounterType counterType = parseCounterType(required(body, "counterType"));
+            YearMonth yearMonth = YearMonth.of(Integer.parseInt(required(body, "year")),
+                    Integer.parseInt(required(body, "month")));
+            return asyncApi.submitReading(token, counterType, yearMonth, Integer.parseInt(required(body, "value")));
+        } catch (NumberFormatException | DateTimeException e) {
+            return CompletableFuture.failedFuture(new ApiException(400, "Некорректный месяц или показание."));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void writeStreamResult(Writer out, PendingLine pending) throws IOException {
+        StringBuilder json = new StringBuilder(64).append("{\"line\":").append(pending.line);
+        try {
+            pending.result.join();
+            json.append(",\"status\":\"ok\"}");
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            String message;
+            if (cause instanceof ApiException || cause instanceof AuthorizationException
+                    || cause instanceof CounterSubmissionException || cause instanceof ServiceOverloadedException
+                    || cause instanceof IllegalArgumentException) {
+                message = cause.getMessage();
+            } else {
+                message = "Внутренняя ошибка сервера.";
+            }
+            RejectionCode code = null;
+            if (cause instanceof CounterSubmissionException) {
+                code = ((CounterSubmissionException) cause).getCode();
+            } else if (cause instanceof ApiException && ((ApiException) cause).status == 400
+                    || cause instanceof IllegalArgumentException) {
+                // строка не разобрана
+                code = RejectionCode.INVALID;
+            }
+            if (code != null) {
+                rejections[code.ordinal()].increment();
+            } else {
+                metrics.recordError(cause);
+            }
+            Json.quote(json.append(",\"error\":"), message);
+            if (code != null) {
+                json.append(",\"code\":\"").append(code).append('"');
+            }
+            json.append('}');
+        }
+        out.write(json.append('\n').toString());
+    }
+
+    private ReadingSubmission parseSubmission(String line) {
+        String[] fields = line.split(",");
+        if (fields.length != 4) {
+            return null;
+        }
+        User user = userRepository.getUserByUsername(fields[0].trim());
+        if (user == null) {
+            return null;
+        }
+        try {
+            CounterType counterType = counterService.getMeterTypes().find(fields[1].trim());
+            if (counterType == null) {
+                return null;
+            }
+            return new ReadingSubmission(user, counterType, YearMonth.parse(fields[2].trim()),
+                    Integer.parseInt(fields[3].trim()));
+        } catch (IllegalArgumentException | DateTimeException e) {
+            return null;
+        }
+    }
+
+    private static void appendRejected(StringBuilder rejected, int line, String error, RejectionCode code) {
+        if (rejected.length() > 0) {
+            rejected.append(',');
+        }
+        rejected.append("{\"line\":").append(line).append(",\"error\":");
+        Json.quote(rejected, error).append(",\"code\":\"").append(code).append("\"}");
+    }
+
+    private String latestReading(HttpExchange exchange) {
+        int userId = session(exchange).getUserId();
+        CounterType counterType = parseCounterType(required(queryParameters(exchange), "counterType"));
+        int value = counterService.getLatestCounterReading(userId, counterType);
+        return "{\"counterType\":\"" + counterType + "\",\"value\":" + value + "}";
+    }
+
+    /**
+     * История показаний в порядке месяцев. Показания пишутся в ответ по мере обхода, без промежуточных
+     * коллекций, поэтому память на запрос не зависит от длины истории. С параметром {@code limit} ответ
+     * содержит не больше {@code limit} показаний и, если история не закончилась, токен {@code next} для
+     * следующей страницы, который передается в параметре {@code cursor}.
+     */
+    private String readingsHistory(HttpExchange exchange) {
+        int userId = session(exchange).getUserId();
+        Map<String, String> query = queryParameters(exchange);
+        CounterType counterType = parseCounterType(required(query, "counterType"));
+        int from;
+        int to;
+        int limit;
+        try {
+            from = query.containsKey("from") ? EpochMonths.toEpochMonth(YearMonth.parse(query.get("from")))
+                    : Integer.MIN_VALUE;
+            to = query.containsKey("to") ? EpochMonths.toEpochMonth(YearMonth.parse(query.get("to")))
+                    : Integer.MAX_VALUE;
+        } catch (DateTimeParseException e) {
+            throw new ApiException(400, "Некорректный месяц, ожидается ГГГГ-ММ.");
+        }
+        try {
+            limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : Integer.MAX_VALUE;
+        } catch (NumberFormatException e) {
+            limit = 0;
+        }
+        if (limit <= 0) {
+            throw new ApiException(400, "Некорректный размер страницы.");
+        }
+        if (query.containsKey("cursor")) {
+            try {
+                from = Math.max(from, HistoryCursor.decode(query.get("cursor")));
+            } catch (IllegalArgumentException e) {
+                throw new ApiException(400, e.getMessage());
+            }
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        try {
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer out = new BufferedWriter(
+                    new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+                out.write("{\"counterType\":\"" + counterType + "\",\"readings\":[");
+                boolean[] first = {true};
+                int next = counterService.visitCounterHistory(userId, counterType, from, to, limit,
+                        (id, type, epochMonth, value) -> {
+                            try {
+                                out.write(first[0] ? "{\"month\":\"" : ",{\"month\":\"");
+                                out.write(EpochMonths.toYearMonth(epochMonth).toString());
+                                out.write("\",\"value\":");
+                                out.write(Integer.toString(value));
+                                out.write('}');
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                            first[0] = false;
+                        });
+                out.write(']');
+                if (next != CounterService.HISTORY_END) {
+                    out.write(",\"next\":\"" + HistoryCursor.encode(next) + '"');
+                }
+                out.write('}');
+            }
+        } catch (IOException | RuntimeException e) {
+            // заголовки уже отправлены, сообщить об ошибке нельзя: обрываем ответ
+            exchange.close();
+        }
+        return null;
+    }
+
+    private String users(HttpExchange exchange) {
+        if (session(exchange).getRole() != Role.ADMIN) {
+            throw new ApiException(403, "Поиск пользователей доступен только администратору.");
+        }
+        Map<String, String> query = queryParameters(exchange);
+        int limit;
+        try {
+            limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : DEFAULT_USERS_LIMIT;
+        } catch (NumberFormatException e) {
+            limit = 0;
+        }
+        if (limit <= 0) {
+            throw new ApiException(400, "Некорректный размер страницы.");
+        }
+        List<User> users;
+        if (query.containsKey("username")) {
+            users = userRepository.findUsersIgnoreCase(query.get("username"));
+        } else {
+            users = userRepository.findUsersByPrefix(required(query, "prefix"), limit);
+        }
+        StringBuilder json = new StringBuilder(16 + users.size() * 64).append("{\"users\":[");
+        for (int i = 0; i < users.size() && i < limit; i++) {
+            User user = users.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(user.getId()).append(",\"username\":");
+            Json.quote(json, user.getUsername()).append(",\"role\":\"").append(user.getRole()).append("\"}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private String meterTypes(HttpExchange exchange) {
+        session(exchange);
+        CounterType[] types = counterService.getMeterTypes().getTypes();
+        StringBuilder json = new StringBuilder(16 + types.length * 96).append("{\"types\":[");
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendMeterType(json, types[i]);
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Регистрирует тип счетчика во время работы; повторная регистрация с теми же параметрами возвращает
+     * существующий тип.
+     */
+    private String registerMeterType(HttpExchange exchange) {
+        if (session(exchange).getRole() != Role.ADMIN) {
+            throw new ApiException(403, "Регистрация типов счетчиков доступна только администратору.");
+        }
+        Map<String, String> body = readBody(exchange);
+        int minValue;
+        int maxValue;
+        try {
+            minValue = Integer.parseInt(body.getOrDefault("minValue", "0"));
+            maxValue = body.containsKey("maxValue") ? Integer.parseInt(body.get("maxValue")) : Integer.MAX_VALUE;
+        } catch (NumberFormatException e) {
+            throw new ApiException(400, "Некорректные границы показаний.");
+        }
+        CounterType counterType;
+        try {
+            counterType = counterService.registerMeterType(required(body, "name"), required(body, "unit"),
+                    minValue, maxValue);
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(400, e.getMessage());
+        }
+        return appendMeterType(new StringBuilder(96), counterType).toString();
+    }
+
+    private static StringBuilder appendMeterType(StringBuilder json, CounterType counterType) {
+        json.append("{\"id\":").append(counterType.getId()).append(",\"name\":\"").append(counterType.getName())
+                .append("\",\"unit\":");
+        return Json.quote(json, counterType.getUnit()).append(",\"minValue\":").append(counterType.getMinValue())
+                .append(",\"maxValue\":").append(counterType.getMaxValue()).append('}');
+    }
+
+    /**
+     * Аудит-лог в хронологическом порядке. Записи пишутся в ответ по мере чтения файлов аудита, страница
+     * ограничена {@code limit} записями (по умолчанию {@value #DEFAULT_AUDIT_LIMIT}); если записи остались,
+     * ответ содержит токен {@code next}, который передается в параметре {@code cursor}.
+     */
+    private String audit(HttpExchange exchange) {
+        if (session(exchange).getRole() != Role.ADMIN) {
+            throw new ApiException(403, "Доступ к аудиту есть только у администратора.");
+        }
+        Map<String, String> query = queryParameters(exchange);
+        Integer userId = null;
+        if (query.containsKey("username")) {
+            User filtered = userRepository.getUserByUsername(query.get("username"));
+            if (filtered == null) {
+                return "{\"entries\":[]}";
+            }
+            userId = filtered.getId();
+        }
+        Instant from;
+        Instant to;
+        try {
+            from = query.containsKey("from") ? Instant.parse(query.get("from")) : null;
+            to = query.containsKey("to") ? Instant.parse(query.get("to")) : null;
+        } catch (DateTimeParseException e) {
+            throw new ApiException(400, "Некорректное время, ожидается ISO-8601.");
+        }
+        int limit;
+        try {
+            limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : DEFAULT_AUDIT_LIMIT;
+        } catch (NumberFormatException e) {
+            limit = 0;
+        }
+        if (limit <= 0) {
+            throw new ApiException(400, "Некорректный размер страницы.");
+        }
+        long start = 0;
+        if (query.containsKey("cursor")) {
+            try {
+                start = AuditCursor.decode(query.get("cursor"));
+            } catch (IllegalArgumentException e) {
+                throw new ApiException(400, e.getMessage());
+            }
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        try {
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer out = new BufferedWriter(
+                    new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+                out.write("{\"entries\":[");
+                StringBuilder json = new StringBuilder(128);
+                boolean[] first = {true};
+                long next = auditService.visitAuditLog(from, to, userId, start, limit, event -> {
+                    User actor = userRepository.getUserById(event.getUserId());
+                    json.setLength(0);
+                    json.append(first[0] ? "{\"timestamp\":\"" : ",{\"timestamp\":\"")
+                            .append(Instant.ofEpochMilli(event.getTimestamp()))
+                            .append("\",\"userId\":").append(event.getUserId())
+                            .append(",\"action\":\"").append(event.getAction()).append("\",\"text\":");
+                    Json.quote(json, event.render(actor != null ? actor.getUsername() : "#" + event.getUserId()));
+                    json.append('}');
+                    try {
+                        out.append(json);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    first[0] = false;
+                });
+                out.write(']');
+                if (next != AuditService.AUDIT_END) {
+                    out.write(",\"next\":\"" + AuditCursor.encode(next) + '"');
+                }
+                out.write('}');
+            }
+        } catch (IOException | RuntimeException e) {
+            // заголовки уже отправлены, сообщить об ошибке нельзя: обрываем ответ
+            exchange.close();
+        }
+        return null;
+    }
+
+    /**
+     * Выгрузка всех показаний. Ответ передается кусками по мере генерации, без буферизации всей выгрузки.
+     */
+    private String readingsReport(HttpExchange exchange) {
+        if (session(exchange).getRole() != Role.ADMIN) {
+            throw new ApiException(403, "Выгрузка доступна только администратору.");
+        }
+        Map<String, String> query = queryParameters(exchange);
+        ReportFormat format = parseEnum(ReportFormat.class, query.getOrDefault("format", "csv"), "Некорректный формат.");
+        YearMonth from;
+        YearMonth to;
+        try {
+            from = query.containsKey("from") ? YearMonth.parse(query.get("from")) : null;
+            to = query.containsKey("to") ? YearMonth.parse(query.get("to")) : null;
+        } catch (DateTimeParseException e) {
+            throw new ApiException(400, "Некорректный месяц, ожидается ГГГГ-ММ.");
+        }
+        exchange.getResponseHeaders().set("Content-Type", format.getContentType());
+        try {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                reportGenerator.generate(out, format, from, to);
+            }
+        } catch (IOException | RuntimeException e) {
+            // заголовки уже отправлены, сообщить об ошибке нельзя: обрываем ответ
+            exchange.close();
+        }
+        return null;
+    }
+
+    private String analytics(HttpExchange exchange) {
+        if (session(exchange).getRole() != Role.ADMIN) {
+            throw new ApiException(403, "Аналитика доступна только администратору.");
+        }
+        Map<String, String> query = queryParameters(exchange);
+        CounterType counterType = parseCounterType(required(query, "counterType"));
+        StringBuilder json = new StringBuilder(256);
+        if (query.containsKey("month")) {
+            try {
+                appendStats(json, analytics.getMonthlyStats(counterType, YearMonth.parse(query.get("month"))));
+            } catch (DateTimeParseException e) {
+                throw new ApiException(400, "Некорректный месяц, ожидается ГГГГ-ММ.");
+            }
+            return json.toString();
+        }
+        json.append("{\"total\":");
+        appendStats(json, analytics.getTotalStats(counterType));
+        json.append(",\"months\":[");
+        boolean first = true;
+        for (ConsumptionStats stats : analytics.getMonthlyStats(counterType)) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            appendStats(json, stats);
+        }
+        return json.append("]}").toString();
+    }
+
+    private String anomalies(HttpExchange exchange) {
+        if (session(exchange).getRole() != Role.ADMIN) {
+            throw new ApiException(403, "Аналитика доступна только администратору.");
+        }
+        Map<String, String> query = queryParameters(exchange);
+        int limit;
+        try {
+            limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : 100;
+        } catch (NumberFormatException e) {
+            throw new ApiException(400, "Некорректный параметр limit.");
+        }
+        StringBuilder json = new StringBuilder("{\"anomalies\":[");
+        boolean first = true;
+        for (Anomaly anomaly : analytics.getRecentAnomalies(limit)) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"userId\":").append(anomaly.getUserId())
+                    .append(",\"counterType\":\"").append(anomaly.getCounterType())
+                    .append("\",\"month\":\"").append(anomaly.getYearMonth())
+                    .append("\",\"consumption\":").append(anomaly.getConsumption())
+                    .append(",\"kind\":\"").append(anomaly.getKind()).append("\"}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private String metrics(HttpExchange exchange) {
+        byte[] bytes = metrics.render().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        try {
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return null;
+    }
+
+    private static void appendStats(StringBuilder json, ConsumptionStats stats) {
+        json.append("{\"counterType\":\"").append(stats.getCounterType()).append('"');
+        if (stats.getYearMonth() != null) {
+            json.append(",\"month\":\"").append(stats.getYearMonth()).append('"');
+        }
+        json.append(",\"count\":").append(stats.getCount())
+                .append(",\"total\":").append(stats.getTotal())
+                .append(",\"average\":").append(String.format(Locale.ROOT, "%.2f", stats.getAverage()))
+                .append(",\"p50\":").append(stats.getP50())
+                .append(",\"p90\":").append(stats.getP90())
+                .append(",\"p99\":").append(stats.getP99())
+                .append(",\"decreases\":").append(stats.getDecreases()).append('}');
+    }
+
+    /**
+     * Регистрирует эндпоинт. Таймер запрашивается один раз здесь, а не на каждый запрос.
+     */
+    private void route(String path, String method, Endpoint endpoint) {
+        Timer timer = metrics.timer("http_request_duration_seconds", "endpoint", path);
+        server.createContext(path, exchange -> handle(exchange, method, timer, endpoint));
+    }
+
+    private void handle(HttpExchange exchange, String method, Timer timer, Endpoint endpoint) throws IOException {
+        long start = System.nanoTime();
+        int status = 200;
+        String response;
+        try {
+            if (!method.equals(exchange.getRequestMethod())) {
+                throw new ApiException(405, "Метод не поддерживается.");
+            }
+            response = endpoint.handle(exchange);
+            if (response == null) {
+                timer.recordSince(start);
+                return;
+            }
+        } catch (ApiException e) {
+            metrics.recordError(e.getCause() != null ? e.getCause() : e);
+            status = e.status;
+            response = error(e.getMessage());
+        } catch (AuthorizationException e) {
+            metrics.recordError(e);
+            status = 401;
+            response = error(e.getMessage());
+        } catch (CounterSubmissionException e) {
+            metrics.recordError(e);
+            status = 409;
+            response = error(e.getMessage(), e.getCode());
+        } catch (ServiceOverloadedException e) {
+            metrics.recordError(e);
+            status = 503;
+            response = error(e.getMessage());
+            exchange.getResponseHeaders().set("Retry-After", "1");
+        } catch (RuntimeException e) {
+            metrics.recordError(e);
+            status = 500;
+            response = error("Внутренняя ошибка сервера.");
+        }
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        try {
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } finally {
+            timer.recordSince(start);
+        }
+    }
+
+    private Session session(HttpExchange exchange) {
+        return sessionService.validate(token(exchange));
+    }
+
+    private static String token(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        return header != null && header.startsWith("Bearer ") ? header.substring(7) : null;
+    }
+
+    private static Map<String, String> readBody(HttpExchange exchange) {
+        try {
+            return Json.parseObject(readText(exchange, MAX_BODY_BYTES));
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(400, e.getMessage());
+        }
+    }
+
+    private static String readText(HttpExchange exchange, int maxBytes) {
+        try (InputStream in = exchange.getRequestBody()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+                if (body.size() > maxBytes) {
+                    throw new ApiException(413, "Слишком большой запрос.");
+                }
+            }
+            return body.toString(StandardCharsets.UTF_8.name());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Map<String, String> queryParameters(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null || query.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> parameters = new HashMap<>();
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                try {
+                    parameters.put(URLDecoder.decode(pair.substring(0, separator), "UTF-8"),
+                            URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private static String required(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new ApiException(400, "Не указан параметр " + name + ".");
+        }
+        return value;
+    }
+
+    private CounterType parseCounterType(String value) {
+        CounterType counterType = counterService.getMeterTypes().find(value);
+        if (counterType == null) {
+            throw new ApiException(400, "Некорректный тип счетчика.");
+        }
+        return counterType;
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String value, String message) {
+        try {
+            return Enum.valueOf(type, value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(400, message);
+        }
+    }
+
+    private static String error(String message) {
+        return Json.quote(new StringBuilder("{\"error\":"), message).append('}').toString();
+    }
+
+    private static String error(String message, RejectionCode code) {
+        if (code == null) {
+            return error(message);
+        }
+        return Json.quote(new StringBuilder("{\"error\":"), message)
+                .append(",\"code\":\"").append(code).append("\"}").toString();
+    }
+
+    /**
+     * Отправляет ответ с указанным статусом сразу, без исключения, которым статус обычно задается в обработчике.
+     *
+     * @return {@code null}: ответ уже отправлен.
+     */
+    private static String respond(HttpExchange exchange, int status, String response) {
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        try {
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (IOException e) {
+            exchange.close();
+        }
+        return null;
+    }
+
+    /**
+     * Создает исполнитель с виртуальным потоком на запрос, если он доступен в среде выполнения.
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Строка конвейерной подачи, ожидающая фиксации.
+     */
+    private static final class PendingLine {
+        final int line;
+        final CompletableFuture<Void> result;
+
+        PendingLine(int line, CompletableFuture<Void> result) {
+            this.line = line;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Обработчик эндпоинта. Возвращает тело JSON-ответа или {@code null}, если ответ уже отправлен им самим.
+     */
+    @FunctionalInterface
+    private interface Endpoint {
+        String handle(HttpExchange exchange);
+    }
+
+    /**
+     * Ошибка обработки запроса с заданным HTTP-статусом.
+     */
+    private static final class ApiException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        ApiException(int status, String message, Throwable cause) {
+            super(message, cause);
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package api;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Минимальная поддержка JSON для HTTP API: разбор плоского объекта и экранирование строк.
+ * Вложенные объекты и массивы в запросах не поддерживаются.
+ */
+final class Json {
+    private Json() {
+    }
+
+    /**
+     * Разбирает плоский JSON-объект. Значения-строки, числа и логические значения возвращаются в виде строк,
+     * {@code null} - как отсутствующий ключ. После объекта допускаются только пробельные символы.
+     *
+     * @param text Текст JSON-объекта.
+     * @return Поля объекта.
+     * @throws IllegalArgumentException Если текст не является плоским JSON-объектом.
+     */
+    static Map<String, String> parseObject(String text) {
+        Map<String, String> result = new HashMap<>();
+        Parser parser = new Parser(text);
+        parser.skipWhitespace();
+        if (parser.atEnd()) {
+            return result;
+        }
+        parser.expect('{');
+        parser.skipWhitespace();
+        if (parser.peek() == '}') {
+            parser.position++;
+            parser.expectEnd();
+            return result;
+        }
+        while (true) {
+            parser.skipWhitespace();
+            String key = parser.readString();
+            parser.skipWhitespace();
+            parser.expect(':');
+            parser.skipWhitespace();
+            String value = parser.readValue();
+            if (value != null) {
+                result.put(key, value);
+            }
+            parser.skipWhitespace();
+            char next = parser.next();
+            if (next == '}') {
+                parser.expectEnd();
+                return result;
+            }
+            if (next != ',') {
+                throw new IllegalArgumentException("Некорректный JSON.");
+            }
+        }
+    }
+
+    /**
+     * Записывает строку в виде JSON-литерала.
+     *
+     * @param builder Буфер вывода.
+     * @param value   Строка.
+     * @return Тот же буфер.
+     */
+    static StringBuilder quote(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        return builder.append('"');
+    }
+
+    private static final class Parser {
+        private final String text;
+        private int position;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        boolean atEnd() {
+            return position >= text.length();
+        }
+
+        char peek() {
+            if (atEnd()) {
+                throw new IllegalArgumentException("Некорректный JSON.");
+            }
+            return text.charAt(position);
+        }
+
+        char next() {
+            char c = peek();
+            position++;
+            return c;
+        }
+
+        void expect(char expected) {
+            if (next() != expected) {
+                throw new IllegalArgumentException("Некорректный JSON.");
+            }
+        }
+
+        void expectEnd() {
+            skipWhitespace();
+            if (!atEnd()) {
+                throw new IllegalArgumentException("Некорректный JSON.");
+            }
+        }
+
+        void skipWhitespace() {
+            while (!atEnd() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        String readValue() {
+            char c = peek();
+            if (c == '"') {
+                return readString();
+            }
+            int start = position;
+            while (!atEnd() && ",}".indexOf(text.charAt(position)) < 0 && !Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+            String literal = text.substring(start, position);
+            if ("null".equals(literal)) {
+                return null;
+            }
+            if (!"true".equals(literal) && !"false".equals(literal) && !isNumber(literal)) {
+                throw new IllegalArgumentException("Некорректный JSON.");
+            }
+            return literal;
+        }
+
+        /**
+         * Проверяет число по грамматике JSON: {@code -?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)?}.
+         */
+        private static boolean isNumber(String literal) {
+            int i = 0;
+            int length = literal.length();
+            if (i < length && literal.charAt(i) == '-') {
+                i++;
+            }
+            if (i < length && literal.charAt(i) == '0') {
+                i++;
+            } else {
+                int digits = skipDigits(literal, i);
+                if (digits == i) {
+                    return false;
+                }
+                i = digits;
+            }
+            if (i < length && literal.charAt(i) == '.') {
+                int digits = skipDigits(literal, i + 1);
+                if (digits == i + 1) {
+                    return false;
+                }
+                i = digits;
+            }
+            if (i < length && (literal.charAt(i) == 'e' || literal.charAt(i) == 'E')) {
+                i++;
+                if (i < length && (literal.charAt(i) == '+' || literal.charAt(i) == '-')) {
+                    i++;
+                }
+                int digits = skipDigits(literal, i);
+                if (digits == i) {
+                    return false;
+                }
+                i = digits;
+            }
+            return i == length;
+        }
+
+        private static int skipDigits(String literal, int from) {
+            int i = from;
+            while (i < literal.length() && literal.charAt(i) >= '0' && literal.charAt(i) <= '9') {
+                i++;
+            }
+            return i;
+        }
+
+        String readString() {
+            expect('"');
+            StringBuilder builder = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return builder.toString();
+                }
+                if (c != '\\') {
+                    builder.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case 'n':
+                        builder.append('\n');
+                        break;
+                    case 'r':
+                        builder.append('\r');
+                        break;
+                    case 't':
+                        builder.append('\t');
+                        break;
+                    case 'b':
+                        builder.append('\b');
+                        break;
+                    case 'f':
+                        builder.append('\f');
+                        break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw new IllegalArgumentException("Некорректный JSON.");
+                        }
+                        builder.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                        break;
+                    default:
+                        builder.append(escaped);
+                }
+            }
+        }
+    }
+}
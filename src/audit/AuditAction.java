@@ -0,0 +1,23 @@
+package audit;
+
+/**
+ * Типы действий, фиксируемых в аудит-логе.
+ */
+public enum AuditAction {
+    REGISTER("Регистрация нового пользователя"),
+    AUTHENTICATE("Пользователь авторизован"),
+    SUBMIT_READING("Пользователь подал показания");
+
+    private final String description;
+
+    AuditAction(String description) {
+        this.description = description;
+    }
+
+    /**
+     * @return Текстовое описание действия для отображения.
+     */
+    public String getDescription() {
+        return description;
+    }
+}
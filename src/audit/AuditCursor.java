@@ -0,0 +1,47 @@
+package audit;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Токен продолжения постраничного чтения аудит-лога, см. {@link AuditService#visitAuditLog}.
+ * Токен содержит только позицию следующей записи в файлах аудита, поэтому не хранит состояния на сервере
+ * и остается действительным при появлении новых записей.
+ */
+public final class AuditCursor {
+    private static final byte VERSION = 1;
+
+    private AuditCursor() {
+    }
+
+    /**
+     * @param position Позиция, с которой начинается следующая страница.
+     * @return Токен продолжения.
+     */
+    public static String encode(long position) {
+        byte[] bytes = ByteBuffer.allocate(1 + Long.BYTES).put(VERSION).putLong(position).array();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * @param token Токен продолжения.
+     * @return Позиция, с которой начинается следующая страница.
+     * @throws IllegalArgumentException Если токен поврежден.
+     */
+    public static long decode(String token) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Некорректный токен продолжения.", e);
+        }
+        if (bytes.length != 1 + Long.BYTES || bytes[0] != VERSION) {
+            throw new IllegalArgumentException("Некорректный токен продолжения.");
+        }
+        long position = ByteBuffer.wrap(bytes, 1, Long.BYTES).getLong();
+        if (position < 0) {
+            throw new IllegalArgumentException("Некорректный токен продолжения.");
+        }
+        return position;
+    }
+}
@@ -0,0 +1,81 @@
+package audit;
+
+import counters.CounterType;
+import counters.EpochMonths;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Запись аудит-лога, прочитанная из файла. Объекты создаются только при чтении лога;
+ * при записи действие кодируется напрямую в двоичный формат.
+ */
+public final class AuditEvent {
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final long timestamp;
+    private final AuditAction action;
+    private final int userId;
+    private final CounterType counterType;
+    private final int epochMonth;
+    private final int value;
+
+    AuditEvent(long timestamp, AuditAction action, int userId, CounterType counterType, int epochMonth, int value) {
+        this.timestamp = timestamp;
+        this.action = action;
+        this.userId = userId;
+        this.counterType = counterType;
+        this.epochMonth = epochMonth;
+        this.value = value;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public AuditAction getAction() {
+        return action;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return Тип счетчика или {@code null}, если действие не связано со счетчиком.
+     */
+    public CounterType getCounterType() {
+        return counterType;
+    }
+
+    /**
+     * @return Месяц показания или {@code null}, если действие не связано со счетчиком.
+     */
+    public YearMonth getYearMonth() {
+        return counterType != null ? EpochMonths.toYearMonth(epochMonth) : null;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * Формирует текстовое представление записи.
+     *
+     * @param username Имя пользователя, выполнившего действие.
+     * @return Строка вида {@code 2024-01-28 12:30:00: john_doe: Пользователь авторизован}.
+     */
+    public String render(String username) {
+        StringBuilder builder = new StringBuilder(64)
+                .append(TIME_FORMAT.format(Instant.ofEpochMilli(timestamp)))
+                .append(": ").append(username)
+                .append(": ").append(action.getDescription());
+        if (counterType != null) {
+            builder.append(" для ").append(counterType).append(" за ").append(getYearMonth());
+        }
+        return builder.toString();
+    }
+}
@@ -1,15 +1,578 @@
 package audit;
 
+import counters.CounterType;
+import counters.MeterTypeRegistry;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
 /**
  * Сервис для аудита действий пользователей.
+ * <p>
+ * Каждое действие кодируется записью фиксированной длины {@value #RECORD_SIZE} байт:
+ * <pre>
+ * время (long) | пользователь (int) | действие (byte) | тип счетчика (byte, -1 - нет) | резерв (short)
+ * | номер месяца (int) | показание (int)
+ * </pre>
+ * Методы {@code log} записывают поля прямо в заранее выделенное кольцо таких записей и не создают объектов
+ * и не выполняют ввод-вывод. Фоновый поток забирает записи пачками и дописывает их в файлы
+ * {@code audit-<номер>.bin}, переходя к новому файлу при превышении размера и удаляя самые старые файлы сверх
+ * заданного количества. Поведение при переполнении кольца задается {@link OverflowPolicy}. Если фоновый поток
+ * остановлен ошибкой записи, записи, не поместившиеся в кольцо, отбрасываются при любой политике, чтобы
+ * вызывающие потоки не ждали освобождения места, которое уже не наступит.
+ * <p>
+ * Время записей не убывает, поэтому поиск по интервалу выполняется двоичным поиском внутри файла. Для каждого файла
+ * в памяти хранится индекс номеров записей по пользователю. Объекты {@link AuditEvent} создаются только при чтении.
  */
-public class AuditService {
+public class AuditService implements AutoCloseable {
+    /**
+     * Результат {@link #visitAuditLog}, если записей в интервале больше нет.
+     */
+    public static final long AUDIT_END = -1;
+
+    static final int RECORD_SIZE = 24;
+
+    private static final String FILE_PREFIX = "audit-";
+    private static final String FILE_SUFFIX = ".bin";
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+    private static final long DEFAULT_MAX_FILE_BYTES = 16L * 1024 * 1024;
+    private static final int DEFAULT_MAX_FILES = 10;
+    private static final int MAX_BATCH = 1024;
+    private static final AuditAction[] ACTIONS = AuditAction.values();
+
+    private final Path directory;
+    private final MeterTypeRegistry meterTypes;
+    private final OverflowPolicy overflowPolicy;
+    private final long maxFileRecords;
+    private final int maxFiles;
+    private final ByteBuffer ring;
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition written = lock.newCondition();
+    private final ByteBuffer batch = ByteBuffer.allocate(MAX_BATCH * RECORD_SIZE);
+    private final List<Segment> segments = new ArrayList<>();
+    private final Thread writer;
+
+    private long head;
+    private long tail;
+    private long writtenSequence;
+    private long lastTimestamp;
+    private long dropped;
+    private boolean closed;
+    private IOException failure;
+    private FileChannel channel;
+
+    /**
+     * Создает сервис аудита с параметрами по умолчанию.
+     *
+     * @param directory Каталог файлов аудита.
+     */
+    public AuditService(Path directory) {
+        this(directory, new MeterTypeRegistry());
+    }
+
+    /**
+     * Создает сервис аудита с параметрами по умолчанию для действий со счетчиками указанного реестра.
+     *
+     * @param directory  Каталог файлов аудита.
+     * @param meterTypes Реестр, по которому при чтении разрешаются идентификаторы типов счетчиков.
+     */
+    public AuditService(Path directory, MeterTypeRegistry meterTypes) {
+        this(directory, DEFAULT_CAPACITY, OverflowPolicy.DROP_NEWEST, DEFAULT_MAX_FILE_BYTES, DEFAULT_MAX_FILES,
+                meterTypes);
+    }
+
+    /**
+     * Создает сервис аудита для действий со встроенными типами счетчиков.
+     *
+     * @param directory      Каталог файлов аудита.
+     * @param capacity       Емкость кольца записей.
+     * @param overflowPolicy Поведение при переполнении кольца.
+     * @param maxFileBytes   Размер файла, после которого начинается новый файл.
+     * @param maxFiles       Количество хранимых файлов.
+     */
+    public AuditService(Path directory, int capacity, OverflowPolicy overflowPolicy, long maxFileBytes, int maxFiles) {
+        this(directory, capacity, overflowPolicy, maxFileBytes, maxFiles, new MeterTypeRegistry());
+    }
+
+    /**
+     * Создает сервис аудита.
+     *
+     * @param directory      Каталог файлов аудита.
+     * @param capacity       Емкость кольца записей.
+     * @param overflowPolicy Поведение при переполнении кольца.
+     * @param maxFileBytes   Размер файла, после которого начинается новый файл.
+     * @param maxFiles       Количество хранимых файлов.
+     * @param meterTypes     Реестр, по которому при чтении разрешаются идентификаторы типов счетчиков.
+     */
+    public AuditService(Path directory, int capacity, OverflowPolicy overflowPolicy, long maxFileBytes, int maxFiles,
+                        MeterTypeRegistry meterTypes) {
+        this.directory = directory;
+        this.meterTypes = meterTypes;
+        this.capacity = capacity;
+        this.ring = ByteBuffer.allocate(capacity * RECORD_SIZE);
+        this.overflowPolicy = overflowPolicy;
+        this.maxFileRecords = Math.max(1, maxFileBytes / RECORD_SIZE);
+        this.maxFiles = maxFiles;
+        try {
+            Files.createDirectories(directory);
+            for (long id : listFiles()) {
+                segments.add(Segment.load(id, filePath(id)));
+            }
+            if (segments.isEmpty()) {
+                segments.add(new Segment(1, filePath(1)));
+            }
+            Segment current = segments.get(segments.size() - 1);
+            lastTimestamp = current.lastTimestamp;
+            channel = openSegment(current);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.writer = new Thread(this::writeLoop, "audit-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Записывает действие пользователя в аудит-лог.
+     *
+     * @param action Действие.
+     * @param userId Идентификатор пользователя, выполнившего действие.
+     * @return {@code true}, если запись принята, {@code false}, если она отброшена из-за переполнения
+     *         или ошибки записи.
+     */
+    public boolean log(AuditAction action, int userId) {
+        return log(action, userId, null, 0, 0);
+    }
+
+    /**
+     * Записывает действие пользователя со счетчиком в аудит-лог.
+     *
+     * @param action      Действие.
+     * @param userId      Идентификатор пользователя, выполнившего действие.
+     * @param counterType Тип счетчика или {@code null}.
+     * @param epochMonth  Номер месяца, см. {@link counters.EpochMonths}.
+     * @param value       Показание счетчика.
+     * @return {@code true}, если запись принята, {@code false}, если она отброшена из-за переполнения
+     *         или ошибки записи.
+     */
+    public boolean log(AuditAction action, int userId, CounterType counterType, int epochMonth, int value) {
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            while (head - tail == capacity) {
+                if (failure != null || overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                    dropped++;
+                    return false;
+                } else if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                    tail++;
+                    dropped++;
+                } else {
+                    notFull.awaitUninterruptibly();
+                    if (closed) {
+                        return false;
+                    }
+                    if (failure != null) {
+                        dropped++;
+                        return false;
+                    }
+                }
+            }
+            long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp);
+            lastTimestamp = timestamp;
+            int offset = (int) (head % capacity) * RECORD_SIZE;
+            ring.putLong(offset, timestamp)
+                    .putInt(offset + 8, userId)
+                    .put(offset + 12, (byte) action.ordinal())
+                    .put(offset + 13, counterType != null ? (byte) counterType.getId() : -1)
+                    .putShort(offset + 14, (short) 0)
+                    .putInt(offset + 16, epochMonth)
+                    .putInt(offset + 20, value);
+            if (head++ == tail) {
+                notEmpty.signal();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Количество записей, отброшенных из-за переполнения кольца, в том числе после остановки фонового
+     *         потока из-за ошибки записи.
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Ошибка, остановившая запись в файлы, или {@code null}, если запись работает.
+     */
+    public IOException getWriteFailure() {
+        lock.lock();
+        try {
+            return failure;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ждет, пока все принятые до вызова записи будут записаны в файл.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            long target = head;
+            while (writtenSequence < target && writer.isAlive()) {
+                written.await(100, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
-     * Записывает действие в аудит-лог.
+     * Возвращает записи аудит-лога в хронологическом порядке.
      *
-     * @param action Действие пользователя.
+     * @param from   Начало интервала включительно или {@code null}.
+     * @param to     Конец интервала включительно или {@code null}.
+     * @param userId Идентификатор пользователя или {@code null} для записей всех пользователей.
+     * @return Список записей аудит-лога.
      */
-    public static void log(String action) {
-        System.out.println("Аудит: " + action);
+    public List<AuditEvent> retrieveAuditLog(Instant from, Instant to, Integer userId) {
+        List<AuditEvent> result = new ArrayList<>();
+        visitAuditLog(from, to, userId, 0, Integer.MAX_VALUE, result::add);
+        return result;
+    }
+
+    /**
+     * Передает обработчику страницу записей аудит-лога в хронологическом порядке, не собирая их в коллекцию.
+     * Обработчик вызывается без блокировок и может писать записи прямо в поток ответа. Для следующей страницы
+     * передайте возвращенную позицию как {@code start}: позиция указывает на место в файлах аудита, поэтому
+     * новые записи не приводят к повторам и пропускам.
+     *
+     * @param from    Начало интервала включительно или {@code null}.
+     * @param to      Конец интервала включительно или {@code null}.
+     * @param userId  Идентификатор пользователя или {@code null} для записей всех пользователей.
+     * @param start   Позиция, с которой начинается страница; 0 - начало лога.
+     * @param limit   Максимальное количество записей на странице.
+     * @param visitor Обработчик записей.
+     * @return Позиция, с которой начинается следующая страница, или {@link #AUDIT_END}.
+     */
+    public long visitAuditLog(Instant from, Instant to, Integer userId, long start, int limit,
+                              Consumer<AuditEvent> visitor) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Размер страницы должен быть положительным.");
+        }
+        flush();
+        long fromMillis = from != null ? from.toEpochMilli() : Long.MIN_VALUE;
+        long toMillis = to != null ? to.toEpochMilli() : Long.MAX_VALUE;
+        List<Segment> snapshot;
+        synchronized (segments) {
+            snapshot = new ArrayList<>(segments);
+        }
+        long startSegment = start >>> 32;
+        int[] remaining = {limit};
+        for (Segment segment : snapshot) {
+            if (segment.id < startSegment) {
+                continue;
+            }
+            int startRecord = segment.id == startSegment ? (int) start : 0;
+            int next = segment.visit(fromMillis, toMillis, userId, startRecord, remaining, meterTypes, visitor);
+            if (next >= 0) {
+                return segment.id << 32 | next;
+            }
+        }
+        return AUDIT_END;
+    }
+
+    /**
+     * Записывает оставшиеся записи и останавливает фоновый поток.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                long batchEnd;
+                lock.lock();
+                try {
+                    while (head == tail && !closed) {
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    if (head == tail) {
+                        break;
+                    }
+                    int count = (int) Math.min(head - tail, MAX_BATCH);
+                    batch.clear();
+                    for (int i = 0; i < count; i++) {
+                        int offset = (int) ((tail + i) % capacity) * RECORD_SIZE;
+                        batch.put(ring.array(), offset, RECORD_SIZE);
+                    }
+                    tail += count;
+                    batchEnd = tail;
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+
+                batch.flip();
+                writeBatch();
+
+                lock.lock();
+                try {
+                    writtenSequence = batchEnd;
+                    written.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            // кольцо больше не освобождается: ожидающие и новые записи отбрасываются, а не ждут вечно
+            lock.lock();
+            try {
+                failure = e;
+                notFull.signalAll();
+                written.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            throw new UncheckedIOException(e);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // файл закрывается при остановке, ошибка уже не может быть обработана
+            }
+        }
+    }
+
+    private void writeBatch() throws IOException {
+        while (batch.hasRemaining()) {
+            Segment current = segments.get(segments.size() - 1);
+            int room = (int) Math.min(maxFileRecords - current.records, batch.remaining() / RECORD_SIZE);
+            ByteBuffer chunk = batch.duplicate();
+            chunk.limit(chunk.position() + room * RECORD_SIZE);
+            int start = chunk.position();
+            while (chunk.hasRemaining()) {
+                channel.write(chunk);
+            }
+            current.indexRecords(batch, start, room);
+            batch.position(start + room * RECORD_SIZE);
+            if (current.records >= maxFileRecords) {
+                rotate(current.id + 1);
+            }
+        }
+    }
+
+    private void rotate(long nextId) throws IOException {
+        channel.close();
+        Segment next = new Segment(nextId, filePath(nextId));
+        channel = openSegment(next);
+        synchronized (segments) {
+            segments.add(next);
+            while (segments.size() > maxFiles) {
+                Files.deleteIfExists(segments.remove(0).path);
+            }
+        }
+    }
+
+    private FileChannel openSegment(Segment segment) throws IOException {
+        FileChannel file = FileChannel.open(segment.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        file.truncate((long) segment.records * RECORD_SIZE);
+        return file;
+    }
+
+    private List<Long> listFiles() throws IOException {
+        List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                ids.add(Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length())));
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private Path filePath(long id) {
+        return directory.resolve(String.format("%s%06d%s", FILE_PREFIX, id, FILE_SUFFIX));
+    }
+
+    private static AuditEvent decode(ByteBuffer buffer, int offset, MeterTypeRegistry meterTypes) {
+        byte counterType = buffer.get(offset + 13);
+        return new AuditEvent(buffer.getLong(offset), ACTIONS[buffer.get(offset + 12)], buffer.getInt(offset + 8),
+                counterType >= 0 ? meterTypes.byId(counterType) : null, buffer.getInt(offset + 16), buffer.getInt(offset + 20));
+    }
+
+    /**
+     * Файл аудита и его индексы: интервал времени записей и номера записей каждого пользователя.
+     * Изменяется только фоновым потоком, читается под блокировкой экземпляра.
+     */
+    private static final class Segment {
+        private final long id;
+        private final Path path;
+        private final Map<Integer, IntList> userRecords = new HashMap<>();
+        private long firstTimestamp = Long.MAX_VALUE;
+        private long lastTimestamp = Long.MIN_VALUE;
+        private int records;
+
+        Segment(long id, Path path) {
+            this.id = id;
+            this.path = path;
+        }
+
+        static Segment load(long id, Path path) throws IOException {
+            Segment segment = new Segment(id, path);
+            ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(path));
+            segment.indexRecords(content, 0, content.capacity() / RECORD_SIZE);
+            return segment;
+        }
+
+        synchronized void indexRecords(ByteBuffer buffer, int start, int count) {
+            for (int i = 0; i < count; i++) {
+                int offset = start + i * RECORD_SIZE;
+                long timestamp = buffer.getLong(offset);
+                firstTimestamp = Math.min(firstTimestamp, timestamp);
+                lastTimestamp = Math.max(lastTimestamp, timestamp);
+                userRecords.computeIfAbsent(buffer.getInt(offset + 8), key -> new IntList()).add(records);
+                records++;
+            }
+        }
+
+        /**
+         * Передает обработчику записи файла начиная с номера {@code startRecord}, пока не исчерпан
+         * {@code remaining}.
+         *
+         * @return Номер записи, с которой продолжать, если страница заполнена, или -1, если файл пройден.
+         */
+        int visit(long from, long to, Integer userId, int startRecord, int[] remaining, MeterTypeRegistry meterTypes,
+                  Consumer<AuditEvent> visitor) {
+            int[] positions;
+            int positionCount;
+            int recordCount;
+            synchronized (this) {
+                if (records <= startRecord || lastTimestamp < from || firstTimestamp > to) {
+                    return -1;
+                }
+                recordCount = records;
+                IntList list = userId != null ? userRecords.get(userId) : null;
+                if (userId != null && list == null) {
+                    return -1;
+                }
+                positions = list != null ? list.values : null;
+                positionCount = list != null ? list.size : 0;
+            }
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = file.map(FileChannel.MapMode.READ_ONLY, 0, (long) recordCount * RECORD_SIZE);
+                if (userId != null) {
+                    int first = Arrays.binarySearch(positions, 0, positionCount, startRecord);
+                    for (int i = first >= 0 ? first : -first - 1; i < positionCount; i++) {
+                        int offset = positions[i] * RECORD_SIZE;
+                        long timestamp = buffer.getLong(offset);
+                        if (timestamp >= from && timestamp <= to) {
+                            visitor.accept(decode(buffer, offset, meterTypes));
+                            if (--remaining[0] == 0) {
+                                return positions[i] + 1;
+                            }
+                        }
+                    }
+                    return -1;
+                }
+                for (int record = Math.max(startRecord, lowerBound(buffer, recordCount, from)); record < recordCount;
+                     record++) {
+                    int offset = record * RECORD_SIZE;
+                    if (buffer.getLong(offset) > to) {
+                        return -1;
+                    }
+                    visitor.accept(decode(buffer, offset, meterTypes));
+                    if (--remaining[0] == 0) {
+                        return record + 1;
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                // файл удален ротацией после того, как читатель взял список файлов: его записи уже вне хранимых
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return -1;
+        }
+
+        private static int lowerBound(ByteBuffer buffer, int recordCount, long timestamp) {
+            int low = 0;
+            int high = recordCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (buffer.getLong(mid * RECORD_SIZE) < timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Растущий массив номеров записей. Старый массив после расширения не изменяется,
+     * поэтому читатель может безопасно пройти по захваченной под блокировкой паре (массив, размер).
+     */
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
     }
 }
@@ -0,0 +1,19 @@
+package audit;
+
+/**
+ * Поведение {@link AuditService} при переполнении очереди записей.
+ */
+public enum OverflowPolicy {
+    /**
+     * Новая запись отбрасывается, вызывающий поток не ждет.
+     */
+    DROP_NEWEST,
+    /**
+     * Самая старая запись в очереди вытесняется новой, вызывающий поток не ждет.
+     */
+    DROP_OLDEST,
+    /**
+     * Вызывающий поток ждет освобождения места в очереди.
+     */
+    BLOCK
+}
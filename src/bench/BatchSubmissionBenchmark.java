@@ -0,0 +1,77 @@
+package bench;
+
+import counters.BatchResult;
+import counters.CounterService;
+import counters.CounterType;
+import counters.ReadingSubmission;
+import storage.Durability;
+import storage.FileStorage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Сравнение пакетной подачи показаний с подачей по одному.
+ * <p>
+ * Запуск: {@code java bench.BatchSubmissionBenchmark [пользователей] [режим сохранности]}. Для каждого
+ * пользователя подаются показания всех счетчиков за 12 месяцев, сначала в цикле через
+ * {@link CounterService#submitCounterReading}, затем одним пакетом в новое хранилище.
+ */
+public class BatchSubmissionBenchmark {
+    public static void main(String[] args) throws Exception {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        Durability durability = args.length > 1 ? Durability.valueOf(args[1]) : Durability.FSYNC;
+
+        List<ReadingSubmission> submissions = new ArrayList<>();
+        for (int id = 1; id <= userCount; id++) {
+            for (CounterType counterType : CounterType.values()) {
+                for (int month = 1; month <= 12; month++) {
+                    submissions.add(new ReadingSubmission(id, counterType, YearMonth.of(2024, month), month * 10));
+                }
+            }
+        }
+
+        long single = run(durability, service -> {
+            for (ReadingSubmission submission : submissions) {
+                service.submitCounterReading(submission.getUserId(), submission.getCounterType(),
+                        submission.getYearMonth(), submission.getValue());
+            }
+        });
+        long batch = run(durability, service -> {
+            BatchResult result = service.submitCounterReadings(submissions);
+            if (result.getAcceptedCount() != submissions.size()) {
+                throw new IllegalStateException("Отклонено показаний: " + result.getRejectedCount());
+            }
+        });
+
+        System.out.printf("Показаний: %d, режим %s%n", submissions.size(), durability);
+        System.out.printf("По одному: %d мс (%.0f показаний/с)%n", single / 1_000_000, submissions.size() * 1e9 / single);
+        System.out.printf("Пакетом:   %d мс (%.0f показаний/с), ускорение %.1fx%n",
+                batch / 1_000_000, submissions.size() * 1e9 / batch, (double) single / batch);
+    }
+
+    private static long run(Durability durability, Workload workload) throws Exception {
+        Path directory = Files.createTempDirectory("batch-benchmark");
+        try {
+            try (FileStorage storage = new FileStorage(directory, durability)) {
+                CounterService service = new CounterService(storage);
+                long start = System.nanoTime();
+                workload.run(service);
+                return System.nanoTime() - start;
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private interface Workload {
+        void run(CounterService service);
+    }
+}
@@ -0,0 +1,58 @@
+package bench;
+
+import counters.CounterType;
+import storage.ColumnarSnapshot;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Замер записи, открытия и чтения {@link ColumnarSnapshot}.
+ * <p>
+ * Запуск: {@code java bench.ColumnarSnapshotBenchmark [показаний]}. Каждый синтетический пользователь имеет
+ * показания по всем счетчикам за 12 месяцев.
+ */
+public class ColumnarSnapshotBenchmark {
+    private static final int READINGS_PER_USER = CounterType.values().length * 12;
+
+    public static void main(String[] args) throws Exception {
+        int readings = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int userCount = readings / READINGS_PER_USER;
+        Path file = Files.createTempFile("columnar-snapshot", ".readings");
+
+        try {
+            long start = System.nanoTime();
+            ColumnarSnapshot.write(file, visitor -> {
+                for (int userId = 1; userId <= userCount; userId++) {
+                    for (CounterType counterType : CounterType.values()) {
+                        for (int month = 0; month < 12; month++) {
+                            visitor.visit(userId, counterType, 2024 * 12 + month, month * 10);
+                        }
+                    }
+                }
+            });
+            System.out.printf("Запись: %d показаний, %d МБ за %d мс%n",
+                    userCount * READINGS_PER_USER, Files.size(file) >> 20, (System.nanoTime() - start) / 1_000_000);
+
+            start = System.nanoTime();
+            ColumnarSnapshot snapshot = ColumnarSnapshot.open(file);
+            System.out.printf("Открытие: %.2f мс%n", (System.nanoTime() - start) / 1e6);
+
+            start = System.nanoTime();
+            long[] sum = new long[1];
+            snapshot.forEachReading((userId, counterType, epochMonth, value) -> sum[0] += value);
+            System.out.printf("Полный обход: %d мс (контрольная сумма %d)%n", (System.nanoTime() - start) / 1_000_000, sum[0]);
+
+            int lookups = 100_000;
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                int userId = ThreadLocalRandom.current().nextInt(1, userCount + 1);
+                snapshot.forEachReadingOfUser(userId, (id, counterType, epochMonth, value) -> sum[0] += value);
+            }
+            System.out.printf("Загрузка одного пользователя: %.2f мкс%n", (System.nanoTime() - start) / 1e3 / lookups);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package bench;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Генератор нагрузки для {@link api.HttpApiServer}.
+ * <p>
+ * Запуск: {@code java bench.HttpLoadGenerator [адрес] [клиентов] [секунд]}. Каждый клиент регистрирует
+ * собственного пользователя, авторизуется и в цикле подает показания и запрашивает последнее показание.
+ * По завершении печатает число запросов в секунду и перцентили задержки.
+ */
+public class HttpLoadGenerator {
+    private static final Pattern TOKEN = Pattern.compile("\"token\":\"([^\"]+)\"");
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        ExecutorService workers = Executors.newFixedThreadPool(clients);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<long[]>> results = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            results.add(workers.submit(() -> runClient(client, baseUrl, deadline)));
+        }
+
+        long[] latencies = new long[0];
+        long errors = 0;
+        for (Future<long[]> result : results) {
+            long[] clientLatencies = result.get();
+            int size = (int) clientLatencies[0];
+            errors += clientLatencies[1];
+            int offset = latencies.length;
+            latencies = Arrays.copyOf(latencies, offset + size);
+            System.arraycopy(clientLatencies, 2, latencies, offset, size);
+        }
+        workers.shutdown();
+
+        Arrays.sort(latencies);
+        System.out.printf("Клиентов: %d, запросов: %d, ошибок: %d%n", clients, latencies.length, errors);
+        System.out.printf("Запросов в секунду: %.0f%n", latencies.length / (double) seconds);
+        System.out.printf("p50: %.2f мс, p99: %.2f мс, max: %.2f мс%n",
+                percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 1.0));
+    }
+
+    /**
+     * Выполняет запросы одного клиента до истечения времени.
+     *
+     * @return Массив: количество замеров, количество ошибок, затем задержки в наносекундах.
+     */
+    private static long[] runClient(HttpClient client, String baseUrl, long deadline) throws Exception {
+        String username = "load-" + UUID.randomUUID();
+        String credentials = "{\"username\":\"" + username + "\",\"password\":\"secret\"}";
+        send(client, post(baseUrl + "/register", credentials));
+        Matcher matcher = TOKEN.matcher(send(client, post(baseUrl + "/authenticate", credentials)).body());
+        if (!matcher.find()) {
+            throw new IllegalStateException("Не удалось авторизоваться.");
+        }
+        String authorization = "Bearer " + matcher.group(1);
+
+        long[] samples = new long[1024];
+        int size = 0;
+        long errors = 0;
+        int month = 0;
+        while (System.nanoTime() < deadline) {
+            HttpRequest request;
+            if ((size & 1) == 0) {
+                month++;
+                String body = "{\"counterType\":\"COLD_WATER\",\"year\":" + (2000 + month / 12) + ",\"month\":" + (month % 12 + 1)
+                        + ",\"value\":" + ThreadLocalRandom.current().nextInt(1, 1000) + "}";
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/submit-reading"))
+                        .header("Authorization", authorization)
+                        .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+            } else {
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/latest-reading?counterType=COLD_WATER"))
+                        .header("Authorization", authorization).GET().build();
+            }
+            long start = System.nanoTime();
+            HttpResponse<String> response = send(client, request);
+            long elapsed = System.nanoTime() - start;
+            if (response.statusCode() != 200) {
+                errors++;
+            }
+            if (size == samples.length) {
+                samples = Arrays.copyOf(samples, size * 2);
+            }
+            samples[size++] = elapsed;
+        }
+        long[] result = new long[size + 2];
+        result[0] = size;
+        result[1] = errors;
+        System.arraycopy(samples, 0, result, 2, size);
+        return result;
+    }
+
+    private static HttpRequest post(String url, String body) {
+        return HttpRequest.newBuilder(URI.create(url)).POST(HttpRequest.BodyPublishers.ofString(body)).build();
+    }
+
+    private static HttpResponse<String> send(HttpClient client, HttpRequest request) throws Exception {
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
@@ -0,0 +1,67 @@
+package bench;
+
+import storage.InMemoryStorage;
+import users.PasswordHasher;
+import users.PasswordVerifier;
+import users.Role;
+import users.UserRepository;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Пропускная способность входа при разном числе итераций PBKDF2, без кэша проверок и с ним.
+ * <p>
+ * Запуск: {@code java bench.LoginBenchmark [потоков клиентов] [секунд на замер]}. Проверки паролей
+ * выполняются пулом размером в половину процессоров. Каждый клиент по кругу входит под своими
+ * {@value #USERS_PER_CLIENT} пользователями, поэтому с кэшем дорогой хэш считается по разу на пользователя.
+ */
+public class LoginBenchmark {
+    private static final int[] WORK_FACTORS = {10_000, 100_000, 310_000, PasswordHasher.DEFAULT_ITERATIONS};
+    private static final int USERS_PER_CLIENT = 4;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+        System.out.printf("Клиентов: %d, потоков проверки: %d%n", clients, threads);
+        for (int iterations : WORK_FACTORS) {
+            PasswordHasher hasher = new PasswordHasher(iterations);
+            double uncached = measure(hasher, new PasswordVerifier(threads, 1024, Duration.ZERO, 0), clients, seconds);
+            double cached = measure(hasher, new PasswordVerifier(threads, 1024, Duration.ofSeconds(30), 10_000),
+                    clients, seconds);
+            System.out.printf("Итераций %,d: %.0f входов/с без кэша, %.0f входов/с с кэшем%n",
+                    iterations, uncached, cached);
+        }
+    }
+
+    private static double measure(PasswordHasher hasher, PasswordVerifier verifier, int clients, int seconds)
+            throws InterruptedException {
+        UserRepository repository = new UserRepository(InMemoryStorage.INSTANCE, hasher, verifier);
+        for (int i = 0; i < clients * USERS_PER_CLIENT; i++) {
+            repository.registerUser("user" + i, "password" + i, Role.USER);
+        }
+
+        LongAdder logins = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService workers = Executors.newFixedThreadPool(clients);
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            int offset = c;
+            workers.execute(() -> {
+                for (int i = 0; System.nanoTime() < deadline; i++) {
+                    int user = offset + clients * (i % USERS_PER_CLIENT);
+                    repository.authenticateUser("user" + user, "password" + user);
+                    logins.increment();
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(seconds + 60L, TimeUnit.SECONDS);
+        return logins.sum() * 1e9 / (System.nanoTime() - start);
+    }
+}
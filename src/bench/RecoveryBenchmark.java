@@ -0,0 +1,112 @@
+package bench;
+
+import counters.CounterService;
+import counters.CounterType;
+import storage.Durability;
+import storage.FileStorage;
+import users.Role;
+import users.User;
+import users.UserRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Замер пропускной способности сохраняемой подачи показаний и времени восстановления из {@link FileStorage}.
+ * <p>
+ * Запуск: {@code java bench.RecoveryBenchmark [пользователей] [потоков] [FSYNC|WRITE|ASYNC]}.
+ * Каждый пользователь подает показания по всем счетчикам за 12 месяцев. Восстановление замеряется дважды:
+ * проигрыванием всего журнала и загрузкой снимка состояния.
+ */
+public class RecoveryBenchmark {
+    public static void main(String[] args) throws Exception {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors() * 4;
+        Durability durability = args.length > 2 ? Durability.valueOf(args[2]) : Durability.FSYNC;
+        Path directory = Files.createTempDirectory("recovery-benchmark");
+
+        try {
+            int readings;
+            try (FileStorage storage = new FileStorage(directory, durability)) {
+                UserRepository userRepository = new UserRepository(storage);
+                CounterService counterService = new CounterService(storage);
+                List<User> users = new ArrayList<>();
+                for (int i = 0; i < userCount; i++) {
+                    userRepository.registerUser("user" + i, "password", Role.USER);
+                    users.add(userRepository.getUserByUsername("user" + i));
+                }
+                readings = submitAll(counterService, users, threads, durability);
+            }
+
+            measureRecovery("Восстановление из журнала", directory, durability, readings);
+
+            try (FileStorage storage = new FileStorage(directory, durability)) {
+                UserRepository userRepository = new UserRepository(storage);
+                CounterService counterService = new CounterService(storage);
+                storage.checkpoint(userRepository, counterService);
+            }
+
+            measureRecovery("Восстановление из снимка", directory, durability, readings);
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    private static int submitAll(CounterService counterService, List<User> users, int threads, Durability durability)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        int perThread = (users.size() + threads - 1) / threads;
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            List<User> slice = users.subList(Math.min(users.size(), t * perThread),
+                    Math.min(users.size(), (t + 1) * perThread));
+            futures.add(executor.submit(() -> {
+                for (User user : slice) {
+                    for (CounterType counterType : CounterType.values()) {
+                        for (int month = 1; month <= 12; month++) {
+                            counterService.submitCounterReading(user, counterType, YearMonth.of(2024, month), month * 10);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        int readings = users.size() * CounterType.values().length * 12;
+        System.out.printf("Подача (%s, %d потоков): %d показаний за %d мс, %.0f показаний/с%n",
+                durability, threads, readings, elapsed / 1_000_000, readings * 1e9 / elapsed);
+        return readings;
+    }
+
+    private static void measureRecovery(String title, Path directory, Durability durability, int expected) {
+        long start = System.nanoTime();
+        int[] restored = new int[1];
+        try (FileStorage storage = new FileStorage(directory, durability)) {
+            UserRepository userRepository = new UserRepository(storage);
+            CounterService counterService = new CounterService(storage);
+            long elapsed = System.nanoTime() - start;
+            counterService.forEachReading((userId, counterType, epochMonth, value) -> restored[0]++);
+            System.out.printf("%s: %d из %d показаний за %d мс%n", title, restored[0], expected, elapsed / 1_000_000);
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package bench;
+
+import counters.CounterService;
+import counters.CounterType;
+import counters.ReadingVisitor;
+import reports.ReportFormat;
+import reports.ReportGenerator;
+import storage.ColumnarSnapshot;
+import storage.ReadingStore;
+import users.UserRepository;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Замер выгрузки всех показаний через {@link ReportGenerator}.
+ * <p>
+ * Запуск: {@code java bench.ReportBenchmark [пользователей] [потоков] [CSV|JSON]}. Показания синтетических
+ * пользователей (один счетчик, 12 месяцев) записываются в колоночный снимок, сервис счетчиков открывается
+ * поверх него без загрузки в память, выгрузка пишется в поток, который только считает байты. Печатается
+ * время, объем и пиковое использование кучи во время выгрузки.
+ */
+public class ReportBenchmark {
+    public static void main(String[] args) throws Exception {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        ReportFormat format = args.length > 2 ? ReportFormat.valueOf(args[2]) : ReportFormat.CSV;
+        Path file = Files.createTempFile("report-benchmark", ".readings");
+
+        try {
+            ColumnarSnapshot.write(file, visitor -> {
+                for (int userId = 1; userId <= userCount; userId++) {
+                    for (int month = 0; month < 12; month++) {
+                        visitor.visit(userId, CounterType.HEATING, 2024 * 12 + month, month * 10);
+                    }
+                }
+            });
+            CounterService counterService = new CounterService(new SnapshotStore(ColumnarSnapshot.open(file)));
+            System.gc();
+
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                pool.resetPeakUsage();
+            }
+            CountingOutputStream out = new CountingOutputStream();
+            long start = System.nanoTime();
+            long rows;
+            try (ReportGenerator generator = new ReportGenerator(counterService, new UserRepository(), parallelism)) {
+                rows = generator.generate(out, format, null, null);
+            }
+            long elapsed = System.nanoTime() - start;
+
+            long peakHeap = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    peakHeap += pool.getPeakUsage().getUsed();
+                }
+            }
+            System.out.printf("%s, %d потоков: %d показаний, %d МБ за %d мс (%.0f МБ/с), пик кучи %d МБ%n",
+                    format, parallelism, rows, out.bytes >> 20, elapsed / 1_000_000,
+                    out.bytes / 1e6 / (elapsed / 1e9), peakHeap >> 20);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Хранилище, содержащее только снимок показаний.
+     */
+    private static final class SnapshotStore implements ReadingStore {
+        private final ColumnarSnapshot snapshot;
+
+        SnapshotStore(ColumnarSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public void appendReading(int userId, CounterType counterType, int epochMonth, int value) {
+        }
+
+        @Override
+        public void appendReadings(int[] userIds, CounterType[] counterTypes, int[] epochMonths, int[] values,
+                                   int count) {
+        }
+
+        @Override
+        public ColumnarSnapshot openReadingSnapshot() {
+            return snapshot;
+        }
+
+        @Override
+        public void loadReadings(ReadingVisitor visitor) {
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long bytes;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package counters;
+
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Счетчик, хранящий показания в двух параллельных примитивных массивах кучи. Запись в конец массива
+ * выполняется на месте, а вставка в середину, перезапись и расширение создают новые массивы. Благодаря этому
+ * уже выданные представления истории никогда не видят изменений и не требуют копирования, а обход
+ * выполняется без блокировки.
+ */
+final class ArrayCounterReading extends CounterReading {
+    private static final int INITIAL_CAPACITY = 12;
+
+    private int[] months = new int[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int size;
+
+    @Override
+    int forEachReading(int fromMonth, int toMonth, int limit, int userId, CounterType counterType,
+                       ReadingVisitor visitor) {
+        int[] capturedMonths;
+        int[] capturedValues;
+        int capturedSize;
+        synchronized (this) {
+            capturedMonths = months;
+            capturedValues = values;
+            capturedSize = size;
+        }
+        int index = Arrays.binarySearch(capturedMonths, 0, capturedSize, fromMonth);
+        int position = index >= 0 ? index : -index - 1;
+        for (int visited = 0; position < capturedSize && capturedMonths[position] <= toMonth; position++, visited++) {
+            if (visited == limit) {
+                return capturedMonths[position];
+            }
+            visitor.visit(userId, counterType, capturedMonths[position], capturedValues[position]);
+        }
+        return CounterService.HISTORY_END;
+    }
+
+    @Override
+    synchronized void release() {
+        months = new int[0];
+        values = new int[0];
+        size = 0;
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    int monthAt(int index) {
+        return months[index];
+    }
+
+    @Override
+    int valueAt(int index) {
+        return values[index];
+    }
+
+    @Override
+    int indexOf(int month) {
+        return Arrays.binarySearch(months, 0, size, month);
+    }
+
+    @Override
+    Map<YearMonth, Integer> view(int from, int to) {
+        return new ReadingsView(months, values, from, to);
+    }
+
+    @Override
+    void store(int month, int value) {
+        int index = Arrays.binarySearch(months, 0, size, month);
+        if (index >= 0) {
+            int[] newValues = Arrays.copyOf(values, months.length);
+            newValues[index] = value;
+            values = newValues;
+            return;
+        }
+        int insertAt = -index - 1;
+        if (insertAt == size && size < months.length) {
+            months[size] = month;
+            values[size] = value;
+            size++;
+            return;
+        }
+        int capacity = size < months.length ? months.length : Math.max(INITIAL_CAPACITY, months.length * 2);
+        int[] newMonths = new int[capacity];
+        int[] newValues = new int[capacity];
+        System.arraycopy(months, 0, newMonths, 0, insertAt);
+        System.arraycopy(values, 0, newValues, 0, insertAt);
+        newMonths[insertAt] = month;
+        newValues[insertAt] = value;
+        System.arraycopy(months, insertAt, newMonths, insertAt + 1, size - insertAt);
+        System.arraycopy(values, insertAt, newValues, insertAt + 1, size - insertAt);
+        months = newMonths;
+        values = newValues;
+        size++;
+    }
+
+    @Override
+    void delete(int index) {
+        // новые массивы: иначе следующая запись в конец изменила бы уже выданные представления
+        int[] newMonths = new int[months.length];
+        int[] newValues = new int[values.length];
+        System.arraycopy(months, 0, newMonths, 0, index);
+        System.arraycopy(values, 0, newValues, 0, index);
+        System.arraycopy(months, index + 1, newMonths, index, size - index - 1);
+        System.arraycopy(values, index + 1, newValues, index, size - index - 1);
+        months = newMonths;
+        values = newValues;
+        size--;
+    }
+}
@@ -0,0 +1,86 @@
+package counters;
+
+/**
+ * Результат пакетной подачи показаний: для каждого элемента пакета, в порядке подачи, - принят он или нет
+ * и по какой причине.
+ */
+public final class BatchResult {
+    private final RejectionCode[] errors;
+    private int rejectedCount;
+
+    BatchResult(int size) {
+        this.errors = new RejectionCode[size];
+    }
+
+    void reject(int index, RejectionCode error) {
+        if (errors[index] == null) {
+            rejectedCount++;
+        }
+        errors[index] = error;
+    }
+
+    /**
+     * Собирает результат пакета, поданного по частям, например в разные шарды.
+     *
+     * @param size      Размер исходного пакета.
+     * @param parts     Результаты частей.
+     * @param positions Для каждой части - позиции ее элементов в исходном пакете.
+     * @return Результат исходного пакета.
+     */
+    public static BatchResult merge(int size, BatchResult[] parts, int[][] positions) {
+        BatchResult result = new BatchResult(size);
+        for (int p = 0; p < parts.length; p++) {
+            for (int i = 0; i < parts[p].size(); i++) {
+                if (!parts[p].isAccepted(i)) {
+                    result.reject(positions[p][i], parts[p].getRejectionCode(i));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Количество элементов в пакете.
+     */
+    public int size() {
+        return errors.length;
+    }
+
+    /**
+     * @return Количество принятых показаний.
+     */
+    public int getAcceptedCount() {
+        return errors.length - rejectedCount;
+    }
+
+    /**
+     * @return Количество отклоненных показаний.
+     */
+    public int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @param index Позиция элемента в пакете.
+     * @return {@code true}, если показание принято.
+     */
+    public boolean isAccepted(int index) {
+        return errors[index] == null;
+    }
+
+    /**
+     * @param index Позиция элемента в пакете.
+     * @return Причина отклонения или {@code null}, если показание принято.
+     */
+    public String getError(int index) {
+        return errors[index] != null ? errors[index].getMessage() : null;
+    }
+
+    /**
+     * @param index Позиция элемента в пакете.
+     * @return Код причины отклонения или {@code null}, если показание принято.
+     */
+    public RejectionCode getRejectionCode(int index) {
+        return errors[index];
+    }
+}
@@ -1,52 +1,375 @@
 package counters;
 
-import java.time.Month;
-import java.util.HashMap;
+import java.time.YearMonth;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 /**
- * Класс, представляющий сущность для хранения и управления показаниями счетчика за разные месяцы.
+ * Класс, представляющий сущность для хранения и управления показаниями счетчика за разные месяцы и годы.
+ * Все операции синхронизированы на экземпляре, поэтому каждый счетчик является отдельной блокировкой.
+ * <p>
+ * Показания упорядочены по номеру месяца ({@link EpochMonths}), поэтому последнее показание всегда находится
+ * в конце. Здесь реализованы проверки и поиск; способ хранения определяют подклассы: {@link ArrayCounterReading}
+ * хранит показания в массивах кучи, {@link OffHeapCounterReading} - в {@link ReadingArena} вне кучи.
  */
-public class CounterReading {
-    private Map<Month, Integer> readings = new HashMap<>();
+public abstract class CounterReading {
+    CounterReading() {
+    }
+
     /**
      * Метод для подачи показания счетчика для указанного месяца.
      *
-     * @param month Месяц, для которого подается показание.
-     * @param value Показание счетчика.
+     * @param yearMonth Месяц, для которого подается показание.
+     * @param value     Показание счетчика.
+     */
+    public synchronized void submitReading(YearMonth yearMonth, int value) {
+        store(EpochMonths.toEpochMonth(yearMonth), value);
+    }
+    /**
+     * Атомарно подает показание, если за указанный месяц показание еще не было подано.
+     *
+     * @param yearMonth Месяц, для которого подается показание.
+     * @param value     Показание счетчика.
+     * @return {@code true}, если показание записано, {@code false}, если месяц уже занят.
+     */
+    public synchronized boolean submitReadingIfAbsent(YearMonth yearMonth, int value) {
+        int epochMonth = EpochMonths.toEpochMonth(yearMonth);
+        if (indexOf(epochMonth) >= 0) {
+            return false;
+        }
+        store(epochMonth, value);
+        return true;
+    }
+    /**
+     * Проверяет показание относительно уже записанных. Вызывающий держит блокировку счетчика до
+     * {@link #writeReading}, чтобы между проверкой и записью месяц не занял другой поток.
+     *
+     * @param epochMonth  Номер месяца.
+     * @param value       Показание счетчика.
+     * @param rules       Правила проверки.
+     * @param counterType Тип счетчика.
+     * @return Причина отклонения или {@code null}, если показание допустимо.
+     */
+    synchronized RejectionCode checkReading(int epochMonth, int value, ValidationRules rules, CounterType counterType) {
+        return validate(epochMonth, value, rules, counterType);
+    }
+    /**
+     * Записывает проверенное показание и сообщает о записи получателю изменений.
+     *
+     * @param epochMonth  Номер месяца.
+     * @param value       Показание счетчика.
+     * @param userId      Идентификатор владельца счетчика для получателя.
+     * @param counterType Тип счетчика.
+     * @param listener    Получатель изменений или {@code null}.
+     */
+    synchronized void writeReading(int epochMonth, int value, int userId, CounterType counterType,
+                                   ReadingListener listener) {
+        put(epochMonth, value, userId, counterType, listener);
+    }
+    /**
+     * Отменяет запись показания, которое не удалось сохранить в хранилище. Показание удаляется, только если
+     * за месяц все еще записано это значение.
+     *
+     * @param epochMonth  Номер месяца.
+     * @param value       Отменяемое показание.
+     * @param userId      Идентификатор владельца счетчика для получателя.
+     * @param counterType Тип счетчика.
+     * @param listener    Получатель изменений или {@code null}.
+     * @return {@code true}, если показание удалено.
+     */
+    synchronized boolean removeReading(int epochMonth, int value, int userId, CounterType counterType,
+                                       ReadingListener listener) {
+        int index = indexOf(epochMonth);
+        if (index < 0 || valueAt(index) != value) {
+            return false;
+        }
+        int size = size();
+        int previousValue = index > 0 ? valueAt(index - 1) : ReadingListener.NO_READING;
+        int nextMonth = index + 1 < size ? monthAt(index + 1) : 0;
+        int nextValue = index + 1 < size ? valueAt(index + 1) : ReadingListener.NO_READING;
+        delete(index);
+        if (listener != null) {
+            listener.readingRemoved(userId, counterType, epochMonth, value, previousValue, nextMonth, nextValue);
+        }
+        return true;
+    }
+    /**
+     * Атомарно проверяет и записывает группу показаний под одной блокировкой. Показания обрабатываются
+     * в порядке месяцев и проверяются относительно соседних показаний, включая показания, принятые ранее
+     * в этой же группе.
+     *
+     * @param epochMonths Номера месяцев, отсортированные по возрастанию в пределах группы.
+     * @param values      Показания.
+     * @param from        Начало группы в массивах.
+     * @param count       Количество показаний в группе.
+     * @param errors      Причины отклонения; для принятых показаний записывается {@code null}.
+     * @param rules       Правила проверки.
+     * @param userId      Идентификатор владельца счетчика для получателя.
+     * @param counterType Тип счетчика.
+     * @param listener    Получатель изменений или {@code null}.
+     * @return Количество принятых показаний.
      */
-    public void submitReading(Month month, int value) {
-        readings.put(month, value);
+    synchronized int submitReadingsIfValid(int[] epochMonths, int[] values, int from, int count, RejectionCode[] errors,
+                                           ValidationRules rules, int userId, CounterType counterType,
+                                           ReadingListener listener) {
+        int accepted = 0;
+        for (int i = from; i < from + count; i++) {
+            errors[i] = validate(epochMonths[i], values[i], rules, counterType);
+            if (errors[i] == null) {
+                put(epochMonths[i], values[i], userId, counterType, listener);
+                accepted++;
+            }
+        }
+        return accepted;
     }
     /**
      * Получение показания счетчика для указанного месяца.
      *
-     * @param month Месяц, для которого запрашивается показание.
+     * @param yearMonth Месяц, для которого запрашивается показание.
      * @return Показание счетчика для указанного месяца или 0, если показание отсутствует.
      */
-    public int getReadingForMonth(Month month) {
-        return readings.getOrDefault(month, 0);
+    public synchronized int getReadingForMonth(YearMonth yearMonth) {
+        int index = indexOf(EpochMonths.toEpochMonth(yearMonth));
+        return index >= 0 ? valueAt(index) : 0;
     }
     /**
      * Получение истории показаний счетчика за все месяцы.
      *
-     * @return Копия карты с показаниями за разные месяцы.
+     * @return Неизменяемое представление показаний в хронологическом порядке.
      */
-    public Map<Month, Integer> getReadingsHistory() {
-        return new HashMap<>(readings);
+    public synchronized Map<YearMonth, Integer> getReadingsHistory() {
+        return view(0, size());
+    }
+    /**
+     * Получение показаний за диапазон месяцев включительно. Стоимость - O(log n) на поиск границ.
+     *
+     * @param from Первый месяц диапазона.
+     * @param to   Последний месяц диапазона.
+     * @return Неизменяемое представление показаний в хронологическом порядке.
+     */
+    public synchronized Map<YearMonth, Integer> getReadings(YearMonth from, YearMonth to) {
+        int fromIndex = lowerBound(EpochMonths.toEpochMonth(from));
+        int toIndex = lowerBound(EpochMonths.toEpochMonth(to) + 1);
+        return view(fromIndex, Math.max(fromIndex, toIndex));
+    }
+    /**
+     * Получение последних показаний.
+     *
+     * @param count Максимальное количество показаний.
+     * @return Неизменяемое представление не более чем {@code count} последних показаний в хронологическом порядке.
+     */
+    public synchronized Map<YearMonth, Integer> getLatestReadings(int count) {
+        return view(Math.max(0, size() - Math.max(0, count)), size());
     }
 
     /**
      * Получение последнего зарегистрированного показания счетчика.
      *
-     * @return Последнее зарегистрированное показание счетчика.
+     * @return Последнее зарегистрированное показание счетчика или 0, если показаний нет.
      */
-    public int getLatestReading() {
-        Month latestMonth = Month.JANUARY; // начальное значение
-        for (Month month : readings.keySet()) {
-            if (month.compareTo(latestMonth) > 0) {
-                latestMonth = month;
+    public synchronized int getLatestReading() {
+        int size = size();
+        return size > 0 ? valueAt(size - 1) : 0;
+    }
+
+    /**
+     * Восстанавливает показание из хранилища, перезаписывая существующее.
+     *
+     * @param epochMonth Номер месяца.
+     * @param value      Показание счетчика.
+     */
+    synchronized void restoreReading(int epochMonth, int value) {
+        store(epochMonth, value);
+    }
+
+    /**
+     * Передает все показания обработчику.
+     */
+    void forEachReading(int userId, CounterType counterType, ReadingVisitor visitor) {
+        forEachReading(Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, userId, counterType, visitor);
+    }
+
+    /**
+     * Передает обработчику не более {@code limit} показаний за диапазон месяцев включительно в порядке месяцев.
+     * Обработчик вызывается без блокировки счетчика, поэтому может писать в поток.
+     *
+     * @param fromMonth   Первый номер месяца диапазона.
+     * @param toMonth     Последний номер месяца диапазона.
+     * @param limit       Максимальное количество показаний.
+     * @param userId      Идентификатор владельца счетчика для обработчика.
+     * @param counterType Тип счетчика для обработчика.
+     * @param visitor     Обработчик показаний.
+     * @return Номер месяца следующего показания диапазона или {@link CounterService#HISTORY_END}, если
+     *         показаний в диапазоне больше нет.
+     */
+    abstract int forEachReading(int fromMonth, int toMonth, int limit, int userId, CounterType counterType,
+                                ReadingVisitor visitor);
+
+    /**
+     * Освобождает память показаний; после вызова счетчик пуст.
+     */
+    abstract void release();
+
+    /**
+     * @return Количество показаний. Вызывается под блокировкой счетчика, как и остальные методы доступа.
+     */
+    abstract int size();
+
+    abstract int monthAt(int index);
+
+    abstract int valueAt(int index);
+
+    /**
+     * Записывает показание, перезаписывая показание за тот же месяц.
+     */
+    abstract void store(int month, int value);
+
+    /**
+     * Удаляет показание с указанной позиции.
+     */
+    abstract void delete(int index);
+
+    /**
+     * @return Неизменяемое представление показаний с позициями {@code [from, to)}, не зависящее от дальнейших
+     *         изменений счетчика.
+     */
+    abstract Map<YearMonth, Integer> view(int from, int to);
+
+    /**
+     * @return Позиция показания за месяц или {@code -(точка вставки) - 1}, как у {@link Arrays#binarySearch}.
+     */
+    int indexOf(int month) {
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleMonth = monthAt(middle);
+            if (middleMonth < month) {
+                low = middle + 1;
+            } else if (middleMonth > month) {
+                high = middle - 1;
+            } else {
+                return middle;
             }
         }
-        return getReadingForMonth(latestMonth);
+        return -(low + 1);
+    }
+
+    int lowerBound(int month) {
+        int index = indexOf(month);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Проверяет показание: месяц не должен быть занят, даже нулевым показанием, а соседние показания
+     * проверяются правилами за один поиск.
+     */
+    private RejectionCode validate(int month, int value, ValidationRules rules, CounterType counterType) {
+        int index = indexOf(month);
+        if (index >= 0) {
+            return RejectionCode.DUPLICATE_MONTH;
+        }
+        int size = size();
+        int next = -index - 1;
+        int previous = next - 1;
+        return rules.check(counterType, month, value,
+                previous >= 0 ? monthAt(previous) : ReadingListener.NO_READING,
+                previous >= 0 ? valueAt(previous) : 0,
+                next < size ? monthAt(next) : ReadingListener.NO_READING,
+                next < size ? valueAt(next) : 0);
+    }
+
+    private void put(int month, int value, int userId, CounterType counterType, ReadingListener listener) {
+        if (listener == null) {
+            store(month, value);
+            return;
+        }
+        int size = size();
+        int index = indexOf(month);
+        int previous = index >= 0 ? index - 1 : -index - 2;
+        int next = index >= 0 ? index + 1 : -index - 1;
+        int replacedValue = index >= 0 ? valueAt(index) : ReadingListener.NO_READING;
+        int previousValue = previous >= 0 ? valueAt(previous) : ReadingListener.NO_READING;
+        int nextMonth = next < size ? monthAt(next) : 0;
+        int nextValue = next < size ? valueAt(next) : ReadingListener.NO_READING;
+        store(month, value);
+        listener.readingWritten(userId, counterType, month, value, replacedValue, previousValue, nextMonth, nextValue);
+    }
+
+    /**
+     * Неизменяемое представление диапазона истории поверх массивов, зафиксированных на момент запроса.
+     */
+    static final class ReadingsView extends AbstractMap<YearMonth, Integer> {
+        private final int[] months;
+        private final int[] values;
+        private final int from;
+        private final int to;
+
+        ReadingsView(int[] months, int[] values, int from, int to) {
+            this.months = months;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key) >= 0;
+        }
+
+        @Override
+        public Integer get(Object key) {
+            int index = indexOf(key);
+            return index >= 0 ? values[index] : null;
+        }
+
+        private int indexOf(Object key) {
+            if (!(key instanceof YearMonth)) {
+                return -1;
+            }
+            return Arrays.binarySearch(months, from, to, EpochMonths.toEpochMonth((YearMonth) key));
+        }
+
+        @Override
+        public Set<Entry<YearMonth, Integer>> entrySet() {
+            return new AbstractSet<Entry<YearMonth, Integer>>() {
+                @Override
+                public Iterator<Entry<YearMonth, Integer>> iterator() {
+                    return new Iterator<Entry<YearMonth, Integer>>() {
+                        private int position = from;
+
+                        @Override
+                        public boolean hasNext() {
+                            return position < to;
+                        }
+
+                        @Override
+                        public Entry<YearMonth, Integer> next() {
+                            if (position >= to) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<YearMonth, Integer> entry = new SimpleImmutableEntry<>(
+                                    EpochMonths.toYearMonth(months[position]), values[position]);
+                            position++;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return to - from;
+                }
+            };
+        }
     }
 }
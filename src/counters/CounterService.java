@@ -1,45 +1,324 @@
 package counters;
 
 import exceptions.CounterSubmissionException;
+import storage.ColumnarSnapshot;
+import storage.InMemoryStorage;
+import storage.ReadingStore;
 import users.User;
+import users.UserIdAllocator;
+import users.UserIdTable;
 
-import java.time.Month;
-import java.util.HashMap;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Сервис для управления счетчиками.
+ * <p>
+ * Счетчики хранятся по идентификатору пользователя, а не по объекту {@link User}: методы принимают
+ * идентификатор напрямую, а варианты с {@link User} используют только {@link User#getId()}. Таблица
+ * пользователей - {@link UserIdTable}, счетчики пользователя - массив по идентификатору типа счетчика
+ * ({@link CounterType#getId()}). Пользователь добавляется в таблицу атомарно без блокировок; счетчик
+ * создается один раз под блокировкой массива пользователя, которая также защищает расширение массива
+ * под типы, зарегистрированные во время работы. Проверка и запись показания выполняются атомарно под
+ * блокировкой конкретного {@link CounterReading}, поэтому подачи разных пользователей и разных счетчиков
+ * не конкурируют между собой.
+ * <p>
+ * Одиночное показание передается в {@link ReadingStore} и только затем применяется в памяти, все под
+ * блокировкой счетчика: при ошибке хранилища показание не становится видимым, а обход для снимка, который
+ * берет ту же блокировку, не пропустит показание, уже записанное в журнал. Пакет применяется в памяти
+ * до записи в хранилище, а при ошибке хранилища принятые показания удаляются.
+ * <p>
+ * При восстановлении из {@link ColumnarSnapshot} показания пользователя переносятся из снимка в память
+ * только при первом обращении к его счетчикам, поэтому запуск не зависит от размера снимка.
+ * <p>
+ * Пакетная подача {@link #submitCounterReadings(List)} группирует показания по счетчикам и применяет каждую
+ * группу под одной блокировкой и одной записью в хранилище.
+ * <p>
+ * Последние показания читаются через {@link LatestReadingCache}: при попадании не берется ни блокировка
+ * счетчика, ни перенос пользователя из снимка. Кэш заполняется при промахе и обновляется при записи
+ * показания, в обоих случаях под блокировкой счетчика, поэтому он никогда не отстает от записанных данных.
+ * <p>
+ * Показания счетчиков хранятся в массивах кучи или, если сервису передана {@link ReadingArena}, в памяти вне кучи.
+ * <p>
+ * Подаваемые показания проверяются по {@link ValidationRules}; отклонение возвращается кодом
+ * {@link RejectionCode} из {@link #trySubmitCounterReading}, а исключение создают только методы, которые
+ * сообщают об отклонении исключением.
  */
 public class CounterService {
-    private Map<User, Map<CounterType, CounterReading>> userCounters = new HashMap<>();
+    /**
+     * Максимальный размер пакета: позиция показания в пакете занимает 24 бита ключа сортировки.
+     */
+    public static final int MAX_BATCH_SIZE = 1 << 24;
+    /**
+     * Емкость кэша последних показаний по умолчанию.
+     */
+    public static final int DEFAULT_LATEST_CACHE_CAPACITY = 1 << 16;
+    /**
+     * Результат {@link #visitCounterHistory}, если показаний в диапазоне больше нет.
+     */
+    public static final int HISTORY_END = Integer.MIN_VALUE;
+
+    private final UserIdTable<AtomicReferenceArray<CounterReading>> userCounters;
+    private final ReadingStore readingStore;
+    private final MeterTypeRegistry meterTypes;
+    private final ColumnarSnapshot snapshot;
+    private final LatestReadingCache latestReadings;
+    private final ReadingArena arena;
+    private final ReadingListener writeListener = this::readingWritten;
+    private volatile ReadingListener readingListener;
+    private volatile ValidationRules validationRules = ValidationRules.DEFAULT;
+
+    /**
+     * Создает сервис, хранящий показания только в памяти.
+     */
+    public CounterService() {
+        this.readingStore = InMemoryStorage.INSTANCE;
+        this.meterTypes = readingStore.getMeterTypes();
+        this.snapshot = null;
+        this.userCounters = new UserIdTable<>(new UserIdAllocator());
+        this.latestReadings = new LatestReadingCache(DEFAULT_LATEST_CACHE_CAPACITY);
+        this.arena = null;
+    }
+
+    /**
+     * Создает сервис поверх хранилища и восстанавливает из него ранее поданные показания. Показания из снимка
+     * загружаются лениво, показания из журнала применяются сразу.
+     *
+     * @param readingStore Хранилище показаний.
+     */
+    public CounterService(ReadingStore readingStore) {
+        this(readingStore, new UserIdAllocator());
+    }
+
+    /**
+     * Создает сервис поверх хранилища с плотным хранением счетчиков пользователей из диапазона указанного узла.
+     *
+     * @param readingStore Хранилище показаний.
+     * @param idRange      Выдача идентификаторов узла, чей диапазон хранится в массиве.
+     */
+    public CounterService(ReadingStore readingStore, UserIdAllocator idRange) {
+        this(readingStore, idRange, DEFAULT_LATEST_CACHE_CAPACITY);
+    }
+
+    /**
+     * Создает сервис поверх хранилища с кэшем последних показаний заданной емкости.
+     *
+     * @param readingStore        Хранилище показаний.
+     * @param idRange             Выдача идентификаторов узла, чей диапазон хранится в массиве.
+     * @param latestCacheCapacity Емкость кэша последних показаний.
+     */
+    public CounterService(ReadingStore readingStore, UserIdAllocator idRange, int latestCacheCapacity) {
+        this(readingStore, idRange, latestCacheCapacity, null);
+    }
+
+    /**
+     * Создает сервис, хранящий показания вне кучи. В куче остается по одному небольшому объекту на счетчик,
+     * поэтому объем кучи и паузы сборки мусора почти не зависят от количества показаний.
+     *
+     * @param readingStore        Хранилище показаний.
+     * @param idRange             Выдача идентификаторов узла, чей диапазон хранится в массиве.
+     * @param latestCacheCapacity Емкость кэша последних показаний.
+     * @param arena               Память вне кучи для показаний или {@code null}, чтобы хранить их в куче.
+     */
+    public CounterService(ReadingStore readingStore, UserIdAllocator idRange, int latestCacheCapacity,
+                          ReadingArena arena) {
+        this.arena = arena;
+        this.readingStore = readingStore;
+        this.meterTypes = readingStore.getMeterTypes();
+        this.snapshot = readingStore.openReadingSnapshot();
+        this.userCounters = new UserIdTable<>(idRange);
+        this.latestReadings = new LatestReadingCache(latestCacheCapacity);
+        readingStore.loadReadings((userId, counterType, epochMonth, value) ->
+                counterFor(userId, counterType).restoreReading(epochMonth, value), this::dropUser);
+    }
 
     /**
      * Подает показания счетчика для указанного пользователя, типа счетчика, месяца и значения.
      *
      * @param user        Пользователь.
      * @param counterType Тип счетчика.
-     * @param month       Месяц.
+     * @param yearMonth   Месяц года.
      * @param value       Значение счетчика.
      * @throws CounterSubmissionException Исключение, если подача показаний не удалась.
      */
-    public void submitCounterReading(User user, CounterType counterType, Month month, int value) {
-        if (!userCounters.containsKey(user)) {
-            userCounters.put(user, new HashMap<>());
+    public void submitCounterReading(User user, CounterType counterType, YearMonth yearMonth, int value) {
+        submitCounterReading(user.getId(), counterType, yearMonth, value);
+    }
+    /**
+     * Подает показания счетчика для пользователя с указанным идентификатором.
+     *
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @param yearMonth   Месяц года.
+     * @param value       Значение счетчика.
+     * @throws CounterSubmissionException Исключение, если подача показаний не удалась.
+     */
+    public void submitCounterReading(int userId, CounterType counterType, YearMonth yearMonth, int value) {
+        RejectionCode code = trySubmitCounterReading(userId, counterType, yearMonth, value);
+        if (code != null) {
+            throw new CounterSubmissionException(code);
+        }
+    }
+
+    /**
+     * Подает показание и сообщает об отклонении кодом, а не исключением.
+     *
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @param yearMonth   Месяц года.
+     * @param value       Значение счетчика.
+     * @return Причина отклонения или {@code null}, если показание принято и сохранено.
+     */
+    public RejectionCode trySubmitCounterReading(int userId, CounterType counterType, YearMonth yearMonth, int value) {
+        CounterReading counterReading = counterFor(userId, counterType);
+
+        int epochMonth = EpochMonths.toEpochMonth(yearMonth);
+        synchronized (counterReading) {
+            RejectionCode code = counterReading.checkReading(epochMonth, value, validationRules, counterType);
+            if (code == null) {
+                // ошибка хранилища выходит до записи в память: показание не становится видимым
+                readingStore.appendReading(userId, counterType, epochMonth, value);
+                counterReading.writeReading(epochMonth, value, userId, counterType, writeListener);
+            }
+            return code;
         }
+    }
 
-        Map<CounterType, CounterReading> userReadings = userCounters.get(user);
+    /**
+     * Подает показание, не дожидаясь сохранения в хранилище: показание проверяется, передается хранилищу
+     * и применяется в памяти сразу, а результат завершается после выполнения гарантии сохранности хранилища.
+     * Поэтому один поток может подать много показаний подряд, и хранилище зафиксирует их вместе. Если
+     * хранилище не смогло сохранить показание, оно удаляется из памяти до завершения результата.
+     *
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @param yearMonth   Месяц года.
+     * @param value       Значение счетчика.
+     * @return Future, завершающееся после сохранения, ошибкой хранилища или {@link CounterSubmissionException},
+     *         если показание отклонено.
+     */
+    public CompletableFuture<Void> submitCounterReadingAsync(int userId, CounterType counterType, YearMonth yearMonth,
+                                                             int value) {
+        CounterReading counterReading = counterFor(userId, counterType);
 
-        if (!userReadings.containsKey(counterType)) {
-            userReadings.put(counterType, new CounterReading());
+        int epochMonth = EpochMonths.toEpochMonth(yearMonth);
+        CompletableFuture<Void> saved;
+        synchronized (counterReading) {
+            RejectionCode code = counterReading.checkReading(epochMonth, value, validationRules, counterType);
+            if (code != null) {
+                return CompletableFuture.failedFuture(new CounterSubmissionException(code));
+            }
+            saved = readingStore.appendReadingAsync(userId, counterType, epochMonth, value);
+            counterReading.writeReading(epochMonth, value, userId, counterType, writeListener);
         }
+        if (saved.isDone() && !saved.isCompletedExceptionally()) {
+            return saved;
+        }
+        return saved.whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                revertReading(userId, counterType, epochMonth, value);
+            }
+        });
+    }
 
-        CounterReading counterReading = userReadings.get(counterType);
+    /**
+     * Подает пакет показаний. Показания группируются по пользователю и типу счетчика; каждая группа проверяется
+     * за один проход в порядке месяцев и применяется под одной блокировкой счетчика. Все принятые показания
+     * пакета сохраняются в хранилище одной записью. Отклоняются показания за уже занятый месяц (в том числе
+     * повторы внутри пакета) и показания, нарушающие {@link ValidationRules} относительно соседних месяцев.
+     * Если хранилище не смогло сохранить пакет, принятые показания удаляются из памяти, а ошибка хранилища
+     * передается вызывающему.
+     *
+     * @param submissions Показания в порядке подачи, не более {@value #MAX_BATCH_SIZE}.
+     * @return Результат по каждому показанию в порядке подачи.
+     */
+    public BatchResult submitCounterReadings(List<ReadingSubmission> submissions) {
+        int size = submissions.size();
+        if (size > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Пакет не может содержать более " + MAX_BATCH_SIZE + " показаний.");
+        }
+        BatchResult result = new BatchResult(size);
+        ReadingSubmission[] items = submissions.toArray(new ReadingSubmission[0]);
 
-        if (counterReading.getReadingForMonth(month) > 0) {
-            throw new CounterSubmissionException("Показания за этот месяц уже были поданы.");
+        // Ключ сортировки: пользователь (беззнаково), тип счетчика, позиция в пакете. Сортировка примитивов
+        // собирает группы подряд и сохраняет порядок подачи внутри группы.
+        long[] order = new long[size];
+        int valid = 0;
+        for (int i = 0; i < size; i++) {
+            ReadingSubmission item = items[i];
+            if (item == null || item.getCounterType() == null || item.getYearMonth() == null) {
+                result.reject(i, RejectionCode.INVALID);
+            } else {
+                order[valid++] = ((item.getUserId() & 0xFFFFFFFFL) << 32)
+                        | ((long) item.getCounterType().getId() << 24) | i;
+            }
         }
+        Arrays.sort(order, 0, valid);
+
+        int[] userIds = new int[valid];
+        CounterType[] counterTypes = new CounterType[valid];
+        int[] months = new int[valid];
+        int[] values = new int[valid];
+        int[] positions = new int[valid];
+        RejectionCode[] errors = new RejectionCode[valid];
+        ValidationRules rules = validationRules;
+        int accepted = 0;
+        for (int start = 0, end; start < valid; start = end) {
+            long group = order[start] >>> 24;
+            end = start + 1;
+            while (end < valid && order[end] >>> 24 == group) {
+                end++;
+            }
+            ReadingSubmission first = items[(int) (order[start] & 0xFFFFFF)];
+            int count = end - start;
+            // ключи группы заменяются ключами (месяц, позиция в пакете): после сортировки месяцы идут
+            // по возрастанию, а равные месяцы - в порядке подачи
+            for (int k = start; k < end; k++) {
+                int position = (int) (order[k] & 0xFFFFFF);
+                order[k] = ((long) EpochMonths.toEpochMonth(items[position].getYearMonth()) << 24) | position;
+            }
+            Arrays.sort(order, start, end);
+            for (int k = 0; k < count; k++) {
+                long key = order[start + k];
+                int position = (int) (key & 0xFFFFFF);
+                months[accepted + k] = (int) (key >> 24);
+                values[accepted + k] = items[position].getValue();
+                positions[accepted + k] = position;
+            }
 
-        counterReading.submitReading(month, value);
+            int groupAccepted = counterFor(first.getUserId(), first.getCounterType())
+                    .submitReadingsIfValid(months, values, accepted, count, errors, rules,
+                            first.getUserId(), first.getCounterType(), writeListener);
+            int kept = accepted;
+            for (int k = accepted; k < accepted + count; k++) {
+                if (errors[k] != null) {
+                    result.reject(positions[k], errors[k]);
+                } else {
+                    userIds[kept] = first.getUserId();
+                    counterTypes[kept] = first.getCounterType();
+                    months[kept] = months[k];
+                    values[kept] = values[k];
+                    kept++;
+                }
+            }
+            accepted += groupAccepted;
+        }
+        if (accepted > 0) {
+            try {
+                readingStore.appendReadings(userIds, counterTypes, months, values, accepted);
+            } catch (RuntimeException e) {
+                for (int i = 0; i < accepted; i++) {
+                    revertReading(userIds[i], counterTypes[i], months[i], values[i]);
+                }
+                throw e;
+            }
+        }
+        return result;
     }
     /**
      * Возвращает последнее показание счетчика для указанного пользователя и типа счетчика.
@@ -50,23 +329,449 @@ public class CounterService {
      */
 
     public int getLatestCounterReading(User user, CounterType counterType) {
-        if (userCounters.containsKey(user) && userCounters.get(user).containsKey(counterType)) {
-            return userCounters.get(user).get(counterType).getLatestReading();
+        return getLatestCounterReading(user.getId(), counterType);
+    }
+    /**
+     * Возвращает последнее показание счетчика пользователя с указанным идентификатором.
+     *
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @return Последнее показание счетчика.
+     */
+    public int getLatestCounterReading(int userId, CounterType counterType) {
+        long cached = latestReadings.get(userId, counterType);
+        if (cached != LatestReadingCache.MISS) {
+            return (int) cached;
+        }
+        CounterReading counterReading = findCounter(userId, counterType);
+        if (counterReading == null) {
+            return 0;
+        }
+        // под блокировкой счетчика: запись, завершившаяся позже чтения, обновит кэш уже после заполнения
+        synchronized (counterReading) {
+            int latest = counterReading.getLatestReading();
+            latestReadings.put(userId, counterType, latest);
+            return latest;
         }
-        return 0;
     }
     /**
      * Возвращает историю показаний счетчика для указанного пользователя и типа счетчика.
      *
      * @param user        Пользователь.
      * @param counterType Тип счетчика.
-     * @return История показаний счетчика.
+     * @return Неизменяемое представление истории показаний счетчика в хронологическом порядке.
+     */
+
+    public Map<YearMonth, Integer> getCounterHistory(User user, CounterType counterType) {
+        return getCounterHistory(user.getId(), counterType);
+    }
+    /**
+     * Возвращает историю показаний счетчика пользователя с указанным идентификатором.
+     *
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @return Неизменяемое представление истории показаний счетчика в хронологическом порядке.
+     */
+    public Map<YearMonth, Integer> getCounterHistory(int userId, CounterType counterType) {
+        CounterReading counterReading = findCounter(userId, counterType);
+        return counterReading != null ? counterReading.getReadingsHistory() : Collections.emptyMap();
+    }
+    /**
+     * Возвращает показания счетчика за диапазон месяцев включительно.
+     *
+     * @param user        Пользователь.
+     * @param counterType Тип счетчика.
+     * @param from        Первый месяц диапазона.
+     * @param to          Последний месяц диапазона.
+     * @return Неизменяемое представление показаний в хронологическом порядке.
+     */
+    public Map<YearMonth, Integer> getCounterHistory(User user, CounterType counterType, YearMonth from, YearMonth to) {
+        return getCounterHistory(user.getId(), counterType, from, to);
+    }
+    /**
+     * Возвращает показания счетчика пользователя с указанным идентификатором за диапазон месяцев включительно.
+     *
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @param from        Первый месяц диапазона.
+     * @param to          Последний месяц диапазона.
+     * @return Неизменяемое представление показаний в хронологическом порядке.
+     */
+    public Map<YearMonth, Integer> getCounterHistory(int userId, CounterType counterType, YearMonth from, YearMonth to) {
+        CounterReading counterReading = findCounter(userId, counterType);
+        return counterReading != null ? counterReading.getReadings(from, to) : Collections.emptyMap();
+    }
+    /**
+     * Возвращает показания счетчика за указанный год.
+     *
+     * @param user        Пользователь.
+     * @param counterType Тип счетчика.
+     * @param year        Год.
+     * @return Неизменяемое представление показаний в хронологическом порядке.
+     */
+    public Map<YearMonth, Integer> getCounterHistoryForYear(User user, CounterType counterType, int year) {
+        return getCounterHistoryForYear(user.getId(), counterType, year);
+    }
+    /**
+     * Возвращает показания счетчика пользователя с указанным идентификатором за указанный год.
+     *
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @param year        Год.
+     * @return Неизменяемое представление показаний в хронологическом порядке.
+     */
+    public Map<YearMonth, Integer> getCounterHistoryForYear(int userId, CounterType counterType, int year) {
+        return getCounterHistory(userId, counterType, YearMonth.of(year, 1), YearMonth.of(year, 12));
+    }
+    /**
+     * Возвращает последние показания счетчика.
+     *
+     * @param user        Пользователь.
+     * @param counterType Тип счетчика.
+     * @param count       Максимальное количество показаний.
+     * @return Неизменяемое представление не более чем {@code count} последних показаний в хронологическом порядке.
+     */
+    public Map<YearMonth, Integer> getLatestCounterReadings(User user, CounterType counterType, int count) {
+        return getLatestCounterReadings(user.getId(), counterType, count);
+    }
+    /**
+     * Возвращает последние показания счетчика пользователя с указанным идентификатором.
+     *
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @param count       Максимальное количество показаний.
+     * @return Неизменяемое представление не более чем {@code count} последних показаний в хронологическом порядке.
+     */
+    public Map<YearMonth, Integer> getLatestCounterReadings(int userId, CounterType counterType, int count) {
+        CounterReading counterReading = findCounter(userId, counterType);
+        return counterReading != null ? counterReading.getLatestReadings(count) : Collections.emptyMap();
+    }
+
+    /**
+     * Передает обработчику страницу истории счетчика в порядке месяцев, не создавая промежуточных коллекций.
+     * Обработчик вызывается без блокировки счетчика и может писать показания прямо в поток ответа.
+     * Для следующей страницы передайте возвращенный номер месяца как {@code fromEpochMonth}: показания,
+     * поданные между запросами страниц, не приводят к повторам и пропускам уже выданных месяцев.
+     *
+     * @param userId         Идентификатор пользователя.
+     * @param counterType    Тип счетчика.
+     * @param fromEpochMonth Первый номер месяца диапазона, см. {@link EpochMonths}.
+     * @param toEpochMonth   Последний номер месяца диапазона.
+     * @param limit          Максимальное количество показаний на странице.
+     * @param visitor        Обработчик показаний.
+     * @return Номер месяца, с которого начинается следующая страница, или {@link #HISTORY_END}.
+     */
+    public int visitCounterHistory(int userId, CounterType counterType, int fromEpochMonth, int toEpochMonth,
+                                   int limit, ReadingVisitor visitor) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Размер страницы должен быть положительным.");
+        }
+        CounterReading counterReading = findCounter(userId, counterType);
+        if (counterReading == null) {
+            return HISTORY_END;
+        }
+        return counterReading.forEachReading(fromEpochMonth, toEpochMonth, limit, userId, counterType, visitor);
+    }
+
+    /**
+     * Передает обработчику все показания одного пользователя: счетчики по порядку типов, показания счетчика
+     * в порядке месяцев.
+     *
+     * @param userId  Идентификатор пользователя.
+     * @param visitor Обработчик показаний.
+     */
+    public void forEachReadingOfUser(int userId, ReadingVisitor visitor) {
+        for (CounterType counterType : meterTypes.getTypes()) {
+            CounterReading counterReading = findCounter(userId, counterType);
+            if (counterReading != null) {
+                counterReading.forEachReading(userId, counterType, visitor);
+            }
+        }
+    }
+
+    /**
+     * Переносит в сервис показания из другого сервиса, например при перераспределении пользователей между
+     * шардами. Показания перезаписывают существующие без проверок и сохраняются в хранилище одной записью.
+     * Показания передаются по колонкам.
+     *
+     * @param userIds      Идентификаторы пользователей.
+     * @param counterTypes Типы счетчиков.
+     * @param epochMonths  Номера месяцев.
+     * @param values       Показания.
+     * @param count        Количество показаний.
+     */
+    public void importReadings(int[] userIds, CounterType[] counterTypes, int[] epochMonths, int[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            counterFor(userIds[i], counterTypes[i]).restoreReading(epochMonths[i], values[i]);
+            latestReadings.invalidate(userIds[i], counterTypes[i]);
+        }
+        if (count > 0) {
+            readingStore.appendReadings(userIds, counterTypes, epochMonths, values, count);
+        }
+    }
+
+    /**
+     * Удаляет показания пользователя, например после переноса в другой сервис, и сохраняет удаление
+     * в хранилище, чтобы показания не вернулись при восстановлении. Вызывающий обеспечивает, что показания
+     * пользователя в это время не подаются.
+     *
+     * @param userId Идентификатор пользователя.
+     */
+    public void removeUser(int userId) {
+        dropUser(userId);
+        readingStore.removeReadingsOfUser(userId);
+    }
+
+    private void dropUser(int userId) {
+        // пустой массив, а не удаление: иначе обход снова взял бы показания пользователя из снимка
+        AtomicReferenceArray<CounterReading> removed = userCounters.get(userId);
+        userCounters.put(userId, new AtomicReferenceArray<>(meterTypes.size()));
+        if (removed != null) {
+            release(removed);
+        }
+        for (CounterType counterType : meterTypes.getTypes()) {
+            latestReadings.invalidate(userId, counterType);
+        }
+    }
+
+    /**
+     * Передает все показания всех пользователей обработчику. Каждый счетчик обходится по согласованному
+     * состоянию, зафиксированному на момент обращения к нему.
+     *
+     * @param visitor Обработчик показаний.
+     */
+    public void forEachReading(ReadingVisitor visitor) {
+        forEachReading(visitor, 0, 1);
+    }
+
+    /**
+     * Передает обработчику показания одной части пользователей: тех, чей идентификатор по модулю {@code parts}
+     * равен {@code part}. Части не пересекаются и вместе покрывают всех пользователей, поэтому их можно
+     * обходить параллельно. Показания одного счетчика передаются подряд в порядке месяцев.
+     *
+     * @param visitor Обработчик показаний.
+     * @param part    Номер части от 0 до {@code parts} - 1.
+     * @param parts   Количество частей.
+     */
+    public void forEachReading(ReadingVisitor visitor, int part, int parts) {
+        if (part < 0 || part >= parts) {
+            throw new IllegalArgumentException("Номер части должен быть от 0 до " + (parts - 1) + ".");
+        }
+        int[][] visited = {new int[64]};
+        int[] visitedCount = {0};
+        userCounters.forEach((userId, counters) -> {
+            if (Math.floorMod(userId, parts) != part) {
+                return;
+            }
+            if (visitedCount[0] == visited[0].length) {
+                visited[0] = Arrays.copyOf(visited[0], visitedCount[0] * 2);
+            }
+            visited[0][visitedCount[0]++] = userId;
+            for (int type = 0; type < counters.length(); type++) {
+                CounterReading counterReading = counters.get(type);
+                if (counterReading != null) {
+                    counterReading.forEachReading(userId, meterTypes.byId(type), visitor);
+                }
+            }
+        });
+        if (snapshot != null) {
+            // пользователи, перенесенные в память после обхода таблицы, берутся из снимка: их новые
+            // показания уже находятся в журнале после снимка
+            int[] visitedIds = visited[0];
+            Arrays.sort(visitedIds, 0, visitedCount[0]);
+            for (int i = 0; i < snapshot.userCount(); i++) {
+                int userId = snapshot.userIdAt(i);
+                if (Math.floorMod(userId, parts) == part
+                        && Arrays.binarySearch(visitedIds, 0, visitedCount[0], userId) < 0) {
+                    snapshot.forEachReadingOfUser(userId, visitor);
+                }
+            }
+        }
+    }
+
+    /**
+     * Подключает получателя изменений показаний. Получатель видит только показания, записанные после
+     * подключения, поэтому подключать его следует до начала приема показаний.
+     *
+     * @param readingListener Получатель изменений или {@code null}, чтобы отключить.
+     */
+    public void setReadingListener(ReadingListener readingListener) {
+        this.readingListener = readingListener;
+    }
+
+    /**
+     * Регистрирует тип счетчика в реестре хранилища ({@link #getMeterTypes()}). Тип сохраняется в хранилище
+     * до того, как станет виден, чтобы после перезапуска он получил прежний идентификатор.
+     *
+     * @param name     Имя типа.
+     * @param unit     Единица измерения.
+     * @param minValue Наименьшее допустимое показание.
+     * @param maxValue Наибольшее допустимое показание.
+     * @return Зарегистрированный тип.
+     * @throws IllegalArgumentException Если тип не может быть зарегистрирован.
+     */
+    public CounterType registerMeterType(String name, String unit, int minValue, int maxValue) {
+        return meterTypes.register(name, unit, minValue, maxValue, readingStore::saveMeterType);
+    }
+
+    /**
+     * @return Реестр типов счетчиков, показания которых принимает сервис.
+     */
+    public MeterTypeRegistry getMeterTypes() {
+        return meterTypes;
+    }
+
+    /**
+     * Заменяет правила проверки подаваемых показаний. Правила применяются к показаниям, поданным после
+     * замены; уже принятые и восстановленные из хранилища показания не перепроверяются.
+     *
+     * @param validationRules Правила проверки.
      */
+    public void setValidationRules(ValidationRules validationRules) {
+        this.validationRules = validationRules;
+    }
 
-    public Map<Month, Integer> getCounterHistory(User user, CounterType counterType) {
-        if (userCounters.containsKey(user) && userCounters.get(user).containsKey(counterType)) {
-            return userCounters.get(user).get(counterType).getReadingsHistory();
+    /**
+     * @return Текущие правила проверки подаваемых показаний.
+     */
+    public ValidationRules getValidationRules() {
+        return validationRules;
+    }
+
+    /**
+     * @return Кэш последних показаний.
+     */
+    public LatestReadingCache getLatestReadingCache() {
+        return latestReadings;
+    }
+
+    /**
+     * Вызывается под блокировкой счетчика после каждой записи показания.
+     */
+    private void readingWritten(int userId, CounterType counterType, int epochMonth, int value,
+                                int replacedValue, int previousValue, int nextMonth, int nextValue) {
+        if (nextValue == ReadingListener.NO_READING) {
+            latestReadings.update(userId, counterType, value);
+        }
+        ReadingListener listener = readingListener;
+        if (listener != null) {
+            listener.readingWritten(userId, counterType, epochMonth, value, replacedValue, previousValue,
+                    nextMonth, nextValue);
+        }
+    }
+
+    /**
+     * Удаляет из памяти показание, которое хранилище не смогло сохранить.
+     */
+    private void revertReading(int userId, CounterType counterType, int epochMonth, int value) {
+        CounterReading counterReading = findCounter(userId, counterType);
+        if (counterReading == null) {
+            return;
         }
-        return new HashMap<>();
+        synchronized (counterReading) {
+            if (counterReading.removeReading(epochMonth, value, userId, counterType, readingListener)) {
+                latestReadings.invalidate(userId, counterType);
+            }
+        }
+    }
+
+    private CounterReading counterFor(int userId, CounterType counterType) {
+        if (!meterTypes.contains(counterType)) {
+            // идентификатор чужого типа попал бы в журнал хранилища, которое его не знает
+            throw new IllegalArgumentException("Тип счетчика " + counterType + " не зарегистрирован.");
+        }
+        int type = counterType.getId();
+        AtomicReferenceArray<CounterReading> counters = countersOf(userId);
+        CounterReading counterReading = type < counters.length() ? counters.get(type) : null;
+        while (counterReading == null) {
+            counterReading = createCounter(userId, counters, type);
+            if (counterReading == null) {
+                counters = countersOf(userId);
+            }
+        }
+        return counterReading;
+    }
+
+    /**
+     * Создает счетчик под блокировкой массива счетчиков пользователя. Если для типа, зарегистрированного
+     * после создания массива, нет места, массив заменяется в таблице расширенной копией под той же
+     * блокировкой, поэтому счетчик не может появиться в старом массиве после копирования.
+     *
+     * @return Счетчик или {@code null}, если массив уже заменен и создание нужно повторить с текущим.
+     */
+    private CounterReading createCounter(int userId, AtomicReferenceArray<CounterReading> counters, int type) {
+        synchronized (counters) {
+            if (userCounters.get(userId) != counters) {
+                return null;
+            }
+            if (type < counters.length()) {
+                CounterReading counterReading = counters.get(type);
+                if (counterReading == null) {
+                    counterReading = newCounterReading();
+                    counters.set(type, counterReading);
+                }
+                return counterReading;
+            }
+            AtomicReferenceArray<CounterReading> grown =
+                    new AtomicReferenceArray<>(Math.max(type + 1, meterTypes.size()));
+            for (int i = 0; i < counters.length(); i++) {
+                grown.set(i, counters.get(i));
+            }
+            CounterReading counterReading = newCounterReading();
+            grown.set(type, counterReading);
+            userCounters.put(userId, grown);
+            return counterReading;
+        }
+    }
+
+    private CounterReading findCounter(int userId, CounterType counterType) {
+        AtomicReferenceArray<CounterReading> counters = userCounters.get(userId);
+        if (counters == null && snapshot != null && snapshot.containsUser(userId)) {
+            counters = countersOf(userId);
+        }
+        int type = counterType.getId();
+        return counters != null && type < counters.length() ? counters.get(type) : null;
+    }
+
+    private AtomicReferenceArray<CounterReading> countersOf(int userId) {
+        AtomicReferenceArray<CounterReading> counters = userCounters.get(userId);
+        if (counters != null) {
+            return counters;
+        }
+        AtomicReferenceArray<CounterReading> created = materialize(userId);
+        counters = userCounters.computeIfAbsent(userId, id -> created);
+        if (counters != created) {
+            // другой поток перенес пользователя раньше: память вне кучи проигравшей копии нужно вернуть
+            release(created);
+        }
+        return counters;
+    }
+
+    private static void release(AtomicReferenceArray<CounterReading> counters) {
+        for (int type = 0; type < counters.length(); type++) {
+            CounterReading counterReading = counters.get(type);
+            if (counterReading != null) {
+                counterReading.release();
+            }
+        }
+    }
+
+    private AtomicReferenceArray<CounterReading> materialize(int userId) {
+        AtomicReferenceArray<CounterReading> counters = new AtomicReferenceArray<>(meterTypes.size());
+        if (snapshot != null) {
+            snapshot.forEachReadingOfUser(userId, (id, counterType, epochMonth, value) -> {
+                CounterReading counterReading = counters.get(counterType.getId());
+                if (counterReading == null) {
+                    counterReading = newCounterReading();
+                    counters.set(counterType.getId(), counterReading);
+                }
+                counterReading.restoreReading(epochMonth, value);
+            });
+        }
+        return counters;
+    }
+
+    private CounterReading newCounterReading() {
+        return arena != null ? new OffHeapCounterReading(arena) : new ArrayCounterReading();
     }
-}
\ No newline at end of file
+}
@@ -1,8 +1,81 @@
 package counters;
 
 /**
- * enum отвечающий за 3 типа коммунальных платежей.
+ * Тип счетчика коммунальных платежей.
+ * <p>
+ * Типы интернируются в {@link MeterTypeRegistry}: у каждого типа один экземпляр, поэтому типы сравниваются
+ * по ссылке. Встроенные типы общие для всех реестров. Плотный идентификатор {@link #getId()} служит индексом в массивах по типу счетчика и хранится
+ * в журнале и снимках одним байтом. Встроенные типы зарегистрированы первыми с идентификаторами 0-2, как
+ * порядковые номера прежнего перечисления, поэтому ранее сохраненные данные читаются без изменений.
  */
-public enum CounterType {
-    HEATING, HOT_WATER, COLD_WATER
-}
\ No newline at end of file
+public final class CounterType {
+    public static final CounterType HEATING = new CounterType(0, "HEATING", "Гкал", 0, Integer.MAX_VALUE);
+    public static final CounterType HOT_WATER = new CounterType(1, "HOT_WATER", "м3", 0, Integer.MAX_VALUE);
+    public static final CounterType COLD_WATER = new CounterType(2, "COLD_WATER", "м3", 0, Integer.MAX_VALUE);
+
+    private final int id;
+    private final String name;
+    private final String unit;
+    private final int minValue;
+    private final int maxValue;
+
+    CounterType(int id, String name, String unit, int minValue, int maxValue) {
+        this.id = id;
+        this.name = name;
+        this.unit = unit;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+    }
+
+    /**
+     * @return Встроенные типы в порядке идентификаторов. Типы, зарегистрированные во время работы, возвращает
+     *         {@link MeterTypeRegistry#getTypes()} реестра сервиса.
+     */
+    public static CounterType[] values() {
+        return new CounterType[]{HEATING, HOT_WATER, COLD_WATER};
+    }
+
+    /**
+     * @return Плотный идентификатор типа от 0 до {@link MeterTypeRegistry#MAX_TYPES} - 1.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return Имя типа в верхнем регистре.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Единица измерения показаний.
+     */
+    public String getUnit() {
+        return unit;
+    }
+
+    /**
+     * @return Наименьшее допустимое показание, см. {@link ValidationRules#DEFAULT}.
+     */
+    public int getMinValue() {
+        return minValue;
+    }
+
+    /**
+     * @return Наибольшее допустимое показание, см. {@link ValidationRules#DEFAULT}.
+     */
+    public int getMaxValue() {
+        return maxValue;
+    }
+
+    boolean sameDefinition(String unit, int minValue, int maxValue) {
+        return this.unit.equals(unit) && this.minValue == minValue && this.maxValue == maxValue;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
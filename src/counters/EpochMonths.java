@@ -0,0 +1,32 @@
+package counters;
+
+import java.time.YearMonth;
+
+/**
+ * Утилиты для перевода {@link YearMonth} в компактный номер месяца от начала летоисчисления и обратно.
+ * Номер месяца монотонно растет во времени, поэтому подходит в качестве ключа сортировки.
+ */
+public final class EpochMonths {
+    private EpochMonths() {
+    }
+
+    /**
+     * Переводит месяц года в номер месяца.
+     *
+     * @param yearMonth Месяц года.
+     * @return Номер месяца: {@code год * 12 + (месяц - 1)}.
+     */
+    public static int toEpochMonth(YearMonth yearMonth) {
+        return yearMonth.getYear() * 12 + yearMonth.getMonthValue() - 1;
+    }
+
+    /**
+     * Переводит номер месяца обратно в месяц года.
+     *
+     * @param epochMonth Номер месяца.
+     * @return Месяц года.
+     */
+    public static YearMonth toYearMonth(int epochMonth) {
+        return YearMonth.of(Math.floorDiv(epochMonth, 12), Math.floorMod(epochMonth, 12) + 1);
+    }
+}
@@ -0,0 +1,43 @@
+package counters;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Токен продолжения постраничного чтения истории, см. {@link CounterService#visitCounterHistory}.
+ * Токен содержит только номер месяца, с которого начинается следующая страница, поэтому не хранит состояния
+ * на сервере и остается действительным при подаче новых показаний.
+ */
+public final class HistoryCursor {
+    private static final byte VERSION = 1;
+
+    private HistoryCursor() {
+    }
+
+    /**
+     * @param nextEpochMonth Номер месяца, с которого начинается следующая страница.
+     * @return Токен продолжения.
+     */
+    public static String encode(int nextEpochMonth) {
+        byte[] bytes = ByteBuffer.allocate(1 + Integer.BYTES).put(VERSION).putInt(nextEpochMonth).array();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * @param token Токен продолжения.
+     * @return Номер месяца, с которого начинается следующая страница.
+     * @throws IllegalArgumentException Если токен поврежден.
+     */
+    public static int decode(String token) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Некорректный токен продолжения.", e);
+        }
+        if (bytes.length != 1 + Integer.BYTES || bytes[0] != VERSION) {
+            throw new IllegalArgumentException("Некорректный токен продолжения.");
+        }
+        return ByteBuffer.wrap(bytes, 1, Integer.BYTES).getInt();
+    }
+}
@@ -0,0 +1,208 @@
+package counters;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограниченный кэш последних показаний по паре (пользователь, тип счетчика).
+ * <p>
+ * Кэш множественно-ассоциативный: ключ попадает в набор из {@value #WAYS} ячеек, вытеснение внутри набора -
+ * CLOCK, приближение LRU: попадание отмечает ячейку, вытесняется первая неотмеченная. Новая запись вставляется
+ * неотмеченной, поэтому однократные чтения (например, обход всех пользователей) вытесняются раньше часто
+ * читаемых. Ячейки хранятся в примитивных массивах без объекта на запись.
+ * <p>
+ * Изменение берет блокировку набора. Чтение выполняется без блокировок: каждая ячейка защищена счетчиком
+ * версий, и чтение, пересекшееся с изменением ячейки, считается промахом.
+ * <p>
+ * Кэш не знает о порядке изменений: {@link CounterService} заполняет и обновляет его под блокировкой
+ * счетчика, поэтому в кэше не может остаться значение старее последней записи.
+ */
+public final class LatestReadingCache {
+    /**
+     * Результат {@link #get(int, CounterType)} при промахе.
+     */
+    public static final long MISS = Long.MIN_VALUE;
+
+    private static final int WAYS = 8;
+    private static final int MAX_LOCKS = 256;
+    private static final long EMPTY = -1L;
+
+    private final int setMask;
+    private final AtomicLongArray keys;
+    private final AtomicIntegerArray values;
+    private final AtomicIntegerArray versions;
+    private final AtomicIntegerArray referenced;
+    private final int[] hands;
+    private final Object[] locks;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity Максимальное количество записей; округляется вниз до степени двойки, но не меньше
+     *                 {@value #WAYS}.
+     */
+    public LatestReadingCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Емкость кэша должна быть положительной.");
+        }
+        int sets = Integer.highestOneBit(Math.max(1, capacity / WAYS));
+        this.setMask = sets - 1;
+        this.keys = new AtomicLongArray(sets * WAYS);
+        this.values = new AtomicIntegerArray(sets * WAYS);
+        this.versions = new AtomicIntegerArray(sets * WAYS);
+        this.referenced = new AtomicIntegerArray(sets * WAYS);
+        this.hands = new int[sets];
+        this.locks = new Object[Math.min(sets, MAX_LOCKS)];
+        for (int i = 0; i < sets * WAYS; i++) {
+            keys.set(i, EMPTY);
+        }
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @return Последнее показание или {@link #MISS}, если его нет в кэше.
+     */
+    public long get(int userId, CounterType counterType) {
+        long key = key(userId, counterType);
+        int base = setOf(key) * WAYS;
+        for (int slot = base; slot < base + WAYS; slot++) {
+            if (keys.get(slot) != key) {
+                continue;
+            }
+            int version = versions.get(slot);
+            int value = values.get(slot);
+            if ((version & 1) == 0 && keys.get(slot) == key && versions.get(slot) == version) {
+                if (referenced.get(slot) == 0) {
+                    referenced.lazySet(slot, 1);
+                }
+                hits.increment();
+                return value;
+            }
+            break;
+        }
+        misses.increment();
+        return MISS;
+    }
+
+    /**
+     * Записывает показание, при необходимости вытесняя другую запись набора.
+     *
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @param value       Последнее показание.
+     */
+    public void put(int userId, CounterType counterType, int value) {
+        long key = key(userId, counterType);
+        int set = setOf(key);
+        int base = set * WAYS;
+        synchronized (locks[set % locks.length]) {
+            int slot = find(base, key);
+            if (slot < 0) {
+                slot = victim(set);
+            }
+            write(slot, key, value);
+        }
+    }
+
+    /**
+     * Обновляет показание, только если пара уже есть в кэше: запись не вытесняет читаемые записи.
+     *
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @param value       Последнее показание.
+     */
+    public void update(int userId, CounterType counterType, int value) {
+        long key = key(userId, counterType);
+        int set = setOf(key);
+        int base = set * WAYS;
+        synchronized (locks[set % locks.length]) {
+            int slot = find(base, key);
+            if (slot >= 0) {
+                write(slot, key, value);
+            }
+        }
+    }
+
+    /**
+     * Удаляет запись пары, если она есть.
+     *
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     */
+    public void invalidate(int userId, CounterType counterType) {
+        long key = key(userId, counterType);
+        int set = setOf(key);
+        synchronized (locks[set % locks.length]) {
+            int slot = find(set * WAYS, key);
+            if (slot >= 0) {
+                write(slot, EMPTY, 0);
+            }
+        }
+    }
+
+    /**
+     * @return Максимальное количество записей.
+     */
+    public int getCapacity() {
+        return keys.length();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    private int find(int base, long key) {
+        for (int slot = base; slot < base + WAYS; slot++) {
+            if (keys.get(slot) == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int victim(int set) {
+        int base = set * WAYS;
+        for (int slot = base; slot < base + WAYS; slot++) {
+            if (keys.get(slot) == EMPTY) {
+                return slot;
+            }
+        }
+        // не больше двух оборотов: за первый снимаются все отметки
+        while (true) {
+            int slot = base + hands[set];
+            hands[set] = (hands[set] + 1) % WAYS;
+            if (referenced.get(slot) == 0) {
+                return slot;
+            }
+            referenced.set(slot, 0);
+        }
+    }
+
+    private void write(int slot, long key, int value) {
+        int version = versions.get(slot);
+        versions.set(slot, version + 1);
+        if (keys.get(slot) != key) {
+            referenced.set(slot, 0);
+            keys.set(slot, key);
+        }
+        values.set(slot, value);
+        versions.set(slot, version + 2);
+    }
+
+    private int setOf(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & setMask;
+    }
+
+    private static long key(int userId, CounterType counterType) {
+        return ((long) userId << 32) | counterType.getId();
+    }
+}
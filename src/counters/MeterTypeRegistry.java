@@ -0,0 +1,244 @@
+package counters;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Реестр типов счетчиков. Кроме встроенных {@link CounterType#HEATING}, {@link CounterType#HOT_WATER}
+ * и {@link CounterType#COLD_WATER} типы - электричество, газ, подсчетчики квартир - регистрируются во время
+ * работы и получают следующий свободный идентификатор.
+ * <p>
+ * Идентификаторы типов записываются в журнал и снимки, поэтому реестр принадлежит хранилищу показаний
+ * ({@link storage.ReadingStore#getMeterTypes()}) и сервису поверх него: тип, зарегистрированный в одном
+ * хранилище, не виден другим, и его идентификатор не может попасть в чужой журнал.
+ * <p>
+ * Имена разрешаются по заранее построенной таблице с открытой адресацией: хэш считается по символам,
+ * приведенным к верхнему регистру, и сравнение идет без учета регистра, поэтому разбор типа из запроса
+ * не создает строк и не бросает исключений. Таблица и список типов заменяются целиком при регистрации,
+ * поэтому чтение не берет блокировок.
+ */
+public final class MeterTypeRegistry {
+    /**
+     * Максимальное количество типов: идентификатор хранится одним байтом, а -1 обозначает отсутствие типа.
+     */
+    public static final int MAX_TYPES = 127;
+    /**
+     * Количество встроенных типов; их идентификаторы - от 0 до этого значения, не включая его.
+     */
+    public static final int BUILT_IN_TYPES = 3;
+    /**
+     * Максимальная длина имени типа.
+     */
+    public static final int MAX_NAME_LENGTH = 32;
+
+    private static final int TABLE_SIZE = 256;
+
+    private volatile CounterType[] types = CounterType.values();
+    private volatile CounterType[] table = buildTable(types);
+
+    /**
+     * Создает реестр, содержащий только встроенные типы.
+     */
+    public MeterTypeRegistry() {
+    }
+
+    /**
+     * Регистрирует тип счетчика без сохранения. Повторная регистрация с теми же параметрами возвращает уже
+     * зарегистрированный тип.
+     *
+     * @param name     Имя типа: латинские буквы, цифры и '_'; приводится к верхнему регистру.
+     * @param unit     Единица измерения.
+     * @param minValue Наименьшее допустимое показание.
+     * @param maxValue Наибольшее допустимое показание.
+     * @return Зарегистрированный тип.
+     * @throws IllegalArgumentException Если параметры некорректны, тип с таким именем зарегистрирован
+     *                                  с другими параметрами или реестр заполнен.
+     */
+    public CounterType register(String name, String unit, int minValue, int maxValue) {
+        return register(name, unit, minValue, maxValue, counterType -> {
+        });
+    }
+
+    /**
+     * Регистрирует тип счетчика и сохраняет его перед публикацией: новый тип становится виден {@link #find}
+     * и {@link #byId} только после того, как {@code store} вернулся без ошибки. Поэтому показание нового типа
+     * не может попасть в журнал раньше самого типа. Повторная регистрация с теми же параметрами возвращает
+     * уже зарегистрированный тип без сохранения.
+     *
+     * @param name     Имя типа: латинские буквы, цифры и '_'; приводится к верхнему регистру.
+     * @param unit     Единица измерения.
+     * @param minValue Наименьшее допустимое показание.
+     * @param maxValue Наибольшее допустимое показание.
+     * @param store    Сохранение нового типа.
+     * @return Зарегистрированный тип.
+     * @throws IllegalArgumentException Если параметры некорректны, тип с таким именем зарегистрирован
+     *                                  с другими параметрами или реестр заполнен.
+     */
+    public synchronized CounterType register(String name, String unit, int minValue, int maxValue,
+                                             Consumer<CounterType> store) {
+        String normalized = normalize(name);
+        if (unit == null || unit.isEmpty() || unit.length() > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Некорректная единица измерения.");
+        }
+        if (minValue > maxValue) {
+            throw new IllegalArgumentException("Нижняя граница больше верхней.");
+        }
+        CounterType existing = find(normalized);
+        if (existing != null) {
+            if (!existing.sameDefinition(unit, minValue, maxValue)) {
+                throw new IllegalArgumentException("Тип счетчика " + normalized + " уже зарегистрирован с другими параметрами.");
+            }
+            return existing;
+        }
+        if (types.length == MAX_TYPES) {
+            throw new IllegalArgumentException("Нельзя зарегистрировать более " + MAX_TYPES + " типов счетчиков.");
+        }
+        CounterType counterType = new CounterType(types.length, normalized, unit, minValue, maxValue);
+        store.accept(counterType);
+        return add(counterType);
+    }
+
+    /**
+     * Восстанавливает тип, сохраненный хранилищем, с прежним идентификатором. Типы восстанавливаются
+     * в порядке идентификаторов до регистрации новых.
+     *
+     * @param id       Сохраненный идентификатор.
+     * @param name     Имя типа.
+     * @param unit     Единица измерения.
+     * @param minValue Наименьшее допустимое показание.
+     * @param maxValue Наибольшее допустимое показание.
+     * @return Восстановленный тип.
+     * @throws IllegalStateException Если идентификатор уже занят другим типом или предыдущие типы не восстановлены.
+     */
+    public synchronized CounterType restore(int id, String name, String unit, int minValue, int maxValue) {
+        CounterType[] current = types;
+        if (id < current.length) {
+            CounterType existing = current[id];
+            if (!existing.getName().equals(name) || !existing.sameDefinition(unit, minValue, maxValue)) {
+                throw new IllegalStateException("Идентификатор типа счетчика " + id + " уже занят типом " + existing + ".");
+            }
+            return existing;
+        }
+        if (id != current.length || find(name) != null) {
+            throw new IllegalStateException("Тип счетчика " + name + " не может получить идентификатор " + id + ".");
+        }
+        return add(new CounterType(id, normalize(name), unit, minValue, maxValue));
+    }
+
+    /**
+     * Находит тип по имени без учета регистра.
+     *
+     * @param name Имя типа.
+     * @return Тип или {@code null}, если тип не зарегистрирован.
+     */
+    public CounterType find(CharSequence name) {
+        if (name == null || name.length() == 0 || name.length() > MAX_NAME_LENGTH) {
+            return null;
+        }
+        CounterType[] current = table;
+        int mask = current.length - 1;
+        for (int slot = hash(name) & mask; ; slot = (slot + 1) & mask) {
+            CounterType type = current[slot];
+            if (type == null || matches(type.getName(), name)) {
+                return type;
+            }
+        }
+    }
+
+    /**
+     * @param id Идентификатор типа.
+     * @return Тип с этим идентификатором.
+     * @throws IllegalArgumentException Если тип не зарегистрирован.
+     */
+    public CounterType byId(int id) {
+        CounterType[] current = types;
+        if (id < 0 || id >= current.length) {
+            throw new IllegalArgumentException("Неизвестный тип счетчика: " + id + ".");
+        }
+        return current[id];
+    }
+
+    /**
+     * @return Количество зарегистрированных типов.
+     */
+    public int size() {
+        return types.length;
+    }
+
+    /**
+     * @return Все зарегистрированные типы в порядке идентификаторов.
+     */
+    public CounterType[] getTypes() {
+        return types.clone();
+    }
+
+    /**
+     * @param counterType Тип счетчика.
+     * @return {@code true}, если тип зарегистрирован в этом реестре.
+     */
+    public boolean contains(CounterType counterType) {
+        CounterType[] current = types;
+        int id = counterType.getId();
+        return id < current.length && current[id] == counterType;
+    }
+
+    private CounterType add(CounterType type) {
+        CounterType[] grown = Arrays.copyOf(types, types.length + 1);
+        grown[type.getId()] = type;
+        // сначала список: тип, найденный по имени, должен находиться и по идентификатору
+        types = grown;
+        table = buildTable(grown);
+        return type;
+    }
+
+    private static String normalize(String name) {
+        if (name == null || name.isEmpty() || name.length() > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Имя типа счетчика должно содержать от 1 до " + MAX_NAME_LENGTH
+                    + " символов.");
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '_')) {
+                throw new IllegalArgumentException("Имя типа счетчика может содержать только латинские буквы, цифры и '_'.");
+            }
+        }
+        return name.toUpperCase(Locale.ROOT);
+    }
+
+    private static CounterType[] buildTable(CounterType[] registered) {
+        CounterType[] built = new CounterType[TABLE_SIZE];
+        for (CounterType type : registered) {
+            int slot = hash(type.getName()) & (TABLE_SIZE - 1);
+            while (built[slot] != null) {
+                slot = (slot + 1) & (TABLE_SIZE - 1);
+            }
+            built[slot] = type;
+        }
+        return built;
+    }
+
+    private static int hash(CharSequence name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = hash * 31 + upper(name.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, CharSequence candidate) {
+        if (name.length() != candidate.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != upper(candidate.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char upper(char c) {
+        return c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c;
+    }
+}
@@ -0,0 +1,136 @@
+package counters;
+
+import java.time.YearMonth;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Счетчик, хранящий показания в блоке {@link ReadingArena} вне кучи. В куче остается только этот объект:
+ * адрес блока, емкость и количество показаний.
+ * <p>
+ * Блок изменяется на месте и освобождается при расширении, поэтому все обращения к нему выполняются под
+ * блокировкой счетчика. Представления истории копируют диапазон в массивы, а обход копирует показания
+ * небольшими порциями и вызывает обработчик между ними без блокировки; между порциями обход продолжается
+ * с месяца, следующего за последним выданным, поэтому показания не повторяются.
+ */
+final class OffHeapCounterReading extends CounterReading {
+    private static final long NO_BLOCK = -1L;
+    private static final int VISIT_BATCH = 64;
+    /**
+     * Начальная емкость - год ежемесячных показаний, чтобы обычный счетчик не проходил через мелкие блоки.
+     */
+    private static final int INITIAL_CAPACITY = ReadingArena.capacityFor(12);
+
+    private final ReadingArena arena;
+    private long block = NO_BLOCK;
+    private int capacity;
+    private int size;
+
+    OffHeapCounterReading(ReadingArena arena) {
+        this.arena = arena;
+    }
+
+    @Override
+    int forEachReading(int fromMonth, int toMonth, int limit, int userId, CounterType counterType,
+                       ReadingVisitor visitor) {
+        int[] months = new int[VISIT_BATCH];
+        int[] values = new int[VISIT_BATCH];
+        int visited = 0;
+        int month = fromMonth;
+        while (true) {
+            int count = 0;
+            int next = CounterService.HISTORY_END;
+            synchronized (this) {
+                int position = lowerBound(month);
+                for (; position < size && count < VISIT_BATCH && visited + count < limit; position++, count++) {
+                    months[count] = arena.month(block, position);
+                    if (months[count] > toMonth) {
+                        break;
+                    }
+                    values[count] = arena.value(block, position);
+                }
+                if (position < size && arena.month(block, position) <= toMonth) {
+                    next = arena.month(block, position);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                visitor.visit(userId, counterType, months[i], values[i]);
+            }
+            visited += count;
+            if (next == CounterService.HISTORY_END || visited == limit) {
+                return next;
+            }
+            month = next;
+        }
+    }
+
+    @Override
+    synchronized void release() {
+        if (block != NO_BLOCK) {
+            arena.free(block, capacity);
+            block = NO_BLOCK;
+            capacity = 0;
+            size = 0;
+        }
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    int monthAt(int index) {
+        return arena.month(block, index);
+    }
+
+    @Override
+    int valueAt(int index) {
+        return arena.value(block, index);
+    }
+
+    @Override
+    Map<YearMonth, Integer> view(int from, int to) {
+        if (from == to) {
+            return Collections.emptyMap();
+        }
+        int[] months = new int[to - from];
+        int[] values = new int[to - from];
+        for (int i = from; i < to; i++) {
+            months[i - from] = arena.month(block, i);
+            values[i - from] = arena.value(block, i);
+        }
+        return new ReadingsView(months, values, 0, months.length);
+    }
+
+    @Override
+    void store(int month, int value) {
+        int index = indexOf(month);
+        if (index >= 0) {
+            arena.setValue(block, index, value);
+            return;
+        }
+        int insertAt = -index - 1;
+        if (size == capacity) {
+            int newCapacity = Math.max(INITIAL_CAPACITY, ReadingArena.capacityFor(size + 1));
+            long newBlock = arena.allocate(newCapacity);
+            if (block != NO_BLOCK) {
+                arena.copy(block, 0, newBlock, 0, insertAt);
+                arena.copy(block, insertAt, newBlock, insertAt + 1, size - insertAt);
+                arena.free(block, capacity);
+            }
+            block = newBlock;
+            capacity = newCapacity;
+        } else {
+            arena.copy(block, insertAt, block, insertAt + 1, size - insertAt);
+        }
+        arena.set(block, insertAt, month, value);
+        size++;
+    }
+
+    @Override
+    void delete(int index) {
+        arena.copy(block, index + 1, block, index, size - index - 1);
+        size--;
+    }
+}
@@ -0,0 +1,187 @@
+package counters;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Область памяти вне кучи для показаний счетчиков, см. {@link CounterService#CounterService(storage.ReadingStore,
+ * users.UserIdAllocator, int, ReadingArena)}.
+ * <p>
+ * Память выделяется кусками {@link ByteBuffer#allocateDirect} и делится на блоки записей фиксированной ширины
+ * {@code [номер месяца][показание]} по {@value #RECORD_BYTES} байт. Емкость блока - степень двойки; освобожденные
+ * блоки попадают в список свободных блоков своего размера, связанный через сами блоки, поэтому учет свободной
+ * памяти тоже не занимает кучу. Куски не возвращаются системе до сборки арены; их общий размер ограничен
+ * параметром JVM {@code -XX:MaxDirectMemorySize}.
+ * <p>
+ * Блок адресуется числом {@code long}: номер куска в старших 32 битах, смещение в младших. Выделение
+ * и освобождение синхронизированы на арене; чтение и запись записей блока синхронизирует его владелец.
+ */
+public final class ReadingArena {
+    /**
+     * Размер записи показания в байтах.
+     */
+    public static final int RECORD_BYTES = 8;
+    /**
+     * Размер куска памяти по умолчанию.
+     */
+    public static final int DEFAULT_CHUNK_BYTES = 16 << 20;
+
+    private static final long NONE = -1L;
+    private static final int MIN_CAPACITY_SHIFT = 2;
+
+    private final int chunkBytes;
+    private final long[] freeBlocks = new long[Integer.SIZE];
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private int chunkPosition;
+    private long usedBytes;
+
+    /**
+     * Создает арену с кусками по {@value #DEFAULT_CHUNK_BYTES} байт.
+     */
+    public ReadingArena() {
+        this(DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param chunkBytes Размер куска памяти; определяет и максимальную емкость блока.
+     */
+    public ReadingArena(int chunkBytes) {
+        if (chunkBytes < RECORD_BYTES << MIN_CAPACITY_SHIFT || Integer.bitCount(chunkBytes) != 1) {
+            throw new IllegalArgumentException("Размер куска должен быть степенью двойки не меньше "
+                    + (RECORD_BYTES << MIN_CAPACITY_SHIFT) + " байт.");
+        }
+        this.chunkBytes = chunkBytes;
+        Arrays.fill(freeBlocks, NONE);
+    }
+
+    /**
+     * @param records Требуемое количество записей.
+     * @return Емкость блока, который будет выделен под это количество записей.
+     */
+    public static int capacityFor(int records) {
+        return Math.max(1 << MIN_CAPACITY_SHIFT, Integer.highestOneBit(Math.max(1, records - 1)) << 1);
+    }
+
+    /**
+     * Выделяет блок.
+     *
+     * @param capacity Емкость блока в записях, результат {@link #capacityFor}.
+     * @return Адрес блока.
+     */
+    public synchronized long allocate(int capacity) {
+        int bytes = capacity * RECORD_BYTES;
+        if (bytes > chunkBytes || bytes <= 0) {
+            throw new IllegalArgumentException("Блок не помещается в кусок памяти: " + capacity + " записей.");
+        }
+        int sizeClass = Integer.numberOfTrailingZeros(capacity);
+        long block = freeBlocks[sizeClass];
+        if (block != NONE) {
+            freeBlocks[sizeClass] = chunk(block).getLong(offset(block));
+        } else {
+            ByteBuffer[] current = chunks;
+            if (current.length == 0 || chunkPosition + bytes > chunkBytes) {
+                current = Arrays.copyOf(current, current.length + 1);
+                current[current.length - 1] = ByteBuffer.allocateDirect(chunkBytes).order(ByteOrder.nativeOrder());
+                chunks = current;
+                chunkPosition = 0;
+            }
+            block = (long) (current.length - 1) << 32 | chunkPosition;
+            chunkPosition += bytes;
+        }
+        usedBytes += bytes;
+        return block;
+    }
+
+    /**
+     * Возвращает блок арене. После освобождения блок может быть выдан снова, поэтому владелец не должен
+     * обращаться к нему.
+     *
+     * @param block    Адрес блока.
+     * @param capacity Емкость блока, с которой он был выделен.
+     */
+    public synchronized void free(long block, int capacity) {
+        int sizeClass = Integer.numberOfTrailingZeros(capacity);
+        chunk(block).putLong(offset(block), freeBlocks[sizeClass]);
+        freeBlocks[sizeClass] = block;
+        usedBytes -= (long) capacity * RECORD_BYTES;
+    }
+
+    /**
+     * @return Номер месяца записи блока.
+     */
+    public int month(long block, int index) {
+        return chunk(block).getInt(offset(block) + index * RECORD_BYTES);
+    }
+
+    /**
+     * @return Показание записи блока.
+     */
+    public int value(long block, int index) {
+        return chunk(block).getInt(offset(block) + index * RECORD_BYTES + Integer.BYTES);
+    }
+
+    /**
+     * Записывает запись блока.
+     */
+    public void set(long block, int index, int month, int value) {
+        ByteBuffer chunk = chunk(block);
+        int position = offset(block) + index * RECORD_BYTES;
+        chunk.putInt(position, month);
+        chunk.putInt(position + Integer.BYTES, value);
+    }
+
+    /**
+     * Перезаписывает показание записи блока.
+     */
+    public void setValue(long block, int index, int value) {
+        chunk(block).putInt(offset(block) + index * RECORD_BYTES + Integer.BYTES, value);
+    }
+
+    /**
+     * Копирует записи; блоки могут совпадать, а диапазоны - пересекаться.
+     *
+     * @param source     Адрес исходного блока.
+     * @param from       Первая копируемая запись.
+     * @param target     Адрес целевого блока.
+     * @param to         Позиция первой записи в целевом блоке.
+     * @param count      Количество записей.
+     */
+    public void copy(long source, int from, long target, int to, int count) {
+        ByteBuffer sourceChunk = chunk(source);
+        ByteBuffer targetChunk = chunk(target);
+        int sourceOffset = offset(source) + from * RECORD_BYTES;
+        int targetOffset = offset(target) + to * RECORD_BYTES;
+        if (source == target && to > from) {
+            for (int i = count - 1; i >= 0; i--) {
+                targetChunk.putLong(targetOffset + i * RECORD_BYTES, sourceChunk.getLong(sourceOffset + i * RECORD_BYTES));
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                targetChunk.putLong(targetOffset + i * RECORD_BYTES, sourceChunk.getLong(sourceOffset + i * RECORD_BYTES));
+            }
+        }
+    }
+
+    /**
+     * @return Объем памяти вне кучи, занятый кусками арены.
+     */
+    public synchronized long getReservedBytes() {
+        return (long) chunks.length * chunkBytes;
+    }
+
+    /**
+     * @return Объем памяти в выделенных и не освобожденных блоках.
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    private ByteBuffer chunk(long block) {
+        return chunks[(int) (block >>> 32)];
+    }
+
+    private static int offset(long block) {
+        return (int) block;
+    }
+}
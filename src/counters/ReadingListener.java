@@ -0,0 +1,47 @@
+package counters;
+
+/**
+ * Получатель изменений показаний, например для инкрементальной аналитики потребления.
+ * <p>
+ * Вызывается под блокировкой счетчика сразу после записи показания, поэтому изменения одного счетчика
+ * приходят строго по порядку, а соседние показания переданы в согласованном состоянии. Реализация должна
+ * быть быстрой, потокобезопасной и не обращаться к {@link CounterService}.
+ */
+@FunctionalInterface
+public interface ReadingListener {
+    /**
+     * Значение соседнего или замененного показания, если такого показания нет.
+     */
+    int NO_READING = Integer.MIN_VALUE;
+
+    /**
+     * Обрабатывает записанное показание.
+     *
+     * @param userId        Идентификатор пользователя.
+     * @param counterType   Тип счетчика.
+     * @param epochMonth    Номер месяца, см. {@link EpochMonths}.
+     * @param value         Записанное показание.
+     * @param replacedValue Показание за этот месяц до записи или {@link #NO_READING}.
+     * @param previousValue Показание за ближайший предыдущий месяц или {@link #NO_READING}.
+     * @param nextMonth     Номер ближайшего следующего месяца с показанием; не определен, если его нет.
+     * @param nextValue     Показание за ближайший следующий месяц или {@link #NO_READING}.
+     */
+    void readingWritten(int userId, CounterType counterType, int epochMonth, int value,
+                        int replacedValue, int previousValue, int nextMonth, int nextValue);
+
+    /**
+     * Обрабатывает удаление записанного показания, которое не удалось сохранить в хранилище.
+     * По умолчанию ничего не делает.
+     *
+     * @param userId        Идентификатор пользователя.
+     * @param counterType   Тип счетчика.
+     * @param epochMonth    Номер месяца, см. {@link EpochMonths}.
+     * @param value         Удаленное показание.
+     * @param previousValue Показание за ближайший предыдущий месяц или {@link #NO_READING}.
+     * @param nextMonth     Номер ближайшего следующего месяца с показанием; не определен, если его нет.
+     * @param nextValue     Показание за ближайший следующий месяц или {@link #NO_READING}.
+     */
+    default void readingRemoved(int userId, CounterType counterType, int epochMonth, int value,
+                                int previousValue, int nextMonth, int nextValue) {
+    }
+}
@@ -0,0 +1,25 @@
+package counters;
+
+/**
+ * Дополнительное правило проверки показания, подключаемое через {@link ValidationRules#withRule}.
+ * <p>
+ * Вызывается под блокировкой счетчика после встроенных проверок, поэтому соседние показания переданы
+ * в согласованном состоянии. Реализация должна быть быстрой и не обращаться к {@link CounterService}.
+ */
+@FunctionalInterface
+public interface ReadingRule {
+    /**
+     * Проверяет показание.
+     *
+     * @param counterType   Тип счетчика.
+     * @param epochMonth    Номер месяца, см. {@link EpochMonths}.
+     * @param value         Поданное показание.
+     * @param previousMonth Номер ближайшего предыдущего месяца с показанием или {@link ReadingListener#NO_READING}.
+     * @param previousValue Показание за ближайший предыдущий месяц; не определено, если его нет.
+     * @param nextMonth     Номер ближайшего следующего месяца с показанием или {@link ReadingListener#NO_READING}.
+     * @param nextValue     Показание за ближайший следующий месяц; не определено, если его нет.
+     * @return Причина отклонения или {@code null}, если показание допустимо.
+     */
+    RejectionCode check(CounterType counterType, int epochMonth, int value, int previousMonth, int previousValue,
+                        int nextMonth, int nextValue);
+}
@@ -0,0 +1,54 @@
+package counters;
+
+import users.User;
+
+import java.time.YearMonth;
+
+/**
+ * Одно показание в пакетной подаче {@link CounterService#submitCounterReadings}.
+ */
+public final class ReadingSubmission {
+    private final int userId;
+    private final CounterType counterType;
+    private final YearMonth yearMonth;
+    private final int value;
+
+    /**
+     * @param user        Пользователь.
+     * @param counterType Тип счетчика.
+     * @param yearMonth   Месяц года.
+     * @param value       Значение счетчика.
+     */
+    public ReadingSubmission(User user, CounterType counterType, YearMonth yearMonth, int value) {
+        this(user.getId(), counterType, yearMonth, value);
+    }
+
+    /**
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @param yearMonth   Месяц года.
+     * @param value       Значение счетчика.
+     */
+    public ReadingSubmission(int userId, CounterType counterType, YearMonth yearMonth, int value) {
+        this.userId = userId;
+        this.counterType = counterType;
+        this.yearMonth = yearMonth;
+        this.value = value;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public CounterType getCounterType() {
+        return counterType;
+    }
+
+    public YearMonth getYearMonth() {
+        return yearMonth;
+    }
+
+    public int getValue() {
+        return value;
+    }
+}
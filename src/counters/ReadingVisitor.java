@@ -0,0 +1,18 @@
+package counters;
+
+/**
+ * Обработчик показаний при обходе хранилища. Значения передаются примитивами, чтобы обход
+ * больших объемов данных не создавал объектов.
+ */
+@FunctionalInterface
+public interface ReadingVisitor {
+    /**
+     * Обрабатывает одно показание.
+     *
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @param epochMonth  Номер месяца, см. {@link EpochMonths}.
+     * @param value       Показание счетчика.
+     */
+    void visit(int userId, CounterType counterType, int epochMonth, int value);
+}
@@ -0,0 +1,49 @@
+package counters;
+
+/**
+ * Причина отклонения поданного показания. Коды возвращаются вместо исключений, поэтому отклонение в потоке
+ * подач стоит не дороже приема.
+ */
+public enum RejectionCode {
+    /**
+     * Показание не заполнено: нет типа счетчика или месяца.
+     */
+    INVALID("Некорректное показание."),
+    /**
+     * Показание за этот месяц уже есть, в том числе нулевое.
+     */
+    DUPLICATE_MONTH("Показания за этот месяц уже были поданы."),
+    /**
+     * Показание вне допустимого диапазона для типа счетчика.
+     */
+    OUT_OF_RANGE("Показание вне допустимого диапазона."),
+    /**
+     * Показание меньше показания за предыдущий месяц.
+     */
+    LESS_THAN_PREVIOUS("Показание меньше предыдущего."),
+    /**
+     * Показание больше показания за следующий месяц.
+     */
+    GREATER_THAN_NEXT("Показание больше следующего."),
+    /**
+     * Расход относительно соседнего показания превышает допустимый для типа счетчика.
+     */
+    DELTA_TOO_LARGE("Расход превышает допустимый."),
+    /**
+     * Показание отклонено подключенным правилом {@link ReadingRule}.
+     */
+    RULE_VIOLATION("Показание отклонено правилом проверки.");
+
+    private final String message;
+
+    RejectionCode(String message) {
+        this.message = message;
+    }
+
+    /**
+     * @return Сообщение для пользователя.
+     */
+    public String getMessage() {
+        return message;
+    }
+}
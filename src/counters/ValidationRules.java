@@ -0,0 +1,147 @@
+package counters;
+
+import java.util.Arrays;
+
+import static counters.ReadingListener.NO_READING;
+
+/**
+ * Неизменяемый набор правил проверки подаваемых показаний, см. {@link CounterService#setValidationRules}.
+ * <p>
+ * Показание за уже занятый месяц отклоняется всегда, независимо от правил. Встроенные правила задаются
+ * для каждого типа счетчика: диапазон допустимых значений (дополнительно к границам из описания типа
+ * {@link CounterType}, если они учитываются), возрастание относительно соседних месяцев и максимальный
+ * расход за месяц. Они хранятся в примитивных массивах по типу счетчика и проверяются
+ * за один проход по соседним показаниям вместе с подключенными {@link ReadingRule}.
+ * <p>
+ * Максимальный расход умножается на количество месяцев между показаниями, поэтому пропуск месяцев
+ * не приводит к ложным отклонениям.
+ */
+public final class ValidationRules {
+    private static final int TYPES = MeterTypeRegistry.MAX_TYPES;
+
+    /**
+     * Правила по умолчанию: показания в границах типа счетчика и не убывают, расход не ограничен.
+     */
+    public static final ValidationRules DEFAULT = new ValidationRules(true);
+    /**
+     * Только запрет повторной подачи за месяц, например если счетчики заменяют и их показания сбрасываются.
+     */
+    public static final ValidationRules DUPLICATES_ONLY = new ValidationRules(false);
+
+    private final int[] minValues;
+    private final int[] maxValues;
+    private final int[] maxMonthlyDeltas;
+    private final boolean[] monotonic;
+    private final boolean typeBounds;
+    private final ReadingRule[] rules;
+
+    private ValidationRules(boolean strict) {
+        this.minValues = new int[TYPES];
+        this.maxValues = new int[TYPES];
+        this.maxMonthlyDeltas = new int[TYPES];
+        this.monotonic = new boolean[TYPES];
+        this.typeBounds = strict;
+        this.rules = new ReadingRule[0];
+        Arrays.fill(minValues, Integer.MIN_VALUE);
+        Arrays.fill(maxValues, Integer.MAX_VALUE);
+        Arrays.fill(maxMonthlyDeltas, Integer.MAX_VALUE);
+        Arrays.fill(monotonic, strict);
+    }
+
+    private ValidationRules(ValidationRules source, ReadingRule[] rules) {
+        this.minValues = source.minValues.clone();
+        this.maxValues = source.maxValues.clone();
+        this.maxMonthlyDeltas = source.maxMonthlyDeltas.clone();
+        this.monotonic = source.monotonic.clone();
+        this.typeBounds = source.typeBounds;
+        this.rules = rules;
+    }
+
+    /**
+     * @param counterType Тип счетчика.
+     * @param minValue    Наименьшее допустимое показание.
+     * @param maxValue    Наибольшее допустимое показание.
+     * @return Правила с заданным диапазоном показаний для типа счетчика.
+     */
+    public ValidationRules withBounds(CounterType counterType, int minValue, int maxValue) {
+        if (minValue > maxValue) {
+            throw new IllegalArgumentException("Нижняя граница больше верхней.");
+        }
+        ValidationRules result = new ValidationRules(this, rules);
+        result.minValues[counterType.getId()] = minValue;
+        result.maxValues[counterType.getId()] = maxValue;
+        return result;
+    }
+
+    /**
+     * @param counterType Тип счетчика.
+     * @param maxDelta    Максимальный расход за месяц.
+     * @return Правила с ограничением расхода для типа счетчика.
+     */
+    public ValidationRules withMaxMonthlyDelta(CounterType counterType, int maxDelta) {
+        if (maxDelta < 0) {
+            throw new IllegalArgumentException("Максимальный расход не может быть отрицательным.");
+        }
+        ValidationRules result = new ValidationRules(this, rules);
+        result.maxMonthlyDeltas[counterType.getId()] = maxDelta;
+        return result;
+    }
+
+    /**
+     * @param counterType Тип счетчика.
+     * @param monotonic   {@code true}, чтобы показания не убывали по месяцам.
+     * @return Правила с заданной проверкой возрастания для типа счетчика.
+     */
+    public ValidationRules withMonotonic(CounterType counterType, boolean monotonic) {
+        ValidationRules result = new ValidationRules(this, rules);
+        result.monotonic[counterType.getId()] = monotonic;
+        return result;
+    }
+
+    /**
+     * @param rule Дополнительное правило; правила проверяются в порядке подключения.
+     * @return Правила с подключенным правилом.
+     */
+    public ValidationRules withRule(ReadingRule rule) {
+        ReadingRule[] grown = Arrays.copyOf(rules, rules.length + 1);
+        grown[rules.length] = rule;
+        return new ValidationRules(this, grown);
+    }
+
+    /**
+     * Проверяет показание относительно соседних показаний счетчика. Вызывается под блокировкой счетчика.
+     *
+     * @return Причина отклонения или {@code null}, если показание допустимо.
+     */
+    RejectionCode check(CounterType counterType, int month, int value, int previousMonth, int previousValue,
+                        int nextMonth, int nextValue) {
+        int type = counterType.getId();
+        if (value < minValues[type] || value > maxValues[type]
+                || typeBounds && (value < counterType.getMinValue() || value > counterType.getMaxValue())) {
+            return RejectionCode.OUT_OF_RANGE;
+        }
+        if (previousMonth != NO_READING) {
+            if (monotonic[type] && value < previousValue) {
+                return RejectionCode.LESS_THAN_PREVIOUS;
+            }
+            if ((long) value - previousValue > (long) maxMonthlyDeltas[type] * (month - previousMonth)) {
+                return RejectionCode.DELTA_TOO_LARGE;
+            }
+        }
+        if (nextMonth != NO_READING) {
+            if (monotonic[type] && value > nextValue) {
+                return RejectionCode.GREATER_THAN_NEXT;
+            }
+            if ((long) nextValue - value > (long) maxMonthlyDeltas[type] * (nextMonth - month)) {
+                return RejectionCode.DELTA_TOO_LARGE;
+            }
+        }
+        for (ReadingRule rule : rules) {
+            RejectionCode code = rule.check(counterType, month, value, previousMonth, previousValue, nextMonth, nextValue);
+            if (code != null) {
+                return code;
+            }
+        }
+        return null;
+    }
+}
@@ -1,8 +1,13 @@
 package exceptions;
+
+import counters.RejectionCode;
+
 /**
  * Исключение, выбрасываемое при возникновении ошибки в процессе подачи показаний счетчика.
  */
 public class CounterSubmissionException extends RuntimeException {
+    private final RejectionCode code;
+
     /**
      * Конструктор исключения с указанием сообщения об ошибке.
      *
@@ -10,5 +15,24 @@ public class CounterSubmissionException extends RuntimeException {
      */
     public CounterSubmissionException(String message) {
         super(message);
+        this.code = null;
+    }
+
+    /**
+     * Конструктор исключения для отклоненного показания. Отклонение - обычный исход подачи, поэтому стек
+     * вызовов не заполняется.
+     *
+     * @param code Причина отклонения.
+     */
+    public CounterSubmissionException(RejectionCode code) {
+        super(code.getMessage(), null, false, false);
+        this.code = code;
+    }
+
+    /**
+     * @return Причина отклонения или {@code null}, если исключение создано с произвольным сообщением.
+     */
+    public RejectionCode getCode() {
+        return code;
     }
 }
@@ -0,0 +1,19 @@
+package exceptions;
+
+/**
+ * Исключение, выбрасываемое, когда сервис временно не может принять запрос, например при переполнении
+ * очереди проверок паролей. В отличие от {@link AuthorizationException}, оно не говорит о неверных данных
+ * клиента: запрос можно повторить позже.
+ */
+public class ServiceOverloadedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Конструктор исключения с указанием сообщения об ошибке.
+     *
+     * @param message Сообщение об ошибке.
+     */
+    public ServiceOverloadedException(String message) {
+        super(message);
+    }
+}
@@ -1,20 +1,160 @@
 package main;
 
+import analytics.ConsumptionAnalytics;
 import api.ApiService;
+import api.HttpApiServer;
+import audit.AuditService;
 import counters.CounterService;
+import counters.ReadingArena;
+import metrics.MetricsRegistry;
+import reports.ReportFormat;
+import reports.ReportGenerator;
+import session.SessionService;
+import storage.Durability;
+import storage.FileStorage;
+import users.PasswordHasher;
+import users.PasswordVerifier;
+import users.UserArena;
+import users.UserIdAllocator;
 import users.UserRepository;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 /**
  * Класс, представляющий приложение мониторинга, которое запускает веб-сервис {@link api.ApiService}
  * для взаимодействия с пользователями, подачи показаний счетчиков и просмотра соответствующей информации.
+ * Данные и аудит-лог сохраняются в каталоге {@code data} и восстанавливаются при следующем запуске.
+ * <p>
+ * Запуск с аргументами {@code http [порт]} вместо консоли поднимает {@link api.HttpApiServer}
+ * (порт по умолчанию 8080), который работает до остановки процесса. Перед запуском сервера по всем показаниям
+ * строится {@link ConsumptionAnalytics}, далее она обновляется при каждой подаче.
+ * <p>
+ * Запуск с аргументами {@code report <файл> [csv|json]} выгружает все показания в файл через
+ * {@link ReportGenerator} и завершает работу.
+ * <p>
+ * Метрики обоих интерфейсов раз в минуту записываются в {@code data/metrics.prom} в текстовом формате Prometheus;
+ * HTTP-сервер также отдает их по {@code GET /metrics}.
+ * <p>
+ * Секрет подписи токенов сессий берется из переменной окружения {@code MONITORING_SESSION_SECRET} (base64,
+ * не короче 32 байт); узлы с одинаковым секретом принимают токены друг друга. Без переменной секрет
+ * генерируется при запуске. Переменная {@code MONITORING_NODE_ID} задает номер узла, из диапазона которого
+ * выдаются идентификаторы новых пользователей (по умолчанию 0). Переменные {@code MONITORING_OFF_HEAP_READINGS=true}
+ * и {@code MONITORING_OFF_HEAP_USERS=true} переносят в память вне кучи показания счетчиков ({@link ReadingArena})
+ * и пользователей ({@link UserArena}); ее объем ограничивается параметром JVM {@code -XX:MaxDirectMemorySize}.
  */
 
 public class MonitoringServiceApp {
+    private static final long CHECKPOINT_PERIOD_MINUTES = 10;
+    private static final long METRICS_DUMP_PERIOD_MINUTES = 1;
+    private static final int DEFAULT_HTTP_PORT = 8080;
+    private static final Duration SESSION_TTL = Duration.ofHours(12);
+
     public static void main(String[] args) {
-        UserRepository userRepository = new UserRepository();
-        CounterService counterService = new CounterService();
-        ApiService apiService = new ApiService(userRepository, counterService);
+        // хук остановки HTTP-сервера ждет этого сигнала, чтобы JVM не завершилась до снимка и закрытия хранилищ
+        CountDownLatch finished = new CountDownLatch(1);
+        try {
+            run(args, finished);
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    private static void run(String[] args, CountDownLatch finished) {
+        try (FileStorage storage = new FileStorage(Paths.get("data"), Durability.FSYNC);
+             AuditService auditService = new AuditService(Paths.get("data", "audit"), storage.getMeterTypes());
+             MetricsRegistry metrics = new MetricsRegistry()) {
+            // один диапазон узла для пользователей и их показаний: иначе таблица показаний ждет идентификаторы
+            // узла 0 и уводит показания пользователей других узлов в медленный путь
+            UserIdAllocator idAllocator = new UserIdAllocator(nodeId());
+            UserRepository userRepository = new UserRepository(storage, new PasswordHasher(), new PasswordVerifier(),
+                    idAllocator, offHeap("MONITORING_OFF_HEAP_USERS") ? new UserArena() : null);
+            CounterService counterService = new CounterService(storage, idAllocator,
+                    CounterService.DEFAULT_LATEST_CACHE_CAPACITY, offHeap("MONITORING_OFF_HEAP_READINGS") ? new ReadingArena() : null);
+            storage.scheduleCheckpoints(userRepository, counterService, CHECKPOINT_PERIOD_MINUTES, TimeUnit.MINUTES);
+            SessionService sessionService = createSessionService();
 
+            if (args.length > 1 && "report".equals(args[0])) {
+                ReportFormat format = args.length > 2 ? ReportFormat.valueOf(args[2].toUpperCase()) : ReportFormat.CSV;
+                writeReport(counterService, userRepository, Paths.get(args[1]), format);
+                return;
+            }
+            Path metricsFile = Paths.get("data", "metrics.prom");
+            metrics.scheduleDump(metricsFile, METRICS_DUMP_PERIOD_MINUTES, TimeUnit.MINUTES);
+            if (args.length > 0 && "http".equals(args[0])) {
+                int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_HTTP_PORT;
+                ConsumptionAnalytics analytics = ConsumptionAnalytics.attach(counterService);
+                runHttpServer(new HttpApiServer(userRepository, counterService, auditService, sessionService,
+                        analytics, metrics, new InetSocketAddress(port)), finished);
+            } else {
+                ApiService apiService = new ApiService(userRepository, counterService, auditService, sessionService,
+                        metrics);
+                apiService.start();
+            }
+            storage.checkpoint(userRepository, counterService);
+            metrics.dump(metricsFile);
+        }
+    }
+
+    private static void writeReport(CounterService counterService, UserRepository userRepository, Path file,
+                                    ReportFormat format) {
+        long start = System.nanoTime();
+        try (ReportGenerator generator = new ReportGenerator(counterService, userRepository);
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+            long rows = generator.generate(out, format, null, null);
+            System.out.printf("Выгружено показаний: %d за %d мс%n", rows, (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int nodeId() {
+        String nodeId = System.getenv("MONITORING_NODE_ID");
+        return nodeId == null || nodeId.isEmpty() ? 0 : Integer.parseInt(nodeId);
+    }
+
+    private static boolean offHeap(String variable) {
+        return Boolean.parseBoolean(System.getenv(variable));
+    }
+
+    private static SessionService createSessionService() {
+        String secret = System.getenv("MONITORING_SESSION_SECRET");
+        if (secret == null || secret.isEmpty()) {
+            return new SessionService(SESSION_TTL);
+        }
+        return new SessionService(Base64.getDecoder().decode(secret), SESSION_TTL, Duration.ofMinutes(1), 10_000);
+    }
 
-        apiService.start();
+    /**
+     * Запускает HTTP-сервер и ждет остановки процесса, после чего останавливает сервер. Хук остановки
+     * держит JVM, пока не будет подан сигнал {@code finished}.
+     */
+    private static void runHttpServer(HttpApiServer server, CountDownLatch finished) {
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stopped.countDown();
+            try {
+                finished.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        server.start();
+        System.out.println("HTTP API запущен на порту " + server.getPort());
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server.stop();
     }
 }
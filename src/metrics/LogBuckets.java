@@ -0,0 +1,95 @@
+package metrics;
+
+import java.util.function.IntToLongFunction;
+
+/**
+ * Логарифмическая разбивка неотрицательных значений на корзины для гистограмм, как в HdrHistogram.
+ * <p>
+ * Значения меньше {@code 2^subBucketBits} попадают в собственные корзины, каждая следующая степень двойки
+ * делится на {@code 2^subBucketBits} равных корзин, поэтому относительная погрешность процентиля не превышает
+ * {@code 1/2^subBucketBits} во всем диапазоне. Значения от {@code 2^(maxExponent + 1)} попадают в последнюю корзину.
+ * <p>
+ * Разбивка не хранит счетчики: гистограмма выбирает их представление сама, например
+ * {@link java.util.concurrent.atomic.LongAdder} на корзину, если запись идет из многих потоков, или компактный
+ * {@link java.util.concurrent.atomic.AtomicLongArray}.
+ */
+public final class LogBuckets {
+    private final int subBucketBits;
+    private final int subBuckets;
+    private final int size;
+
+    /**
+     * @param subBucketBits Двоичный логарифм количества корзин на степень двойки.
+     * @param maxExponent   Наибольшая степень двойки, которая делится на корзины.
+     */
+    public LogBuckets(int subBucketBits, int maxExponent) {
+        if (subBucketBits < 1 || maxExponent < subBucketBits || maxExponent > 62) {
+            throw new IllegalArgumentException("Некорректные параметры корзин гистограммы.");
+        }
+        this.subBucketBits = subBucketBits;
+        this.subBuckets = 1 << subBucketBits;
+        this.size = (maxExponent - subBucketBits + 2) * subBuckets;
+    }
+
+    /**
+     * @return Количество корзин.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param value Значение; отрицательные учитываются как 0.
+     * @return Номер корзины значения.
+     */
+    public int indexOf(long value) {
+        if (value < subBuckets) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - subBucketBits));
+        return Math.min((exponent - subBucketBits) * subBuckets + mantissa, size - 1);
+    }
+
+    /**
+     * @param index Номер корзины от 0 до {@link #size()} включительно.
+     * @return Наименьшее значение корзины.
+     */
+    public long lowerBound(int index) {
+        if (index < subBuckets) {
+            return index;
+        }
+        int exponent = index / subBuckets + subBucketBits - 1;
+        long mantissa = index % subBuckets + subBuckets;
+        return mantissa << (exponent - subBucketBits);
+    }
+
+    /**
+     * Возвращает приближенное значение процентиля: середину корзины, в которую он попадает. Счетчики
+     * корзин читаются один раз, поэтому результат согласован с общим количеством даже при параллельной записи.
+     *
+     * @param quantile Доля от 0 до 1.
+     * @param counts   Количество значений в корзине по ее номеру.
+     * @return Значение процентиля или 0, если значений нет.
+     */
+    public long valueAt(double quantile, IntToLongFunction counts) {
+        long[] snapshot = new long[size];
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            snapshot[i] = counts.applyAsLong(i);
+            total += snapshot[i];
+        }
+        if (total <= 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < size; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return (lowerBound(i) + lowerBound(i + 1) - 1) / 2;
+            }
+        }
+        return lowerBound(size - 1);
+    }
+}
@@ -0,0 +1,200 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Реестр метрик: счетчики на {@link LongAdder} и {@link Timer} с гистограммами задержек.
+ * <p>
+ * Метрика определяется именем и парами меток. Ссылку на метрику горячего пути следует получить один раз
+ * и сохранить в поле: запись в нее не берет блокировок и стоит десятки наносекунд. Метод {@link #render()}
+ * выводит все метрики в текстовом формате Prometheus.
+ */
+public class MetricsRegistry implements AutoCloseable {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final ConcurrentMap<String, Series<LongAdder>> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Series<Timer>> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, LongAdder> errors = new ConcurrentHashMap<>();
+    private ScheduledExecutorService dumpScheduler;
+
+    /**
+     * Возвращает счетчик, создавая его при первом обращении.
+     *
+     * @param name   Имя метрики.
+     * @param labels Пары "метка, значение".
+     * @return Счетчик.
+     */
+    public LongAdder counter(String name, String... labels) {
+        return counters.computeIfAbsent(seriesId(name, labels), id -> new Series<>(name, labels, new LongAdder())).metric;
+    }
+
+    /**
+     * Возвращает таймер, создавая его при первом обращении.
+     *
+     * @param name   Имя метрики.
+     * @param labels Пары "метка, значение".
+     * @return Таймер.
+     */
+    public Timer timer(String name, String... labels) {
+        return timers.computeIfAbsent(seriesId(name, labels), id -> new Series<>(name, labels, new Timer())).metric;
+    }
+
+    /**
+     * Учитывает ошибку в счетчике {@code errors_total} с меткой по простому имени класса исключения.
+     *
+     * @param error Ошибка.
+     */
+    public void recordError(Throwable error) {
+        LongAdder counter = errors.get(error.getClass());
+        if (counter == null) {
+            counter = errors.computeIfAbsent(error.getClass(),
+                    type -> counter("errors_total", "exception", type.getSimpleName()));
+        }
+        counter.increment();
+    }
+
+    /**
+     * Выводит все метрики в текстовом формате Prometheus. Таймеры выводятся как summary в секундах
+     * с процентилями 0.5, 0.9 и 0.99 и дополнительной метрикой {@code _max}.
+     *
+     * @return Текст метрик.
+     */
+    public String render() {
+        StringBuilder text = new StringBuilder(4096);
+        String family = null;
+        for (Series<LongAdder> series : new TreeMap<>(counters).values()) {
+            if (!series.name.equals(family)) {
+                family = series.name;
+                text.append("# TYPE ").append(family).append(" counter\n");
+            }
+            text.append(series.name).append(series.labels("")).append(' ').append(series.metric.sum()).append('\n');
+        }
+        family = null;
+        for (Series<Timer> series : new TreeMap<>(timers).values()) {
+            Timer timer = series.metric;
+            if (!series.name.equals(family)) {
+                family = series.name;
+                text.append("# TYPE ").append(family).append(" summary\n");
+            }
+            for (double quantile : QUANTILES) {
+                text.append(series.name).append(series.labels("quantile=\"" + quantile + "\"")).append(' ');
+                appendSeconds(text, timer.getPercentileNanos(quantile)).append('\n');
+            }
+            text.append(series.name).append("_sum").append(series.labels("")).append(' ');
+            appendSeconds(text, timer.getTotalNanos()).append('\n');
+            text.append(series.name).append("_count").append(series.labels("")).append(' ')
+                    .append(timer.getCount()).append('\n');
+            text.append(series.name).append("_max").append(series.labels("")).append(' ');
+            appendSeconds(text, timer.getMaxNanos()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Запускает периодическую запись метрик в файл в фоновом потоке. Файл заменяется атомарно, поэтому
+     * читатель всегда видит полный снимок.
+     *
+     * @param file   Файл метрик.
+     * @param period Период записи.
+     * @param unit   Единица измерения периода.
+     */
+    public synchronized void scheduleDump(Path file, long period, TimeUnit unit) {
+        if (dumpScheduler == null) {
+            dumpScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        dumpScheduler.scheduleAtFixedRate(() -> {
+            try {
+                dump(file);
+            } catch (UncheckedIOException e) {
+                System.err.println("Не удалось записать метрики: " + e.getMessage());
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Записывает метрики в файл.
+     *
+     * @param file Файл метрик.
+     */
+    public void dump(Path file) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(temp, render().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Останавливает периодическую запись.
+     */
+    @Override
+    public synchronized void close() {
+        if (dumpScheduler != null) {
+            dumpScheduler.shutdown();
+            dumpScheduler = null;
+        }
+    }
+
+    private static StringBuilder appendSeconds(StringBuilder text, long nanos) {
+        return text.append(String.format(Locale.ROOT, "%.9f", nanos / 1e9));
+    }
+
+    private static String seriesId(String name, String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Метки задаются парами \"метка, значение\".");
+        }
+        return labels.length == 0 ? name : name + "\u0000" + String.join("\u0000", labels);
+    }
+
+    /**
+     * Метрика с именем и метками.
+     */
+    private static final class Series<M> {
+        private final String name;
+        private final String labels;
+        private final M metric;
+
+        Series(String name, String[] labels, M metric) {
+            this.name = name;
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < labels.length; i += 2) {
+                if (text.length() > 0) {
+                    text.append(',');
+                }
+                text.append(labels[i]).append("=\"")
+                        .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            }
+            this.labels = text.toString();
+            this.metric = metric;
+        }
+
+        String labels(String extra) {
+            if (labels.isEmpty() && extra.isEmpty()) {
+                return "";
+            }
+            if (labels.isEmpty() || extra.isEmpty()) {
+                return "{" + labels + extra + "}";
+            }
+            return "{" + labels + "," + extra + "}";
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счетчик длительностей с гистограммой задержек.
+ * <p>
+ * Гистограмма логарифмическая ({@link LogBuckets}): значения до 8 нс хранятся точно, каждая следующая степень
+ * двойки делится на 8 равных корзин, поэтому относительная погрешность процентилей не превышает 1/8 во всем
+ * диапазоне до {@code 2^40} нс. Каждая корзина - {@link LongAdder}, поэтому запись не берет блокировок
+ * и не конкурирует между потоками; чтение суммирует корзины и стоит O(количества корзин).
+ */
+public final class Timer {
+    private static final LogBuckets BUCKETS = new LogBuckets(3, 40);
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] buckets = new LongAdder[BUCKETS.size()];
+
+    Timer() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Учитывает длительность.
+     *
+     * @param nanos Длительность в наносекундах.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        count.increment();
+        totalNanos.add(value);
+        maxNanos.accumulate(value);
+        buckets[BUCKETS.indexOf(value)].increment();
+    }
+
+    /**
+     * Учитывает длительность от момента {@code startNanos}, полученного из {@link System#nanoTime()}, до текущего.
+     *
+     * @param startNanos Время начала.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Возвращает приближенное значение процентиля: середину корзины, в которую он попадает.
+     *
+     * @param quantile Доля от 0 до 1.
+     * @return Длительность в наносекундах или 0, если записей нет.
+     */
+    public long getPercentileNanos(double quantile) {
+        return BUCKETS.valueAt(quantile, i -> buckets[i].sum());
+    }
+}
@@ -0,0 +1,28 @@
+package reports;
+
+/**
+ * Формат выгрузки показаний.
+ */
+public enum ReportFormat {
+    /**
+     * CSV с заголовком {@code user_id,username,counter_type,month,value}.
+     */
+    CSV("text/csv; charset=utf-8"),
+    /**
+     * JSON Lines: по одному JSON-объекту на строку.
+     */
+    JSON("application/x-ndjson; charset=utf-8");
+
+    private final String contentType;
+
+    ReportFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * @return MIME-тип выгрузки для HTTP-ответа.
+     */
+    public String getContentType() {
+        return contentType;
+    }
+}
@@ -0,0 +1,237 @@
+package reports;
+
+import counters.CounterService;
+import counters.CounterType;
+import counters.EpochMonths;
+import counters.ReadingVisitor;
+import users.User;
+import users.UserRepository;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.YearMonth;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Выгрузка всех показаний всех пользователей для администраторов.
+ * <p>
+ * Пользователи делятся на непересекающиеся части ({@link CounterService#forEachReading(ReadingVisitor, int, int)}),
+ * части обрабатываются задачами собственного {@link ForkJoinPool}. Каждая задача кодирует строки в свой буфер
+ * и, накопив около {@value #CHUNK_CHARS} символов, записывает его в общий поток целиком под блокировкой.
+ * Показания берутся из счетчиков и отображенного в память снимка без копирования истории, поэтому расход
+ * памяти ограничен буферами задач и не зависит от объема выгрузки. Строки разных частей перемешаны,
+ * порядок строк в выгрузке не определен.
+ */
+public class ReportGenerator implements AutoCloseable {
+    private static final int CHUNK_CHARS = 32 * 1024;
+    private static final String CSV_HEADER = "user_id,username,counter_type,month,value\n";
+
+    private final CounterService counterService;
+    private final UserRepository userRepository;
+    private final ForkJoinPool pool;
+    private final int parts;
+
+    /**
+     * Создает генератор с числом потоков по количеству процессоров.
+     *
+     * @param counterService Сервис счетчиков.
+     * @param userRepository Репозиторий пользователей для имен в выгрузке.
+     */
+    public ReportGenerator(CounterService counterService, UserRepository userRepository) {
+        this(counterService, userRepository, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param counterService Сервис счетчиков.
+     * @param userRepository Репозиторий пользователей для имен в выгрузке.
+     * @param parallelism    Количество потоков и частей, на которые делятся пользователи.
+     */
+    public ReportGenerator(CounterService counterService, UserRepository userRepository, int parallelism) {
+        this.counterService = counterService;
+        this.userRepository = userRepository;
+        this.pool = new ForkJoinPool(parallelism);
+        this.parts = parallelism;
+    }
+
+    /**
+     * Записывает показания за диапазон месяцев в поток. Поток не закрывается.
+     *
+     * @param out    Поток выгрузки: файл или сокет.
+     * @param format Формат выгрузки.
+     * @param from   Первый месяц диапазона или {@code null} - без ограничения.
+     * @param to     Последний месяц диапазона или {@code null} - без ограничения.
+     * @return Количество выгруженных показаний.
+     * @throws UncheckedIOException Если запись в поток не удалась.
+     */
+    public long generate(OutputStream out, ReportFormat format, YearMonth from, YearMonth to) {
+        int fromMonth = from != null ? EpochMonths.toEpochMonth(from) : Integer.MIN_VALUE;
+        int toMonth = to != null ? EpochMonths.toEpochMonth(to) : Integer.MAX_VALUE;
+        ChunkedOutput output = new ChunkedOutput(out);
+        if (format == ReportFormat.CSV) {
+            output.write(CSV_HEADER);
+        }
+        long rows = pool.invoke(new PartsTask(output, format, fromMonth, toMonth, 0, parts));
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return rows;
+    }
+
+    /**
+     * Останавливает потоки генератора.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Общий поток выгрузки. Запись целыми блоками под блокировкой; после первой ошибки записи остальные
+     * задачи прекращают обход.
+     */
+    private static final class ChunkedOutput {
+        private final OutputStream out;
+        private volatile UncheckedIOException failure;
+
+        ChunkedOutput(OutputStream out) {
+            this.out = out;
+        }
+
+        void write(CharSequence chunk) {
+            byte[] bytes = chunk.toString().getBytes(StandardCharsets.UTF_8);
+            synchronized (this) {
+                if (failure != null) {
+                    throw failure;
+                }
+                try {
+                    out.write(bytes);
+                } catch (IOException e) {
+                    failure = new UncheckedIOException(e);
+                    throw failure;
+                }
+            }
+        }
+    }
+
+    /**
+     * Делит диапазон частей пополам до одной части на задачу.
+     */
+    private final class PartsTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final ChunkedOutput output;
+        private final ReportFormat format;
+        private final int fromMonth;
+        private final int toMonth;
+        private final int firstPart;
+        private final int lastPart;
+
+        PartsTask(ChunkedOutput output, ReportFormat format, int fromMonth, int toMonth, int firstPart, int lastPart) {
+            this.output = output;
+            this.format = format;
+            this.fromMonth = fromMonth;
+            this.toMonth = toMonth;
+            this.firstPart = firstPart;
+            this.lastPart = lastPart;
+        }
+
+        @Override
+        protected Long compute() {
+            if (lastPart - firstPart > 1) {
+                int middle = (firstPart + lastPart) >>> 1;
+                PartsTask left = new PartsTask(output, format, fromMonth, toMonth, firstPart, middle);
+                left.fork();
+                long right = new PartsTask(output, format, fromMonth, toMonth, middle, lastPart).compute();
+                return right + left.join();
+            }
+            RowEncoder encoder = new RowEncoder(output, format, fromMonth, toMonth);
+            counterService.forEachReading(encoder, firstPart, parts);
+            encoder.flush();
+            return encoder.rows;
+        }
+    }
+
+    /**
+     * Кодирует показания одной части в строки выгрузки.
+     */
+    private final class RowEncoder implements ReadingVisitor {
+        private final ChunkedOutput output;
+        private final boolean csv;
+        private final int fromMonth;
+        private final int toMonth;
+        private final StringBuilder buffer = new StringBuilder(CHUNK_CHARS + 256);
+        private int userId;
+        private String username;
+        private long rows;
+
+        RowEncoder(ChunkedOutput output, ReportFormat format, int fromMonth, int toMonth) {
+            this.output = output;
+            this.csv = format == ReportFormat.CSV;
+            this.fromMonth = fromMonth;
+            this.toMonth = toMonth;
+        }
+
+        @Override
+        public void visit(int userId, CounterType counterType, int epochMonth, int value) {
+            if (epochMonth < fromMonth || epochMonth > toMonth) {
+                return;
+            }
+            if (username == null || userId != this.userId) {
+                User user = userRepository.getUserById(userId);
+                this.userId = userId;
+                this.username = user != null ? user.getUsername() : "";
+            }
+            YearMonth month = EpochMonths.toYearMonth(epochMonth);
+            if (csv) {
+                buffer.append(userId).append(',');
+                appendCsv(username);
+                buffer.append(',').append(counterType).append(',').append(month).append(',').append(value).append('\n');
+            } else {
+                buffer.append("{\"userId\":").append(userId).append(",\"username\":");
+                appendJson(username);
+                buffer.append(",\"counterType\":\"").append(counterType)
+                        .append("\",\"month\":\"").append(month)
+                        .append("\",\"value\":").append(value).append("}\n");
+            }
+            rows++;
+            if (buffer.length() >= CHUNK_CHARS) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (buffer.length() > 0) {
+                output.write(buffer);
+                buffer.setLength(0);
+            }
+        }
+
+        private void appendCsv(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+                buffer.append(value);
+                return;
+            }
+            buffer.append('"').append(value.replace("\"", "\"\"")).append('"');
+        }
+
+        private void appendJson(String value) {
+            buffer.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    buffer.append('\\').append(c);
+                } else if (c < 0x20) {
+                    buffer.append(String.format("\\u%04x", (int) c));
+                } else {
+                    buffer.append(c);
+                }
+            }
+            buffer.append('"');
+        }
+    }
+}
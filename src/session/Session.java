@@ -0,0 +1,43 @@
+package session;
+
+import users.Role;
+
+/**
+ * Сессия, восстановленная из подписанного токена: идентификатор и роль пользователя и срок действия.
+ */
+public final class Session {
+    private final int userId;
+    private final Role role;
+    private final long expiresAt;
+
+    Session(int userId, Role role, long expiresAt) {
+        this.userId = userId;
+        this.role = role;
+        this.expiresAt = expiresAt;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    /**
+     * @return Момент окончания действия сессии в миллисекундах с начала эпохи.
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Проверяет, истек ли срок действия сессии.
+     *
+     * @param now Текущее время в миллисекундах с начала эпохи.
+     * @return {@code true}, если сессия истекла.
+     */
+    public boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+}
@@ -0,0 +1,201 @@
+package session;
+
+import exceptions.AuthorizationException;
+import users.Role;
+import users.User;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Выдача и проверка подписанных токенов сессий.
+ * <p>
+ * Токен не хранится на сервере: он содержит идентификатор и роль пользователя и срок действия, подписанные
+ * HMAC-SHA256. Любой узел с тем же секретом проверяет токен без обращения к общему хранилищу сессий, поэтому
+ * запросы одного пользователя могут обслуживаться разными узлами.
+ * <p>
+ * Формат токена: {@code base64url(полезная нагрузка) "." base64url(подпись)}, где полезная нагрузка -
+ * версия (byte), идентификатор пользователя (int), роль (byte) и срок действия (long, миллисекунды).
+ * <p>
+ * Результаты недавних проверок хранятся в небольшом кэше, чтобы не пересчитывать подпись на каждый запрос.
+ * Запись кэша живет не дольше {@code cacheTtl} и не дольше самой сессии.
+ */
+public class SessionService {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final byte VERSION = 1;
+    private static final int PAYLOAD_BYTES = 1 + Integer.BYTES + 1 + Long.BYTES;
+    private static final int SECRET_BYTES = 32;
+    private static final Role[] ROLES = Role.values();
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long sessionTtlMillis;
+    private final long cacheTtlMillis;
+    private final int cacheCapacity;
+    private final Map<String, CachedSession> cache = new ConcurrentHashMap<>();
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * Создает сервис со случайным секретом. Токены такого сервиса действительны только на этом узле
+     * и до его перезапуска.
+     *
+     * @param sessionTtl Срок действия выдаваемых токенов.
+     */
+    public SessionService(Duration sessionTtl) {
+        this(randomSecret(), sessionTtl, Duration.ofMinutes(1), 10_000);
+    }
+
+    /**
+     * Создает сервис с заданным секретом.
+     *
+     * @param secret        Общий секрет узлов, не короче 32 байт.
+     * @param sessionTtl    Срок действия выдаваемых токенов.
+     * @param cacheTtl      Время хранения результата проверки в кэше.
+     * @param cacheCapacity Максимальное число токенов в кэше.
+     */
+    public SessionService(byte[] secret, Duration sessionTtl, Duration cacheTtl, int cacheCapacity) {
+        if (secret.length < SECRET_BYTES) {
+            throw new IllegalArgumentException("Секрет сессий должен быть не короче " + SECRET_BYTES + " байт.");
+        }
+        this.key = new SecretKeySpec(secret.clone(), ALGORITHM);
+        this.sessionTtlMillis = sessionTtl.toMillis();
+        this.cacheTtlMillis = cacheTtl.toMillis();
+        this.cacheCapacity = cacheCapacity;
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    /**
+     * Выдает токен сессии для авторизованного пользователя.
+     *
+     * @param user Пользователь.
+     * @return Подписанный токен.
+     */
+    public String issueToken(User user) {
+        ByteBuffer payload = ByteBuffer.allocate(PAYLOAD_BYTES)
+                .put(VERSION)
+                .putInt(user.getId())
+                .put((byte) user.getRole().ordinal())
+                .putLong(System.currentTimeMillis() + sessionTtlMillis);
+        String encodedPayload = ENCODER.encodeToString(payload.array());
+        return encodedPayload + '.' + ENCODER.encodeToString(sign(encodedPayload));
+    }
+
+    /**
+     * Проверяет токен и восстанавливает из него сессию.
+     *
+     * @param token Токен, выданный {@link #issueToken(User)}.
+     * @return Сессия.
+     * @throws AuthorizationException Если токен отсутствует, поврежден, подделан или истек.
+     */
+    public Session validate(String token) {
+        if (token == null) {
+            throw new AuthorizationException("Необходима авторизация.");
+        }
+        long now = System.currentTimeMillis();
+        CachedSession cached = cache.get(token);
+        if (cached != null) {
+            if (now < cached.evictAt) {
+                return cached.session;
+            }
+            cache.remove(token, cached);
+        }
+
+        Session session = verify(token);
+        if (session.isExpired(now)) {
+            throw new AuthorizationException("Сессия истекла. Необходима авторизация.");
+        }
+        if (cache.size() >= cacheCapacity) {
+            evictExpired(now);
+        }
+        cache.put(token, new CachedSession(session, Math.min(session.getExpiresAt(), now + cacheTtlMillis)));
+        return session;
+    }
+
+    private Session verify(String token) {
+        int separator = token.indexOf('.');
+        if (separator <= 0) {
+            throw invalidToken();
+        }
+        String encodedPayload = token.substring(0, separator);
+        byte[] payload;
+        byte[] signature;
+        try {
+            payload = DECODER.decode(encodedPayload);
+            signature = DECODER.decode(token.substring(separator + 1));
+        } catch (IllegalArgumentException e) {
+            throw invalidToken();
+        }
+        if (payload.length != PAYLOAD_BYTES || payload[0] != VERSION
+                || !MessageDigest.isEqual(signature, sign(encodedPayload))) {
+            throw invalidToken();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(payload, 1, PAYLOAD_BYTES - 1);
+        int userId = buffer.getInt();
+        int role = buffer.get();
+        long expiresAt = buffer.getLong();
+        if (role < 0 || role >= ROLES.length) {
+            throw invalidToken();
+        }
+        return new Session(userId, ROLES[role], expiresAt);
+    }
+
+    /**
+     * Удаляет из кэша просроченные записи. Если кэш заполнен действующими записями, он очищается целиком:
+     * потеря кэша стоит лишь повторной проверки подписи.
+     */
+    private void evictExpired(long now) {
+        for (Iterator<CachedSession> iterator = cache.values().iterator(); iterator.hasNext(); ) {
+            if (now >= iterator.next().evictAt) {
+                iterator.remove();
+            }
+        }
+        if (cache.size() >= cacheCapacity) {
+            cache.clear();
+        }
+    }
+
+    private byte[] sign(String encodedPayload) {
+        return macs.get().doFinal(encodedPayload.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static AuthorizationException invalidToken() {
+        return new AuthorizationException("Недействительный токен сессии.");
+    }
+
+    private static byte[] randomSecret() {
+        byte[] secret = new byte[SECRET_BYTES];
+        new SecureRandom().nextBytes(secret);
+        return secret;
+    }
+
+    private static final class CachedSession {
+        private final Session session;
+        private final long evictAt;
+
+        CachedSession(Session session, long evictAt) {
+            this.session = session;
+            this.evictAt = evictAt;
+        }
+    }
+}
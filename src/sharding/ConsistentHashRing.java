@@ -0,0 +1,101 @@
+package sharding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Неизменяемое кольцо согласованного хэширования идентификаторов пользователей по шардам.
+ * <p>
+ * Каждый шард занимает на кольце {@value #VIRTUAL_NODES} точек, вычисленных по его имени; пользователь
+ * принадлежит шарду первой точки не меньше хэша его идентификатора. Поэтому при добавлении шарда переезжают
+ * только пользователи, чьи точки достались новому шарду, - в среднем доля 1/N. Точки хранятся в одном
+ * отсортированном массиве long (точка в старших 32 битах, номер шарда в младших), поиск - двоичный.
+ */
+public final class ConsistentHashRing {
+    /**
+     * Количество точек одного шарда на кольце.
+     */
+    public static final int VIRTUAL_NODES = 128;
+
+    private final List<Shard> shards;
+    private final long[] points;
+
+    /**
+     * @param shards Шарды с уникальными именами.
+     */
+    public ConsistentHashRing(List<Shard> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("Нужен хотя бы один шард.");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.points = new long[shards.size() * VIRTUAL_NODES];
+        for (int s = 0; s < shards.size(); s++) {
+            int nameHash = shards.get(s).getName().hashCode();
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                int point = mix(nameHash * 0x9E3779B9 + v);
+                points[s * VIRTUAL_NODES + v] = ((long) point << 32) | s;
+            }
+        }
+        Arrays.sort(points);
+    }
+
+    /**
+     * @param shard Новый шард.
+     * @return Кольцо с добавленным шардом.
+     */
+    public ConsistentHashRing withShard(Shard shard) {
+        for (Shard existing : shards) {
+            if (existing.getName().equals(shard.getName())) {
+                throw new IllegalArgumentException("Шард " + shard.getName() + " уже есть на кольце.");
+            }
+        }
+        List<Shard> grown = new ArrayList<>(shards);
+        grown.add(shard);
+        return new ConsistentHashRing(grown);
+    }
+
+    /**
+     * @param userId Идентификатор пользователя.
+     * @return Шард, которому принадлежит пользователь.
+     */
+    public Shard shardFor(int userId) {
+        return shards.get(shardIndexFor(userId));
+    }
+
+    /**
+     * @param userId Идентификатор пользователя.
+     * @return Номер шарда, которому принадлежит пользователь, в {@link #getShards()}.
+     */
+    public int shardIndexFor(int userId) {
+        int index = Arrays.binarySearch(points, (long) mix(userId) << 32);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        if (index == points.length) {
+            index = 0;
+        }
+        return (int) points[index];
+    }
+
+    /**
+     * @return Шарды в порядке добавления.
+     */
+    public List<Shard> getShards() {
+        return shards;
+    }
+
+    /**
+     * Перемешивание битов из MurmurHash3: последовательные идентификаторы расходятся по всему кольцу.
+     */
+    private static int mix(int value) {
+        int h = value;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,150 @@
+package sharding;
+
+import counters.BatchResult;
+import counters.CounterService;
+import counters.CounterType;
+import counters.ReadingSubmission;
+import counters.ReadingVisitor;
+import users.Role;
+import users.User;
+import users.UserRepository;
+
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Шард в том же процессе поверх собственных {@link UserRepository} и {@link CounterService}.
+ */
+public class LocalShard implements Shard {
+    private final String name;
+    private final UserRepository userRepository;
+    private final CounterService counterService;
+
+    /**
+     * @param name           Имя шарда.
+     * @param userRepository Репозиторий пользователей шарда.
+     * @param counterService Сервис счетчиков шарда.
+     */
+    public LocalShard(String name, UserRepository userRepository, CounterService counterService) {
+        this.name = name;
+        this.userRepository = userRepository;
+        this.counterService = counterService;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public UserRepository getUserRepository() {
+        return userRepository;
+    }
+
+    public CounterService getCounterService() {
+        return counterService;
+    }
+
+    @Override
+    public void registerUser(int userId, String username, String password, Role role) {
+        userRepository.registerUser(userId, username, password, role);
+    }
+
+    @Override
+    public User authenticateUser(String username, String password) {
+        return userRepository.authenticateUser(username, password);
+    }
+
+    @Override
+    public User getUserById(int userId) {
+        return userRepository.getUserById(userId);
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> consumer) {
+        userRepository.forEachUser(consumer);
+    }
+
+    @Override
+    public void submitCounterReading(int userId, CounterType counterType, YearMonth yearMonth, int value) {
+        counterService.submitCounterReading(userId, counterType, yearMonth, value);
+    }
+
+    @Override
+    public BatchResult submitCounterReadings(List<ReadingSubmission> submissions) {
+        return counterService.submitCounterReadings(submissions);
+    }
+
+    @Override
+    public int getLatestCounterReading(int userId, CounterType counterType) {
+        return counterService.getLatestCounterReading(userId, counterType);
+    }
+
+    @Override
+    public Map<YearMonth, Integer> getCounterHistory(int userId, CounterType counterType, YearMonth from,
+                                                     YearMonth to) {
+        return counterService.getCounterHistory(userId, counterType, from, to);
+    }
+
+    @Override
+    public void forEachReading(ReadingVisitor visitor) {
+        counterService.forEachReading(visitor);
+    }
+
+    @Override
+    public UserTransfer exportUser(int userId) {
+        User user = userRepository.getUserById(userId);
+        if (user == null) {
+            return null;
+        }
+        ReadingColumns readings = new ReadingColumns();
+        counterService.forEachReadingOfUser(userId, readings);
+        return new UserTransfer(user, readings.counterTypes, readings.epochMonths, readings.values, readings.count);
+    }
+
+    @Override
+    public void importUser(UserTransfer transfer) {
+        int count = transfer.getReadingCount();
+        int[] userIds = new int[count];
+        Arrays.fill(userIds, transfer.getUser().getId());
+        userRepository.importUser(transfer.getUser());
+        counterService.importReadings(userIds, transfer.getCounterTypes(), transfer.getEpochMonths(),
+                transfer.getValues(), count);
+    }
+
+    @Override
+    public void removeUser(int userId) {
+        userRepository.removeUser(userId);
+        counterService.removeUser(userId);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Сборщик показаний пользователя в колонки.
+     */
+    private static final class ReadingColumns implements ReadingVisitor {
+        private CounterType[] counterTypes = new CounterType[16];
+        private int[] epochMonths = new int[16];
+        private int[] values = new int[16];
+        private int count;
+
+        @Override
+        public void visit(int userId, CounterType counterType, int epochMonth, int value) {
+            if (count == values.length) {
+                counterTypes = Arrays.copyOf(counterTypes, count * 2);
+                epochMonths = Arrays.copyOf(epochMonths, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            counterTypes[count] = counterType;
+            epochMonths[count] = epochMonth;
+            values[count] = value;
+            count++;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package sharding;
+
+import counters.BatchResult;
+import counters.CounterType;
+import counters.ReadingSubmission;
+import counters.ReadingVisitor;
+import users.Role;
+import users.User;
+
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Шард: часть пользователей вместе с их счетчиками. Маршрутизатор {@link ShardRouter} обращается к шарду только
+ * через этот интерфейс, поэтому шард может работать в том же процессе ({@link LocalShard}) или за транспортом.
+ * Методы принимают и возвращают значения, а не ссылки на внутренние структуры, кроме обходов с обработчиком.
+ */
+public interface Shard {
+    /**
+     * @return Имя шарда, уникальное среди шардов маршрутизатора; определяет положение шарда на кольце.
+     */
+    String getName();
+
+    /**
+     * Регистрирует пользователя с идентификатором, выданным маршрутизатором.
+     *
+     * @param userId   Идентификатор пользователя.
+     * @param username Имя пользователя.
+     * @param password Пароль пользователя.
+     * @param role     Роль пользователя.
+     */
+    void registerUser(int userId, String username, String password, Role role);
+
+    /**
+     * @param username Имя пользователя.
+     * @param password Пароль пользователя.
+     * @return Авторизованный пользователь.
+     * @throws exceptions.AuthorizationException Если авторизация не удалась.
+     */
+    User authenticateUser(String username, String password);
+
+    /**
+     * @param userId Идентификатор пользователя.
+     * @return Пользователь или {@code null}, если его нет в шарде.
+     */
+    User getUserById(int userId);
+
+    /**
+     * Передает всех пользователей шарда обработчику.
+     *
+     * @param consumer Обработчик пользователей.
+     */
+    void forEachUser(Consumer<User> consumer);
+
+    /**
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @param yearMonth   Месяц года.
+     * @param value       Значение счетчика.
+     * @throws exceptions.CounterSubmissionException Если подача показаний не удалась.
+     */
+    void submitCounterReading(int userId, CounterType counterType, YearMonth yearMonth, int value);
+
+    /**
+     * @param submissions Показания пользователей этого шарда в порядке подачи.
+     * @return Результат по каждому показанию в порядке подачи.
+     */
+    BatchResult submitCounterReadings(List<ReadingSubmission> submissions);
+
+    /**
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @return Последнее показание счетчика или 0.
+     */
+    int getLatestCounterReading(int userId, CounterType counterType);
+
+    /**
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @param from        Первый месяц диапазона.
+     * @param to          Последний месяц диапазона.
+     * @return Показания за диапазон месяцев включительно в хронологическом порядке.
+     */
+    Map<YearMonth, Integer> getCounterHistory(int userId, CounterType counterType, YearMonth from, YearMonth to);
+
+    /**
+     * Передает все показания шарда обработчику.
+     *
+     * @param visitor Обработчик показаний.
+     */
+    void forEachReading(ReadingVisitor visitor);
+
+    /**
+     * Выгружает пользователя со всеми показаниями для переноса в другой шард.
+     *
+     * @param userId Идентификатор пользователя.
+     * @return Данные пользователя или {@code null}, если его нет в шарде.
+     */
+    UserTransfer exportUser(int userId);
+
+    /**
+     * Добавляет пользователя, выгруженный из другого шарда. Повторное добавление того же пользователя
+     * заменяет его данные.
+     *
+     * @param transfer Данные пользователя.
+     */
+    void importUser(UserTransfer transfer);
+
+    /**
+     * Удаляет пользователя и его показания после переноса в другой шард. Шард с постоянным хранилищем
+     * сохраняет удаление.
+     *
+     * @param userId Идентификатор пользователя.
+     */
+    void removeUser(int userId);
+}
@@ -0,0 +1,371 @@
+package sharding;
+
+import counters.BatchResult;
+import counters.CounterType;
+import counters.ReadingSubmission;
+import counters.ReadingVisitor;
+import exceptions.AuthorizationException;
+import users.Role;
+import users.User;
+import users.UserIdAllocator;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Маршрутизатор запросов по шардам: пользователи и их счетчики распределяются по идентификатору через
+ * {@link ConsistentHashRing}.
+ * <p>
+ * Идентификаторы новых пользователей выдает маршрутизатор, поэтому они уникальны во всех шардах. Имя
+ * пользователя отображается в идентификатор справочником в памяти маршрутизатора; он же гарантирует
+ * уникальность имени между шардами и строится по шардам при создании.
+ * <p>
+ * Запросы администратора по всем шардам ({@link #fanOut}, {@link #forEachReading}) выполняются параллельно
+ * и объединяются в порядке шардов. При добавлении шарда ({@link #addShard}) пользователи, которые по новому
+ * кольцу принадлежат другому шарду, переносятся вместе с показаниями; на время переноса остальные запросы
+ * ждут. Шарды с постоянным хранилищем сохраняют и добавление в новом шарде, и удаление из исходного. Если
+ * узел остановился между ними, при запуске пользователь окажется в обоих шардах, и перенос повторится:
+ * добавление уже перенесенного пользователя идемпотентно.
+ */
+public class ShardRouter implements AutoCloseable {
+    private final UserIdAllocator idAllocator;
+    private final Map<String, Integer> userIds = new ConcurrentHashMap<>();
+    private final ReadWriteLock rebalanceLock = new ReentrantReadWriteLock();
+    private final ExecutorService fanOutExecutor;
+    private volatile ConsistentHashRing ring;
+
+    /**
+     * Создает маршрутизатор единственного узла с потоком обхода на каждый шард.
+     *
+     * @param shards Шарды с уникальными именами.
+     */
+    public ShardRouter(List<Shard> shards) {
+        this(shards, new UserIdAllocator(), Math.max(1, shards.size()));
+    }
+
+    /**
+     * Создает маршрутизатор и строит справочник имен пользователей по шардам. Пользователи, находящиеся
+     * не в своем шарде, например после изменения состава шардов, переносятся сразу.
+     *
+     * @param shards      Шарды с уникальными именами.
+     * @param idAllocator Выдача идентификаторов новых пользователей.
+     * @param parallelism Количество потоков для запросов по всем шардам.
+     */
+    public ShardRouter(List<Shard> shards, UserIdAllocator idAllocator, int parallelism) {
+        this.idAllocator = idAllocator;
+        this.ring = new ConsistentHashRing(shards);
+        this.fanOutExecutor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "shard-fan-out");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Shard shard : shards) {
+            shard.forEachUser(user -> {
+                userIds.put(user.getUsername(), user.getId());
+                idAllocator.observe(user.getId());
+            });
+        }
+        rebalance();
+    }
+
+    /**
+     * Регистрирует пользователя в шарде, которому принадлежит выданный ему идентификатор.
+     *
+     * @param username Имя пользователя.
+     * @param password Пароль пользователя.
+     * @param role     Роль пользователя.
+     * @throws AuthorizationException Если имя уже занято в любом шарде.
+     */
+    public void registerUser(String username, String password, Role role) {
+        rebalanceLock.readLock().lock();
+        try {
+            int userId = idAllocator.nextId();
+            if (userIds.putIfAbsent(username, userId) != null) {
+                throw new AuthorizationException("Пользователь с таким именем уже зарегистрирован.");
+            }
+            try {
+                ring.shardFor(userId).registerUser(userId, username, password, role);
+            } catch (RuntimeException e) {
+                userIds.remove(username, userId);
+                throw e;
+            }
+        } finally {
+            rebalanceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param username Имя пользователя.
+     * @param password Пароль пользователя.
+     * @return Авторизованный пользователь.
+     * @throws AuthorizationException Если авторизация не удалась.
+     */
+    public User authenticateUser(String username, String password) {
+        rebalanceLock.readLock().lock();
+        try {
+            Integer userId = userIds.get(username);
+            // неизвестное имя тоже проверяется шардом, чтобы ответ не приходил быстрее, чем для известного
+            User user = ring.shardFor(userId != null ? userId : username.hashCode()).authenticateUser(username, password);
+            if (userId == null) {
+                throw new AuthorizationException("Неверные учетные данные.");
+            }
+            return user;
+        } finally {
+            rebalanceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param userId Идентификатор пользователя.
+     * @return Пользователь или {@code null}, если его нет.
+     */
+    public User getUserById(int userId) {
+        rebalanceLock.readLock().lock();
+        try {
+            return ring.shardFor(userId).getUserById(userId);
+        } finally {
+            rebalanceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param username Имя пользователя.
+     * @return Пользователь или {@code null}, если его нет.
+     */
+    public User getUserByUsername(String username) {
+        Integer userId = userIds.get(username);
+        return userId != null ? getUserById(userId) : null;
+    }
+
+    /**
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @param yearMonth   Месяц года.
+     * @param value       Значение счетчика.
+     * @throws exceptions.CounterSubmissionException Если подача показаний не удалась.
+     */
+    public void submitCounterReading(int userId, CounterType counterType, YearMonth yearMonth, int value) {
+        rebalanceLock.readLock().lock();
+        try {
+            ring.shardFor(userId).submitCounterReading(userId, counterType, yearMonth, value);
+        } finally {
+            rebalanceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Подает пакет показаний: пакет делится по шардам, части подаются параллельно, результаты собираются
+     * в порядке исходного пакета.
+     *
+     * @param submissions Показания в порядке подачи.
+     * @return Результат по каждому показанию в порядке подачи.
+     */
+    public BatchResult submitCounterReadings(List<ReadingSubmission> submissions) {
+        rebalanceLock.readLock().lock();
+        try {
+            ConsistentHashRing current = ring;
+            List<Shard> shards = current.getShards();
+            List<List<ReadingSubmission>> parts = new ArrayList<>();
+            int[][] positions = new int[shards.size()][];
+            int[] counts = new int[shards.size()];
+            for (int s = 0; s < shards.size(); s++) {
+                parts.add(new ArrayList<>());
+                positions[s] = new int[16];
+            }
+            for (int i = 0; i < submissions.size(); i++) {
+                ReadingSubmission item = submissions.get(i);
+                // некорректные показания отклонит любой шард, отправляем их в первый
+                int s = item == null ? 0 : current.shardIndexFor(item.getUserId());
+                parts.get(s).add(item);
+                if (counts[s] == positions[s].length) {
+                    positions[s] = Arrays.copyOf(positions[s], counts[s] * 2);
+                }
+                positions[s][counts[s]++] = i;
+            }
+            BatchResult[] results = inParallel(shards.size(),
+                    s -> counts[s] > 0 ? shards.get(s).submitCounterReadings(parts.get(s)) : null)
+                    .toArray(new BatchResult[0]);
+            List<BatchResult> nonEmpty = new ArrayList<>();
+            List<int[]> nonEmptyPositions = new ArrayList<>();
+            for (int s = 0; s < results.length; s++) {
+                if (results[s] != null) {
+                    nonEmpty.add(results[s]);
+                    nonEmptyPositions.add(positions[s]);
+                }
+            }
+            return BatchResult.merge(submissions.size(), nonEmpty.toArray(new BatchResult[0]),
+                    nonEmptyPositions.toArray(new int[0][]));
+        } finally {
+            rebalanceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @return Последнее показание счетчика или 0.
+     */
+    public int getLatestCounterReading(int userId, CounterType counterType) {
+        rebalanceLock.readLock().lock();
+        try {
+            return ring.shardFor(userId).getLatestCounterReading(userId, counterType);
+        } finally {
+            rebalanceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @param from        Первый месяц диапазона.
+     * @param to          Последний месяц диапазона.
+     * @return Показания за диапазон месяцев включительно в хронологическом порядке.
+     */
+    public Map<YearMonth, Integer> getCounterHistory(int userId, CounterType counterType, YearMonth from,
+                                                     YearMonth to) {
+        rebalanceLock.readLock().lock();
+        try {
+            return ring.shardFor(userId).getCounterHistory(userId, counterType, from, to);
+        } finally {
+            rebalanceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Выполняет запрос во всех шардах параллельно и объединяет результаты в порядке шардов. Запрос
+     * не должен обращаться к маршрутизатору.
+     *
+     * @param query Запрос к одному шарду.
+     * @param merge Объединение двух результатов.
+     * @param <R>   Тип результата.
+     * @return Объединенный результат.
+     */
+    public <R> R fanOut(Function<Shard, R> query, BinaryOperator<R> merge) {
+        rebalanceLock.readLock().lock();
+        try {
+            List<Shard> shards = ring.getShards();
+            R merged = null;
+            for (R result : inParallel(shards.size(), s -> query.apply(shards.get(s)))) {
+                merged = merged == null ? result : merge.apply(merged, result);
+            }
+            return merged;
+        } finally {
+            rebalanceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Передает обработчику все показания всех шардов. Шарды обходятся параллельно, поэтому обработчик
+     * должен быть потокобезопасным; показания одного шарда передаются из одного потока.
+     *
+     * @param visitor Обработчик показаний.
+     */
+    public void forEachReading(ReadingVisitor visitor) {
+        fanOut(shard -> {
+            shard.forEachReading(visitor);
+            return Boolean.TRUE;
+        }, (left, right) -> left);
+    }
+
+    /**
+     * Добавляет шард и переносит в него пользователей, которые теперь ему принадлежат. На время переноса
+     * остальные запросы к маршрутизатору ждут.
+     *
+     * @param shard Новый шард.
+     * @return Количество перенесенных пользователей.
+     */
+    public int addShard(Shard shard) {
+        rebalanceLock.writeLock().lock();
+        try {
+            ring = ring.withShard(shard);
+            return rebalance();
+        } finally {
+            rebalanceLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Шарды в порядке добавления.
+     */
+    public List<Shard> getShards() {
+        return ring.getShards();
+    }
+
+    /**
+     * @param userId Идентификатор пользователя.
+     * @return Шард, которому принадлежит пользователь.
+     */
+    public Shard shardFor(int userId) {
+        return ring.shardFor(userId);
+    }
+
+    @Override
+    public void close() {
+        fanOutExecutor.shutdown();
+    }
+
+    /**
+     * Переносит пользователей, находящихся не в своем шарде. Вызывается без конкурирующих запросов.
+     */
+    private int rebalance() {
+        ConsistentHashRing current = ring;
+        int moved = 0;
+        for (Shard source : current.getShards()) {
+            List<Integer> misplaced = new ArrayList<>();
+            source.forEachUser(user -> {
+                if (current.shardFor(user.getId()) != source) {
+                    misplaced.add(user.getId());
+                }
+            });
+            for (int userId : misplaced) {
+                UserTransfer transfer = source.exportUser(userId);
+                if (transfer != null) {
+                    current.shardFor(userId).importUser(transfer);
+                    source.removeUser(userId);
+                    moved++;
+                }
+            }
+        }
+        return moved;
+    }
+
+    private <R> List<R> inParallel(int shardCount, IntFunction<R> query) {
+        List<Future<R>> futures = new ArrayList<>(shardCount);
+        for (int s = 0; s < shardCount; s++) {
+            int shard = s;
+            futures.add(fanOutExecutor.submit(() -> query.apply(shard)));
+        }
+        List<R> results = new ArrayList<>(shardCount);
+        try {
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Запрос по шардам прерван.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            for (Future<R> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,50 @@
+package sharding;
+
+import counters.CounterType;
+import users.User;
+
+/**
+ * Пользователь со всеми показаниями при переносе между шардами. Показания хранятся по колонкам.
+ */
+public final class UserTransfer {
+    private final User user;
+    private final CounterType[] counterTypes;
+    private final int[] epochMonths;
+    private final int[] values;
+    private final int readingCount;
+
+    /**
+     * @param user         Пользователь вместе с хэшем пароля.
+     * @param counterTypes Типы счетчиков.
+     * @param epochMonths  Номера месяцев.
+     * @param values       Показания.
+     * @param readingCount Количество показаний.
+     */
+    public UserTransfer(User user, CounterType[] counterTypes, int[] epochMonths, int[] values, int readingCount) {
+        this.user = user;
+        this.counterTypes = counterTypes;
+        this.epochMonths = epochMonths;
+        this.values = values;
+        this.readingCount = readingCount;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public CounterType[] getCounterTypes() {
+        return counterTypes;
+    }
+
+    public int[] getEpochMonths() {
+        return epochMonths;
+    }
+
+    public int[] getValues() {
+        return values;
+    }
+
+    public int getReadingCount() {
+        return readingCount;
+    }
+}
@@ -0,0 +1,378 @@
+package storage;
+
+import counters.CounterType;
+import counters.MeterTypeRegistry;
+import counters.ReadingVisitor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Бинарный колоночный снимок показаний счетчиков.
+ * <p>
+ * Формат файла (все числа - int в порядке big-endian):
+ * <pre>
+ * заголовок:  MAGIC, VERSION, количество строк, количество пользователей
+ * индекс:     идентификаторы пользователей (по возрастанию), начало строк пользователя, количество строк пользователя
+ * колонки:    идентификатор пользователя, номер месяца, показание, тип счетчика (byte)
+ * </pre>
+ * Строки одного пользователя лежат подряд, пользователи - по возрастанию идентификатора. Каждая колонка отображается в память отдельным {@link FileChannel#map}
+ * по смещению типа long и читается напрямую без разбора в объекты, поэтому открытие снимка не зависит от его
+ * размера, а сам файл может быть больше 2 ГБ. Отображение одной колонки ограничено 2 ГБ, отсюда предел
+ * {@link #MAX_ROWS} строк; снимок большего размера не записывается, а запись завершается ошибкой.
+ * Показания конкретного пользователя находятся двоичным поиском по индексу.
+ */
+public final class ColumnarSnapshot {
+    /**
+     * Максимальное количество строк: колонка int отображается одним буфером, а его размер - int.
+     */
+    public static final int MAX_ROWS = Integer.MAX_VALUE / Integer.BYTES;
+
+    private static final int MAGIC = 0x4D43534E;
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 4;
+
+    private final int rowCount;
+    private final int userCount;
+    private final IntBuffer userIndex;
+    private final IntBuffer userRowStart;
+    private final IntBuffer userRowCount;
+    private final IntBuffer userIds;
+    private final IntBuffer epochMonths;
+    private final IntBuffer values;
+    private final ByteBuffer counterTypes;
+    private final MeterTypeRegistry meterTypes;
+
+    private ColumnarSnapshot(FileChannel channel, MeterTypeRegistry meterTypes) throws IOException {
+        this.meterTypes = meterTypes;
+        long headerBytes = HEADER_INTS * Integer.BYTES;
+        if (channel.size() < headerBytes) {
+            throw new IOException("Поврежденный снимок показаний.");
+        }
+        IntBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerBytes).asIntBuffer();
+        if (header.get(0) != MAGIC || header.get(1) != VERSION) {
+            throw new IOException("Неизвестный формат снимка показаний.");
+        }
+        rowCount = header.get(2);
+        userCount = header.get(3);
+        if (rowCount < 0 || rowCount > MAX_ROWS || userCount < 0 || userCount > rowCount
+                || channel.size() != fileSize(rowCount, userCount)) {
+            throw new IOException("Поврежденный снимок показаний.");
+        }
+        long offset = headerBytes;
+        userIndex = intColumn(channel, offset, userCount);
+        offset += (long) userCount * Integer.BYTES;
+        userRowStart = intColumn(channel, offset, userCount);
+        offset += (long) userCount * Integer.BYTES;
+        userRowCount = intColumn(channel, offset, userCount);
+        offset += (long) userCount * Integer.BYTES;
+        userIds = intColumn(channel, offset, rowCount);
+        offset += (long) rowCount * Integer.BYTES;
+        epochMonths = intColumn(channel, offset, rowCount);
+        offset += (long) rowCount * Integer.BYTES;
+        values = intColumn(channel, offset, rowCount);
+        offset += (long) rowCount * Integer.BYTES;
+        counterTypes = channel.map(FileChannel.MapMode.READ_ONLY, offset, rowCount);
+    }
+
+    /**
+     * Отображает в память файл снимка, содержащего только встроенные типы счетчиков.
+     *
+     * @param path Путь к файлу.
+     * @return Открытый снимок.
+     */
+    public static ColumnarSnapshot open(Path path) {
+        return open(path, new MeterTypeRegistry());
+    }
+
+    /**
+     * Отображает файл снимка в память.
+     *
+     * @param path       Путь к файлу.
+     * @param meterTypes Реестр, по которому разрешаются идентификаторы типов счетчиков.
+     * @return Открытый снимок.
+     */
+    public static ColumnarSnapshot open(Path path, MeterTypeRegistry meterTypes) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new ColumnarSnapshot(channel, meterTypes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Записывает снимок показаний в два прохода по источнику, не копируя показания в кучу. Первый проход
+     * считает показания каждого пользователя, второй пишет их прямо в отображенные колонки файла. Показания,
+     * появившиеся между проходами, в снимок не попадают: они уже есть в журнале после снимка. Если между
+     * проходами показания пропали, например пользователь перенесен в другой шард, снимок записывается заново.
+     *
+     * @param path   Путь к файлу.
+     * @param source Источник показаний; вызывается не менее двух раз.
+     */
+    public static void write(Path path, Consumer<ReadingVisitor> source) {
+        try {
+            while (!tryWrite(path, source)) {
+                // показания удалены между проходами
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean tryWrite(Path path, Consumer<ReadingVisitor> source) throws IOException {
+        UserCounter users = new UserCounter();
+        source.accept(users);
+        users.sort();
+        int rowCount = users.rowCount;
+        int userCount = users.userCount;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long offset = (HEADER_INTS + userCount * 3L) * Integer.BYTES;
+            long columnBytes = (long) rowCount * Integer.BYTES;
+            MappedByteBuffer userIds = channel.map(FileChannel.MapMode.READ_WRITE, offset, columnBytes);
+            MappedByteBuffer epochMonths = channel.map(FileChannel.MapMode.READ_WRITE, offset + columnBytes, columnBytes);
+            MappedByteBuffer values = channel.map(FileChannel.MapMode.READ_WRITE, offset + 2 * columnBytes, columnBytes);
+            MappedByteBuffer counterTypes = channel.map(FileChannel.MapMode.READ_WRITE, offset + 3 * columnBytes,
+                    rowCount);
+            RowWriter rows = new RowWriter(users, userIds.asIntBuffer(), epochMonths.asIntBuffer(),
+                    values.asIntBuffer(), counterTypes);
+            source.accept(rows);
+            if (!rows.isComplete()) {
+                return false;
+            }
+            for (MappedByteBuffer column : new MappedByteBuffer[]{userIds, epochMonths, values, counterTypes}) {
+                column.force();
+            }
+
+            offset = HEADER_INTS * Integer.BYTES;
+            offset = writeColumn(channel, offset, users.userIds, userCount);
+            offset = writeColumn(channel, offset, users.rowStarts, userCount);
+            writeColumn(channel, offset, users.rowCounts, userCount);
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_INTS * Integer.BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putInt(rowCount).putInt(userCount);
+            header.force();
+        }
+        return true;
+    }
+
+    /**
+     * @return Количество показаний в снимке.
+     */
+    public int rowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return Количество пользователей в снимке.
+     */
+    public int userCount() {
+        return userCount;
+    }
+
+    /**
+     * Проверяет, есть ли в снимке показания пользователя.
+     *
+     * @param userId Идентификатор пользователя.
+     * @return {@code true}, если показания есть.
+     */
+    public boolean containsUser(int userId) {
+        return findUser(userId) >= 0;
+    }
+
+    /**
+     * Возвращает идентификатор пользователя по его позиции в индексе.
+     *
+     * @param index Позиция от 0 до {@link #userCount()}.
+     * @return Идентификатор пользователя.
+     */
+    public int userIdAt(int index) {
+        return userIndex.get(index);
+    }
+
+    /**
+     * Передает обработчику показания одного пользователя.
+     *
+     * @param userId  Идентификатор пользователя.
+     * @param visitor Обработчик показаний.
+     */
+    public void forEachReadingOfUser(int userId, ReadingVisitor visitor) {
+        int index = findUser(userId);
+        if (index < 0) {
+            return;
+        }
+        int start = userRowStart.get(index);
+        visitRows(start, start + userRowCount.get(index), visitor);
+    }
+
+    /**
+     * Передает обработчику все показания снимка.
+     *
+     * @param visitor Обработчик показаний.
+     */
+    public void forEachReading(ReadingVisitor visitor) {
+        visitRows(0, rowCount, visitor);
+    }
+
+    private void visitRows(int from, int to, ReadingVisitor visitor) {
+        for (int row = from; row < to; row++) {
+            visitor.visit(userIds.get(row), meterTypes.byId(counterTypes.get(row)), epochMonths.get(row), values.get(row));
+        }
+    }
+
+    private int findUser(int userId) {
+        int low = 0;
+        int high = userCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = userIndex.get(mid);
+            if (midId < userId) {
+                low = mid + 1;
+            } else if (midId > userId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static IntBuffer intColumn(FileChannel channel, long offset, int length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, (long) length * Integer.BYTES).asIntBuffer();
+    }
+
+    private static long writeColumn(FileChannel channel, long offset, int[] column, int length) throws IOException {
+        long bytes = (long) length * Integer.BYTES;
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, offset, bytes);
+        buffer.asIntBuffer().put(column, 0, length);
+        buffer.force();
+        return offset + bytes;
+    }
+
+    private static long fileSize(int rowCount, int userCount) {
+        return (HEADER_INTS + userCount * 3L) * Integer.BYTES + (long) rowCount * (3 * Integer.BYTES + 1);
+    }
+
+    /**
+     * Первый проход записи: считает показания каждого пользователя и раскладывает пользователей по возрастанию
+     * идентификатора, отводя каждому непрерывный отрезок строк.
+     */
+    private static final class UserCounter implements ReadingVisitor {
+        private int[] userIds = new int[64];
+        private int[] rowCounts = new int[64];
+        private int[] rowStarts;
+        private int userCount;
+        private int rowCount;
+
+        @Override
+        public void visit(int userId, CounterType counterType, int epochMonth, int value) {
+            if (rowCount == MAX_ROWS) {
+                throw new IllegalStateException("Снимок показаний не может содержать более " + MAX_ROWS
+                        + " показаний.");
+            }
+            if (userCount == 0 || userIds[userCount - 1] != userId) {
+                if (userCount == userIds.length) {
+                    userIds = Arrays.copyOf(userIds, userCount * 2);
+                    rowCounts = Arrays.copyOf(rowCounts, userCount * 2);
+                }
+                userIds[userCount++] = userId;
+            }
+            rowCounts[userCount - 1]++;
+            rowCount++;
+        }
+
+        /**
+         * Сортирует пользователей по идентификатору, объединяя повторы, и вычисляет начало строк каждого.
+         */
+        void sort() {
+            long[] order = new long[userCount];
+            for (int i = 0; i < userCount; i++) {
+                order[i] = ((long) userIds[i] << 32) | i;
+            }
+            Arrays.sort(order);
+            int[] sortedIds = new int[userCount];
+            int[] sortedCounts = new int[userCount];
+            int sorted = 0;
+            for (long entry : order) {
+                int userId = (int) (entry >> 32);
+                int count = rowCounts[(int) entry];
+                if (sorted > 0 && sortedIds[sorted - 1] == userId) {
+                    sortedCounts[sorted - 1] += count;
+                } else {
+                    sortedIds[sorted] = userId;
+                    sortedCounts[sorted++] = count;
+                }
+            }
+            userIds = sortedIds;
+            rowCounts = sortedCounts;
+            userCount = sorted;
+            rowStarts = new int[userCount];
+            for (int i = 1; i < userCount; i++) {
+                rowStarts[i] = rowStarts[i - 1] + rowCounts[i - 1];
+            }
+        }
+    }
+
+    /**
+     * Второй проход записи: пишет показание в отрезок строк его пользователя, пропуская пользователей
+     * и показания, которых не было при первом проходе.
+     */
+    private static final class RowWriter implements ReadingVisitor {
+        private final UserCounter users;
+        private final int[] written;
+        private final IntBuffer userIds;
+        private final IntBuffer epochMonths;
+        private final IntBuffer values;
+        private final ByteBuffer counterTypes;
+        private boolean started;
+        private int lastUserId;
+        private int user;
+
+        RowWriter(UserCounter users, IntBuffer userIds, IntBuffer epochMonths, IntBuffer values,
+                  ByteBuffer counterTypes) {
+            this.users = users;
+            this.written = new int[users.userCount];
+            this.userIds = userIds;
+            this.epochMonths = epochMonths;
+            this.values = values;
+            this.counterTypes = counterTypes;
+        }
+
+        @Override
+        public void visit(int userId, CounterType counterType, int epochMonth, int value) {
+            if (!started || userId != lastUserId) {
+                started = true;
+                lastUserId = userId;
+                user = Arrays.binarySearch(users.userIds, 0, users.userCount, userId);
+            }
+            if (user < 0 || written[user] == users.rowCounts[user]) {
+                return;
+            }
+            int row = users.rowStarts[user] + written[user]++;
+            userIds.put(row, userId);
+            epochMonths.put(row, epochMonth);
+            values.put(row, value);
+            counterTypes.put(row, (byte) counterType.getId());
+        }
+
+        /**
+         * @return {@code true}, если записаны все строки, отведенные при первом проходе.
+         */
+        boolean isComplete() {
+            for (int i = 0; i < written.length; i++) {
+                if (written[i] != users.rowCounts[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
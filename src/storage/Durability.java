@@ -0,0 +1,19 @@
+package storage;
+
+/**
+ * Гарантия сохранности записи в журнал упреждающей записи.
+ */
+public enum Durability {
+    /**
+     * Вызов ждет, пока пакет с записью будет записан и сброшен на диск через {@code fsync}.
+     */
+    FSYNC,
+    /**
+     * Вызов ждет, пока пакет с записью будет передан операционной системе, без {@code fsync}.
+     */
+    WRITE,
+    /**
+     * Вызов возвращается сразу после постановки записи в очередь.
+     */
+    ASYNC
+}
@@ -0,0 +1,451 @@
+package storage;
+
+import counters.CounterService;
+import counters.CounterType;
+import counters.MeterTypeRegistry;
+import counters.ReadingVisitor;
+import users.Role;
+import users.User;
+import users.UserRepository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Файловое хранилище пользователей и показаний.
+ * <p>
+ * Каждое изменение дописывается в {@link WriteAheadLog}. Периодически создается снимок состояния, содержащий все
+ * записи из сегментов журнала с меньшими номерами; после этого эти сегменты удаляются. Снимок состоит из
+ * колоночного файла показаний {@code snapshot-<номер>.readings} ({@link ColumnarSnapshot}) и файла пользователей
+ * {@code snapshot-<номер>.dat}, который записывается последним и служит признаком завершенного снимка.
+ * Восстановление загружает последний снимок и проигрывает только более новые сегменты.
+ * <p>
+ * Сервисы применяют изменение в памяти не позже, чем его сможет увидеть обход для снимка: пользователь
+ * добавляется в память до записи в журнал, а показание пишется в журнал и применяется под блокировкой счетчика,
+ * которую берет и обход. Поэтому снимок, снятый после смены сегмента, гарантированно содержит все записи
+ * закрытых сегментов. Запись может оказаться и в снимке, и в новом сегменте; повторное применение при
+ * восстановлении идемпотентно. Если запись в журнал не удалась, сервисы отменяют изменение в памяти.
+ * <p>
+ * Удаление пользователя и его показаний, например при переносе в другой шард, тоже дописывается в журнал
+ * и при восстановлении отменяет более ранние записи пользователя, в том числе из снимка.
+ * <p>
+ * Типы счетчиков, зарегистрированные во время работы в реестре хранилища ({@link #getMeterTypes()}),
+ * дописываются в файл {@code meter-types.dat} в порядке идентификаторов до того, как тип станет виден, и
+ * восстанавливаются в этот реестр при открытии хранилища, до чтения показаний. Файл не зависит от снимков:
+ * идентификатор типа в журнале и снимках должен означать тот же тип всегда.
+ */
+public class FileStorage implements UserStore, ReadingStore, AutoCloseable {
+    private static final byte USER_RECORD = 1;
+    private static final byte READING_RECORD = 2;
+    private static final byte READING_BATCH_RECORD = 3;
+    private static final byte USER_REMOVED_RECORD = 4;
+    private static final byte READINGS_REMOVED_RECORD = 5;
+    private static final byte END_RECORD = 0;
+    private static final int SNAPSHOT_MAGIC = 0x4D534E50;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".dat";
+    private static final String READINGS_SUFFIX = ".readings";
+    private static final String METER_TYPES_FILE = "meter-types.dat";
+    private static final Role[] ROLES = Role.values();
+
+    private final Path directory;
+    private final MeterTypeRegistry meterTypes = new MeterTypeRegistry();
+    private volatile long snapshotSegment;
+    private final WriteAheadLog log;
+    private final ThreadLocal<ByteBuffer> scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(256));
+    private ScheduledExecutorService snapshotScheduler;
+    private int savedMeterTypes;
+
+    /**
+     * Открывает хранилище в указанном каталоге. Новые записи пишутся в новый сегмент журнала,
+     * существующие сегменты остаются неизменными до следующего снимка.
+     *
+     * @param directory  Каталог данных.
+     * @param durability Гарантия сохранности записей.
+     */
+    public FileStorage(Path directory, Durability durability) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+            restoreMeterTypes();
+            this.snapshotSegment = latestSnapshot();
+            List<Long> segments = WriteAheadLog.listSegments(directory);
+            long lastSegment = segments.isEmpty() ? snapshotSegment : segments.get(segments.size() - 1);
+            this.log = new WriteAheadLog(directory, durability, Math.max(lastSegment, snapshotSegment) + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void saveUser(User user) {
+        byte[] username = user.getUsername().getBytes(StandardCharsets.UTF_8);
+        byte[] passwordHash = user.getPasswordHash().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(14 + username.length + passwordHash.length);
+        buffer.put(USER_RECORD).putInt(user.getId())
+                .putInt(username.length).put(username)
+                .putInt(passwordHash.length).put(passwordHash)
+                .put((byte) user.getRole().ordinal());
+        buffer.flip();
+        log.append(buffer);
+    }
+
+    @Override
+    public void appendReading(int userId, CounterType counterType, int epochMonth, int value) {
+        ByteBuffer buffer = scratch.get();
+        buffer.clear();
+        buffer.put(READING_RECORD).putInt(userId).put((byte) counterType.getId()).putInt(epochMonth).putInt(value);
+        buffer.flip();
+        log.append(buffer);
+    }
+
+    @Override
+    public CompletableFuture<Void> appendReadingAsync(int userId, CounterType counterType, int epochMonth, int value) {
+        ByteBuffer buffer = scratch.get();
+        buffer.clear();
+        buffer.put(READING_RECORD).putInt(userId).put((byte) counterType.getId()).putInt(epochMonth).putInt(value);
+        buffer.flip();
+        return log.appendAsync(buffer).thenApply(sequence -> null);
+    }
+
+    @Override
+    public void appendReadings(int[] userIds, CounterType[] counterTypes, int[] epochMonths, int[] values, int count) {
+        int size = 1 + Integer.BYTES + count * (3 * Integer.BYTES + 1);
+        ByteBuffer buffer = scratch.get();
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(size);
+        }
+        buffer.clear();
+        buffer.put(READING_BATCH_RECORD).putInt(count);
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(userIds[i]).put((byte) counterTypes[i].getId()).putInt(epochMonths[i]).putInt(values[i]);
+        }
+        buffer.flip();
+        log.append(buffer);
+    }
+
+    @Override
+    public void removeUser(int userId) {
+        appendRemoval(USER_REMOVED_RECORD, userId);
+    }
+
+    @Override
+    public void removeReadingsOfUser(int userId) {
+        appendRemoval(READINGS_REMOVED_RECORD, userId);
+    }
+
+    @Override
+    public MeterTypeRegistry getMeterTypes() {
+        return meterTypes;
+    }
+
+    @Override
+    public synchronized void saveMeterType(CounterType counterType) {
+        if (counterType.getId() < savedMeterTypes) {
+            return;
+        }
+        if (counterType.getId() != savedMeterTypes) {
+            throw new IllegalStateException("Тип счетчика " + counterType + " сохраняется раньше предыдущих.");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(counterType.getId());
+            out.writeUTF(counterType.getName());
+            out.writeUTF(counterType.getUnit());
+            out.writeInt(counterType.getMinValue());
+            out.writeInt(counterType.getMaxValue());
+            try (FileChannel channel = FileChannel.open(directory.resolve(METER_TYPES_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        savedMeterTypes = counterType.getId() + 1;
+    }
+
+    @Override
+    public void loadUsers(Consumer<User> consumer) {
+        // удаление из журнала отменяет и пользователя из снимка, поэтому обработчик получает только оставшихся
+        Map<Integer, User> users = new LinkedHashMap<>();
+        readSnapshot(user -> users.put(user.getId(), user));
+        WriteAheadLog.replay(directory, snapshotSegment, payload -> {
+            byte type = payload.get();
+            if (type == USER_RECORD) {
+                User user = decodeUser(payload);
+                users.put(user.getId(), user);
+            } else if (type == USER_REMOVED_RECORD) {
+                users.remove(payload.getInt());
+            }
+        });
+        users.values().forEach(consumer);
+    }
+
+    @Override
+    public ColumnarSnapshot openReadingSnapshot() {
+        long segment = snapshotSegment;
+        return segment == 0 ? null : ColumnarSnapshot.open(readingsPath(segment), meterTypes);
+    }
+
+    @Override
+    public void loadReadings(ReadingVisitor visitor) {
+        loadReadings(visitor, userId -> {
+        });
+    }
+
+    @Override
+    public void loadReadings(ReadingVisitor visitor, IntConsumer userRemoved) {
+        WriteAheadLog.replay(directory, snapshotSegment, payload -> {
+            byte type = payload.get();
+            if (type == READING_RECORD) {
+                visitor.visit(payload.getInt(), meterTypes.byId(payload.get()), payload.getInt(), payload.getInt());
+            } else if (type == READING_BATCH_RECORD) {
+                for (int count = payload.getInt(); count > 0; count--) {
+                    visitor.visit(payload.getInt(), meterTypes.byId(payload.get()), payload.getInt(), payload.getInt());
+                }
+            } else if (type == READINGS_REMOVED_RECORD) {
+                userRemoved.accept(payload.getInt());
+            }
+        });
+    }
+
+    /**
+     * Создает снимок состояния и удаляет сегменты журнала, которые он покрывает.
+     *
+     * @param userRepository Репозиторий пользователей.
+     * @param counterService Сервис счетчиков.
+     */
+    public synchronized void checkpoint(UserRepository userRepository, CounterService counterService) {
+        long segment = log.rotate();
+        Path readingsTarget = readingsPath(segment);
+        Path readingsTemp = directory.resolve(readingsTarget.getFileName() + ".tmp");
+        ColumnarSnapshot.write(readingsTemp, counterService::forEachReading);
+
+        Path target = snapshotPath(segment);
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(SNAPSHOT_MAGIC);
+            userRepository.forEachUser(user -> writeUser(out, user));
+            out.writeByte(END_RECORD);
+            out.flush();
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Files.move(readingsTemp, readingsTarget, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            // переименования должны дойти до диска раньше удалений: иначе после сбоя питания каталог может
+            // оказаться без нового снимка, но и без старого снимка и покрытых им сегментов журнала
+            syncDirectory();
+            snapshotSegment = segment;
+            deleteSnapshotsBefore(segment);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.deleteSegmentsBefore(segment);
+    }
+
+    /**
+     * Запускает периодическое создание снимков в фоновом потоке.
+     *
+     * @param userRepository Репозиторий пользователей.
+     * @param counterService Сервис счетчиков.
+     * @param period         Период между снимками.
+     * @param unit           Единица измерения периода.
+     */
+    public synchronized void scheduleCheckpoints(UserRepository userRepository, CounterService counterService,
+                                                 long period, TimeUnit unit) {
+        if (snapshotScheduler == null) {
+            snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "storage-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        snapshotScheduler.scheduleWithFixedDelay(() -> checkpoint(userRepository, counterService), period, period, unit);
+    }
+
+    /**
+     * Останавливает создание снимков и закрывает журнал, сбросив накопленные записи на диск.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (snapshotScheduler != null) {
+                snapshotScheduler.shutdownNow();
+            }
+        }
+        log.close();
+    }
+
+    /**
+     * Восстанавливает сохраненные типы счетчиков. Запись, оборванная при сбое, отбрасывается вместе с хвостом
+     * файла, чтобы следующие записи дописывались после последней целой.
+     */
+    private void restoreMeterTypes() throws IOException {
+        savedMeterTypes = MeterTypeRegistry.BUILT_IN_TYPES;
+        Path path = directory.resolve(METER_TYPES_FILE);
+        if (!Files.exists(path)) {
+            return;
+        }
+        byte[] content = Files.readAllBytes(path);
+        ByteArrayInputStream bytes = new ByteArrayInputStream(content);
+        DataInputStream in = new DataInputStream(bytes);
+        long valid = 0;
+        while (true) {
+            int id;
+            String name;
+            String unit;
+            int minValue;
+            int maxValue;
+            try {
+                id = in.readInt();
+                name = in.readUTF();
+                unit = in.readUTF();
+                minValue = in.readInt();
+                maxValue = in.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            meterTypes.restore(id, name, unit, minValue, maxValue);
+            savedMeterTypes = id + 1;
+            valid = content.length - bytes.available();
+        }
+        if (valid < content.length) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+    }
+
+    private void appendRemoval(byte type, int userId) {
+        ByteBuffer buffer = scratch.get();
+        buffer.clear();
+        buffer.put(type).putInt(userId);
+        buffer.flip();
+        log.append(buffer);
+    }
+
+    private void readSnapshot(Consumer<User> users) {
+        if (snapshotSegment == 0) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(snapshotPath(snapshotSegment))))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Поврежденный снимок состояния.");
+            }
+            while (in.readByte() == USER_RECORD) {
+                int id = in.readInt();
+                String username = in.readUTF();
+                String passwordHash = in.readUTF();
+                Role role = ROLES[in.readByte()];
+                users.accept(new User(id, username, passwordHash, role));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeUser(DataOutputStream out, User user) {
+        try {
+            out.writeByte(USER_RECORD);
+            out.writeInt(user.getId());
+            out.writeUTF(user.getUsername());
+            out.writeUTF(user.getPasswordHash());
+            out.writeByte(user.getRole().ordinal());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static User decodeUser(ByteBuffer payload) {
+        int id = payload.getInt();
+        String username = readString(payload);
+        String passwordHash = readString(payload);
+        Role role = ROLES[payload.get()];
+        return new User(id, username, passwordHash, role);
+    }
+
+    private static String readString(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.getInt()];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long latestSnapshot() throws IOException {
+        long latest = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path path : stream) {
+                latest = Math.max(latest, snapshotId(path));
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Удаляет снимки старше указанного вместе с файлами прерванных снимков: колоночным файлом без файла
+     * пользователей и временными файлами.
+     */
+    private void deleteSnapshotsBefore(long segment) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*")) {
+            for (Path path : stream) {
+                if (snapshotId(path) < segment) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private static long snapshotId(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.indexOf('.', SNAPSHOT_PREFIX.length())));
+    }
+
+    private Path readingsPath(long segment) {
+        return directory.resolve(String.format("%s%06d%s", SNAPSHOT_PREFIX, segment, READINGS_SUFFIX));
+    }
+
+    private Path snapshotPath(long segment) {
+        return directory.resolve(String.format("%s%06d%s", SNAPSHOT_PREFIX, segment, SNAPSHOT_SUFFIX));
+    }
+}
@@ -0,0 +1,40 @@
+package storage;
+
+import counters.CounterType;
+import counters.ReadingVisitor;
+import users.User;
+
+import java.util.function.Consumer;
+
+/**
+ * Хранилище без сохранения: данные живут только в памяти сервисов и теряются при перезапуске.
+ * Используется по умолчанию и в тестах.
+ */
+public class InMemoryStorage implements UserStore, ReadingStore {
+    public static final InMemoryStorage INSTANCE = new InMemoryStorage();
+
+    @Override
+    public void saveUser(User user) {
+    }
+
+    @Override
+    public void loadUsers(Consumer<User> consumer) {
+    }
+
+    @Override
+    public void appendReading(int userId, CounterType counterType, int epochMonth, int value) {
+    }
+
+    @Override
+    public void appendReadings(int[] userIds, CounterType[] counterTypes, int[] epochMonths, int[] values, int count) {
+    }
+
+    @Override
+    public ColumnarSnapshot openReadingSnapshot() {
+        return null;
+    }
+
+    @Override
+    public void loadReadings(ReadingVisitor visitor) {
+    }
+}
@@ -0,0 +1,105 @@
+package storage;
+
+import counters.CounterType;
+import counters.MeterTypeRegistry;
+import counters.ReadingVisitor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntConsumer;
+
+/**
+ * Хранилище показаний счетчиков, на которое опирается {@link counters.CounterService}.
+ */
+public interface ReadingStore {
+    /**
+     * Сохраняет принятое показание. Возвращает управление в соответствии с настроенной гарантией сохранности.
+     *
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @param epochMonth  Номер месяца, см. {@link counters.EpochMonths}.
+     * @param value       Показание счетчика.
+     */
+    void appendReading(int userId, CounterType counterType, int epochMonth, int value);
+
+    /**
+     * Сохраняет принятое показание, не блокируя вызывающий поток до выполнения гарантии сохранности.
+     * По умолчанию сохраняет синхронно через {@link #appendReading}.
+     *
+     * @param userId      Идентификатор пользователя.
+     * @param counterType Тип счетчика.
+     * @param epochMonth  Номер месяца, см. {@link counters.EpochMonths}.
+     * @param value       Показание счетчика.
+     * @return Future, завершающееся после сохранения.
+     */
+    default CompletableFuture<Void> appendReadingAsync(int userId, CounterType counterType, int epochMonth, int value) {
+        appendReading(userId, counterType, epochMonth, value);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Сохраняет пакет принятых показаний одной записью. Показания передаются по колонкам.
+     *
+     * @param userIds      Идентификаторы пользователей.
+     * @param counterTypes Типы счетчиков.
+     * @param epochMonths  Номера месяцев.
+     * @param values       Показания.
+     * @param count        Количество показаний в пакете.
+     */
+    void appendReadings(int[] userIds, CounterType[] counterTypes, int[] epochMonths, int[] values, int count);
+
+    /**
+     * Сохраняет удаление всех показаний пользователя, например после переноса в другой шард.
+     * По умолчанию удаление не сохраняется.
+     *
+     * @param userId Идентификатор пользователя.
+     */
+    default void removeReadingsOfUser(int userId) {
+    }
+
+    /**
+     * Возвращает реестр типов счетчиков, идентификаторы которых записываются в это хранилище. Хранилище,
+     * сохраняющее типы, возвращает один и тот же реестр с восстановленными при открытии типами. По умолчанию
+     * типы не сохраняются, и каждый вызов возвращает новый реестр со встроенными типами.
+     *
+     * @return Реестр типов счетчиков.
+     */
+    default MeterTypeRegistry getMeterTypes() {
+        return new MeterTypeRegistry();
+    }
+
+    /**
+     * Сохраняет тип счетчика, зарегистрированный в реестре {@link #getMeterTypes()}. Вызывается реестром
+     * до публикации типа, в порядке идентификаторов. По умолчанию типы не сохраняются.
+     *
+     * @param counterType Регистрируемый тип.
+     */
+    default void saveMeterType(CounterType counterType) {
+    }
+
+    /**
+     * Открывает последний снимок показаний. Вызывается при запуске для восстановления состояния.
+     *
+     * @return Снимок или {@code null}, если снимков еще нет.
+     */
+    ColumnarSnapshot openReadingSnapshot();
+
+    /**
+     * Передает обработчику показания, сохраненные после последнего снимка. Вызывается при запуске после
+     * {@link #openReadingSnapshot()}; эти показания применяются поверх снимка.
+     *
+     * @param visitor Обработчик показаний.
+     */
+    void loadReadings(ReadingVisitor visitor);
+
+    /**
+     * Передает обработчику показания, сохраненные после последнего снимка, и сообщает об удалениях показаний
+     * пользователей в порядке их сохранения. Удаление отменяет все более ранние показания пользователя,
+     * в том числе показания из снимка. По умолчанию удаления не сохраняются и передаются только показания.
+     *
+     * @param visitor     Обработчик показаний.
+     * @param userRemoved Обработчик удаления показаний пользователя.
+     */
+    default void loadReadings(ReadingVisitor visitor, IntConsumer userRemoved) {
+        loadReadings(visitor);
+    }
+}
@@ -0,0 +1,34 @@
+package storage;
+
+import users.User;
+
+import java.util.function.Consumer;
+
+/**
+ * Хранилище пользователей, на которое опирается {@link users.UserRepository}.
+ */
+public interface UserStore {
+    /**
+     * Сохраняет зарегистрированного пользователя.
+     *
+     * @param user Пользователь.
+     */
+    void saveUser(User user);
+
+    /**
+     * Сохраняет удаление пользователя, например после переноса в другой шард. Хранилище, сохраняющее
+     * удаление, не передает этого пользователя в {@link #loadUsers}, пока он не будет сохранен снова.
+     * По умолчанию удаление не сохраняется.
+     *
+     * @param userId Идентификатор пользователя.
+     */
+    default void removeUser(int userId) {
+    }
+
+    /**
+     * Передает всех сохраненных пользователей обработчику. Вызывается при запуске для восстановления состояния.
+     *
+     * @param consumer Обработчик пользователей.
+     */
+    void loadUsers(Consumer<User> consumer);
+}
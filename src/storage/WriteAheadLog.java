@@ -0,0 +1,402 @@
+package storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал упреждающей записи с групповой фиксацией.
+ * <p>
+ * Потоки-писатели копируют записи в общий буфер ожидания и, в зависимости от {@link Durability}, ждут фиксации.
+ * Фоновый поток забирает накопившийся буфер целиком, записывает его одним вызовом и выполняет один {@code fsync}
+ * на весь пакет, поэтому стоимость сброса на диск делится между всеми записями пакета. {@link #appendAsync}
+ * не ждет фиксации, а возвращает future, которое завершает фоновый поток: один поток может держать в полете
+ * много записей, и все они фиксируются одним {@code fsync}.
+ * <p>
+ * Журнал разбит на сегменты {@code wal-<номер>.log}. Каждая запись имеет вид
+ * {@code [длина][CRC32][данные]}; оборванная запись в конце сегмента при чтении отбрасывается.
+ */
+public class WriteAheadLog implements AutoCloseable {
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_SIZE = 8;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_PENDING_BYTES = 8 * 1024 * 1024;
+
+    private final Path directory;
+    private final Durability durability;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasWork = lock.newCondition();
+    private final Condition committed = lock.newCondition();
+    private final Thread committer;
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer writing = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private long appendedSequence;
+    private long committedSequence;
+    private long segmentId;
+    private FileChannel channel;
+    private boolean rotateRequested;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * Открывает журнал и начинает запись в новый сегмент.
+     *
+     * @param directory  Каталог журнала.
+     * @param durability Гарантия сохранности записей.
+     * @param segmentId  Номер первого сегмента, в который будет вестись запись.
+     */
+    public WriteAheadLog(Path directory, Durability durability, long segmentId) {
+        this.directory = directory;
+        this.durability = durability;
+        this.segmentId = segmentId;
+        try {
+            Files.createDirectories(directory);
+            this.channel = openSegment(segmentId);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.committer = new Thread(this::commitLoop, "wal-committer");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * Добавляет запись в журнал. Содержимое буфера от текущей позиции до предела копируется,
+     * поэтому буфер можно переиспользовать сразу после возврата.
+     *
+     * @param payload Данные записи.
+     * @return Порядковый номер записи.
+     */
+    public long append(ByteBuffer payload) {
+        int checksum = checksum(payload);
+        lock.lock();
+        try {
+            long sequence = enqueue(payload, checksum);
+            if (durability != Durability.ASYNC) {
+                while (committedSequence < sequence && failure == null) {
+                    committed.awaitUninterruptibly();
+                }
+                checkFailure();
+            }
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Добавляет запись в журнал, не дожидаясь фиксации. Содержимое буфера копируется, как в {@link #append}.
+     * Ждать вызов может только при переполнении буфера ожидания.
+     * <p>
+     * Future завершается фоновым потоком журнала, когда запись зафиксирована с гарантией {@link Durability}
+     * журнала (для {@link Durability#ASYNC} - сразу), или исключением при ошибке записи. Продолжения без
+     * исполнителя выполняются в фоновом потоке, поэтому должны быть короткими.
+     *
+     * @param payload Данные записи.
+     * @return Порядковый номер записи после фиксации.
+     */
+    public CompletableFuture<Long> appendAsync(ByteBuffer payload) {
+        int checksum = checksum(payload);
+        lock.lock();
+        try {
+            long sequence = enqueue(payload, checksum);
+            if (durability == Durability.ASYNC) {
+                return CompletableFuture.completedFuture(sequence);
+            }
+            CompletableFuture<Long> future = new CompletableFuture<>();
+            waiters.addLast(new Waiter(sequence, future));
+            return future;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Дожидается фиксации всех уже добавленных записей, закрывает текущий сегмент и начинает новый.
+     *
+     * @return Номер нового сегмента. Все записи, добавленные до вызова, находятся в сегментах с меньшими номерами.
+     */
+    public long rotate() {
+        lock.lock();
+        try {
+            checkUsable();
+            rotateRequested = true;
+            hasWork.signal();
+            while (rotateRequested && failure == null) {
+                committed.awaitUninterruptibly();
+            }
+            checkFailure();
+            return segmentId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Удаляет сегменты с номерами меньше указанного. Используется после записи снимка состояния.
+     *
+     * @param segmentId Номер первого сохраняемого сегмента.
+     */
+    public void deleteSegmentsBefore(long segmentId) {
+        try {
+            for (long id : listSegments(directory)) {
+                if (id < segmentId) {
+                    Files.deleteIfExists(segmentPath(directory, id));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Сбрасывает все накопленные записи на диск и останавливает фоновый поток.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            hasWork.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            committer.join();
+            channel.force(false);
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Читает записи всех сегментов с номером не меньше указанного в порядке их добавления.
+     *
+     * @param directory   Каталог журнала.
+     * @param fromSegment Номер первого читаемого сегмента.
+     * @param consumer    Обработчик данных записи; буфер действителен только во время вызова.
+     */
+    public static void replay(Path directory, long fromSegment, Consumer<ByteBuffer> consumer) {
+        try {
+            for (long id : listSegments(directory)) {
+                if (id >= fromSegment) {
+                    replaySegment(segmentPath(directory, id), consumer);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Возвращает номера существующих сегментов в порядке возрастания.
+     *
+     * @param directory Каталог журнала.
+     * @return Номера сегментов.
+     */
+    public static List<Long> listSegments(Path directory) throws IOException {
+        List<Long> ids = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return ids;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                ids.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private static void replaySegment(Path path, Consumer<ByteBuffer> consumer) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                return;
+            }
+            ByteBuffer payload = buffer.slice();
+            payload.limit(length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                return;
+            }
+            consumer.accept(payload);
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    private void commitLoop() {
+        while (true) {
+            long batchEnd;
+            boolean rotate;
+            lock.lock();
+            try {
+                while (pending.position() == 0 && !rotateRequested && !closed) {
+                    hasWork.awaitUninterruptibly();
+                }
+                if (pending.position() == 0 && !rotateRequested) {
+                    return;
+                }
+                ByteBuffer batch = pending;
+                pending = writing;
+                writing = batch;
+                batchEnd = appendedSequence;
+                rotate = rotateRequested;
+            } finally {
+                lock.unlock();
+            }
+
+            long newSegmentId = -1;
+            try {
+                writing.flip();
+                while (writing.hasRemaining()) {
+                    channel.write(writing);
+                }
+                writing.clear();
+                if (durability == Durability.FSYNC || rotate) {
+                    channel.force(false);
+                }
+                if (rotate) {
+                    newSegmentId = segmentId + 1;
+                    channel.close();
+                    channel = openSegment(newSegmentId);
+                }
+            } catch (IOException e) {
+                List<Waiter> failed;
+                lock.lock();
+                try {
+                    failure = e;
+                    committed.signalAll();
+                    failed = takeWaiters(Long.MAX_VALUE);
+                } finally {
+                    lock.unlock();
+                }
+                for (Waiter waiter : failed) {
+                    waiter.future.completeExceptionally(new UncheckedIOException("Ошибка записи журнала.", e));
+                }
+                return;
+            }
+
+            List<Waiter> done;
+            lock.lock();
+            try {
+                committedSequence = batchEnd;
+                if (rotate) {
+                    segmentId = newSegmentId;
+                    rotateRequested = false;
+                }
+                committed.signalAll();
+                done = takeWaiters(batchEnd);
+            } finally {
+                lock.unlock();
+            }
+            // вне блокировки: продолжения не задерживают писателей
+            for (Waiter waiter : done) {
+                waiter.future.complete(waiter.sequence);
+            }
+        }
+    }
+
+    private long enqueue(ByteBuffer payload, int checksum) {
+        while (pending.position() >= MAX_PENDING_BYTES && failure == null && !closed) {
+            committed.awaitUninterruptibly();
+        }
+        checkUsable();
+        int length = payload.remaining();
+        ensureCapacity(HEADER_SIZE + length);
+        pending.putInt(length).putInt(checksum).put(payload);
+        long sequence = ++appendedSequence;
+        hasWork.signal();
+        return sequence;
+    }
+
+    private List<Waiter> takeWaiters(long upToSequence) {
+        if (waiters.isEmpty() || waiters.peekFirst().sequence > upToSequence) {
+            return Collections.emptyList();
+        }
+        List<Waiter> taken = new ArrayList<>();
+        while (!waiters.isEmpty() && waiters.peekFirst().sequence <= upToSequence) {
+            taken.add(waiters.pollFirst());
+        }
+        return taken;
+    }
+
+    private static int checksum(ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private FileChannel openSegment(long id) throws IOException {
+        return FileChannel.open(segmentPath(directory, id),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static Path segmentPath(Path directory, long id) {
+        return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (pending.remaining() < bytes) {
+            int capacity = Math.max(pending.capacity() * 2, pending.position() + bytes);
+            ByteBuffer grown = ByteBuffer.allocate(capacity);
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+    }
+
+    private void checkUsable() {
+        if (closed) {
+            throw new IllegalStateException("Журнал закрыт.");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException("Ошибка записи журнала.", failure);
+        }
+    }
+
+    /**
+     * Ожидание фиксации записи, добавленной через {@link #appendAsync}.
+     */
+    private static final class Waiter {
+        private final long sequence;
+        private final CompletableFuture<Long> future;
+
+        Waiter(long sequence, CompletableFuture<Long> future) {
+            this.sequence = sequence;
+            this.future = future;
+        }
+    }
+}
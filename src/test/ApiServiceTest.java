@@ -1,20 +1,27 @@
 package test;
 
 import api.ApiService;
+import audit.AuditAction;
+import audit.AuditEvent;
+import audit.AuditService;
 import counters.CounterService;
 import counters.CounterType;
 import exceptions.CounterSubmissionException;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import users.Role;
 import users.User;
 import users.UserRepository;
 import test.*;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.time.Month;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -28,15 +35,20 @@ public class ApiServiceTest {
     private final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
     private final PrintStream originalOut = System.out;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private UserRepository userRepository;
     private CounterService counterService;
+    private AuditService auditService;
     private ApiService apiService;
 
     @Before
-    public void setUp() {
+    public void setUp() throws IOException {
         userRepository = new UserRepository();
         counterService = new CounterService();
-        apiService = new ApiService(userRepository, counterService);
+        auditService = new AuditService(folder.newFolder("audit").toPath());
+        apiService = new ApiService(userRepository, counterService, auditService);
 
         // Redirect System.out to capture printed content
         System.setOut(new PrintStream(outContent));
@@ -57,16 +69,20 @@ public class ApiServiceTest {
     /**
      * Метод тестирования аутентификации пользователя. Зарегистрированный пользователь создается
      * в репозитории, а мок сканера предоставляет данные для аутентификации. Проверяет, что сообщение
-     * об успешной аутентификации выводится в System.out.
+     * об успешной аутентификации выводится в System.out, а действие попадает в аудит-лог.
      */
     @Test
     public void testAuthenticateUser() {
         userRepository.registerUser("test_user", "password", Role.USER);
         ScannerMock scannerMock = new ScannerMock("test_user\npassword\n");
         apiService.authenticateUser(scannerMock.getScanner());
-        scannerMock.handleAuditLog("Аудит: Пользователь авторизован: test_user");
-        assertEquals("Введите логин: Введите пароль: Авторизация успешна.\n" +
-                "Аудит: Пользователь авторизован: test_user", outContent.toString().trim());
+        scannerMock.handleAuditLog("Пользователь авторизован");
+        assertEquals("Введите логин: Введите пароль: Авторизация успешна.", outContent.toString().trim());
+        int userId = userRepository.getUserByUsername("test_user").getId();
+        List<AuditEvent> auditLog = auditService.retrieveAuditLog(null, null, userId);
+        assertEquals(1, auditLog.size());
+        assertEquals(AuditAction.AUTHENTICATE, auditLog.get(0).getAction());
+        assertTrue(auditLog.get(0).render("test_user").endsWith("test_user: Пользователь авторизован"));
     }
 
     /**
@@ -91,9 +107,9 @@ public class ApiServiceTest {
     @Test
     public void testViewLatestReading() {
         userRepository.registerUser("test_user", "password", Role.USER);
-        ScannerMock scannerMock = new ScannerMock("HOT_WATER\n");
+        ScannerMock scannerMock = new ScannerMock("test_user\npassword\nHOT_WATER\n");
         apiService.authenticateUser(scannerMock.getScanner());
-        apiService.viewLatestReading();
+        apiService.viewLatestReading(scannerMock.getScanner());
         assertTrue(outContent.toString().contains("Актуальное показание: 0"));
     }
     /**
@@ -104,24 +120,27 @@ public class ApiServiceTest {
     @Test
     public void testViewCounterHistory() {
         userRepository.registerUser("test_user", "password", Role.USER);
-        ScannerMock scannerMock = new ScannerMock("HOT_WATER\n");
+        ScannerMock scannerMock = new ScannerMock("test_user\npassword\nHOT_WATER\n");
         apiService.authenticateUser(scannerMock.getScanner());
         apiService.viewCounterHistory(scannerMock.getScanner());
         assertTrue(outContent.toString().contains("История показаний пуста."));
     }
     /**
-     * Метод тестирования просмотра аудит-лога. Мок сканера, вызывает метод просмотра аудит-лога и
-     * проверяет, что соответствующее сообщение отображается в System.out.
+     * Метод тестирования просмотра аудит-лога. Регистрирует пользователя через мок сканера, вызывает метод
+     * просмотра аудит-лога и проверяет, что соответствующее сообщение и запись отображаются в System.out.
      */
     @Test
     public void testViewAuditLog() {
-        ScannerMock scannerMock = new ScannerMock("");
+        ScannerMock scannerMock = new ScannerMock("john_doe\npassword\nUSER\n");
+        apiService.registerUser(scannerMock.getScanner());
         apiService.viewAuditLog();
         assertTrue(outContent.toString().contains("Просмотр аудита:"));
+        assertTrue(outContent.toString().contains("john_doe: Регистрация нового пользователя"));
     }
 
     @After
     public void tearDown() {
+        auditService.close();
         System.setOut(originalOut);
     }
 }
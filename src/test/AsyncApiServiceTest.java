@@ -0,0 +1,96 @@
+package test;
+
+import api.AsyncApiService;
+import audit.AuditService;
+import counters.CounterService;
+import counters.CounterType;
+import exceptions.AuthorizationException;
+import exceptions.CounterSubmissionException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import session.SessionService;
+import storage.Durability;
+import storage.FileStorage;
+import users.PasswordHasher;
+import users.PasswordVerifier;
+import users.Role;
+import users.User;
+import users.UserRepository;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Тесты неблокирующего API: конвейерная подача показаний с фиксацией на диск.
+ */
+public class AsyncApiServiceTest {
+    private static final int MONTHS = 500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Показания, поданные подряд без ожидания, все сохраняются и восстанавливаются после перезапуска;
+     * повторная подача месяца и неверный токен завершают future ошибкой.
+     */
+    @Test
+    public void testPipelinedSubmissionsAreDurable() throws Exception {
+        Path directory = folder.newFolder("data").toPath();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (FileStorage storage = new FileStorage(directory, Durability.FSYNC);
+             AuditService auditService = new AuditService(folder.newFolder("audit").toPath())) {
+            UserRepository userRepository = new UserRepository(storage, new PasswordHasher(1), new PasswordVerifier());
+            AsyncApiService api = new AsyncApiService(userRepository, new CounterService(storage), auditService,
+                    new SessionService(Duration.ofMinutes(5)), executor);
+            api.registerUser("john_doe", "password", Role.USER).get(10, TimeUnit.SECONDS);
+            String token = api.authenticate("john_doe", "password").get(10, TimeUnit.SECONDS);
+
+            List<CompletableFuture<Void>> submissions = new ArrayList<>();
+            for (int month = 0; month < MONTHS; month++) {
+                submissions.add(api.submitReading(token, CounterType.HEATING, YearMonth.of(2000, 1).plusMonths(month),
+                        month + 1));
+            }
+            CompletableFuture.allOf(submissions.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+            assertEquals(Integer.valueOf(MONTHS),
+                    api.latestReading(token, CounterType.HEATING).get(10, TimeUnit.SECONDS));
+
+            assertFails(api.submitReading(token, CounterType.HEATING, YearMonth.of(2000, 1), 1),
+                    CounterSubmissionException.class);
+            assertFails(api.submitReading("bad-token", CounterType.HEATING, YearMonth.of(2100, 1), 1),
+                    AuthorizationException.class);
+            assertFails(api.auditLog(token, null, null, null), AuthorizationException.class);
+        } finally {
+            executor.shutdown();
+        }
+
+        try (FileStorage storage = new FileStorage(directory, Durability.FSYNC)) {
+            User user = new UserRepository(storage).authenticateUser("john_doe", "password");
+            CounterService counterService = new CounterService(storage);
+            assertEquals(MONTHS, counterService.getCounterHistory(user, CounterType.HEATING).size());
+            assertEquals(MONTHS, counterService.getLatestCounterReading(user, CounterType.HEATING));
+        }
+    }
+
+    private static void assertFails(CompletableFuture<?> future, Class<? extends Throwable> expected)
+            throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), expected.isInstance(e.getCause()));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package test;
+
+import audit.AuditAction;
+import audit.AuditEvent;
+import audit.AuditService;
+import audit.OverflowPolicy;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Тесты сбоев записи и чтения {@link AuditService}.
+ */
+public class AuditServiceTest {
+    private static final int RECORD_SIZE = 24;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * После ошибки записи файла политика {@link OverflowPolicy#BLOCK} не должна оставлять вызывающих ждать
+     * места в кольце: записи отбрасываются и учитываются.
+     */
+    @Test(timeout = 10_000)
+    public void testWriterFailureDoesNotBlockCallers() throws Exception {
+        Path directory = folder.newFolder("audit").toPath();
+        try (AuditService auditService = new AuditService(directory, 4, OverflowPolicy.BLOCK, 2 * RECORD_SIZE, 10)) {
+            // следующий файл не откроется: на его месте каталог
+            Files.createDirectory(directory.resolve("audit-000002.bin"));
+            assertTrue(auditService.log(AuditAction.REGISTER, 1));
+            assertTrue(auditService.log(AuditAction.AUTHENTICATE, 1));
+            while (auditService.getWriteFailure() == null) {
+                Thread.sleep(10);
+            }
+
+            int accepted = 0;
+            for (int i = 0; i < 10; i++) {
+                if (auditService.log(AuditAction.SUBMIT_READING, 1)) {
+                    accepted++;
+                }
+            }
+            assertTrue(accepted <= 4);
+            assertEquals(10 - accepted, auditService.getDroppedCount());
+            assertFalse(auditService.log(AuditAction.SUBMIT_READING, 2));
+            auditService.flush();
+            assertNotNull(auditService.getWriteFailure());
+        }
+    }
+
+    /**
+     * Файл, удаленный ротацией после того, как запрос взял список файлов, читается как пустой.
+     */
+    @Test
+    public void testRetiredSegmentReadsAsEmpty() throws Exception {
+        Path directory = folder.newFolder("audit").toPath();
+        try (AuditService auditService = new AuditService(directory, 16, OverflowPolicy.BLOCK, 2 * RECORD_SIZE, 10)) {
+            for (int i = 0; i < 5; i++) {
+                assertTrue(auditService.log(AuditAction.AUTHENTICATE, i));
+            }
+            auditService.flush();
+            assertEquals(5, auditService.retrieveAuditLog(null, null, null).size());
+
+            Files.delete(directory.resolve("audit-000001.bin"));
+            assertEquals(3, auditService.retrieveAuditLog(null, null, null).size());
+            assertEquals(0, auditService.retrieveAuditLog(null, null, 0).size());
+            assertEquals(1, auditService.retrieveAuditLog(null, null, 4).size());
+        }
+    }
+
+    /**
+     * Страницы аудит-лога продолжаются с позиции в файлах: записи, добавленные между страницами,
+     * не приводят к повторам и пропускам, в том числе при фильтре по пользователю.
+     */
+    @Test
+    public void testPagingAcrossFiles() throws Exception {
+        Path directory = folder.newFolder("audit").toPath();
+        try (AuditService auditService = new AuditService(directory, 16, OverflowPolicy.BLOCK, 2 * RECORD_SIZE, 100)) {
+            for (int i = 0; i < 7; i++) {
+                assertTrue(auditService.log(AuditAction.AUTHENTICATE, i % 2));
+            }
+
+            List<AuditEvent> all = new ArrayList<>();
+            List<Integer> pageSizes = new ArrayList<>();
+            long position = 0;
+            do {
+                int before = all.size();
+                position = auditService.visitAuditLog(null, null, null, position, 3, all::add);
+                pageSizes.add(all.size() - before);
+                if (pageSizes.size() == 1) {
+                    assertTrue(auditService.log(AuditAction.REGISTER, 5));
+                }
+            } while (position != AuditService.AUDIT_END);
+            assertEquals(Arrays.asList(3, 3, 2), pageSizes);
+            assertEquals(AuditAction.REGISTER, all.get(7).getAction());
+            for (int i = 1; i < all.size(); i++) {
+                assertTrue(all.get(i - 1).getTimestamp() <= all.get(i).getTimestamp());
+            }
+
+            List<AuditEvent> odd = new ArrayList<>();
+            position = 0;
+            do {
+                position = auditService.visitAuditLog(null, null, 1, position, 1, odd::add);
+            } while (position != AuditService.AUDIT_END);
+            assertEquals(3, odd.size());
+            for (AuditEvent event : odd) {
+                assertEquals(1, event.getUserId());
+            }
+        }
+    }
+}
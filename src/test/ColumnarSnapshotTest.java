@@ -0,0 +1,186 @@
+package test;
+
+import counters.CounterService;
+import counters.CounterType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import storage.ColumnarSnapshot;
+import storage.Durability;
+import storage.FileStorage;
+import users.UserRepository;
+
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Тесты колоночного снимка показаний {@link ColumnarSnapshot} и ленивого восстановления из него.
+ */
+public class ColumnarSnapshotTest {
+    private static final int USERS = 5000;
+    private static final YearMonth JANUARY = YearMonth.of(2024, 1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Пользователи, записанные в произвольном порядке, находятся двоичным поиском по индексу; идентификаторы
+     * между записанными, меньше наименьшего и больше наибольшего в снимке не находятся.
+     */
+    @Test
+    public void testUserIndexLookup() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("snapshot.readings");
+        ColumnarSnapshot.write(path, visitor -> {
+            // в обратном порядке: индекс сортируется при записи
+            for (int i = USERS - 1; i >= 0; i--) {
+                for (int month = 0; month <= i % 3; month++) {
+                    visitor.visit(userId(i), CounterType.values()[month], 600 + month, i + month);
+                }
+            }
+        });
+
+        ColumnarSnapshot snapshot = ColumnarSnapshot.open(path);
+        assertEquals(USERS, snapshot.userCount());
+        int rows = 0;
+        for (int i = 0; i < USERS; i++) {
+            rows += i % 3 + 1;
+        }
+        assertEquals(rows, snapshot.rowCount());
+        for (int i = 1; i < USERS; i++) {
+            assertTrue(snapshot.userIdAt(i - 1) < snapshot.userIdAt(i));
+        }
+        for (int i = 0; i < USERS; i++) {
+            assertTrue(snapshot.containsUser(userId(i)));
+            assertFalse(snapshot.containsUser(userId(i) + 1));
+            List<Integer> values = new ArrayList<>();
+            int user = i;
+            snapshot.forEachReadingOfUser(userId(i), (userId, counterType, epochMonth, value) -> {
+                assertEquals(userId(user), userId);
+                assertEquals(CounterType.values()[epochMonth - 600], counterType);
+                values.add(value);
+            });
+            assertEquals(i % 3 + 1, values.size());
+            assertEquals(Integer.valueOf(i), values.get(0));
+        }
+        assertFalse(snapshot.containsUser(0));
+        assertFalse(snapshot.containsUser(userId(USERS)));
+        assertFalse(snapshot.containsUser(Integer.MIN_VALUE));
+        assertFalse(snapshot.containsUser(Integer.MAX_VALUE));
+        snapshot.forEachReadingOfUser(userId(USERS), (userId, counterType, epochMonth, value) -> fail());
+    }
+
+    /**
+     * Показания, появившиеся между проходами записи, в снимок не попадают, а пропавшие между проходами
+     * приводят к повторной записи без них.
+     */
+    @Test
+    public void testSourceChangingBetweenPasses() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("snapshot.readings");
+        int[] passes = {0};
+        ColumnarSnapshot.write(path, visitor -> {
+            int pass = passes[0]++;
+            for (int userId = 1; userId <= (pass == 0 ? 3 : 4); userId++) {
+                for (int month = 0; month < (pass == 0 ? 2 : 3); month++) {
+                    visitor.visit(userId, CounterType.HEATING, 600 + month, userId * 10 + month);
+                }
+            }
+        });
+        ColumnarSnapshot grown = ColumnarSnapshot.open(path);
+        assertEquals(2, passes[0]);
+        assertEquals(3, grown.userCount());
+        assertEquals(6, grown.rowCount());
+        assertFalse(grown.containsUser(4));
+        List<Integer> values = new ArrayList<>();
+        grown.forEachReadingOfUser(2, (userId, counterType, epochMonth, value) -> values.add(value));
+        assertEquals(Arrays.asList(20, 21), values);
+
+        passes[0] = 0;
+        ColumnarSnapshot.write(path, visitor -> {
+            int pass = passes[0]++;
+            for (int userId = 1; userId <= (pass == 0 ? 2 : 1); userId++) {
+                visitor.visit(userId, CounterType.HEATING, 600, userId);
+            }
+        });
+        ColumnarSnapshot shrunk = ColumnarSnapshot.open(path);
+        assertEquals(4, passes[0]);
+        assertEquals(1, shrunk.userCount());
+        assertEquals(1, shrunk.rowCount());
+        assertTrue(shrunk.containsUser(1));
+    }
+
+    /**
+     * Файл, размер которого не совпадает с заголовком, не открывается.
+     */
+    @Test
+    public void testTruncatedSnapshotIsRejected() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("snapshot.readings");
+        ColumnarSnapshot.write(path, visitor -> visitor.visit(1, CounterType.HEATING, 600, 10));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+        try {
+            ColumnarSnapshot.open(path);
+            fail();
+        } catch (UncheckedIOException e) {
+            // снимок оборван
+        }
+    }
+
+    /**
+     * После перезапуска показания из снимка переносятся в память при первом обращении и объединяются
+     * с показаниями из журнала, поданными после снимка.
+     */
+    @Test
+    public void testLazyMaterializationMergesLog() throws Exception {
+        Path directory = folder.newFolder("data").toPath();
+        try (FileStorage storage = new FileStorage(directory, Durability.WRITE)) {
+            UserRepository userRepository = new UserRepository(storage);
+            CounterService counterService = new CounterService(storage);
+            for (int i = 0; i < USERS; i++) {
+                counterService.submitCounterReading(userId(i), CounterType.HEATING, JANUARY, i);
+                counterService.submitCounterReading(userId(i), CounterType.HEATING, JANUARY.plusMonths(1), i + 1);
+            }
+            storage.checkpoint(userRepository, counterService);
+            for (int i = 0; i < USERS; i += 2) {
+                counterService.submitCounterReading(userId(i), CounterType.HEATING, JANUARY.plusMonths(2), i + 2);
+            }
+            counterService.submitCounterReading(userId(1), CounterType.HOT_WATER, JANUARY, 7);
+            counterService.submitCounterReading(userId(USERS), CounterType.HEATING, JANUARY, 5);
+        }
+
+        try (FileStorage storage = new FileStorage(directory, Durability.WRITE)) {
+            CounterService counterService = new CounterService(storage);
+            for (int i = 0; i < USERS; i++) {
+                Map<YearMonth, Integer> history = counterService.getCounterHistory(userId(i), CounterType.HEATING);
+                assertEquals(i % 2 == 0 ? 3 : 2, history.size());
+                assertEquals(Integer.valueOf(i), history.get(JANUARY));
+                assertEquals(i % 2 == 0 ? i + 2 : i + 1,
+                        counterService.getLatestCounterReading(userId(i), CounterType.HEATING));
+            }
+            assertEquals(7, counterService.getLatestCounterReading(userId(1), CounterType.HOT_WATER));
+            assertEquals(1, counterService.getCounterHistory(userId(USERS), CounterType.HEATING).size());
+            assertTrue(counterService.getCounterHistory(userId(USERS + 1), CounterType.HEATING).isEmpty());
+            assertTrue(counterService.getCounterHistory(userId(2), CounterType.HOT_WATER).isEmpty());
+
+            int[] readings = {0};
+            counterService.forEachReading((userId, counterType, epochMonth, value) -> readings[0]++);
+            assertEquals(USERS * 2 + USERS / 2 + 2, readings[0]);
+        }
+    }
+
+    private static int userId(int index) {
+        return index * 7 + 3;
+    }
+}
@@ -0,0 +1,123 @@
+package test;
+
+import analytics.Anomaly;
+import analytics.AnomalyKind;
+import analytics.ConsumptionAnalytics;
+import analytics.ConsumptionStats;
+import counters.CounterService;
+import counters.CounterType;
+import counters.ValidationRules;
+import exceptions.CounterSubmissionException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Тесты инкрементальной аналитики потребления.
+ */
+public class ConsumptionAnalyticsTest {
+    private static final int YEAR = 2024;
+
+    private CounterService counterService;
+    private ConsumptionAnalytics analytics;
+
+    @Before
+    public void setUp() {
+        counterService = new CounterService();
+        // аналитика учитывает и уменьшения показаний, поэтому проверяются только повторы месяцев
+        counterService.setValidationRules(ValidationRules.DUPLICATES_ONLY);
+        analytics = ConsumptionAnalytics.attach(counterService);
+    }
+
+    /**
+     * Потребление считается как разница с предыдущим месяцем, а вставка показания между соседними
+     * переносит часть потребления следующего месяца на вставленный.
+     */
+    @Test
+    public void testMonthlyConsumptionWithInsertedReading() {
+        counterService.submitCounterReading(1, CounterType.HOT_WATER, YearMonth.of(YEAR, 1), 100);
+        counterService.submitCounterReading(1, CounterType.HOT_WATER, YearMonth.of(YEAR, 3), 160);
+        assertEquals(60, analytics.getMonthlyStats(CounterType.HOT_WATER, YearMonth.of(YEAR, 3)).getTotal());
+
+        counterService.submitCounterReading(1, CounterType.HOT_WATER, YearMonth.of(YEAR, 2), 120);
+        counterService.submitCounterReading(2, CounterType.HOT_WATER, YearMonth.of(YEAR, 1), 10);
+        counterService.submitCounterReading(2, CounterType.HOT_WATER, YearMonth.of(YEAR, 2), 50);
+
+        ConsumptionStats february = analytics.getMonthlyStats(CounterType.HOT_WATER, YearMonth.of(YEAR, 2));
+        assertEquals(2, february.getCount());
+        assertEquals(60, february.getTotal());
+        assertEquals(30.0, february.getAverage(), 0.0);
+        assertEquals(40, analytics.getMonthlyStats(CounterType.HOT_WATER, YearMonth.of(YEAR, 3)).getTotal());
+        assertEquals(100, analytics.getTotalStats(CounterType.HOT_WATER).getTotal());
+    }
+
+    /**
+     * Уменьшение показания и скачок потребления попадают в журнал аномалий.
+     */
+    @Test
+    public void testAnomalies() {
+        for (int user = 1; user <= ConsumptionAnalytics.JUMP_MIN_SAMPLES; user++) {
+            counterService.submitCounterReading(user, CounterType.COLD_WATER, YearMonth.of(YEAR, 1), 100);
+            counterService.submitCounterReading(user, CounterType.COLD_WATER, YearMonth.of(YEAR, 2), 110);
+        }
+        counterService.submitCounterReading(100, CounterType.COLD_WATER, YearMonth.of(YEAR, 1), 100);
+        counterService.submitCounterReading(100, CounterType.COLD_WATER, YearMonth.of(YEAR, 2), 1_000);
+        counterService.submitCounterReading(101, CounterType.COLD_WATER, YearMonth.of(YEAR, 1), 100);
+        counterService.submitCounterReading(101, CounterType.COLD_WATER, YearMonth.of(YEAR, 2), 50);
+
+        List<Anomaly> anomalies = analytics.getRecentAnomalies(10);
+        assertEquals(2, anomalies.size());
+        assertEquals(AnomalyKind.DECREASE, anomalies.get(0).getKind());
+        assertEquals(101, anomalies.get(0).getUserId());
+        assertEquals(-50, anomalies.get(0).getConsumption());
+        assertEquals(AnomalyKind.JUMP, anomalies.get(1).getKind());
+        assertEquals(100, anomalies.get(1).getUserId());
+        assertEquals(1, analytics.getMonthlyStats(CounterType.COLD_WATER, YearMonth.of(YEAR, 2)).getDecreases());
+    }
+
+    /**
+     * После случайных подач в произвольном порядке месяцев инкрементальные сводки совпадают
+     * с параллельным полным пересчетом.
+     */
+    @Test
+    public void testIncrementalMatchesRecompute() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            int user = 1 + random.nextInt(200);
+            CounterType counterType = CounterType.values()[random.nextInt(CounterType.values().length)];
+            YearMonth month = YearMonth.of(YEAR - random.nextInt(3), 1 + random.nextInt(12));
+            try {
+                counterService.submitCounterReading(user, counterType, month, random.nextInt(10_000));
+            } catch (CounterSubmissionException e) {
+                // месяц уже занят
+            }
+        }
+
+        ConsumptionAnalytics recomputed = ConsumptionAnalytics.recompute(counterService, 4);
+        for (CounterType counterType : CounterType.values()) {
+            assertStatsEqual(recomputed.getTotalStats(counterType), analytics.getTotalStats(counterType));
+            List<ConsumptionStats> expected = recomputed.getMonthlyStats(counterType);
+            List<ConsumptionStats> actual = analytics.getMonthlyStats(counterType);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertStatsEqual(expected.get(i), actual.get(i));
+            }
+        }
+        assertTrue(analytics.getTotalStats(CounterType.HEATING).getDecreases() > 0);
+    }
+
+    private static void assertStatsEqual(ConsumptionStats expected, ConsumptionStats actual) {
+        assertEquals(expected.getYearMonth(), actual.getYearMonth());
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getTotal(), actual.getTotal());
+        assertEquals(expected.getP50(), actual.getP50());
+        assertEquals(expected.getP99(), actual.getP99());
+        assertEquals(expected.getDecreases(), actual.getDecreases());
+    }
+}
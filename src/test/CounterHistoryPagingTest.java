@@ -0,0 +1,81 @@
+package test;
+
+import counters.CounterService;
+import counters.CounterType;
+import counters.EpochMonths;
+import counters.HistoryCursor;
+import org.junit.Test;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Тесты постраничного чтения истории показаний.
+ */
+public class CounterHistoryPagingTest {
+    private static final YearMonth FIRST_MONTH = YearMonth.of(2000, 1);
+
+    /**
+     * Страницы по токенам продолжения выдают историю в порядке месяцев без повторов и пропусков, даже если
+     * между страницами подаются показания и до, и после уже выданных месяцев.
+     */
+    @Test
+    public void testPagesCoverHistoryInOrder() {
+        CounterService counterService = new CounterService();
+        for (int month = 0; month < 100; month += 2) {
+            counterService.submitCounterReading(1, CounterType.HEATING, FIRST_MONTH.plusMonths(month), month + 1);
+        }
+
+        List<Integer> months = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            int from = cursor == null ? Integer.MIN_VALUE : HistoryCursor.decode(cursor);
+            int next = counterService.visitCounterHistory(1, CounterType.HEATING, from, Integer.MAX_VALUE, 7,
+                    (userId, counterType, epochMonth, value) -> months.add(epochMonth));
+            cursor = next == CounterService.HISTORY_END ? null : HistoryCursor.encode(next);
+            if (pages++ == 2) {
+                // месяц до уже выданных не попадает в выдачу, месяц после - попадает
+                counterService.submitCounterReading(1, CounterType.HEATING, FIRST_MONTH.plusMonths(1), 1);
+                counterService.submitCounterReading(1, CounterType.HEATING, FIRST_MONTH.plusMonths(99), 100);
+            }
+        } while (cursor != null);
+
+        assertEquals(51, months.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(EpochMonths.toEpochMonth(FIRST_MONTH) + i * 2, (int) months.get(i));
+        }
+        assertEquals(EpochMonths.toEpochMonth(FIRST_MONTH.plusMonths(99)), (int) months.get(50));
+        assertEquals(8, pages);
+    }
+
+    /**
+     * Страница ограничена диапазоном месяцев, история без показаний пуста, а поврежденный токен отклоняется.
+     */
+    @Test
+    public void testRangeAndInvalidCursor() {
+        CounterService counterService = new CounterService();
+        for (int month = 0; month < 24; month++) {
+            counterService.submitCounterReading(1, CounterType.HEATING, FIRST_MONTH.plusMonths(month), month + 1);
+        }
+        int[] sum = {0};
+        int next = counterService.visitCounterHistory(1, CounterType.HEATING,
+                EpochMonths.toEpochMonth(FIRST_MONTH.plusMonths(12)), EpochMonths.toEpochMonth(FIRST_MONTH.plusMonths(14)),
+                3, (userId, counterType, epochMonth, value) -> sum[0] += value);
+        assertEquals(CounterService.HISTORY_END, next);
+        assertEquals(13 + 14 + 15, sum[0]);
+        assertEquals(CounterService.HISTORY_END, counterService.visitCounterHistory(2, CounterType.HEATING,
+                Integer.MIN_VALUE, Integer.MAX_VALUE, 10, (userId, counterType, epochMonth, value) -> fail()));
+
+        try {
+            HistoryCursor.decode("not-a-cursor");
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // токен не декодируется
+        }
+    }
+}
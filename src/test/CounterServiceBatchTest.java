@@ -0,0 +1,91 @@
+package test;
+
+import counters.BatchResult;
+import counters.CounterService;
+import counters.CounterType;
+import counters.ReadingSubmission;
+import org.junit.Test;
+import users.Role;
+import users.User;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Тесты пакетной подачи показаний {@link CounterService#submitCounterReadings}.
+ */
+public class CounterServiceBatchTest {
+    private final CounterService counterService = new CounterService();
+    private final User first = new User(1, "first", "password", Role.USER);
+    private final User second = new User(2, "second", "password", Role.USER);
+
+    /**
+     * Каждый элемент пакета получает свой результат в порядке подачи, а принятые показания применяются
+     * независимо от порядка элементов в пакете.
+     */
+    @Test
+    public void testPerItemResults() {
+        counterService.submitCounterReading(first, CounterType.HEATING, YearMonth.of(2024, 1), 100);
+
+        BatchResult result = counterService.submitCounterReadings(Arrays.asList(
+                new ReadingSubmission(first, CounterType.HEATING, YearMonth.of(2024, 3), 130),
+                new ReadingSubmission(second, CounterType.HEATING, YearMonth.of(2024, 1), 10),
+                new ReadingSubmission(first, CounterType.HEATING, YearMonth.of(2024, 2), 120),
+                new ReadingSubmission(first, CounterType.HEATING, YearMonth.of(2024, 1), 110),
+                new ReadingSubmission(first, CounterType.HEATING, YearMonth.of(2024, 3), 140),
+                new ReadingSubmission(first, CounterType.HEATING, YearMonth.of(2024, 4), 125),
+                new ReadingSubmission(first, CounterType.HOT_WATER, YearMonth.of(2024, 4), 5)));
+
+        assertEquals(7, result.size());
+        assertEquals(4, result.getAcceptedCount());
+        assertTrue(result.isAccepted(0));
+        assertTrue(result.isAccepted(1));
+        assertTrue(result.isAccepted(2));
+        assertFalse(result.isAccepted(3));
+        assertFalse(result.isAccepted(4));
+        assertFalse(result.isAccepted(5));
+        assertTrue(result.isAccepted(6));
+        assertEquals("Показания за этот месяц уже были поданы.", result.getError(3));
+        assertEquals("Показание меньше предыдущего.", result.getError(5));
+
+        assertEquals(3, counterService.getCounterHistory(first, CounterType.HEATING).size());
+        assertEquals(130, counterService.getLatestCounterReading(first, CounterType.HEATING));
+        assertEquals(10, counterService.getLatestCounterReading(second, CounterType.HEATING));
+    }
+
+    /**
+     * Большая группа одного счетчика в произвольном порядке месяцев применяется целиком; из повторов месяца
+     * принимается поданный первым.
+     */
+    @Test
+    public void testLargeGroupInAnyOrder() {
+        int months = 5000;
+        List<ReadingSubmission> batch = new ArrayList<>();
+        for (int month = 0; month < months; month++) {
+            batch.add(new ReadingSubmission(first, CounterType.HEATING, YearMonth.of(1800, 1).plusMonths(month),
+                    month + 1));
+        }
+        Collections.shuffle(batch, new Random(42));
+        batch.add(new ReadingSubmission(first, CounterType.HEATING, YearMonth.of(1800, 1), 1));
+
+        BatchResult result = counterService.submitCounterReadings(batch);
+        assertEquals(months, result.getAcceptedCount());
+        assertFalse(result.isAccepted(months));
+        Map<YearMonth, Integer> history = counterService.getCounterHistory(first, CounterType.HEATING);
+        assertEquals(months, history.size());
+        int expected = 1;
+        for (Map.Entry<YearMonth, Integer> entry : history.entrySet()) {
+            assertEquals(YearMonth.of(1800, 1).plusMonths(expected - 1), entry.getKey());
+            assertEquals(Integer.valueOf(expected++), entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package test;
+
+import counters.CounterService;
+import counters.CounterType;
+import exceptions.CounterSubmissionException;
+import org.junit.Before;
+import org.junit.Test;
+import users.Role;
+import users.User;
+
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Нагрузочный тест {@link CounterService}: множество потоков одновременно подают показания
+ * за одни и те же месяцы. Проверяет, что ни одно показание не продублировано и не потеряно.
+ */
+public class CounterServiceConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int USERS = 50;
+    private static final int YEAR = 2024;
+
+    private CounterService counterService;
+    private List<User> users;
+
+    @Before
+    public void setUp() {
+        counterService = new CounterService();
+        users = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            users.add(new User(i + 1, "user" + i, "password", Role.USER));
+        }
+    }
+
+    /**
+     * Все потоки пытаются подать показание за каждый месяц каждого счетчика каждого пользователя.
+     * Ровно одна попытка на месяц должна завершиться успешно, остальные - исключением.
+     */
+    @Test
+    public void testConcurrentSubmissionsAcceptExactlyOnePerMonth() throws Exception {
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            final int value = t + 1;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (User user : users) {
+                    for (CounterType counterType : CounterType.values()) {
+                        for (Month month : Month.values()) {
+                            try {
+                                counterService.submitCounterReading(user, counterType, YearMonth.of(YEAR, month), value);
+                                accepted.incrementAndGet();
+                            } catch (CounterSubmissionException e) {
+                                rejected.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        int slots = USERS * CounterType.values().length * Month.values().length;
+        assertEquals(slots, accepted.get());
+        assertEquals(slots * (THREADS - 1), rejected.get());
+
+        for (User user : users) {
+            for (CounterType counterType : CounterType.values()) {
+                Map<YearMonth, Integer> history = counterService.getCounterHistory(user, counterType);
+                assertEquals(Month.values().length, history.size());
+                for (int value : history.values()) {
+                    assertTrue(value >= 1 && value <= THREADS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Потоки подают показания за разные месяцы одного счетчика. Ни одно показание не должно потеряться.
+     */
+    @Test
+    public void testConcurrentSubmissionsForDifferentMonthsAreNotLost() throws Exception {
+        User user = users.get(0);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (Month month : Month.values()) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                counterService.submitCounterReading(user, CounterType.HEATING, YearMonth.of(YEAR, month), month.getValue() * 10);
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        Map<YearMonth, Integer> history = counterService.getCounterHistory(user, CounterType.HEATING);
+        assertEquals(Month.values().length, history.size());
+        for (Month month : Month.values()) {
+            assertEquals(month.getValue() * 10, (int) history.get(YearMonth.of(YEAR, month)));
+        }
+        assertEquals(120, counterService.getLatestCounterReading(user, CounterType.HEATING));
+    }
+
+    /**
+     * Показания хранятся по идентификатору пользователя: другой объект с тем же идентификатором
+     * и измененным именем видит ту же историю.
+     */
+    @Test
+    public void testReadingsAreKeyedByUserId() {
+        User user = users.get(0);
+        counterService.submitCounterReading(user, CounterType.COLD_WATER, YearMonth.of(YEAR, 1), 10);
+
+        User reloaded = new User(user.getId(), "renamed", "password", Role.USER);
+        assertEquals(10, counterService.getLatestCounterReading(reloaded, CounterType.COLD_WATER));
+        assertEquals(10, counterService.getLatestCounterReading(user.getId(), CounterType.COLD_WATER));
+    }
+}
@@ -0,0 +1,99 @@
+package test;
+
+import counters.CounterService;
+import counters.CounterType;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Тесты выборок истории {@link CounterService}: за год, за диапазон месяцев и последних показаний.
+ */
+public class CounterServiceHistoryTest {
+    private static final int USER_ID = 1;
+
+    private final CounterService counterService = new CounterService();
+
+    @Before
+    public void setUp() {
+        submit(YearMonth.of(2023, 3), 100);
+        submit(YearMonth.of(2023, 6), 150);
+        submit(YearMonth.of(2024, 3), 200);
+        submit(YearMonth.of(2024, 6), 250);
+        submit(YearMonth.of(2024, 12), 300);
+        submit(YearMonth.of(2025, 1), 310);
+    }
+
+    /**
+     * Один и тот же месяц разных лет - разные показания: выборка за год не берет месяцы соседних лет.
+     */
+    @Test
+    public void testSameMonthInDifferentYears() {
+        Map<YearMonth, Integer> year2024 = counterService.getCounterHistoryForYear(USER_ID, CounterType.HEATING, 2024);
+        assertEquals(Arrays.asList(YearMonth.of(2024, 3), YearMonth.of(2024, 6), YearMonth.of(2024, 12)),
+                new ArrayList<>(year2024.keySet()));
+        assertEquals(Integer.valueOf(200), year2024.get(YearMonth.of(2024, 3)));
+
+        Map<YearMonth, Integer> year2023 = counterService.getCounterHistoryForYear(USER_ID, CounterType.HEATING, 2023);
+        assertEquals(2, year2023.size());
+        assertEquals(Integer.valueOf(100), year2023.get(YearMonth.of(2023, 3)));
+        assertEquals(Integer.valueOf(150), year2023.get(YearMonth.of(2023, 6)));
+
+        assertEquals(1, counterService.getCounterHistoryForYear(USER_ID, CounterType.HEATING, 2025).size());
+        assertTrue(counterService.getCounterHistoryForYear(USER_ID, CounterType.HEATING, 2022).isEmpty());
+        assertTrue(counterService.getCounterHistoryForYear(USER_ID, CounterType.HOT_WATER, 2024).isEmpty());
+    }
+
+    /**
+     * Обе границы диапазона включаются; диапазон без показаний и перевернутый диапазон дают пустой результат.
+     */
+    @Test
+    public void testRangeBounds() {
+        Map<YearMonth, Integer> range = counterService.getCounterHistory(USER_ID, CounterType.HEATING,
+                YearMonth.of(2023, 6), YearMonth.of(2024, 6));
+        assertEquals(Arrays.asList(YearMonth.of(2023, 6), YearMonth.of(2024, 3), YearMonth.of(2024, 6)),
+                new ArrayList<>(range.keySet()));
+
+        Map<YearMonth, Integer> single = counterService.getCounterHistory(USER_ID, CounterType.HEATING,
+                YearMonth.of(2024, 12), YearMonth.of(2024, 12));
+        assertEquals(1, single.size());
+        assertEquals(Integer.valueOf(300), single.get(YearMonth.of(2024, 12)));
+
+        assertTrue(counterService.getCounterHistory(USER_ID, CounterType.HEATING,
+                YearMonth.of(2023, 7), YearMonth.of(2024, 2)).isEmpty());
+        assertTrue(counterService.getCounterHistory(USER_ID, CounterType.HEATING,
+                YearMonth.of(2024, 6), YearMonth.of(2023, 6)).isEmpty());
+        assertEquals(6, counterService.getCounterHistory(USER_ID, CounterType.HEATING,
+                YearMonth.of(2000, 1), YearMonth.of(2100, 1)).size());
+    }
+
+    /**
+     * Последние показания: ноль, ровно все и больше, чем есть.
+     */
+    @Test
+    public void testLatestReadings() {
+        assertTrue(counterService.getLatestCounterReadings(USER_ID, CounterType.HEATING, 0).isEmpty());
+
+        Map<YearMonth, Integer> latest = counterService.getLatestCounterReadings(USER_ID, CounterType.HEATING, 2);
+        assertEquals(Arrays.asList(YearMonth.of(2024, 12), YearMonth.of(2025, 1)), new ArrayList<>(latest.keySet()));
+
+        Map<YearMonth, Integer> all = counterService.getLatestCounterReadings(USER_ID, CounterType.HEATING, 6);
+        assertEquals(6, all.size());
+        assertEquals(YearMonth.of(2023, 3), all.keySet().iterator().next());
+        assertEquals(all, counterService.getLatestCounterReadings(USER_ID, CounterType.HEATING, 100));
+        assertEquals(all, counterService.getCounterHistory(USER_ID, CounterType.HEATING));
+
+        assertTrue(counterService.getLatestCounterReadings(2, CounterType.HEATING, 3).isEmpty());
+    }
+
+    private void submit(YearMonth yearMonth, int value) {
+        counterService.submitCounterReading(USER_ID, CounterType.HEATING, yearMonth, value);
+    }
+}
@@ -0,0 +1,198 @@
+package test;
+
+import counters.CounterService;
+import counters.CounterType;
+import counters.ReadingSubmission;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import storage.ColumnarSnapshot;
+import storage.Durability;
+import storage.FileStorage;
+import storage.WriteAheadLog;
+import users.Role;
+import users.User;
+import users.UserRepository;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Класс тестирования для {@link FileStorage}: данные должны переживать перезапуск как при восстановлении
+ * из журнала, так и после создания снимка состояния.
+ */
+public class FileStorageTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecoveryFromLog() throws Exception {
+        Path directory = folder.newFolder("data").toPath();
+        try (FileStorage storage = new FileStorage(directory, Durability.FSYNC)) {
+            UserRepository userRepository = new UserRepository(storage);
+            CounterService counterService = new CounterService(storage);
+            userRepository.registerUser("john_doe", "password", Role.USER);
+            User user = userRepository.getUserByUsername("john_doe");
+            counterService.submitCounterReading(user, CounterType.HEATING, YearMonth.of(2023, 12), 90);
+            counterService.submitCounterReading(user, CounterType.HEATING, YearMonth.of(2024, 1), 100);
+        }
+
+        assertRecovered(directory);
+    }
+
+    @Test
+    public void testRecoveryFromSnapshotAndLog() throws Exception {
+        Path directory = folder.newFolder("data").toPath();
+        try (FileStorage storage = new FileStorage(directory, Durability.WRITE)) {
+            UserRepository userRepository = new UserRepository(storage);
+            CounterService counterService = new CounterService(storage);
+            userRepository.registerUser("john_doe", "password", Role.USER);
+            User user = userRepository.getUserByUsername("john_doe");
+            counterService.submitCounterReading(user, CounterType.HEATING, YearMonth.of(2023, 12), 90);
+            storage.checkpoint(userRepository, counterService);
+            counterService.submitCounterReading(user, CounterType.HEATING, YearMonth.of(2024, 1), 100);
+        }
+
+        assertRecovered(directory);
+    }
+
+    @Test
+    public void testRecoveryOfBatchSubmission() throws Exception {
+        Path directory = folder.newFolder("data").toPath();
+        try (FileStorage storage = new FileStorage(directory, Durability.FSYNC)) {
+            UserRepository userRepository = new UserRepository(storage);
+            CounterService counterService = new CounterService(storage);
+            userRepository.registerUser("john_doe", "password", Role.USER);
+            User user = userRepository.getUserByUsername("john_doe");
+            counterService.submitCounterReadings(Arrays.asList(
+                    new ReadingSubmission(user, CounterType.HEATING, YearMonth.of(2024, 1), 100),
+                    new ReadingSubmission(user, CounterType.HEATING, YearMonth.of(2023, 12), 90)));
+        }
+
+        assertRecovered(directory);
+    }
+
+    /**
+     * Сбой посреди снимка: колоночный файл нового снимка уже переименован, а файл пользователей остался
+     * временным. Восстановление идет от предыдущего снимка и журнала, не читая остатки прерванного снимка,
+     * а следующий снимок их удаляет.
+     */
+    @Test
+    public void testRecoveryWhenNewSnapshotIsMissing() throws Exception {
+        Path directory = folder.newFolder("data").toPath();
+        try (FileStorage storage = new FileStorage(directory, Durability.FSYNC)) {
+            UserRepository userRepository = new UserRepository(storage);
+            CounterService counterService = new CounterService(storage);
+            userRepository.registerUser("john_doe", "password", Role.USER);
+            User user = userRepository.getUserByUsername("john_doe");
+            counterService.submitCounterReading(user, CounterType.HEATING, YearMonth.of(2023, 12), 90);
+            storage.checkpoint(userRepository, counterService);
+            counterService.submitCounterReading(user, CounterType.HEATING, YearMonth.of(2024, 1), 100);
+        }
+        List<Long> segments = WriteAheadLog.listSegments(directory);
+        long crashed = segments.get(segments.size() - 1) + 1;
+        Path orphanReadings = directory.resolve(String.format("snapshot-%06d.readings", crashed));
+        ColumnarSnapshot.write(orphanReadings, visitor -> visitor.visit(1, CounterType.HEATING, 700, 1));
+        Path orphanUsers = directory.resolve(String.format("snapshot-%06d.dat.tmp", crashed));
+        Files.write(orphanUsers, new byte[]{1, 2, 3});
+
+        assertRecovered(directory);
+        try (FileStorage storage = new FileStorage(directory, Durability.FSYNC)) {
+            UserRepository userRepository = new UserRepository(storage);
+            CounterService counterService = new CounterService(storage);
+            storage.checkpoint(userRepository, counterService);
+        }
+        assertFalse(Files.exists(orphanReadings));
+        assertFalse(Files.exists(orphanUsers));
+        assertRecovered(directory);
+    }
+
+    /**
+     * Запись, оборванная при сбое, отбрасывается при восстановлении, а предшествующие записи восстанавливаются.
+     */
+    @Test
+    public void testTornTailIsDiscarded() throws Exception {
+        Path directory = folder.newFolder("data").toPath();
+        Path segment = writeWithLastReading(directory);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+
+        assertRecoveredAfterDamagedTail(directory);
+    }
+
+    /**
+     * Запись с неверной контрольной суммой отбрасывается при восстановлении вместе со всем, что за ней следует.
+     */
+    @Test
+    public void testBadChecksumTailIsDiscarded() throws Exception {
+        Path directory = folder.newFolder("data").toPath();
+        Path segment = writeWithLastReading(directory);
+        byte[] content = Files.readAllBytes(segment);
+        content[content.length - 1] ^= 0x5A;
+        Files.write(segment, content);
+
+        assertRecoveredAfterDamagedTail(directory);
+    }
+
+    /**
+     * Записывает пользователя и три показания; последнее показание - последняя запись сегмента журнала.
+     *
+     * @return Сегмент журнала с записями.
+     */
+    private static Path writeWithLastReading(Path directory) throws Exception {
+        try (FileStorage storage = new FileStorage(directory, Durability.FSYNC)) {
+            UserRepository userRepository = new UserRepository(storage);
+            CounterService counterService = new CounterService(storage);
+            userRepository.registerUser("john_doe", "password", Role.USER);
+            User user = userRepository.getUserByUsername("john_doe");
+            counterService.submitCounterReading(user, CounterType.HEATING, YearMonth.of(2023, 12), 90);
+            counterService.submitCounterReading(user, CounterType.HEATING, YearMonth.of(2024, 1), 100);
+            counterService.submitCounterReading(user, CounterType.HEATING, YearMonth.of(2024, 2), 110);
+        }
+        List<Long> segments = WriteAheadLog.listSegments(directory);
+        return directory.resolve(String.format("wal-%06d.log", segments.get(segments.size() - 1)));
+    }
+
+    /**
+     * Проверяет, что восстановлены все записи, кроме поврежденной последней, и что новые записи после
+     * поврежденного хвоста тоже переживают перезапуск.
+     */
+    private void assertRecoveredAfterDamagedTail(Path directory) {
+        assertRecovered(directory);
+        try (FileStorage storage = new FileStorage(directory, Durability.FSYNC)) {
+            UserRepository userRepository = new UserRepository(storage);
+            CounterService counterService = new CounterService(storage);
+            User user = userRepository.getUserByUsername("john_doe");
+            assertEquals(2, counterService.getCounterHistory(user, CounterType.HEATING).size());
+            counterService.submitCounterReading(user, CounterType.HEATING, YearMonth.of(2024, 2), 120);
+        }
+        try (FileStorage storage = new FileStorage(directory, Durability.FSYNC)) {
+            UserRepository userRepository = new UserRepository(storage);
+            CounterService counterService = new CounterService(storage);
+            User user = userRepository.getUserByUsername("john_doe");
+            assertEquals(3, counterService.getCounterHistory(user, CounterType.HEATING).size());
+            assertEquals(120, counterService.getLatestCounterReading(user, CounterType.HEATING));
+        }
+    }
+
+    private void assertRecovered(Path directory) {
+        try (FileStorage storage = new FileStorage(directory, Durability.FSYNC)) {
+            UserRepository userRepository = new UserRepository(storage);
+            CounterService counterService = new CounterService(storage);
+            User user = userRepository.authenticateUser("john_doe", "password");
+            assertNotNull(user);
+            assertEquals(2, counterService.getCounterHistory(user, CounterType.HEATING).size());
+            assertEquals(100, counterService.getLatestCounterReading(user, CounterType.HEATING));
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package test;
+
+import analytics.ConsumptionAnalytics;
+import api.HttpApiServer;
+import audit.AuditService;
+import counters.CounterService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import session.SessionService;
+import storage.InMemoryStorage;
+import users.PasswordHasher;
+import users.PasswordVerifier;
+import users.Role;
+import users.UserRepository;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Тесты HTTP-интерфейса {@link HttpApiServer}: сервер поднимается на свободном порту, запросы отправляются
+ * через {@link HttpClient}.
+ */
+public class HttpApiServerTest {
+    private static final Pattern TOKEN = Pattern.compile("\"token\":\"([^\"]+)\"");
+    private static final Pattern NEXT = Pattern.compile("\"next\":\"([^\"]+)\"");
+    private static final Pattern MONTH = Pattern.compile("\"month\":\"([0-9-]+)\"");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private AuditService auditService;
+    private HttpApiServer server;
+    private String userToken;
+    private String adminToken;
+
+    @Before
+    public void setUp() throws Exception {
+        UserRepository userRepository = new UserRepository(InMemoryStorage.INSTANCE, new PasswordHasher(1),
+                new PasswordVerifier());
+        CounterService counterService = new CounterService();
+        auditService = new AuditService(folder.newFolder("audit").toPath(), counterService.getMeterTypes());
+        server = new HttpApiServer(userRepository, counterService, auditService,
+                new SessionService(Duration.ofMinutes(5)), ConsumptionAnalytics.attach(counterService),
+                new InetSocketAddress("127.0.0.1", 0));
+        server.start();
+
+        assertEquals(200, post("/register", null, "{\"username\":\"john_doe\",\"password\":\"password\"}").statusCode());
+        userRepository.registerUser("admin", "secret", Role.ADMIN);
+        userToken = login("john_doe", "password");
+        adminToken = login("admin", "secret");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        auditService.close();
+    }
+
+    /**
+     * Ошибки отображаются в HTTP-статусы, а тело ответа содержит сообщение.
+     */
+    @Test
+    public void testStatusMapping() throws Exception {
+        assertEquals(400, post("/register", null, "{\"username\":\"jane\"}").statusCode());
+        assertEquals(409, post("/register", null, "{\"username\":\"john_doe\",\"password\":\"x\"}").statusCode());
+        assertEquals(401, post("/authenticate", null, "{\"username\":\"john_doe\",\"password\":\"wrong\"}")
+                .statusCode());
+        assertEquals(401, get("/latest-reading?counterType=HEATING", null).statusCode());
+        assertEquals(401, get("/latest-reading?counterType=HEATING", "bad-token").statusCode());
+        assertEquals(405, get("/register", null).statusCode());
+        assertEquals(405, post("/latest-reading?counterType=HEATING", userToken, "{}").statusCode());
+
+        assertEquals(200, submit(userToken, "HEATING", 1, 100).statusCode());
+        HttpResponse<String> duplicate = submit(userToken, "HEATING", 1, 100);
+        assertEquals(409, duplicate.statusCode());
+        assertTrue(duplicate.body(), duplicate.body().contains("\"error\":"));
+        assertTrue(duplicate.body(), duplicate.body().contains("\"code\":\"DUPLICATE_MONTH\""));
+        assertEquals(409, submit(userToken, "HEATING", 2, 50).statusCode());
+        assertEquals(400, submit(userToken, "ELECTRICITY", 1, 100).statusCode());
+        assertEquals(400, submit(userToken, "HEATING", 13, 100).statusCode());
+
+        // разбор JSON: мусор после объекта и голые слова вместо значений отклоняются
+        assertEquals(400, post("/authenticate", null,
+                "{\"username\":\"john_doe\",\"password\":\"password\"} trailing").statusCode());
+        assertEquals(400, post("/authenticate", null, "{\"username\":john_doe,\"password\":\"password\"}")
+                .statusCode());
+        assertEquals(400, post("/submit-reading", userToken,
+                "{\"counterType\":\"HEATING\",\"year\":2024,\"month\":3,\"value\":1e}").statusCode());
+        assertEquals(200, post("/authenticate", null, " {\"username\":\"john_doe\",\"password\":\"password\"}\n")
+                .statusCode());
+
+        HttpResponse<String> latest = get("/latest-reading?counterType=heating", userToken);
+        assertEquals(200, latest.statusCode());
+        assertEquals("{\"counterType\":\"HEATING\",\"value\":100}", latest.body());
+    }
+
+    /**
+     * Эндпоинты администратора отвечают пользователю 403, а администратору - данными.
+     */
+    @Test
+    public void testAdminEndpoints() throws Exception {
+        String[] adminOnly = {"/users?prefix=jo", "/audit", "/analytics?counterType=HEATING",
+                "/analytics/anomalies", "/reports/readings"};
+        for (String path : adminOnly) {
+            assertEquals(path, 403, get(path, userToken).statusCode());
+        }
+        assertEquals(403, post("/users/register", userToken,
+                "{\"username\":\"mallory\",\"password\":\"x\",\"role\":\"ADMIN\"}").statusCode());
+
+        // открытая регистрация игнорирует роль из запроса
+        assertEquals(200, post("/register", null,
+                "{\"username\":\"eve\",\"password\":\"x\",\"role\":\"ADMIN\"}").statusCode());
+        assertEquals(403, get("/audit", login("eve", "x")).statusCode());
+        assertEquals(200, post("/users/register", adminToken,
+                "{\"username\":\"operator\",\"password\":\"x\",\"role\":\"ADMIN\"}").statusCode());
+        assertEquals(200, get("/audit", login("operator", "x")).statusCode());
+
+        assertEquals(403, post("/submit-readings", userToken, "john_doe,HEATING,2024-01,100").statusCode());
+        assertEquals(403, post("/meter-types/register", userToken, "{\"name\":\"HTTP_TEST\",\"unit\":\"x\"}")
+                .statusCode());
+
+        HttpResponse<String> batch = post("/submit-readings", adminToken,
+                "john_doe,HEATING,2024-01,100\njohn_doe,HEATING,2024-02,150\nnobody,HEATING,2024-01,1\n"
+                        + "john_doe,HEATING,2024-01,200\n");
+        assertEquals(200, batch.statusCode());
+        assertTrue(batch.body(), batch.body().startsWith("{\"accepted\":2,"));
+        assertTrue(batch.body(), batch.body().contains("{\"line\":3,"));
+        assertTrue(batch.body(), batch.body().contains("\"code\":\"INVALID\"}"));
+        assertTrue(batch.body(), batch.body().contains("{\"line\":4,"));
+        assertTrue(batch.body(), batch.body().contains("\"code\":\"DUPLICATE_MONTH\"}"));
+
+        HttpResponse<String> users = get("/users?prefix=JO", adminToken);
+        assertEquals(200, users.statusCode());
+        assertTrue(users.body(), users.body().contains("\"username\":\"john_doe\""));
+        assertFalse(users.body(), users.body().contains("\"username\":\"admin\""));
+        assertEquals(400, get("/users?prefix=jo&limit=0", adminToken).statusCode());
+
+        auditService.flush();
+        HttpResponse<String> audit = get("/audit?username=john_doe", adminToken);
+        assertEquals(200, audit.statusCode());
+        assertTrue(audit.body(), audit.body().contains("\"action\":\"REGISTER\""));
+        assertTrue(audit.body(), audit.body().contains("\"action\":\"SUBMIT_READING\""));
+        assertEquals(400, get("/audit?from=yesterday", adminToken).statusCode());
+        assertEquals(400, get("/audit?limit=0", adminToken).statusCode());
+        assertEquals(400, get("/audit?cursor=garbage", adminToken).statusCode());
+        HttpResponse<String> firstPage = get("/audit?username=john_doe&limit=1", adminToken);
+        assertTrue(firstPage.body(), firstPage.body().contains("\"action\":\"REGISTER\""));
+        Matcher next = NEXT.matcher(firstPage.body());
+        assertTrue(firstPage.body(), next.find());
+        HttpResponse<String> secondPage = get("/audit?username=john_doe&limit=1&cursor="
+                + URLEncoder.encode(next.group(1), StandardCharsets.UTF_8), adminToken);
+        assertEquals(200, secondPage.statusCode());
+        assertFalse(secondPage.body(), secondPage.body().contains("\"action\":\"REGISTER\""));
+
+        HttpResponse<String> analytics = get("/analytics?counterType=HEATING&month=2024-02", adminToken);
+        assertEquals(200, analytics.statusCode());
+        assertTrue(analytics.body(), analytics.body().contains("\"count\":1,\"total\":50"));
+        assertEquals(200, get("/analytics/anomalies?limit=5", adminToken).statusCode());
+
+        HttpResponse<String> report = get("/reports/readings?format=csv", adminToken);
+        assertEquals(200, report.statusCode());
+        assertTrue(report.body(), report.body().contains("2024-02"));
+        assertEquals(400, get("/reports/readings?format=xml", adminToken).statusCode());
+    }
+
+    /**
+     * История выдается страницами: токен {@code next} продолжает обход без повторов и пропусков.
+     */
+    @Test
+    public void testReadingsHistoryPaging() throws Exception {
+        for (int month = 1; month <= 5; month++) {
+            assertEquals(200, submit(userToken, "HEATING", month, month * 10).statusCode());
+        }
+
+        List<String> months = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            String path = "/readings-history?counterType=HEATING&from=2024-01&to=2024-12&limit=2"
+                    + (cursor != null ? "&cursor=" + URLEncoder.encode(cursor, StandardCharsets.UTF_8) : "");
+            HttpResponse<String> page = get(path, userToken);
+            assertEquals(200, page.statusCode());
+            Matcher month = MONTH.matcher(page.body());
+            while (month.find()) {
+                months.add(month.group(1));
+            }
+            Matcher next = NEXT.matcher(page.body());
+            cursor = next.find() ? next.group(1) : null;
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(List.of("2024-01", "2024-02", "2024-03", "2024-04", "2024-05"), months);
+
+        HttpResponse<String> range = get("/readings-history?counterType=HEATING&from=2024-02&to=2024-03", userToken);
+        assertEquals("{\"counterType\":\"HEATING\",\"readings\":[{\"month\":\"2024-02\",\"value\":20},"
+                + "{\"month\":\"2024-03\",\"value\":30}]}", range.body());
+        assertEquals(400, get("/readings-history?counterType=HEATING&cursor=garbage", userToken).statusCode());
+        assertEquals(400, get("/readings-history?counterType=HEATING&limit=-1", userToken).statusCode());
+        assertEquals(400, get("/readings-history?counterType=HEATING&from=2024", userToken).statusCode());
+    }
+
+    /**
+     * Конвейерная подача отвечает на каждую строку в порядке строк запроса.
+     */
+    @Test
+    public void testSubmitReadingStream() throws Exception {
+        String body = "{\"counterType\":\"HOT_WATER\",\"year\":2024,\"month\":1,\"value\":10}\n"
+                + "\n"
+                + "{\"counterType\":\"HOT_WATER\",\"year\":2024,\"month\":1,\"value\":20}\n"
+                + "{\"counterType\":\"HOT_WATER\",\"year\":2024,\"month\":13,\"value\":20}\n"
+                + "not json\n"
+                + "{\"counterType\":\"HOT_WATER\",\"year\":2024,\"month\":2,\"value\":30}\n";
+        HttpResponse<String> response = post("/submit-readings/stream", userToken, body);
+        assertEquals(200, response.statusCode());
+        String[] lines = response.body().split("\n");
+        assertEquals(5, lines.length);
+        assertEquals("{\"line\":1,\"status\":\"ok\"}", lines[0]);
+        assertTrue(lines[1], lines[1].startsWith("{\"line\":3,\"error\":"));
+        assertTrue(lines[1], lines[1].endsWith(",\"code\":\"DUPLICATE_MONTH\"}"));
+        assertTrue(lines[2], lines[2].startsWith("{\"line\":4,\"error\":"));
+        assertTrue(lines[2], lines[2].endsWith(",\"code\":\"INVALID\"}"));
+        assertTrue(lines[3], lines[3].startsWith("{\"line\":5,\"error\":"));
+        assertTrue(lines[3], lines[3].endsWith(",\"code\":\"INVALID\"}"));
+        assertEquals("{\"line\":6,\"status\":\"ok\"}", lines[4]);
+        assertEquals("{\"counterType\":\"HOT_WATER\",\"value\":30}",
+                get("/latest-reading?counterType=HOT_WATER", userToken).body());
+
+        assertEquals(401, post("/submit-readings/stream", "bad-token", body).statusCode());
+    }
+
+    /**
+     * Тип счетчика, зарегистрированный администратором, сразу принимает показания; метрики учитывают
+     * запросы по эндпоинтам и ошибки по типу исключения.
+     */
+    @Test
+    public void testMeterTypesAndMetrics() throws Exception {
+        HttpResponse<String> registered = post("/meter-types/register", adminToken,
+                "{\"name\":\"http_test_gas\",\"unit\":\"м3\",\"minValue\":0,\"maxValue\":1000}");
+        assertEquals(200, registered.statusCode());
+        assertTrue(registered.body(), registered.body().contains("\"name\":\"HTTP_TEST_GAS\""));
+        assertEquals(400, post("/meter-types/register", adminToken, "{\"name\":\"газ\",\"unit\":\"м3\"}")
+                .statusCode());
+        assertEquals(400, post("/meter-types/register", adminToken,
+                "{\"name\":\"HTTP_TEST_GAS\",\"unit\":\"м3\",\"maxValue\":\"many\"}").statusCode());
+
+        HttpResponse<String> types = get("/meter-types", userToken);
+        assertEquals(200, types.statusCode());
+        assertTrue(types.body(), types.body().contains("\"name\":\"HEATING\""));
+        assertTrue(types.body(), types.body().contains("\"name\":\"HTTP_TEST_GAS\",\"unit\":\"м3\""));
+        assertEquals(200, submit(userToken, "HTTP_TEST_GAS", 1, 500).statusCode());
+        assertEquals(409, submit(userToken, "HTTP_TEST_GAS", 2, 1001).statusCode());
+
+        HttpResponse<String> metrics = get("/metrics", null);
+        assertEquals(200, metrics.statusCode());
+        assertTrue(metrics.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+        assertTrue(metrics.body(), metrics.body().contains(
+                "http_request_duration_seconds_count{endpoint=\"/meter-types/register\"} 3"));
+        assertTrue(metrics.body(), metrics.body().contains("readings_rejected_total{code=\"OUT_OF_RANGE\"} 1"));
+    }
+
+    private String login(String username, String password) throws Exception {
+        HttpResponse<String> response = post("/authenticate", null,
+                "{\"username\":\"" + username + "\",\"password\":\"" + password + "\"}");
+        assertEquals(200, response.statusCode());
+        Matcher token = TOKEN.matcher(response.body());
+        assertTrue(response.body(), token.find());
+        return token.group(1);
+    }
+
+    private HttpResponse<String> submit(String token, String counterType, int month, int value) throws Exception {
+        return post("/submit-reading", token, "{\"counterType\":\"" + counterType + "\",\"year\":2024,\"month\":"
+                + month + ",\"value\":" + value + "}");
+    }
+
+    private HttpResponse<String> get(String path, String token) throws Exception {
+        return send(request(path, token).GET());
+    }
+
+    private HttpResponse<String> post(String path, String token, String body) throws Exception {
+        return send(request(path, token).POST(HttpRequest.BodyPublishers.ofString(body)));
+    }
+
+    private HttpRequest.Builder request(String path, String token) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getPort() + path))
+                .timeout(Duration.ofSeconds(10));
+        if (token != null) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        return builder;
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws Exception {
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    }
+}
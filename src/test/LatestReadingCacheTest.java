@@ -0,0 +1,105 @@
+package test;
+
+import counters.CounterService;
+import counters.CounterType;
+import counters.LatestReadingCache;
+import org.junit.Test;
+import storage.InMemoryStorage;
+import users.UserIdAllocator;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Тесты кэша последних показаний.
+ */
+public class LatestReadingCacheTest {
+
+    /**
+     * Кэш не превышает емкость, а часто читаемая запись переживает поток однократных записей.
+     */
+    @Test
+    public void testEvictionKeepsReadEntries() {
+        LatestReadingCache cache = new LatestReadingCache(64);
+        assertEquals(64, cache.getCapacity());
+        cache.put(1, CounterType.HEATING, 10);
+        assertEquals(10, cache.get(1, CounterType.HEATING));
+
+        for (int userId = 2; userId < 10_000; userId++) {
+            cache.put(userId, CounterType.HOT_WATER, userId);
+            cache.get(1, CounterType.HEATING);
+        }
+        assertEquals(10, cache.get(1, CounterType.HEATING));
+        int cached = 0;
+        for (int userId = 2; userId < 10_000; userId++) {
+            if (cache.get(userId, CounterType.HOT_WATER) != LatestReadingCache.MISS) {
+                cached++;
+            }
+        }
+        assertTrue(String.valueOf(cached), cached < 64);
+
+        cache.update(1, CounterType.COLD_WATER, 5);
+        assertEquals(LatestReadingCache.MISS, cache.get(1, CounterType.COLD_WATER));
+        cache.update(1, CounterType.HEATING, 11);
+        assertEquals(11, cache.get(1, CounterType.HEATING));
+    }
+
+    /**
+     * Читатели, получающие последнее показание во время подачи, никогда не видят его уменьшения, а после
+     * подачи всех показаний видят последнее, даже если записи постоянно вытесняются из маленького кэша.
+     */
+    @Test
+    public void testLatestReadingIsNeverStale() throws Exception {
+        int users = 64;
+        int months = 120;
+        CounterService counterService = new CounterService(InMemoryStorage.INSTANCE, new UserIdAllocator(), 16);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> readers = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            readers.add(executor.submit(() -> {
+                int[] seen = new int[users + 1];
+                start.await();
+                while (writing.get()) {
+                    for (int userId = 1; userId <= users; userId++) {
+                        int latest = counterService.getLatestCounterReading(userId, CounterType.HEATING);
+                        assertTrue(latest + " < " + seen[userId], latest >= seen[userId]);
+                        seen[userId] = latest;
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (int month = 0; month < months; month++) {
+            for (int userId = 1; userId <= users; userId++) {
+                counterService.submitCounterReading(userId, CounterType.HEATING,
+                        YearMonth.of(2000, 1).plusMonths(month), month + 1);
+            }
+        }
+        writing.set(false);
+        for (Future<?> reader : readers) {
+            reader.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        for (int userId = 1; userId <= users; userId++) {
+            assertEquals(months, counterService.getLatestCounterReading(userId, CounterType.HEATING));
+        }
+        // при 64 пользователях на 16 ячеек попадания во время подачи зависят от планировщика
+        long hits = counterService.getLatestReadingCache().getHitCount();
+        assertEquals(months, counterService.getLatestCounterReading(users, CounterType.HEATING));
+        assertEquals(hits + 1, counterService.getLatestReadingCache().getHitCount());
+    }
+}
@@ -0,0 +1,185 @@
+package test;
+
+import counters.CounterService;
+import counters.CounterType;
+import counters.MeterTypeRegistry;
+import counters.RejectionCode;
+import counters.ValidationRules;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import storage.Durability;
+import storage.FileStorage;
+import users.UserRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Тесты реестра типов счетчиков {@link MeterTypeRegistry}.
+ */
+public class MeterTypeRegistryTest {
+    private static final YearMonth JANUARY = YearMonth.of(2024, 1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Встроенные типы сохраняют прежние номера, а имена разрешаются без учета регистра.
+     */
+    @Test
+    public void testBuiltInTypesAndLookup() {
+        assertEquals(0, CounterType.HEATING.getId());
+        assertEquals(1, CounterType.HOT_WATER.getId());
+        assertEquals(2, CounterType.COLD_WATER.getId());
+        MeterTypeRegistry registry = new MeterTypeRegistry();
+        assertEquals(MeterTypeRegistry.BUILT_IN_TYPES, registry.size());
+        assertSame(CounterType.HEATING, registry.find("heating"));
+        assertSame(CounterType.HOT_WATER, registry.find("Hot_Water"));
+        assertSame(CounterType.COLD_WATER, registry.byId(2));
+        assertNull(registry.find("HEATING2"));
+        assertNull(registry.find(""));
+        assertNull(registry.find(null));
+    }
+
+    /**
+     * Тип, зарегистрированный во время работы, принимает показания уже существующих пользователей
+     * и проверяется по своим границам.
+     */
+    @Test
+    public void testRuntimeRegistration() {
+        CounterService counterService = new CounterService();
+        counterService.submitCounterReading(1, CounterType.HEATING, JANUARY, 100);
+
+        CounterType electricity = counterService.registerMeterType("test_electricity", "кВт*ч", 0, 10_000);
+        assertEquals("TEST_ELECTRICITY", electricity.getName());
+        assertSame(electricity, counterService.getMeterTypes().find("Test_Electricity"));
+        assertSame(electricity, counterService.registerMeterType("TEST_ELECTRICITY", "кВт*ч", 0, 10_000));
+        try {
+            counterService.registerMeterType("TEST_ELECTRICITY", "кВт*ч", 0, 20_000);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // параметры отличаются от зарегистрированных
+        }
+        try {
+            counterService.registerMeterType("ГАЗ", "м3", 0, 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // имя только из латинских букв, цифр и '_'
+        }
+
+        assertNull(counterService.trySubmitCounterReading(1, electricity, JANUARY, 500));
+        assertEquals(RejectionCode.OUT_OF_RANGE, counterService.trySubmitCounterReading(1, electricity,
+                JANUARY.plusMonths(1), 10_001));
+        counterService.setValidationRules(ValidationRules.DUPLICATES_ONLY);
+        assertNull(counterService.trySubmitCounterReading(1, electricity, JANUARY.plusMonths(1), 10_001));
+
+        assertEquals(10_001, counterService.getLatestCounterReading(1, electricity));
+        assertEquals(100, counterService.getLatestCounterReading(1, CounterType.HEATING));
+        int[] visited = {0};
+        counterService.forEachReadingOfUser(1, (userId, counterType, epochMonth, value) -> visited[0]++);
+        assertEquals(3, visited[0]);
+    }
+
+    /**
+     * Зарегистрированный тип сохраняется хранилищем и после перезапуска имеет прежний идентификатор, поэтому
+     * показания из снимка и журнала восстанавливаются; оборванная запись файла типов отбрасывается.
+     */
+    @Test
+    public void testRegisteredTypeSurvivesRestart() throws Exception {
+        Path directory = folder.newFolder("data").toPath();
+        CounterType gas;
+        try (FileStorage storage = new FileStorage(directory, Durability.FSYNC)) {
+            UserRepository userRepository = new UserRepository(storage);
+            CounterService counterService = new CounterService(storage);
+            gas = counterService.registerMeterType("TEST_GAS", "м3", 0, 100_000);
+            counterService.submitCounterReading(1, gas, JANUARY, 10);
+            storage.checkpoint(userRepository, counterService);
+            counterService.submitCounterReading(1, gas, JANUARY.plusMonths(1), 20);
+        }
+        Path meterTypes = directory.resolve("meter-types.dat");
+        long size = Files.size(meterTypes);
+        Files.write(meterTypes, new byte[]{0, 0}, StandardOpenOption.APPEND);
+
+        try (FileStorage storage = new FileStorage(directory, Durability.FSYNC)) {
+            CounterService counterService = new CounterService(storage);
+            assertEquals(2, counterService.getCounterHistory(1, gas).size());
+            assertEquals(20, counterService.getLatestCounterReading(1, gas));
+        }
+        assertEquals(size, Files.size(meterTypes));
+
+        try (FileStorage storage = new FileStorage(directory, Durability.FSYNC)) {
+            storage.getMeterTypes().restore(gas.getId(), "TEST_OTHER", "м3", 0, 100_000);
+            fail();
+        } catch (IllegalStateException e) {
+            // идентификатор уже занят другим типом
+        }
+    }
+
+    /**
+     * Тип, который не удалось сохранить, не становится виден, поэтому показание этого типа не может попасть
+     * в журнал раньше самого типа.
+     */
+    @Test
+    public void testTypeIsPublishedAfterSave() {
+        MeterTypeRegistry registry = new MeterTypeRegistry();
+        try {
+            registry.register("GAS", "м3", 0, 100_000, counterType -> {
+                assertNull(registry.find("GAS"));
+                throw new UncheckedIOException(new IOException("disk full"));
+            });
+            fail();
+        } catch (UncheckedIOException e) {
+            // ошибка сохранения передается вызывающему
+        }
+        assertNull(registry.find("GAS"));
+        assertEquals(MeterTypeRegistry.BUILT_IN_TYPES, registry.size());
+
+        CounterType gas = registry.register("GAS", "м3", 0, 100_000);
+        assertEquals(MeterTypeRegistry.BUILT_IN_TYPES, gas.getId());
+        assertSame(gas, registry.byId(gas.getId()));
+    }
+
+    /**
+     * Каждое хранилище ведет свой реестр: тип одного хранилища неизвестен другому, и сервис другого хранилища
+     * не пишет показания этого типа в свой журнал.
+     */
+    @Test
+    public void testRegistriesArePerStore() throws Exception {
+        Path first = folder.newFolder("first").toPath();
+        Path second = folder.newFolder("second").toPath();
+        try (FileStorage firstStorage = new FileStorage(first, Durability.FSYNC);
+             FileStorage secondStorage = new FileStorage(second, Durability.FSYNC)) {
+            CounterService firstService = new CounterService(firstStorage);
+            CounterService secondService = new CounterService(secondStorage);
+            CounterType gas = firstService.registerMeterType("GAS", "м3", 0, 100_000);
+            assertNull(secondService.getMeterTypes().find("GAS"));
+            try {
+                secondService.submitCounterReading(1, gas, JANUARY, 10);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // тип зарегистрирован в другом хранилище
+            }
+            CounterType electricity = secondService.registerMeterType("ELECTRICITY", "кВт*ч", 0, 10_000);
+            assertEquals(gas.getId(), electricity.getId());
+            secondService.submitCounterReading(1, electricity, JANUARY, 20);
+            assertNull(new CounterService().getMeterTypes().find("GAS"));
+        }
+
+        try (FileStorage secondStorage = new FileStorage(second, Durability.FSYNC)) {
+            CounterService secondService = new CounterService(secondStorage);
+            assertNull(secondService.getMeterTypes().find("GAS"));
+            CounterType electricity = secondService.getMeterTypes().find("electricity");
+            assertEquals(20, secondService.getLatestCounterReading(1, electricity));
+        }
+    }
+}
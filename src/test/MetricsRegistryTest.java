@@ -0,0 +1,86 @@
+package test;
+
+import exceptions.AuthorizationException;
+import metrics.LogBuckets;
+import metrics.MetricsRegistry;
+import metrics.Timer;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Тесты реестра метрик.
+ */
+public class MetricsRegistryTest {
+
+    /**
+     * Процентили гистограммы отличаются от точных не больше чем на 1/8.
+     */
+    @Test
+    public void testPercentileAccuracy() {
+        Timer timer = new MetricsRegistry().timer("test_duration_seconds");
+        Random random = new Random(42);
+        long[] values = new long[10_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1_000 + random.nextInt(10_000_000);
+            timer.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double quantile : new double[]{0.5, 0.9, 0.99}) {
+            long exact = values[(int) Math.ceil(quantile * values.length) - 1];
+            long estimate = timer.getPercentileNanos(quantile);
+            assertTrue(quantile + ": " + estimate + " vs " + exact, Math.abs(estimate - exact) <= exact / 8);
+        }
+        assertEquals(values.length, timer.getCount());
+        assertEquals(values[values.length - 1], timer.getMaxNanos());
+    }
+
+    /**
+     * Корзины {@link LogBuckets} идут подряд без пропусков, каждое значение лежит в своей корзине, а ширина
+     * корзины не больше 1/2^subBucketBits ее нижней границы.
+     */
+    @Test
+    public void testLogBuckets() {
+        LogBuckets buckets = new LogBuckets(4, Integer.SIZE);
+        assertEquals(480, buckets.size());
+        for (int index = 0; index < buckets.size(); index++) {
+            long lower = buckets.lowerBound(index);
+            long upper = buckets.lowerBound(index + 1);
+            assertEquals(index, buckets.indexOf(lower));
+            assertEquals(index, buckets.indexOf(upper - 1));
+            assertTrue(index + ": " + lower + ".." + upper, upper - lower <= Math.max(1, lower / 16));
+        }
+        assertEquals(0, buckets.indexOf(-5));
+        assertEquals(buckets.size() - 1, buckets.indexOf(Long.MAX_VALUE));
+        assertEquals(0, buckets.valueAt(0.5, index -> 0));
+        assertEquals(1000, buckets.valueAt(0.5, index -> index == buckets.indexOf(1000) ? 3 : 0), 1000 / 16);
+    }
+
+    /**
+     * Метрика с теми же именем и метками создается один раз, ошибки учитываются по типу исключения,
+     * а текст выводится в формате Prometheus.
+     */
+    @Test
+    public void testRender() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        Timer latest = metrics.timer("http_request_duration_seconds", "endpoint", "/latest-reading");
+        assertSame(latest, metrics.timer("http_request_duration_seconds", "endpoint", "/latest-reading"));
+        latest.record(2_000_000);
+        metrics.timer("http_request_duration_seconds", "endpoint", "/audit").record(1_000);
+        metrics.recordError(new AuthorizationException("Неверные учетные данные."));
+        metrics.recordError(new AuthorizationException("Неверные учетные данные."));
+
+        String text = metrics.render();
+        assertTrue(text, text.contains("# TYPE errors_total counter\n"));
+        assertTrue(text, text.contains("errors_total{exception=\"AuthorizationException\"} 2\n"));
+        assertEquals(1, text.split("# TYPE http_request_duration_seconds summary", -1).length - 1);
+        assertTrue(text, text.contains("http_request_duration_seconds_count{endpoint=\"/latest-reading\"} 1\n"));
+        assertTrue(text, text.contains("http_request_duration_seconds_sum{endpoint=\"/latest-reading\"} 0.002000000\n"));
+        assertTrue(text, text.contains("http_request_duration_seconds{endpoint=\"/audit\",quantile=\"0.99\"} "));
+    }
+}
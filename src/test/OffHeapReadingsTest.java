@@ -0,0 +1,121 @@
+package test;
+
+import counters.BatchResult;
+import counters.CounterService;
+import counters.CounterType;
+import counters.ReadingArena;
+import counters.ReadingSubmission;
+import exceptions.CounterSubmissionException;
+import org.junit.Test;
+import storage.InMemoryStorage;
+import users.UserIdAllocator;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Тесты хранения показаний вне кучи: сервис с {@link ReadingArena} ведет себя так же, как с массивами кучи.
+ */
+public class OffHeapReadingsTest {
+    private static final YearMonth FIRST_MONTH = YearMonth.of(2000, 1);
+
+    /**
+     * Одинаковая случайная последовательность подач, включая вставки в середину истории и пакеты, дает
+     * одинаковые истории, диапазоны, последние показания и страницы обхода.
+     */
+    @Test
+    public void testSameBehaviourAsHeap() {
+        ReadingArena arena = new ReadingArena(4096);
+        CounterService heap = new CounterService();
+        CounterService offHeap = new CounterService(InMemoryStorage.INSTANCE, new UserIdAllocator(), 16, arena);
+        Random random = new Random(7);
+        for (int step = 0; step < 20_000; step++) {
+            int userId = 1 + random.nextInt(50);
+            CounterType counterType = CounterType.values()[random.nextInt(CounterType.values().length)];
+            YearMonth month = FIRST_MONTH.plusMonths(random.nextInt(300));
+            int value = 1 + random.nextInt(1000);
+            if (random.nextInt(10) == 0) {
+                List<ReadingSubmission> batch = new ArrayList<>();
+                for (int i = 0; i < 5; i++) {
+                    batch.add(new ReadingSubmission(userId, counterType, month.plusMonths(i), value + i));
+                }
+                BatchResult expected = heap.submitCounterReadings(batch);
+                BatchResult actual = offHeap.submitCounterReadings(batch);
+                for (int i = 0; i < batch.size(); i++) {
+                    assertEquals(expected.getError(i), actual.getError(i));
+                }
+            } else {
+                assertEquals(submit(heap, userId, counterType, month, value),
+                        submit(offHeap, userId, counterType, month, value));
+            }
+        }
+
+        for (int userId = 1; userId <= 50; userId++) {
+            for (CounterType counterType : CounterType.values()) {
+                assertEquals(heap.getCounterHistory(userId, counterType), offHeap.getCounterHistory(userId, counterType));
+                assertEquals(heap.getLatestCounterReading(userId, counterType),
+                        offHeap.getLatestCounterReading(userId, counterType));
+                assertEquals(heap.getCounterHistory(userId, counterType, FIRST_MONTH.plusMonths(100),
+                        FIRST_MONTH.plusMonths(150)), offHeap.getCounterHistory(userId, counterType,
+                        FIRST_MONTH.plusMonths(100), FIRST_MONTH.plusMonths(150)));
+                assertEquals(pages(heap, userId, counterType), pages(offHeap, userId, counterType));
+            }
+        }
+        assertTrue(arena.getReservedBytes() > 4096);
+    }
+
+    /**
+     * Память удаленного пользователя возвращается арене и используется повторно.
+     */
+    @Test
+    public void testRemovedUserMemoryIsReused() {
+        ReadingArena arena = new ReadingArena(1 << 16);
+        CounterService counterService = new CounterService(InMemoryStorage.INSTANCE, new UserIdAllocator(), 16, arena);
+        for (int month = 0; month < 100; month++) {
+            counterService.submitCounterReading(1, CounterType.HEATING, FIRST_MONTH.plusMonths(month), month + 1);
+        }
+        assertEquals(ReadingArena.capacityFor(100) * ReadingArena.RECORD_BYTES, arena.getUsedBytes());
+        long reserved = arena.getReservedBytes();
+
+        counterService.removeUser(1);
+        assertEquals(0, arena.getUsedBytes());
+        assertEquals(0, counterService.getCounterHistory(1, CounterType.HEATING).size());
+        for (int month = 0; month < 100; month++) {
+            counterService.submitCounterReading(2, CounterType.HEATING, FIRST_MONTH.plusMonths(month), month + 1);
+        }
+        assertEquals(reserved, arena.getReservedBytes());
+        assertEquals(100, counterService.getLatestCounterReading(2, CounterType.HEATING));
+    }
+
+    private static String submit(CounterService counterService, int userId, CounterType counterType, YearMonth month,
+                                 int value) {
+        try {
+            counterService.submitCounterReading(userId, counterType, month, value);
+            return null;
+        } catch (CounterSubmissionException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Обходит историю страницами по 7 показаний и возвращает показания с границами страниц.
+     */
+    private static List<Integer> pages(CounterService counterService, int userId, CounterType counterType) {
+        List<Integer> result = new ArrayList<>();
+        int from = Integer.MIN_VALUE;
+        while (from != CounterService.HISTORY_END) {
+            from = counterService.visitCounterHistory(userId, counterType, from, Integer.MAX_VALUE, 7,
+                    (id, type, epochMonth, value) -> {
+                        result.add(epochMonth);
+                        result.add(value);
+                    });
+            result.add(-1);
+        }
+        return result;
+    }
+}
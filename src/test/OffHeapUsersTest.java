@@ -0,0 +1,145 @@
+package test;
+
+import exceptions.AuthorizationException;
+import org.junit.Test;
+import storage.InMemoryStorage;
+import users.PasswordHasher;
+import users.PasswordVerifier;
+import users.Role;
+import users.User;
+import users.UserArena;
+import users.UserIdAllocator;
+import users.UserRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Тесты хранения пользователей вне кучи: репозиторий с {@link UserArena} ведет себя так же, как с объектами в куче.
+ */
+public class OffHeapUsersTest {
+    private static final String[] NAMES = {"ann", "Ann", "anna", "bob", "bobby", "Bo", "кирилл", ""};
+
+    /**
+     * Одинаковая случайная последовательность переносов, повторных переносов и удалений, включая имена,
+     * различающиеся только регистром, дает одинаковые результаты всех видов поиска.
+     */
+    @Test
+    public void testSameBehaviourAsHeap() {
+        UserArena arena = new UserArena(1024);
+        UserRepository heap = repository(null);
+        UserRepository offHeap = repository(arena);
+        Random random = new Random(11);
+        for (int step = 0; step < 20_000; step++) {
+            int userId = 1 + random.nextInt(200);
+            if (random.nextInt(3) == 0) {
+                assertEquals(describe(heap.removeUser(userId)), describe(offHeap.removeUser(userId)));
+                continue;
+            }
+            String username = NAMES[random.nextInt(NAMES.length)] + random.nextInt(40);
+            String hash = "hash" + random.nextInt(1000) + "-".repeat(random.nextInt(100));
+            Role role = Role.values()[random.nextInt(Role.values().length)];
+            assertEquals(importUser(heap, new User(userId, username, hash, role)),
+                    importUser(offHeap, new User(userId, username, hash, role)));
+        }
+
+        for (int userId = 0; userId <= 201; userId++) {
+            assertEquals(describe(heap.getUserById(userId)), describe(offHeap.getUserById(userId)));
+        }
+        for (String name : NAMES) {
+            for (int i = 0; i < 40; i++) {
+                assertEquals(describe(heap.getUserByUsername(name + i)), describe(offHeap.getUserByUsername(name + i)));
+                assertEquals(describe(heap.findUsersIgnoreCase(name + i)), describe(offHeap.findUsersIgnoreCase(name + i)));
+            }
+            assertEquals(describe(heap.findUsersByPrefix(name, Integer.MAX_VALUE)),
+                    describe(offHeap.findUsersByPrefix(name, Integer.MAX_VALUE)));
+        }
+        assertEquals(all(heap), all(offHeap));
+        assertEquals(all(heap).size(), arena.size());
+    }
+
+    /**
+     * Зарегистрированный пользователь входит по паролю: хэш читается из арены без изменений.
+     */
+    @Test
+    public void testAuthenticationReadsHashFromArena() {
+        UserRepository userRepository = repository(new UserArena());
+        userRepository.registerUser("alice", "secret", Role.ADMIN);
+        User user = userRepository.authenticateUser("alice", "secret");
+        assertEquals(Role.ADMIN, user.getRole());
+        try {
+            userRepository.authenticateUser("alice", "wrong");
+            throw new AssertionError();
+        } catch (AuthorizationException expected) {
+            // неверный пароль
+        }
+        try {
+            userRepository.registerUser("alice", "other", Role.USER);
+            throw new AssertionError();
+        } catch (AuthorizationException expected) {
+            // имя занято
+        }
+    }
+
+    /**
+     * Память удаленных пользователей возвращается арене и используется повторно.
+     */
+    @Test
+    public void testRemovedUserMemoryIsReused() {
+        UserArena arena = new UserArena(1 << 16);
+        UserRepository userRepository = repository(arena);
+        for (int userId = 1; userId <= 500; userId++) {
+            userRepository.importUser(new User(userId, "user" + userId, "hash" + userId, Role.USER));
+        }
+        long used = arena.getUsedBytes();
+        long reserved = arena.getReservedBytes();
+
+        for (int userId = 1; userId <= 500; userId++) {
+            userRepository.removeUser(userId);
+        }
+        assertEquals(0, arena.getUsedBytes());
+        assertNull(userRepository.getUserByUsername("user1"));
+        for (int userId = 501; userId <= 1000; userId++) {
+            userRepository.importUser(new User(userId, "user" + userId, "hash" + userId, Role.USER));
+        }
+        assertEquals(used, arena.getUsedBytes());
+        assertEquals(reserved, arena.getReservedBytes());
+        assertEquals("user777", userRepository.getUserById(777).getUsername());
+    }
+
+    private static UserRepository repository(UserArena arena) {
+        return new UserRepository(InMemoryStorage.INSTANCE, new PasswordHasher(1), new PasswordVerifier(),
+                new UserIdAllocator(), arena);
+    }
+
+    private static String importUser(UserRepository userRepository, User user) {
+        try {
+            userRepository.importUser(user);
+            return null;
+        } catch (AuthorizationException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static TreeSet<String> all(UserRepository userRepository) {
+        TreeSet<String> users = new TreeSet<>();
+        userRepository.forEachUser(user -> users.add(describe(user)));
+        return users;
+    }
+
+    private static List<String> describe(List<User> users) {
+        List<String> result = new ArrayList<>();
+        users.forEach(user -> result.add(describe(user)));
+        return result;
+    }
+
+    private static String describe(User user) {
+        return user == null ? null
+                : user.getId() + "|" + user.getUsername() + "|" + user.getPasswordHash() + "|" + user.getRole();
+    }
+}
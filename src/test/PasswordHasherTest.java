@@ -0,0 +1,180 @@
+package test;
+
+import exceptions.AuthorizationException;
+import exceptions.ServiceOverloadedException;
+import org.junit.Test;
+import storage.InMemoryStorage;
+import users.PasswordHasher;
+import users.PasswordVerifier;
+import users.Role;
+import users.User;
+import users.UserRepository;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Тесты хэширования и проверки паролей.
+ */
+public class PasswordHasherTest {
+    private final PasswordHasher hasher = new PasswordHasher(1_000);
+
+    /**
+     * Один и тот же пароль дает разные хэши из-за соли, и каждый из них проходит проверку.
+     */
+    @Test
+    public void testHashIsSaltedAndVerifiable() {
+        String first = hasher.hash("password");
+        String second = hasher.hash("password");
+
+        assertNotEquals(first, second);
+        assertTrue(PasswordHasher.verify("password", first));
+        assertTrue(PasswordHasher.verify("password", second));
+        assertFalse(PasswordHasher.verify("Password", first));
+        assertFalse(PasswordHasher.verify("password", "password"));
+    }
+
+    /**
+     * Репозиторий хранит только хэш, не выводит пароль и отклоняет неверный пароль после успешного входа,
+     * попавшего в кэш проверок.
+     */
+    @Test
+    public void testRepositoryStoresOnlyHash() {
+        UserRepository userRepository = new UserRepository(InMemoryStorage.INSTANCE, hasher,
+                new PasswordVerifier(1, 16, Duration.ofMinutes(1), 100));
+        userRepository.registerUser("john_doe", "password", Role.USER);
+
+        User user = userRepository.authenticateUser("john_doe", "password");
+        assertTrue(PasswordHasher.isHash(user.getPasswordHash()));
+        assertFalse(user.toString().contains("password"));
+        assertEquals(user, userRepository.authenticateUser("john_doe", "password"));
+        try {
+            userRepository.authenticateUser("john_doe", "wrong");
+            fail("Неверный пароль должен быть отклонен.");
+        } catch (AuthorizationException expected) {
+            // ожидаемое поведение
+        }
+    }
+
+    /**
+     * Хэш нового пароля вычисляется не в вызывающем потоке, а на ограниченном пуле проверок.
+     */
+    @Test
+    public void testRegistrationHashesOnVerifierPool() {
+        List<String> threads = new CopyOnWriteArrayList<>();
+        PasswordHasher recordingHasher = new PasswordHasher(1_000) {
+            @Override
+            public String hash(String password) {
+                threads.add(Thread.currentThread().getName());
+                return super.hash(password);
+            }
+        };
+        UserRepository userRepository = new UserRepository(InMemoryStorage.INSTANCE, recordingHasher,
+                new PasswordVerifier(1, 16, Duration.ZERO, 100));
+        userRepository.registerUser("john_doe", "password", Role.USER);
+
+        assertEquals(1, threads.size());
+        assertTrue(threads.get(0), threads.get(0).startsWith("password-verifier-"));
+        assertEquals("john_doe", userRepository.authenticateUser("john_doe", "password").getUsername());
+    }
+
+    /**
+     * Переполнение очереди отклоняется {@link ServiceOverloadedException}, а не ошибкой авторизации.
+     */
+    @Test
+    public void testOverloadIsNotAnAuthorizationFailure() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        PasswordHasher blockingHasher = new PasswordHasher(1_000) {
+            @Override
+            public String hash(String password) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.hash(password);
+            }
+        };
+        UserRepository userRepository = new UserRepository(InMemoryStorage.INSTANCE, blockingHasher,
+                new PasswordVerifier(1, 1, Duration.ZERO, 100));
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<?> first = executor.submit(() -> userRepository.registerUser("first", "password", Role.USER));
+            started.await();
+            // единственный поток занят первой регистрацией: из двух следующих одна встает в очередь,
+            // а другая отклоняется сразу
+            List<Future<?>> waiting = Arrays.asList(
+                    executor.submit(() -> userRepository.registerUser("second", "password", Role.USER)),
+                    executor.submit(() -> userRepository.registerUser("third", "password", Role.USER)));
+            Future<?> rejected = null;
+            while (rejected == null) {
+                for (Future<?> future : waiting) {
+                    if (future.isDone()) {
+                        rejected = future;
+                    }
+                }
+                Thread.sleep(1);
+            }
+            try {
+                rejected.get();
+                fail("Регистрация без свободного места в очереди должна быть отклонена.");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ServiceOverloadedException);
+            }
+            release.countDown();
+            first.get(10, TimeUnit.SECONDS);
+            for (Future<?> future : waiting) {
+                if (future != rejected) {
+                    future.get(10, TimeUnit.SECONDS);
+                }
+            }
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+        assertEquals("first", userRepository.authenticateUser("first", "password").getUsername());
+    }
+
+    /**
+     * Для неизвестного имени пароль проверяется по фиктивному хэшу, вычисленному один раз.
+     */
+    @Test
+    public void testUnknownUserIsCheckedAgainstDummyHash() {
+        List<String> hashed = new CopyOnWriteArrayList<>();
+        PasswordHasher recordingHasher = new PasswordHasher(1_000) {
+            @Override
+            public String hash(String password) {
+                hashed.add(password);
+                return super.hash(password);
+            }
+        };
+        UserRepository userRepository = new UserRepository(InMemoryStorage.INSTANCE, recordingHasher,
+                new PasswordVerifier(1, 16, Duration.ZERO, 100));
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                userRepository.authenticateUser("nobody", "password");
+                fail("Неизвестное имя должно быть отклонено.");
+            } catch (AuthorizationException expected) {
+                // ожидаемое поведение
+            }
+        }
+        assertEquals(1, hashed.size());
+        assertNotEquals("password", hashed.get(0));
+    }
+}
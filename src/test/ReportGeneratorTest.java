@@ -0,0 +1,89 @@
+package test;
+
+import counters.CounterService;
+import counters.CounterType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import reports.ReportFormat;
+import reports.ReportGenerator;
+import storage.InMemoryStorage;
+import users.PasswordHasher;
+import users.PasswordVerifier;
+import users.Role;
+import users.User;
+import users.UserRepository;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.YearMonth;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Тесты параллельной выгрузки показаний.
+ */
+public class ReportGeneratorTest {
+    private static final int USERS = 500;
+
+    private CounterService counterService;
+    private ReportGenerator reportGenerator;
+
+    @Before
+    public void setUp() {
+        UserRepository userRepository = new UserRepository(InMemoryStorage.INSTANCE, new PasswordHasher(1),
+                new PasswordVerifier());
+        counterService = new CounterService();
+        for (int i = 0; i < USERS; i++) {
+            userRepository.registerUser("user" + i, "password", Role.USER);
+            User user = userRepository.getUserByUsername("user" + i);
+            for (int month = 1; month <= 12; month++) {
+                counterService.submitCounterReading(user, CounterType.HEATING, YearMonth.of(2024, month), month * 10);
+            }
+        }
+        userRepository.registerUser("a,\"b\"", "password", Role.USER);
+        counterService.submitCounterReading(userRepository.getUserByUsername("a,\"b\""), CounterType.COLD_WATER,
+                YearMonth.of(2024, 1), 7);
+        reportGenerator = new ReportGenerator(counterService, userRepository, 4);
+    }
+
+    @After
+    public void tearDown() {
+        reportGenerator.close();
+    }
+
+    /**
+     * CSV содержит заголовок и ровно по одной строке на показание, имена с запятыми экранируются.
+     */
+    @Test
+    public void testCsvContainsEveryReadingOnce() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long rows = reportGenerator.generate(out, ReportFormat.CSV, null, null);
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(USERS * 12 + 1, rows);
+        assertEquals("user_id,username,counter_type,month,value", lines[0]);
+        String[] body = Arrays.copyOfRange(lines, 1, lines.length);
+        assertEquals(rows, body.length);
+        assertEquals(rows, Arrays.stream(body).distinct().count());
+        assertTrue(Arrays.asList(body).contains("1,user0,HEATING,2024-03,30"));
+        assertTrue(Arrays.asList(body).contains((USERS + 1) + ",\"a,\"\"b\"\"\",COLD_WATER,2024-01,7"));
+    }
+
+    /**
+     * Выгрузка в JSON Lines учитывает диапазон месяцев.
+     */
+    @Test
+    public void testJsonLinesForMonthRange() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long rows = reportGenerator.generate(out, ReportFormat.JSON, YearMonth.of(2024, 11), YearMonth.of(2024, 12));
+
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(USERS * 2, rows);
+        assertEquals(rows, lines.length);
+        assertTrue(Arrays.asList(lines).contains(
+                "{\"userId\":2,\"username\":\"user1\",\"counterType\":\"HEATING\",\"month\":\"2024-12\",\"value\":120}"));
+    }
+}
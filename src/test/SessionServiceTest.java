@@ -0,0 +1,62 @@
+package test;
+
+import exceptions.AuthorizationException;
+import org.junit.Test;
+import session.Session;
+import session.SessionService;
+import users.Role;
+import users.User;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Тесты выдачи и проверки токенов {@link SessionService}.
+ */
+public class SessionServiceTest {
+    private static final byte[] SECRET = new byte[32];
+
+    /**
+     * Токен, выданный одним узлом, принимается другим узлом с тем же секретом.
+     */
+    @Test
+    public void testTokenAcceptedByNodeWithSameSecret() {
+        SessionService issuer = new SessionService(SECRET, Duration.ofMinutes(5), Duration.ofMinutes(1), 100);
+        SessionService verifier = new SessionService(SECRET, Duration.ofMinutes(5), Duration.ofMinutes(1), 100);
+
+        Session session = verifier.validate(issuer.issueToken(new User(42, "admin", "secret", Role.ADMIN)));
+
+        assertEquals(42, session.getUserId());
+        assertEquals(Role.ADMIN, session.getRole());
+    }
+
+    /**
+     * Токены, подписанные другим секретом, и истекшие токены отклоняются.
+     */
+    @Test
+    public void testForeignAndExpiredTokensRejected() {
+        byte[] otherSecret = Arrays.copyOf(SECRET, SECRET.length);
+        otherSecret[0] = 1;
+        SessionService service = new SessionService(SECRET, Duration.ofMinutes(5), Duration.ofMinutes(1), 100);
+        SessionService foreign = new SessionService(otherSecret, Duration.ofMinutes(5), Duration.ofMinutes(1), 100);
+        SessionService expired = new SessionService(SECRET, Duration.ofMillis(-1), Duration.ofMinutes(1), 100);
+        User user = new User(7, "user", "secret", Role.USER);
+
+        assertRejected(service, foreign.issueToken(user));
+        assertRejected(service, expired.issueToken(user));
+        assertRejected(service, "not-a-token");
+        assertRejected(service, null);
+    }
+
+    private static void assertRejected(SessionService service, String token) {
+        try {
+            service.validate(token);
+            fail("Токен должен быть отклонен: " + token);
+        } catch (AuthorizationException expected) {
+            // ожидаемое поведение
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package test;
+
+import counters.BatchResult;
+import counters.CounterService;
+import counters.CounterType;
+import counters.ReadingSubmission;
+import exceptions.AuthorizationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sharding.LocalShard;
+import sharding.Shard;
+import sharding.ShardRouter;
+import storage.Durability;
+import storage.FileStorage;
+import storage.InMemoryStorage;
+import users.PasswordHasher;
+import users.PasswordVerifier;
+import users.Role;
+import users.User;
+import users.UserRepository;
+
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Тесты маршрутизации по нескольким шардам в одном процессе.
+ */
+public class ShardRouterTest {
+    private static final int USERS = 400;
+    private static final YearMonth MONTH = YearMonth.of(2024, 1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ShardRouter router;
+
+    @Before
+    public void setUp() {
+        router = new ShardRouter(Arrays.asList(shard("shard-0"), shard("shard-1"), shard("shard-2")));
+        for (int i = 0; i < USERS; i++) {
+            router.registerUser("user" + i, "password", Role.USER);
+            int userId = router.getUserByUsername("user" + i).getId();
+            router.submitCounterReading(userId, CounterType.HEATING, MONTH, i + 1);
+            router.submitCounterReading(userId, CounterType.HEATING, MONTH.plusMonths(1), i + 2);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        router.close();
+    }
+
+    /**
+     * Пользователи распределены по всем шардам, каждый хранится только в своем, а имена уникальны между шардами.
+     */
+    @Test
+    public void testUsersArePartitioned() {
+        for (Shard shard : router.getShards()) {
+            AtomicInteger users = new AtomicInteger();
+            shard.forEachUser(user -> {
+                assertSame(shard, router.shardFor(user.getId()));
+                users.incrementAndGet();
+            });
+            assertTrue(shard + ": " + users, users.get() > USERS / 6);
+        }
+        assertEquals(Integer.valueOf(USERS), router.fanOut(ShardRouterTest::countUsers, Integer::sum));
+
+        User user = router.authenticateUser("user7", "password");
+        assertEquals(9, router.getLatestCounterReading(user.getId(), CounterType.HEATING));
+        try {
+            router.registerUser("user7", "other", Role.USER);
+            fail();
+        } catch (AuthorizationException expected) {
+            // имя занято в другом шарде
+        }
+    }
+
+    /**
+     * Пакет делится по шардам, а результат собирается в исходном порядке.
+     */
+    @Test
+    public void testBatchSpansShards() {
+        List<ReadingSubmission> batch = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            int userId = router.getUserByUsername("user" + i).getId();
+            // у нечетных пользователей месяц уже занят
+            batch.add(new ReadingSubmission(userId, CounterType.HEATING, MONTH.plusMonths(i % 2 == 0 ? 2 : 1), 1000));
+        }
+        batch.add(null);
+        BatchResult result = router.submitCounterReadings(batch);
+        assertEquals(USERS + 1, result.size());
+        assertEquals(USERS / 2, result.getAcceptedCount());
+        for (int i = 0; i < USERS; i++) {
+            assertEquals(i % 2 == 0, result.isAccepted(i));
+        }
+        assertFalse(result.isAccepted(USERS));
+    }
+
+    /**
+     * При добавлении шарда переносится примерно четверть пользователей вместе с показаниями, и все данные
+     * остаются доступны через маршрутизатор.
+     */
+    @Test
+    public void testAddShardMovesOnlyItsUsers() {
+        LocalShard added = shard("shard-3");
+        int moved = router.addShard(added);
+        assertTrue(String.valueOf(moved), moved > USERS / 8 && moved < USERS / 2);
+        assertEquals(Integer.valueOf(moved), countUsers(added));
+        assertEquals(Integer.valueOf(USERS), router.fanOut(ShardRouterTest::countUsers, Integer::sum));
+
+        AtomicInteger readings = new AtomicInteger();
+        router.forEachReading((userId, counterType, epochMonth, value) -> readings.incrementAndGet());
+        assertEquals(USERS * 2, readings.get());
+        for (int i = 0; i < USERS; i++) {
+            User user = router.authenticateUser("user" + i, "password");
+            assertEquals(i + 2, router.getLatestCounterReading(user.getId(), CounterType.HEATING));
+            assertEquals(2, router.getCounterHistory(user.getId(), CounterType.HEATING, MONTH,
+                    MONTH.plusMonths(1)).size());
+            for (Shard shard : router.getShards()) {
+                if (shard != router.shardFor(user.getId())) {
+                    assertNull(shard.getUserById(user.getId()));
+                    assertEquals(0, shard.getLatestCounterReading(user.getId(), CounterType.HEATING));
+                }
+            }
+        }
+        int userId = router.getUserByUsername("user0").getId();
+        router.submitCounterReading(userId, CounterType.HEATING, MONTH.plusMonths(2), 100);
+        assertEquals(100, router.getLatestCounterReading(userId, CounterType.HEATING));
+        assertNotNull(router.shardFor(userId).getUserById(userId));
+    }
+
+    /**
+     * Перенос сохраняется в обоих шардах: после перезапуска пользователь есть только в своем шарде. Если узел
+     * остановился между добавлением в новый шард и удалением из старого, перенос повторяется при запуске.
+     */
+    @Test
+    public void testMovesSurviveRestart() throws Exception {
+        Path[] directories = {folder.newFolder("shard-0").toPath(), folder.newFolder("shard-1").toPath(),
+                folder.newFolder("shard-2").toPath()};
+        int userId;
+        int sourceIndex;
+        try (FileStorage storage0 = new FileStorage(directories[0], Durability.WRITE);
+             FileStorage storage1 = new FileStorage(directories[1], Durability.WRITE);
+             FileStorage storage2 = new FileStorage(directories[2], Durability.WRITE)) {
+            List<LocalShard> shards = Arrays.asList(shard("shard-0", storage0), shard("shard-1", storage1));
+            try (ShardRouter fileRouter = new ShardRouter(new ArrayList<>(shards))) {
+                for (int i = 0; i < 60; i++) {
+                    fileRouter.registerUser("user" + i, "password", Role.USER);
+                    fileRouter.submitCounterReading(fileRouter.getUserByUsername("user" + i).getId(),
+                            CounterType.HEATING, MONTH, i + 1);
+                }
+                LocalShard added = shard("shard-2", storage2);
+                assertTrue(fileRouter.addShard(added) > 0);
+
+                // сбой посреди переноса: пользователь уже добавлен в новый шард, но еще есть в старом
+                userId = -1;
+                for (int i = 0; i < 60 && userId < 0; i++) {
+                    int candidate = fileRouter.getUserByUsername("user" + i).getId();
+                    if (fileRouter.shardFor(candidate) == added) {
+                        userId = candidate;
+                    }
+                }
+                assertTrue(userId >= 0);
+                sourceIndex = 0;
+                shards.get(sourceIndex).importUser(added.exportUser(userId));
+            }
+        }
+
+        try (FileStorage storage0 = new FileStorage(directories[0], Durability.WRITE);
+             FileStorage storage1 = new FileStorage(directories[1], Durability.WRITE);
+             FileStorage storage2 = new FileStorage(directories[2], Durability.WRITE)) {
+            List<Shard> shards = Arrays.asList(shard("shard-0", storage0), shard("shard-1", storage1),
+                    shard("shard-2", storage2));
+            try (ShardRouter restarted = new ShardRouter(shards)) {
+                assertEquals(Integer.valueOf(60), restarted.fanOut(ShardRouterTest::countUsers, Integer::sum));
+                assertNull(shards.get(sourceIndex).getUserById(userId));
+                assertNotNull(restarted.shardFor(userId).getUserById(userId));
+                for (int i = 0; i < 60; i++) {
+                    User user = restarted.authenticateUser("user" + i, "password");
+                    assertEquals(i + 1, restarted.getLatestCounterReading(user.getId(), CounterType.HEATING));
+                    for (Shard shard : shards) {
+                        if (shard != restarted.shardFor(user.getId())) {
+                            assertNull(shard.getUserById(user.getId()));
+                            assertEquals(0, shard.getLatestCounterReading(user.getId(), CounterType.HEATING));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static Integer countUsers(Shard shard) {
+        AtomicInteger users = new AtomicInteger();
+        shard.forEachUser(user -> users.incrementAndGet());
+        return users.get();
+    }
+
+    private static LocalShard shard(String name) {
+        return new LocalShard(name,
+                new UserRepository(InMemoryStorage.INSTANCE, new PasswordHasher(1), new PasswordVerifier()),
+                new CounterService());
+    }
+
+    private static LocalShard shard(String name, FileStorage storage) {
+        return new LocalShard(name, new UserRepository(storage, new PasswordHasher(1), new PasswordVerifier()),
+                new CounterService(storage));
+    }
+}
@@ -0,0 +1,149 @@
+package test;
+
+import analytics.ConsumptionAnalytics;
+import counters.CounterService;
+import counters.CounterType;
+import counters.ReadingSubmission;
+import org.junit.Test;
+import storage.InMemoryStorage;
+import users.Role;
+import users.User;
+import users.UserRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Тесты поведения сервисов при ошибке хранилища: изменение, которое не удалось сохранить, не должно
+ * оставаться в памяти, иначе оно пропало бы после перезапуска, а повторная подача была бы отклонена.
+ */
+public class StoreFailureTest {
+    private static final YearMonth JANUARY = YearMonth.of(2024, 1);
+
+    private final FailingStorage storage = new FailingStorage();
+
+    @Test
+    public void testFailedAppendIsNotApplied() {
+        CounterService counterService = new CounterService(storage);
+        storage.failing = true;
+        try {
+            counterService.submitCounterReading(1, CounterType.HEATING, JANUARY, 100);
+            fail();
+        } catch (UncheckedIOException e) {
+            // ошибка хранилища передается вызывающему
+        }
+        assertTrue(counterService.getCounterHistory(1, CounterType.HEATING).isEmpty());
+        assertEquals(0, counterService.getLatestCounterReading(1, CounterType.HEATING));
+
+        storage.failing = false;
+        assertNull(counterService.trySubmitCounterReading(1, CounterType.HEATING, JANUARY, 100));
+        assertEquals(100, counterService.getLatestCounterReading(1, CounterType.HEATING));
+    }
+
+    @Test
+    public void testFailedAsyncAppendIsReverted() {
+        CounterService counterService = new CounterService(storage);
+        ConsumptionAnalytics analytics = ConsumptionAnalytics.attach(counterService);
+        counterService.submitCounterReading(1, CounterType.HEATING, JANUARY, 100);
+        counterService.submitCounterReading(1, CounterType.HEATING, JANUARY.plusMonths(2), 300);
+
+        storage.pending = new CompletableFuture<>();
+        CompletableFuture<Void> result = counterService.submitCounterReadingAsync(1, CounterType.HEATING,
+                JANUARY.plusMonths(1), 150);
+        assertEquals(3, counterService.getCounterHistory(1, CounterType.HEATING).size());
+        assertEquals(2, analytics.getTotalStats(CounterType.HEATING).getCount());
+
+        storage.pending.completeExceptionally(new UncheckedIOException(new IOException("disk full")));
+        assertTrue(result.isCompletedExceptionally());
+        assertFalse(counterService.getCounterHistory(1, CounterType.HEATING).containsKey(JANUARY.plusMonths(1)));
+        assertEquals(1, analytics.getTotalStats(CounterType.HEATING).getCount());
+        assertEquals(200, analytics.getTotalStats(CounterType.HEATING).getTotal());
+
+        storage.pending = null;
+        assertNull(counterService.trySubmitCounterReading(1, CounterType.HEATING, JANUARY.plusMonths(1), 150));
+    }
+
+    @Test
+    public void testFailedBatchIsReverted() {
+        CounterService counterService = new CounterService(storage);
+        counterService.submitCounterReading(1, CounterType.HEATING, JANUARY, 100);
+        storage.failing = true;
+        try {
+            counterService.submitCounterReadings(Arrays.asList(
+                    new ReadingSubmission(1, CounterType.HEATING, JANUARY.plusMonths(1), 150),
+                    new ReadingSubmission(2, CounterType.HOT_WATER, JANUARY, 10)));
+            fail();
+        } catch (UncheckedIOException e) {
+            // пакет не сохранен целиком
+        }
+        assertEquals(1, counterService.getCounterHistory(1, CounterType.HEATING).size());
+        assertEquals(100, counterService.getLatestCounterReading(1, CounterType.HEATING));
+        assertTrue(counterService.getCounterHistory(2, CounterType.HOT_WATER).isEmpty());
+    }
+
+    @Test
+    public void testFailedUserSaveIsReverted() {
+        UserRepository userRepository = new UserRepository(storage);
+        storage.failing = true;
+        try {
+            userRepository.registerUser("john_doe", "password", Role.USER);
+            fail();
+        } catch (UncheckedIOException e) {
+            // ошибка хранилища передается вызывающему
+        }
+        assertNull(userRepository.getUserByUsername("john_doe"));
+
+        storage.failing = false;
+        userRepository.registerUser("john_doe", "password", Role.USER);
+        User user = userRepository.getUserByUsername("john_doe");
+        assertNotNull(user);
+        assertEquals(user, userRepository.getUserById(user.getId()));
+    }
+
+    /**
+     * Хранилище, в котором запись можно сделать неудачной.
+     */
+    private static final class FailingStorage extends InMemoryStorage {
+        private volatile boolean failing;
+        private volatile CompletableFuture<Void> pending;
+
+        @Override
+        public void saveUser(User user) {
+            check();
+        }
+
+        @Override
+        public void appendReading(int userId, CounterType counterType, int epochMonth, int value) {
+            check();
+        }
+
+        @Override
+        public CompletableFuture<Void> appendReadingAsync(int userId, CounterType counterType, int epochMonth,
+                                                          int value) {
+            CompletableFuture<Void> future = pending;
+            return future != null ? future : super.appendReadingAsync(userId, counterType, epochMonth, value);
+        }
+
+        @Override
+        public void appendReadings(int[] userIds, CounterType[] counterTypes, int[] epochMonths, int[] values,
+                                   int count) {
+            check();
+        }
+
+        private void check() {
+            if (failing) {
+                throw new UncheckedIOException(new IOException("disk full"));
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package test;
+
+import org.junit.Test;
+import storage.InMemoryStorage;
+import users.PasswordHasher;
+import users.PasswordVerifier;
+import users.Role;
+import users.User;
+import users.UserIdAllocator;
+import users.UserRepository;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Тесты выдачи идентификаторов пользователей и поиска по ним.
+ */
+public class UserIdAllocatorTest {
+    /**
+     * Параллельная регистрация выдает плотные идентификаторы без повторов, и каждый находится по идентификатору.
+     */
+    @Test
+    public void testConcurrentRegistrationGetsDenseIds() throws InterruptedException {
+        int users = 10_000;
+        UserRepository userRepository = new UserRepository(InMemoryStorage.INSTANCE, new PasswordHasher(1),
+                new PasswordVerifier());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < users; i++) {
+            String username = "user" + i;
+            executor.execute(() -> userRepository.registerUser(username, "password", Role.USER));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        boolean[] seen = new boolean[users + 1];
+        for (int i = 0; i < users; i++) {
+            User user = userRepository.getUserByUsername("user" + i);
+            assertFalse(seen[user.getId()]);
+            seen[user.getId()] = true;
+            assertSame(user, userRepository.getUserById(user.getId()));
+        }
+    }
+
+    /**
+     * Узлы выдают идентификаторы из непересекающихся диапазонов, а после восстановления выдача продолжается
+     * за последним известным идентификатором.
+     */
+    @Test
+    public void testNodeRangesAndRecovery() {
+        UserIdAllocator first = new UserIdAllocator(0);
+        UserIdAllocator second = new UserIdAllocator(1);
+        int secondId = second.nextId();
+
+        assertEquals(1, first.nextId());
+        assertEquals(UserIdAllocator.IDS_PER_NODE + 1, secondId);
+        assertFalse(first.owns(secondId));
+
+        first.observe(41);
+        first.observe(secondId);
+        assertEquals(42, first.nextId());
+    }
+}
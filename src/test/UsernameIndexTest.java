@@ -0,0 +1,150 @@
+package test;
+
+import exceptions.AuthorizationException;
+import org.junit.Test;
+import storage.InMemoryStorage;
+import users.PasswordHasher;
+import users.PasswordVerifier;
+import users.Role;
+import users.User;
+import users.UserRepository;
+import users.UsernameIndex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Тесты индекса пользователей по имени.
+ */
+public class UsernameIndexTest {
+    private static final String[] PARTS = {"an", "ann", "Anna", "b", "bo", "Bob", "bob", "ob", "x"};
+
+    /**
+     * Точный поиск, поиск без учета регистра и по префиксу совпадают с полным перебором после случайной
+     * последовательности вставок и удалений, делящих и сливающих ребра дерева.
+     */
+    @Test
+    public void testLookupsMatchBruteForce() {
+        Map<Integer, String> usernames = new HashMap<>();
+        UsernameIndex index = new UsernameIndex(usernames::get);
+        TreeMap<String, Integer> expected = new TreeMap<>();
+        Random random = new Random(42);
+        for (int step = 0; step < 20_000; step++) {
+            String username = PARTS[random.nextInt(PARTS.length)] + PARTS[random.nextInt(PARTS.length)]
+                    + (random.nextBoolean() ? PARTS[random.nextInt(PARTS.length)] : "");
+            Integer existing = expected.get(username);
+            if (existing == null) {
+                usernames.put(step + 1, username);
+                assertTrue(index.putIfAbsent(step + 1, username));
+                expected.put(username, step + 1);
+            } else if (random.nextBoolean()) {
+                usernames.put(step + 1, username);
+                assertFalse(index.putIfAbsent(step + 1, username));
+                usernames.remove(step + 1);
+            } else {
+                assertTrue(index.remove(existing, username));
+                assertFalse(index.remove(existing, username));
+                expected.remove(username);
+                usernames.remove(existing);
+            }
+        }
+        assertEquals(expected.size(), index.size());
+
+        for (String username : expected.keySet()) {
+            int[] candidates = index.getIgnoreCase(username);
+            int found = 0;
+            for (int userId : candidates) {
+                if (username.equals(usernames.get(userId))) {
+                    assertEquals(expected.get(username).intValue(), userId);
+                    found++;
+                }
+            }
+            assertEquals(1, found);
+            assertEquals(count(expected, username, false), index.getIgnoreCase(username.toUpperCase(Locale.ROOT)).length);
+        }
+        for (String first : PARTS) {
+            for (String prefix : new String[]{first, first.substring(0, 1), first + "a", first.toUpperCase(Locale.ROOT)}) {
+                int[] found = index.findByPrefix(prefix, Integer.MAX_VALUE);
+                assertEquals(prefix, count(expected, prefix, true), found.length);
+                for (int i = 1; i < found.length; i++) {
+                    String previous = usernames.get(found[i - 1]).toLowerCase(Locale.ROOT);
+                    String current = usernames.get(found[i]).toLowerCase(Locale.ROOT);
+                    assertTrue(previous.compareTo(current) <= 0);
+                }
+                assertEquals(Math.min(3, found.length), index.findByPrefix(prefix, 3).length);
+            }
+        }
+        assertEquals(expected.size(), index.findByPrefix("", Integer.MAX_VALUE).length);
+    }
+
+    /**
+     * При одновременной регистрации одного имени из нескольких потоков регистрируется ровно один пользователь,
+     * а читатели во время регистрации находят всех уже зарегистрированных.
+     */
+    @Test
+    public void testConcurrentRegistrationIsUnique() throws Exception {
+        UserRepository userRepository = new UserRepository(InMemoryStorage.INSTANCE, new PasswordHasher(1),
+                new PasswordVerifier());
+        int names = 500;
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger registered = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < names; i++) {
+                    try {
+                        userRepository.registerUser("user" + i, "password", Role.USER);
+                        registered.incrementAndGet();
+                    } catch (AuthorizationException expected) {
+                        // имя уже занято другим потоком
+                    }
+                    for (int j = 0; j <= i; j += 50) {
+                        User user = userRepository.getUserByUsername("user" + j);
+                        if (user != null) {
+                            assertEquals("user" + j, user.getUsername());
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(names, registered.get());
+        assertEquals(111, userRepository.findUsersByPrefix("USER1", Integer.MAX_VALUE).size());
+    }
+
+    private static int count(TreeMap<String, Integer> users, String key, boolean prefix) {
+        String folded = key.toLowerCase(Locale.ROOT);
+        int count = 0;
+        for (String username : users.keySet()) {
+            String name = username.toLowerCase(Locale.ROOT);
+            if (prefix ? name.startsWith(folded) : name.equals(folded)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,102 @@
+package test;
+
+import counters.BatchResult;
+import counters.CounterService;
+import counters.CounterType;
+import counters.ReadingSubmission;
+import counters.RejectionCode;
+import counters.ValidationRules;
+import exceptions.CounterSubmissionException;
+import org.junit.Test;
+
+import java.time.YearMonth;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Тесты правил проверки подаваемых показаний {@link ValidationRules}.
+ */
+public class ValidationRulesTest {
+    private static final YearMonth JANUARY = YearMonth.of(2024, 1);
+
+    private final CounterService counterService = new CounterService();
+
+    /**
+     * Правила по умолчанию отклоняют отрицательные и убывающие показания, а нулевое показание занимает месяц.
+     */
+    @Test
+    public void testDefaultRules() {
+        assertEquals(RejectionCode.OUT_OF_RANGE, submit(1, JANUARY, -1));
+        assertNull(submit(1, JANUARY, 0));
+        assertEquals(RejectionCode.DUPLICATE_MONTH, submit(1, JANUARY, 10));
+        assertNull(submit(1, JANUARY.plusMonths(2), 50));
+        assertEquals(RejectionCode.LESS_THAN_PREVIOUS, submit(1, JANUARY.plusMonths(3), 40));
+        assertEquals(RejectionCode.GREATER_THAN_NEXT, submit(1, JANUARY.plusMonths(1), 60));
+        assertNull(submit(1, JANUARY.plusMonths(1), 20));
+        assertEquals(0, (int) counterService.getCounterHistory(1, CounterType.HEATING).get(JANUARY));
+
+        try {
+            counterService.submitCounterReading(1, CounterType.HEATING, JANUARY, 5);
+            fail();
+        } catch (CounterSubmissionException e) {
+            assertEquals(RejectionCode.DUPLICATE_MONTH, e.getCode());
+            assertEquals(RejectionCode.DUPLICATE_MONTH.getMessage(), e.getMessage());
+        }
+    }
+
+    /**
+     * Ограничения задаются по типу счетчика, расход ограничивается с учетом пропущенных месяцев,
+     * а подключенное правило проверяется после встроенных.
+     */
+    @Test
+    public void testPerTypeRules() {
+        counterService.setValidationRules(ValidationRules.DEFAULT
+                .withBounds(CounterType.HEATING, 0, 1_000)
+                .withMaxMonthlyDelta(CounterType.HEATING, 100)
+                .withMonotonic(CounterType.COLD_WATER, false)
+                .withRule((counterType, epochMonth, value, previousMonth, previousValue, nextMonth, nextValue) ->
+                        value % 2 != 0 ? RejectionCode.RULE_VIOLATION : null));
+
+        assertEquals(RejectionCode.OUT_OF_RANGE, submit(1, JANUARY, 1_002));
+        assertNull(submit(1, JANUARY, 100));
+        assertEquals(RejectionCode.DELTA_TOO_LARGE, submit(1, JANUARY.plusMonths(1), 202));
+        assertNull(submit(1, JANUARY.plusMonths(3), 400));
+        assertEquals(RejectionCode.DELTA_TOO_LARGE, submit(1, JANUARY.plusMonths(1), 150));
+        assertNull(submit(1, JANUARY.plusMonths(1), 200));
+        assertEquals(RejectionCode.RULE_VIOLATION, submit(1, JANUARY.plusMonths(4), 401));
+
+        assertNull(counterService.trySubmitCounterReading(1, CounterType.COLD_WATER, JANUARY, 5_000));
+        assertNull(counterService.trySubmitCounterReading(1, CounterType.COLD_WATER, JANUARY.plusMonths(1), 10));
+        assertEquals(RejectionCode.OUT_OF_RANGE,
+                counterService.trySubmitCounterReading(1, CounterType.HOT_WATER, JANUARY, -2));
+    }
+
+    /**
+     * Пакетная подача проверяется теми же правилами и возвращает коды отклонения.
+     */
+    @Test
+    public void testBatchRejectionCodes() {
+        counterService.setValidationRules(ValidationRules.DEFAULT.withMaxMonthlyDelta(CounterType.HEATING, 100));
+        BatchResult result = counterService.submitCounterReadings(Arrays.asList(
+                new ReadingSubmission(1, CounterType.HEATING, JANUARY, 100),
+                new ReadingSubmission(1, CounterType.HEATING, JANUARY.plusMonths(1), 500),
+                new ReadingSubmission(1, CounterType.HEATING, JANUARY, 0),
+                new ReadingSubmission(1, CounterType.HEATING, JANUARY.plusMonths(1), -1),
+                new ReadingSubmission(1, null, JANUARY, 1)));
+
+        assertEquals(1, result.getAcceptedCount());
+        assertNull(result.getRejectionCode(0));
+        assertEquals(RejectionCode.DELTA_TOO_LARGE, result.getRejectionCode(1));
+        assertEquals(RejectionCode.DUPLICATE_MONTH, result.getRejectionCode(2));
+        assertEquals(RejectionCode.OUT_OF_RANGE, result.getRejectionCode(3));
+        assertEquals(RejectionCode.INVALID, result.getRejectionCode(4));
+        assertEquals(RejectionCode.INVALID.getMessage(), result.getError(4));
+    }
+
+    private RejectionCode submit(int userId, YearMonth yearMonth, int value) {
+        return counterService.trySubmitCounterReading(userId, CounterType.HEATING, yearMonth, value);
+    }
+}
@@ -0,0 +1,110 @@
+package users;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Хэширование паролей алгоритмом PBKDF2-HMAC-SHA256 со случайной солью.
+ * <p>
+ * Хэш хранится в виде строки {@code pbkdf2-sha256$<итерации>$<соль>$<хэш>} (соль и хэш в base64), поэтому
+ * проверка не зависит от текущих настроек: увеличение числа итераций действует на новые пароли, а старые
+ * хэши продолжают проверяться со своими параметрами.
+ */
+public class PasswordHasher {
+    /**
+     * Число итераций по умолчанию, рекомендация OWASP для PBKDF2-HMAC-SHA256.
+     */
+    public static final int DEFAULT_ITERATIONS = 600_000;
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Создает хэшер с числом итераций по умолчанию.
+     */
+    public PasswordHasher() {
+        this(DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * @param iterations Число итераций PBKDF2: чем больше, тем дороже подбор и каждая проверка пароля.
+     */
+    public PasswordHasher(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Число итераций должно быть положительным.");
+        }
+        this.iterations = iterations;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Вычисляет хэш пароля со случайной солью.
+     *
+     * @param password Пароль.
+     * @return Закодированный хэш.
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + '$' + encoder.encodeToString(salt) + '$'
+                + encoder.encodeToString(derive(password, salt, iterations));
+    }
+
+    /**
+     * Проверяет пароль по закодированному хэшу. Сравнение выполняется за постоянное время.
+     *
+     * @param password    Пароль.
+     * @param encodedHash Хэш, полученный из {@link #hash(String)}.
+     * @return {@code true}, если пароль верный.
+     */
+    public static boolean verify(String password, String encodedHash) {
+        if (password == null || !isHash(encodedHash)) {
+            return false;
+        }
+        String[] parts = encodedHash.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) {
+            return false;
+        }
+        try {
+            Base64.Decoder decoder = Base64.getDecoder();
+            byte[] expected = decoder.decode(parts[2]);
+            return MessageDigest.isEqual(expected, derive(password, decoder.decode(parts[1]), Integer.parseInt(parts[0])));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Проверяет, является ли строка хэшем в формате этого класса, а не паролем в открытом виде.
+     *
+     * @param value Строка.
+     * @return {@code true}, если это закодированный хэш.
+     */
+    public static boolean isHash(String value) {
+        return value != null && value.startsWith(PREFIX);
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
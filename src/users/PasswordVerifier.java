@@ -0,0 +1,187 @@
+package users;
+
+import exceptions.ServiceOverloadedException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Проверка паролей на выделенном ограниченном пуле потоков с кэшем недавних успешных проверок.
+ * <p>
+ * PBKDF2 намеренно дорог, поэтому всплеск входов не должен занимать все процессоры: проверки выполняются
+ * не более чем в {@code threads} потоках, а ожидающие проверки ставятся в очередь ограниченного размера.
+ * При переполнении очереди запрос сразу отклоняется {@link ServiceOverloadedException}. На том же пуле вычисляются хэши паролей при регистрации
+ * ({@link #hash}), чтобы всплеск регистраций тоже не выходил за его пределы.
+ * <p>
+ * Успешная проверка запоминается на {@code cacheTtl}: повторный вход с тем же паролем в течение этого
+ * времени не пересчитывает PBKDF2. В кэше хранится не пароль, а HMAC от него на случайном ключе процесса,
+ * привязанный к текущему хэшу пароля пользователя.
+ */
+public class PasswordVerifier {
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final ThreadPoolExecutor executor;
+    private final long cacheTtlMillis;
+    private final int cacheCapacity;
+    private final Map<Integer, CachedCheck> cache = new ConcurrentHashMap<>();
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * Создает проверяющего с пулом в половину доступных процессоров, очередью на 1024 проверки
+     * и кэшем на 30 секунд.
+     */
+    public PasswordVerifier() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), 1024, Duration.ofSeconds(30), 10_000);
+    }
+
+    /**
+     * @param threads       Максимальное число одновременных проверок.
+     * @param queueCapacity Максимальное число ожидающих проверок.
+     * @param cacheTtl      Время хранения успешной проверки; {@link Duration#ZERO} отключает кэш.
+     * @param cacheCapacity Максимальное число пользователей в кэше.
+     */
+    public PasswordVerifier(int threads, int queueCapacity, Duration cacheTtl, int cacheCapacity) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "password-verifier-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.cacheTtlMillis = cacheTtl.toMillis();
+        this.cacheCapacity = cacheCapacity;
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        SecretKeySpec keySpec = new SecretKeySpec(key, MAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(keySpec);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * Проверяет пароль пользователя, дожидаясь результата.
+     *
+     * @param user     Пользователь.
+     * @param password Пароль.
+     * @return {@code true}, если пароль верный.
+     * @throws ServiceOverloadedException Если очередь проверок переполнена или ожидание прервано.
+     */
+    public boolean verify(User user, String password) {
+        if (password == null) {
+            return false;
+        }
+        String passwordHash = user.getPasswordHash();
+        long now = System.currentTimeMillis();
+        byte[] fingerprint = null;
+        if (cacheTtlMillis > 0) {
+            fingerprint = fingerprint(user.getId(), password);
+            CachedCheck cached = cache.get(user.getId());
+            if (cached != null && now < cached.expiresAt && cached.passwordHash == passwordHash
+                    && MessageDigest.isEqual(cached.fingerprint, fingerprint)) {
+                return true;
+            }
+        }
+
+        boolean valid = awaitCheck(password, passwordHash);
+        if (valid && fingerprint != null) {
+            if (cache.size() >= cacheCapacity) {
+                evictExpired(now);
+            }
+            cache.put(user.getId(), new CachedCheck(passwordHash, fingerprint, now + cacheTtlMillis));
+        }
+        return valid;
+    }
+
+    /**
+     * Вычисляет хэш пароля нового пользователя на пуле проверок, дожидаясь результата.
+     *
+     * @param hasher   Хэширование паролей.
+     * @param password Пароль.
+     * @return Закодированный хэш.
+     * @throws ServiceOverloadedException Если очередь переполнена или ожидание прервано.
+     */
+    public String hash(PasswordHasher hasher, String password) {
+        return await(() -> hasher.hash(password));
+    }
+
+    private boolean awaitCheck(String password, String passwordHash) {
+        return await(() -> PasswordHasher.verify(password, passwordHash));
+    }
+
+    private <T> T await(Callable<T> task) {
+        Future<T> result;
+        try {
+            result = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            throw new ServiceOverloadedException("Слишком много запросов. Повторите позже.");
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ServiceOverloadedException("Проверка пароля прервана.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Ошибка хэширования пароля.", cause);
+        }
+    }
+
+    private byte[] fingerprint(int userId, String password) {
+        Mac mac = macs.get();
+        mac.update(new byte[]{(byte) (userId >>> 24), (byte) (userId >>> 16), (byte) (userId >>> 8), (byte) userId});
+        return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void evictExpired(long now) {
+        for (Iterator<CachedCheck> iterator = cache.values().iterator(); iterator.hasNext(); ) {
+            if (now >= iterator.next().expiresAt) {
+                iterator.remove();
+            }
+        }
+        if (cache.size() >= cacheCapacity) {
+            cache.clear();
+        }
+    }
+
+    private static final class CachedCheck {
+        private final String passwordHash;
+        private final byte[] fingerprint;
+        private final long expiresAt;
+
+        CachedCheck(String passwordHash, byte[] fingerprint, long expiresAt) {
+            this.passwordHash = passwordHash;
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -7,7 +7,7 @@ package users;
 public class User {
     private int id;
     private String username;
-    private String password;
+    private String passwordHash;
     private Role role;
 
     public int getId() {
@@ -26,12 +26,15 @@ public class User {
         this.username = username;
     }
 
-    public String getPassword() {
-        return password;
+    /**
+     * @return Хэш пароля в формате {@link PasswordHasher}.
+     */
+    public String getPasswordHash() {
+        return passwordHash;
     }
 
-    public void setPassword(String password) {
-        this.password = password;
+    public void setPasswordHash(String passwordHash) {
+        this.passwordHash = passwordHash;
     }
 
     public Role getRole() {
@@ -47,19 +50,30 @@ public class User {
         return "User{" +
                 "id=" + id +
                 ", username='" + username + '\'' +
-                ", password='" + password + '\'' +
                 ", role=" + role +
                 '}';
     }
 
+    /**
+     * Проверяет пароль по хэшу в вызывающем потоке. Для проверки при входе используйте {@link PasswordVerifier}.
+     *
+     * @param password Пароль.
+     * @return {@code true}, если пароль верный.
+     */
     public boolean authenticate(String password) {
-        return this.password.equals(password);
+        return PasswordHasher.verify(password, passwordHash);
     }
 
-    public User(int id, String username, String password, Role role) {
+    /**
+     * @param id           Идентификатор пользователя.
+     * @param username     Имя пользователя.
+     * @param passwordHash Хэш пароля в формате {@link PasswordHasher}.
+     * @param role         Роль пользователя.
+     */
+    public User(int id, String username, String passwordHash, Role role) {
         this.id = id;
         this.username = username;
-        this.password = password;
+        this.passwordHash = passwordHash;
         this.role = role;
     }
 }
@@ -0,0 +1,463 @@
+package users;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Хранение пользователей вне кучи, см. {@link UserRepository#UserRepository(storage.UserStore, PasswordHasher,
+ * PasswordVerifier, UserIdAllocator, UserArena)}.
+ * <p>
+ * Пользователь - запись фиксированной ширины {@value #RECORD_BYTES} байт
+ * {@code [идентификатор][роль][адрес имени][адрес хэша][длина имени][длина хэша]} в кусках записей; имя (UTF-16)
+ * и хэш пароля (UTF-8) лежат в блоках, на которые ссылается запись. Все куски выделяются
+ * {@link ByteBuffer#allocateDirect}. Записи не перемещаются, освобожденные записи и блоки (емкость блока -
+ * степень двойки) попадают в списки свободных, связанные через них самих. Поиск записи по идентификатору -
+ * таблица с открытой адресацией, тоже вне кучи. Объекты {@link User} создаются только при чтении и не хранятся.
+ * <p>
+ * Чтение выполняется под общей блокировкой, изменение - под исключительной: освобожденный блок может быть
+ * сразу выдан другому пользователю. Объем памяти ограничивается параметром JVM {@code -XX:MaxDirectMemorySize}.
+ */
+public final class UserArena {
+    /**
+     * Размер записи пользователя в байтах.
+     */
+    public static final int RECORD_BYTES = 32;
+    /**
+     * Размер куска памяти по умолчанию.
+     */
+    public static final int DEFAULT_CHUNK_BYTES = 4 << 20;
+
+    private static final long NONE = -1L;
+    private static final int NO_RECORD = -1;
+    private static final int FREE_ROLE = -1;
+    private static final int MIN_BLOCK_SHIFT = 4;
+    private static final int ROLE = 4;
+    private static final int USERNAME_BLOCK = 8;
+    private static final int HASH_BLOCK = 16;
+    private static final int USERNAME_LENGTH = 24;
+    private static final int HASH_LENGTH = 28;
+
+    private static final int ENTRY_BYTES = 8;
+    private static final int MIN_INDEX_CAPACITY = 64;
+    private static final int VISIT_BATCH = 64;
+    private static final Role[] ROLES = Role.values();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final int chunkBytes;
+    private final int recordsPerChunkShift;
+    private final long[] freeBlocks = new long[Integer.SIZE];
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+    private int chunkPosition;
+    private ByteBuffer[] recordChunks = new ByteBuffer[0];
+    private int recordCount;
+    private int freeRecord = NO_RECORD;
+    private long usedBytes;
+    private ByteBuffer index = allocateIndex(MIN_INDEX_CAPACITY);
+    private int indexCapacity = MIN_INDEX_CAPACITY;
+    private int size;
+
+    /**
+     * Создает арену с кусками по {@value #DEFAULT_CHUNK_BYTES} байт.
+     */
+    public UserArena() {
+        this(DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param chunkBytes Размер куска памяти; ограничивает и длину имени и хэша пароля.
+     */
+    public UserArena(int chunkBytes) {
+        if (chunkBytes < RECORD_BYTES || Integer.bitCount(chunkBytes) != 1) {
+            throw new IllegalArgumentException("Размер куска должен быть степенью двойки не меньше "
+                    + RECORD_BYTES + " байт.");
+        }
+        this.chunkBytes = chunkBytes;
+        this.recordsPerChunkShift = Integer.numberOfTrailingZeros(chunkBytes / RECORD_BYTES);
+        Arrays.fill(freeBlocks, NONE);
+    }
+
+    /**
+     * @return Количество пользователей.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Объем памяти вне кучи, занятый кусками арены и таблицей идентификаторов.
+     */
+    public long getReservedBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) (chunks.length + recordChunks.length) * chunkBytes + (long) indexCapacity * ENTRY_BYTES;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Объем памяти в занятых записях и блоках.
+     */
+    public long getUsedBytes() {
+        lock.readLock().lock();
+        try {
+            return usedBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param userId Идентификатор пользователя.
+     * @return Новый объект с данными пользователя или {@code null}, если его нет.
+     */
+    User get(int userId) {
+        lock.readLock().lock();
+        try {
+            int record = find(userId);
+            return record != NO_RECORD ? read(record) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param userId Идентификатор пользователя.
+     * @return Имя пользователя или {@code null}, если его нет.
+     */
+    String usernameOf(int userId) {
+        lock.readLock().lock();
+        try {
+            int record = find(userId);
+            return record != NO_RECORD ? username(record) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Записывает пользователя, заменяя запись с тем же идентификатором на месте.
+     *
+     * @param user Пользователь.
+     * @return Замененный пользователь или {@code null}, если его не было.
+     * @throws IllegalArgumentException Если имя или хэш пароля не помещаются в кусок памяти.
+     */
+    User put(User user) {
+        char[] username = user.getUsername().toCharArray();
+        byte[] hash = user.getPasswordHash().getBytes(StandardCharsets.UTF_8);
+        checkFits(username.length * Character.BYTES);
+        checkFits(hash.length);
+        lock.writeLock().lock();
+        try {
+            int record = find(user.getId());
+            User replaced = null;
+            if (record != NO_RECORD) {
+                replaced = read(record);
+                freeStrings(record);
+            } else {
+                record = allocateRecord();
+                insert(user.getId(), record);
+            }
+            long usernameBlock = NONE;
+            if (username.length > 0) {
+                usernameBlock = allocate(blockBytes(username.length * Character.BYTES));
+                ByteBuffer target = chunk(usernameBlock);
+                int position = offset(usernameBlock);
+                for (int i = 0; i < username.length; i++) {
+                    target.putChar(position + i * Character.BYTES, username[i]);
+                }
+            }
+            long hashBlock = NONE;
+            if (hash.length > 0) {
+                hashBlock = allocate(blockBytes(hash.length));
+                ByteBuffer target = chunk(hashBlock);
+                int position = offset(hashBlock);
+                for (int i = 0; i < hash.length; i++) {
+                    target.put(position + i, hash[i]);
+                }
+            }
+            ByteBuffer chunk = recordChunk(record);
+            int offset = recordOffset(record);
+            chunk.putInt(offset, user.getId());
+            chunk.putInt(offset + ROLE, user.getRole().ordinal());
+            chunk.putLong(offset + USERNAME_BLOCK, usernameBlock);
+            chunk.putLong(offset + HASH_BLOCK, hashBlock);
+            chunk.putInt(offset + USERNAME_LENGTH, username.length);
+            chunk.putInt(offset + HASH_LENGTH, hash.length);
+            return replaced;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param userId Идентификатор пользователя.
+     * @return Удаленный пользователь или {@code null}, если его не было.
+     */
+    User remove(int userId) {
+        lock.writeLock().lock();
+        try {
+            int record = find(userId);
+            if (record == NO_RECORD) {
+                return null;
+            }
+            User removed = read(record);
+            freeStrings(record);
+            freeRecord(record);
+            delete(userId);
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Передает обработчику всех пользователей. Записи читаются по порядку небольшими порциями, обработчик
+     * вызывается между ними без блокировки. Записи не перемещаются, поэтому каждый пользователь, который
+     * не удалялся во время обхода, передается ровно один раз.
+     *
+     * @param consumer Обработчик пользователей.
+     */
+    void forEach(Consumer<User> consumer) {
+        List<User> batch = new ArrayList<>(VISIT_BATCH);
+        int record = 0;
+        while (true) {
+            boolean end;
+            lock.readLock().lock();
+            try {
+                for (; record < recordCount && batch.size() < VISIT_BATCH; record++) {
+                    if (recordChunk(record).getInt(recordOffset(record) + ROLE) != FREE_ROLE) {
+                        batch.add(read(record));
+                    }
+                }
+                end = record == recordCount;
+            } finally {
+                lock.readLock().unlock();
+            }
+            batch.forEach(consumer);
+            if (end) {
+                return;
+            }
+            batch.clear();
+        }
+    }
+
+    private User read(int record) {
+        ByteBuffer chunk = recordChunk(record);
+        int offset = recordOffset(record);
+        byte[] hash = new byte[chunk.getInt(offset + HASH_LENGTH)];
+        if (hash.length > 0) {
+            long hashBlock = chunk.getLong(offset + HASH_BLOCK);
+            ByteBuffer source = chunk(hashBlock);
+            int position = offset(hashBlock);
+            for (int i = 0; i < hash.length; i++) {
+                hash[i] = source.get(position + i);
+            }
+        }
+        return new User(chunk.getInt(offset), username(record), new String(hash, StandardCharsets.UTF_8),
+                ROLES[chunk.getInt(offset + ROLE)]);
+    }
+
+    private String username(int record) {
+        ByteBuffer chunk = recordChunk(record);
+        int offset = recordOffset(record);
+        char[] username = new char[chunk.getInt(offset + USERNAME_LENGTH)];
+        if (username.length > 0) {
+            long usernameBlock = chunk.getLong(offset + USERNAME_BLOCK);
+            ByteBuffer source = chunk(usernameBlock);
+            int position = offset(usernameBlock);
+            for (int i = 0; i < username.length; i++) {
+                username[i] = source.getChar(position + i * Character.BYTES);
+            }
+        }
+        return new String(username);
+    }
+
+    private void freeStrings(int record) {
+        ByteBuffer chunk = recordChunk(record);
+        int offset = recordOffset(record);
+        int usernameLength = chunk.getInt(offset + USERNAME_LENGTH);
+        if (usernameLength > 0) {
+            free(chunk.getLong(offset + USERNAME_BLOCK), blockBytes(usernameLength * Character.BYTES));
+        }
+        int hashLength = chunk.getInt(offset + HASH_LENGTH);
+        if (hashLength > 0) {
+            free(chunk.getLong(offset + HASH_BLOCK), blockBytes(hashLength));
+        }
+    }
+
+    private void checkFits(int bytes) {
+        if (bytes > chunkBytes) {
+            throw new IllegalArgumentException("Данные пользователя не помещаются в кусок памяти: " + bytes
+                    + " байт.");
+        }
+    }
+
+    private int allocateRecord() {
+        int record = freeRecord;
+        if (record != NO_RECORD) {
+            freeRecord = recordChunk(record).getInt(recordOffset(record));
+        } else {
+            record = recordCount++;
+            if (record >>> recordsPerChunkShift == recordChunks.length) {
+                recordChunks = Arrays.copyOf(recordChunks, recordChunks.length + 1);
+                recordChunks[recordChunks.length - 1] = ByteBuffer.allocateDirect(chunkBytes)
+                        .order(ByteOrder.nativeOrder());
+            }
+        }
+        usedBytes += RECORD_BYTES;
+        return record;
+    }
+
+    private void freeRecord(int record) {
+        ByteBuffer chunk = recordChunk(record);
+        int offset = recordOffset(record);
+        chunk.putInt(offset, freeRecord);
+        chunk.putInt(offset + ROLE, FREE_ROLE);
+        freeRecord = record;
+        usedBytes -= RECORD_BYTES;
+    }
+
+    private static int blockBytes(int bytes) {
+        return Math.max(1 << MIN_BLOCK_SHIFT, Integer.highestOneBit(Math.max(1, bytes - 1)) << 1);
+    }
+
+    private long allocate(int bytes) {
+        int sizeClass = Integer.numberOfTrailingZeros(bytes);
+        long block = freeBlocks[sizeClass];
+        if (block != NONE) {
+            freeBlocks[sizeClass] = chunk(block).getLong(offset(block));
+        } else {
+            if (chunks.length == 0 || chunkPosition + bytes > chunkBytes) {
+                chunks = Arrays.copyOf(chunks, chunks.length + 1);
+                chunks[chunks.length - 1] = ByteBuffer.allocateDirect(chunkBytes).order(ByteOrder.nativeOrder());
+                chunkPosition = 0;
+            }
+            block = (long) (chunks.length - 1) << 32 | chunkPosition;
+            chunkPosition += bytes;
+        }
+        usedBytes += bytes;
+        return block;
+    }
+
+    private void free(long block, int bytes) {
+        int sizeClass = Integer.numberOfTrailingZeros(bytes);
+        chunk(block).putLong(offset(block), freeBlocks[sizeClass]);
+        freeBlocks[sizeClass] = block;
+        usedBytes -= bytes;
+    }
+
+    /**
+     * Элемент таблицы - {@code [идентификатор][номер записи + 1]}; ноль во второй половине - свободная позиция.
+     */
+    private int find(int userId) {
+        int mask = indexCapacity - 1;
+        for (int slot = hash(userId) & mask; ; slot = (slot + 1) & mask) {
+            int position = slot * ENTRY_BYTES;
+            int record = index.getInt(position + Integer.BYTES) - 1;
+            if (record == NO_RECORD || index.getInt(position) == userId) {
+                return record;
+            }
+        }
+    }
+
+    private void insert(int userId, int record) {
+        if ((size + 1) * 2L > indexCapacity) {
+            resize(indexCapacity * 2);
+        }
+        place(index, indexCapacity, userId, record);
+        size++;
+    }
+
+    /**
+     * Удаляет элемент таблицы со сдвигом следующих за ним элементов той же цепочки на освободившееся место,
+     * поэтому таблица не накапливает пометок об удалении.
+     */
+    private void delete(int userId) {
+        int mask = indexCapacity - 1;
+        int hole = hash(userId) & mask;
+        while (index.getInt(hole * ENTRY_BYTES) != userId || !used(hole)) {
+            hole = (hole + 1) & mask;
+        }
+        for (int slot = (hole + 1) & mask; used(slot); slot = (slot + 1) & mask) {
+            int home = hash(index.getInt(slot * ENTRY_BYTES)) & mask;
+            // элемент переносится в дыру, если его исходная позиция не лежит между дырой и им самим
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                index.putLong(hole * ENTRY_BYTES, index.getLong(slot * ENTRY_BYTES));
+                hole = slot;
+            }
+        }
+        index.putLong(hole * ENTRY_BYTES, 0L);
+        size--;
+        if (indexCapacity > MIN_INDEX_CAPACITY && size * 8L < indexCapacity) {
+            resize(indexCapacity / 2);
+        }
+    }
+
+    private boolean used(int slot) {
+        return index.getInt(slot * ENTRY_BYTES + Integer.BYTES) != 0;
+    }
+
+    private void resize(int capacity) {
+        ByteBuffer resized = allocateIndex(capacity);
+        for (int slot = 0; slot < indexCapacity; slot++) {
+            if (used(slot)) {
+                int position = slot * ENTRY_BYTES;
+                place(resized, capacity, index.getInt(position), index.getInt(position + Integer.BYTES) - 1);
+            }
+        }
+        index = resized;
+        indexCapacity = capacity;
+    }
+
+    private static void place(ByteBuffer table, int capacity, int userId, int record) {
+        int mask = capacity - 1;
+        int slot = hash(userId) & mask;
+        while (table.getInt(slot * ENTRY_BYTES + Integer.BYTES) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table.putInt(slot * ENTRY_BYTES, userId);
+        table.putInt(slot * ENTRY_BYTES + Integer.BYTES, record + 1);
+    }
+
+    private static ByteBuffer allocateIndex(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * ENTRY_BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Перемешивает биты идентификатора: идентификаторы узла идут подряд и без перемешивания занимали бы
+     * соседние позиции таблицы длинными цепочками.
+     */
+    private static int hash(int userId) {
+        int h = userId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private ByteBuffer recordChunk(int record) {
+        return recordChunks[record >>> recordsPerChunkShift];
+    }
+
+    private int recordOffset(int record) {
+        return (record & ((1 << recordsPerChunkShift) - 1)) * RECORD_BYTES;
+    }
+
+    private ByteBuffer chunk(long block) {
+        return chunks[(int) (block >>> 32)];
+    }
+
+    private static int offset(long block) {
+        return (int) block;
+    }
+}
@@ -0,0 +1,99 @@
+package users;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Выдача идентификаторов пользователей без коллизий.
+ * <p>
+ * Пространство положительных int разбито на {@value #MAX_NODES} диапазонов по {@value #IDS_PER_NODE}
+ * идентификаторов, каждый узел выдает идентификаторы только из своего диапазона по возрастающему счетчику.
+ * Поэтому узлы не пересекаются без координации, а идентификаторы одного узла плотные и служат индексом массива.
+ */
+public class UserIdAllocator {
+    /**
+     * Максимальное количество узлов.
+     */
+    public static final int MAX_NODES = 128;
+    /**
+     * Количество идентификаторов в диапазоне одного узла.
+     */
+    public static final int IDS_PER_NODE = 1 << 24;
+
+    private final int nodeId;
+    private final int base;
+    private final AtomicInteger next = new AtomicInteger(1);
+
+    /**
+     * Создает счетчик для единственного узла: идентификаторы 1, 2, 3...
+     */
+    public UserIdAllocator() {
+        this(0);
+    }
+
+    /**
+     * @param nodeId Номер узла от 0 до {@value #MAX_NODES} - 1.
+     */
+    public UserIdAllocator(int nodeId) {
+        if (nodeId < 0 || nodeId >= MAX_NODES) {
+            throw new IllegalArgumentException("Номер узла должен быть от 0 до " + (MAX_NODES - 1) + ".");
+        }
+        this.nodeId = nodeId;
+        this.base = nodeId * IDS_PER_NODE;
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Выдает следующий идентификатор.
+     *
+     * @return Новый идентификатор из диапазона узла.
+     * @throws IllegalStateException Если диапазон узла исчерпан.
+     */
+    public int nextId() {
+        int sequence = next.getAndIncrement();
+        if (sequence >= IDS_PER_NODE) {
+            throw new IllegalStateException("Исчерпан диапазон идентификаторов узла " + nodeId + ".");
+        }
+        return base + sequence;
+    }
+
+    /**
+     * Проверяет, принадлежит ли идентификатор диапазону этого узла.
+     *
+     * @param id Идентификатор.
+     * @return {@code true}, если идентификатор из диапазона узла.
+     */
+    public boolean owns(int id) {
+        return id >= base && id - base < IDS_PER_NODE;
+    }
+
+    /**
+     * @param id Идентификатор из диапазона узла.
+     * @return Порядковый номер идентификатора внутри диапазона.
+     */
+    public int indexOf(int id) {
+        return id - base;
+    }
+
+    /**
+     * @param index Порядковый номер внутри диапазона узла.
+     * @return Идентификатор с этим порядковым номером.
+     */
+    public int idAt(int index) {
+        return base + index;
+    }
+
+    /**
+     * Учитывает уже выданный идентификатор, например восстановленный из хранилища, чтобы счетчик
+     * продолжил выдачу после него.
+     *
+     * @param id Идентификатор.
+     */
+    public void observe(int id) {
+        if (owns(id)) {
+            next.accumulateAndGet(indexOf(id) + 1, Math::max);
+        }
+    }
+}
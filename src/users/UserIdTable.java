@@ -0,0 +1,162 @@
+package users;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * Потокобезопасная таблица значений по идентификатору пользователя.
+ * <p>
+ * Идентификаторы из диапазона узла ({@link UserIdAllocator}) хранятся в массиве блоков по
+ * {@value #CHUNK_SIZE} ссылок: поиск - два обращения к массиву без упаковки и хэширования. Блоки создаются
+ * по мере роста и не перемещаются, чтение не берет блокировок. Остальные идентификаторы - других узлов или
+ * случайные идентификаторы из данных старого формата - хранятся в обычной хэш-таблице.
+ *
+ * @param <V> Тип значений.
+ */
+public final class UserIdTable<V> {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final UserIdAllocator range;
+    private volatile AtomicReferenceArray<AtomicReferenceArray<V>> chunks = new AtomicReferenceArray<>(16);
+    private final Map<Integer, V> foreign = new ConcurrentHashMap<>();
+
+    /**
+     * @param range Выдача идентификаторов, чей диапазон хранится в массиве.
+     */
+    public UserIdTable(UserIdAllocator range) {
+        this.range = range;
+    }
+
+    /**
+     * @param id Идентификатор пользователя.
+     * @return Значение или {@code null}, если его нет.
+     */
+    public V get(int id) {
+        if (!range.owns(id)) {
+            return foreign.get(id);
+        }
+        int index = range.indexOf(id);
+        AtomicReferenceArray<AtomicReferenceArray<V>> directory = chunks;
+        int chunkIndex = index >>> CHUNK_BITS;
+        if (chunkIndex >= directory.length()) {
+            return null;
+        }
+        AtomicReferenceArray<V> chunk = directory.get(chunkIndex);
+        return chunk != null ? chunk.get(index & CHUNK_MASK) : null;
+    }
+
+    /**
+     * @param id    Идентификатор пользователя.
+     * @param value Значение.
+     * @return Замененное значение или {@code null}, если его не было.
+     */
+    public V put(int id, V value) {
+        if (!range.owns(id)) {
+            return foreign.put(id, value);
+        }
+        int index = range.indexOf(id);
+        return chunkFor(index >>> CHUNK_BITS).getAndSet(index & CHUNK_MASK, value);
+    }
+
+    /**
+     * @param id Идентификатор пользователя.
+     * @return Удаленное значение или {@code null}, если его не было.
+     */
+    public V remove(int id) {
+        if (!range.owns(id)) {
+            return foreign.remove(id);
+        }
+        int index = range.indexOf(id);
+        AtomicReferenceArray<AtomicReferenceArray<V>> directory = chunks;
+        int chunkIndex = index >>> CHUNK_BITS;
+        AtomicReferenceArray<V> chunk = chunkIndex < directory.length() ? directory.get(chunkIndex) : null;
+        return chunk != null ? chunk.getAndSet(index & CHUNK_MASK, null) : null;
+    }
+
+    /**
+     * Возвращает значение, атомарно создавая его при отсутствии. Функция создания может быть вызвана
+     * несколькими потоками одновременно, но в таблицу попадает и возвращается всем только одно значение.
+     *
+     * @param id      Идентификатор пользователя.
+     * @param factory Создание значения.
+     * @return Значение из таблицы.
+     */
+    public V computeIfAbsent(int id, IntFunction<? extends V> factory) {
+        if (!range.owns(id)) {
+            return foreign.computeIfAbsent(id, factory::apply);
+        }
+        int index = range.indexOf(id);
+        AtomicReferenceArray<V> chunk = chunkFor(index >>> CHUNK_BITS);
+        V value = chunk.get(index & CHUNK_MASK);
+        if (value != null) {
+            return value;
+        }
+        V created = factory.apply(id);
+        return chunk.compareAndSet(index & CHUNK_MASK, null, created) ? created : chunk.get(index & CHUNK_MASK);
+    }
+
+    /**
+     * Передает обработчику все значения таблицы.
+     *
+     * @param visitor Обработчик.
+     */
+    public void forEach(Visitor<? super V> visitor) {
+        AtomicReferenceArray<AtomicReferenceArray<V>> directory = chunks;
+        for (int c = 0; c < directory.length(); c++) {
+            AtomicReferenceArray<V> chunk = directory.get(c);
+            if (chunk == null) {
+                continue;
+            }
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                V value = chunk.get(i);
+                if (value != null) {
+                    visitor.visit(range.idAt((c << CHUNK_BITS) | i), value);
+                }
+            }
+        }
+        foreign.forEach(visitor::visit);
+    }
+
+    private AtomicReferenceArray<V> chunkFor(int chunkIndex) {
+        AtomicReferenceArray<AtomicReferenceArray<V>> directory = chunks;
+        AtomicReferenceArray<V> chunk = chunkIndex < directory.length() ? directory.get(chunkIndex) : null;
+        if (chunk != null) {
+            return chunk;
+        }
+        synchronized (this) {
+            directory = chunks;
+            if (chunkIndex >= directory.length()) {
+                int length = directory.length();
+                while (length <= chunkIndex) {
+                    length *= 2;
+                }
+                AtomicReferenceArray<AtomicReferenceArray<V>> grown = new AtomicReferenceArray<>(length);
+                for (int c = 0; c < directory.length(); c++) {
+                    grown.set(c, directory.get(c));
+                }
+                chunks = grown;
+                directory = grown;
+            }
+            chunk = directory.get(chunkIndex);
+            if (chunk == null) {
+                chunk = new AtomicReferenceArray<>(CHUNK_SIZE);
+                directory.set(chunkIndex, chunk);
+            }
+            return chunk;
+        }
+    }
+
+    /**
+     * Обработчик значений таблицы.
+     *
+     * @param <V> Тип значений.
+     */
+    @FunctionalInterface
+    public interface Visitor<V> {
+        void visit(int id, V value);
+    }
+}
@@ -5,16 +5,106 @@ package users;
 
 
 import exceptions.AuthorizationException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import exceptions.ServiceOverloadedException;
+import storage.InMemoryStorage;
+import storage.UserStore;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Consumer;
 /**
  * Репозиторий для управления пользователями.
+ * <p>
+ * Пароли хранятся только в виде хэшей {@link PasswordHasher}; проверка пароля при входе выполняется
+ * через {@link PasswordVerifier}, на пуле которого вычисляются и хэши новых паролей. Пользователи, восстановленные из хранилища с паролем в открытом виде,
+ * при загрузке получают хэш, который сохраняется при следующем снимке.
+ * <p>
+ * Идентификаторы выдаются {@link UserIdAllocator} без коллизий; поиск по идентификатору - обращение
+ * к массиву {@link UserIdTable}, поиск по имени и префиксу имени - через {@link UsernameIndex}.
+ * <p>
+ * Если репозиторию передана {@link UserArena}, пользователи хранятся в ней вне кучи, а методы поиска каждый раз
+ * возвращают новый объект {@link User}; в куче остается только индекс имен.
  */
 
 public class UserRepository {
-    private Map<String, User> usersByUsername = new HashMap<>();
-    private Map<Integer, User> usersById = new HashMap<>();
+    private final UserStore userStore;
+    private final PasswordHasher passwordHasher;
+    private final PasswordVerifier passwordVerifier;
+    private final UsernameIndex usersByUsername = new UsernameIndex(this::usernameOf);
+    private final UserIdAllocator idAllocator;
+    private final UserIdTable<User> usersById;
+    private final UserArena arena;
+    private volatile User unknownUser;
+
+    /**
+     * Создает репозиторий, хранящий пользователей только в памяти.
+     */
+    public UserRepository() {
+        this(InMemoryStorage.INSTANCE);
+    }
+
+    /**
+     * Создает репозиторий поверх хранилища и восстанавливает из него ранее зарегистрированных пользователей.
+     *
+     * @param userStore Хранилище пользователей.
+     */
+    public UserRepository(UserStore userStore) {
+        this(userStore, new PasswordHasher(), new PasswordVerifier());
+    }
+
+    /**
+     * Создает репозиторий поверх хранилища с заданными настройками хэширования и проверки паролей.
+     *
+     * @param userStore        Хранилище пользователей.
+     * @param passwordHasher   Хэширование паролей новых пользователей.
+     * @param passwordVerifier Проверка паролей при входе.
+     */
+    public UserRepository(UserStore userStore, PasswordHasher passwordHasher, PasswordVerifier passwordVerifier) {
+        this(userStore, passwordHasher, passwordVerifier, new UserIdAllocator());
+    }
+
+    /**
+     * Создает репозиторий поверх хранилища с заданными настройками хэширования и проверки паролей
+     * и выдачей идентификаторов из диапазона указанного узла.
+     *
+     * @param userStore        Хранилище пользователей.
+     * @param passwordHasher   Хэширование паролей новых пользователей.
+     * @param passwordVerifier Проверка паролей при входе.
+     * @param idAllocator      Выдача идентификаторов новых пользователей.
+     */
+    public UserRepository(UserStore userStore, PasswordHasher passwordHasher, PasswordVerifier passwordVerifier,
+                          UserIdAllocator idAllocator) {
+        this(userStore, passwordHasher, passwordVerifier, idAllocator, null);
+    }
+
+    /**
+     * Создает репозиторий, хранящий пользователей вне кучи: записи фиксированной ширины в {@link UserArena}
+     * вместо объекта {@link User} с двумя строками на пользователя.
+     *
+     * @param userStore        Хранилище пользователей.
+     * @param passwordHasher   Хэширование паролей новых пользователей.
+     * @param passwordVerifier Проверка паролей при входе.
+     * @param idAllocator      Выдача идентификаторов новых пользователей.
+     * @param arena            Память вне кучи для пользователей или {@code null}, чтобы хранить их в куче.
+     */
+    public UserRepository(UserStore userStore, PasswordHasher passwordHasher, PasswordVerifier passwordVerifier,
+                          UserIdAllocator idAllocator, UserArena arena) {
+        this.userStore = userStore;
+        this.passwordHasher = passwordHasher;
+        this.passwordVerifier = passwordVerifier;
+        this.idAllocator = idAllocator;
+        this.arena = arena;
+        this.usersById = arena == null ? new UserIdTable<>(idAllocator) : null;
+        userStore.loadUsers(user -> {
+            if (!PasswordHasher.isHash(user.getPasswordHash())) {
+                user.setPasswordHash(passwordHasher.hash(user.getPasswordHash()));
+            }
+            idAllocator.observe(user.getId());
+            addUser(user);
+        });
+    }
     /**
      * Регистрирует нового пользователя.
      *
@@ -24,13 +114,62 @@ public class UserRepository {
      */
 
     public void registerUser(String username, String password, Role role) {
-        if (usersByUsername.containsKey(username)) {
+        if (getUserByUsername(username) != null) {
             throw new AuthorizationException("Пользователь с таким именем уже зарегистрирован.");
         }
+        String passwordHash = passwordVerifier.hash(passwordHasher, password);
+        addNewUser(new User(idAllocator.nextId(), username, passwordHash, role));
+    }
+
+    /**
+     * Регистрирует нового пользователя с идентификатором, выданным вызывающим, например маршрутизатором
+     * шардов. Уникальность идентификатора обеспечивает вызывающий.
+     *
+     * @param userId   Идентификатор пользователя.
+     * @param username Имя пользователя.
+     * @param password Пароль пользователя.
+     * @param role     Роль пользователя (USER или ADMIN).
+     */
+    public void registerUser(int userId, String username, String password, Role role) {
+        if (getUserByUsername(username) != null) {
+            throw new AuthorizationException("Пользователь с таким именем уже зарегистрирован.");
+        }
+        idAllocator.observe(userId);
+        addNewUser(new User(userId, username, passwordVerifier.hash(passwordHasher, password), role));
+    }
+
+    /**
+     * Добавляет пользователя, перенесенного из другого репозитория, вместе с хэшем пароля. Повторный перенос
+     * того же пользователя, например после сбоя посреди переноса, заменяет его данные.
+     *
+     * @param user Пользователь.
+     * @throws AuthorizationException Если имя занято другим пользователем.
+     */
+    public void importUser(User user) {
+        User existing = getUserById(user.getId());
+        if (existing != null && existing.getUsername().equals(user.getUsername())) {
+            userStore.saveUser(user);
+            addUser(user);
+            return;
+        }
+        idAllocator.observe(user.getId());
+        addNewUser(user);
+    }
 
-        User user = new User(generateUserId(), username, password, role);
-        usersByUsername.put(username, user);
-        usersById.put(user.getId(), user);
+    /**
+     * Удаляет пользователя, например после переноса в другой репозиторий, и сохраняет удаление в хранилище,
+     * чтобы пользователь не вернулся при восстановлении.
+     *
+     * @param userId Идентификатор пользователя.
+     * @return Удаленный пользователь или {@code null}, если его не было.
+     */
+    public User removeUser(int userId) {
+        User user = arena != null ? arena.remove(userId) : usersById.remove(userId);
+        if (user != null) {
+            usersByUsername.remove(userId, user.getUsername());
+            userStore.removeUser(userId);
+        }
+        return user;
     }
     /**
      * Авторизует пользователя по имени пользователя и паролю.
@@ -39,16 +178,35 @@ public class UserRepository {
      * @param password Пароль пользователя.
      * @return Авторизованный пользователь.
      * @throws AuthorizationException Исключение, если авторизация не удалась.
+     * @throws ServiceOverloadedException Если очередь проверок паролей переполнена.
      */
 
     public User authenticateUser(String username, String password) {
-        User user = usersByUsername.get(username); // находим юзера по имени
-        if (user != null && user.authenticate(password)) {
+        User user = getUserByUsername(username); // находим юзера по имени
+        if (user == null) {
+            // неизвестное имя проверяется так же долго, как известное, чтобы по времени ответа нельзя было
+            // узнать, какие имена зарегистрированы
+            passwordVerifier.verify(unknownUser(), password);
+            throw new AuthorizationException("Неверные учетные данные.");
+        }
+        if (passwordVerifier.verify(user, password)) {
             return user;
         } else {
             throw new AuthorizationException("Неверные учетные данные.");
         }
     }
+
+    private User unknownUser() {
+        User user = unknownUser;
+        if (user == null) {
+            byte[] password = new byte[32];
+            new SecureRandom().nextBytes(password);
+            user = new User(0, "", passwordVerifier.hash(passwordHasher, Base64.getEncoder().encodeToString(password)),
+                    Role.USER);
+            unknownUser = user;
+        }
+        return user;
+    }
     /**
      * Возвращает пользователя по его идентификатору.
      *
@@ -57,17 +215,9 @@ public class UserRepository {
      */
 
     public User getUserById(int userId) {
-        return usersById.get(userId);
+        return arena != null ? arena.get(userId) : usersById.get(userId);
     }
 
-    /**
-     * Генерирует уникальный идентификатор пользователя на основе случайного UUID.
-     *
-     * @return Уникальный идентификатор пользователя в виде хэш-кода UUID.
-     */
-    private int generateUserId() {
-        return UUID.randomUUID().hashCode();
-    }
     /**
      * Получает пользователя по его имени пользователя (логину).
      *
@@ -76,6 +226,114 @@ public class UserRepository {
      *         если пользователь с указанным именем не найден.
      */
     public User getUserByUsername(String username) {
-        return usersByUsername.get(username);
+        for (int userId : usersByUsername.getIgnoreCase(username)) {
+            User user = getUserById(userId);
+            if (user != null && user.getUsername().equals(username)) {
+                return user;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ищет пользователей по имени без учета регистра.
+     *
+     * @param username Имя пользователя.
+     * @return Пользователи, имя которых совпадает с указанным без учета регистра.
+     */
+    public List<User> findUsersIgnoreCase(String username) {
+        return usersOf(usersByUsername.getIgnoreCase(username));
+    }
+
+    /**
+     * Ищет пользователей, имя которых начинается с префикса без учета регистра.
+     *
+     * @param prefix Префикс имени.
+     * @param limit  Максимальное количество пользователей.
+     * @return Пользователи в алфавитном порядке имен в нижнем регистре.
+     */
+    public List<User> findUsersByPrefix(String prefix, int limit) {
+        return usersOf(usersByUsername.findByPrefix(prefix, limit));
+    }
+
+    /**
+     * Передает всех зарегистрированных пользователей обработчику.
+     *
+     * @param consumer Обработчик пользователей.
+     */
+    public void forEachUser(Consumer<User> consumer) {
+        if (arena != null) {
+            arena.forEach(consumer);
+        } else {
+            usersById.forEach((id, user) -> consumer.accept(user));
+        }
+    }
+
+    private void addNewUser(User user) {
+        // пользователь записывается до индекса имен: проверка уникальности в индексе читает имена из хранилища
+        User replaced = put(user);
+        if (!usersByUsername.putIfAbsent(user.getId(), user.getUsername())) {
+            restore(user.getId(), replaced);
+            throw new AuthorizationException("Пользователь с таким именем уже зарегистрирован.");
+        }
+        if (replaced != null && !replaced.getUsername().equals(user.getUsername())) {
+            usersByUsername.remove(replaced.getId(), replaced.getUsername());
+        }
+        try {
+            userStore.saveUser(user);
+        } catch (RuntimeException e) {
+            // несохраненный пользователь исчез бы после перезапуска, а повторная регистрация была бы отклонена
+            usersByUsername.remove(user.getId(), user.getUsername());
+            restore(user.getId(), null);
+            throw e;
+        }
+    }
+
+    private void addUser(User user) {
+        User replaced = put(user);
+        if (replaced != null && !replaced.getUsername().equals(user.getUsername())) {
+            usersByUsername.remove(replaced.getId(), replaced.getUsername());
+        }
+        if (!usersByUsername.putIfAbsent(user.getId(), user.getUsername())) {
+            User holder = getUserByUsername(user.getUsername());
+            if (holder != null && holder.getId() != user.getId()) {
+                usersByUsername.remove(holder.getId(), holder.getUsername());
+                usersByUsername.putIfAbsent(user.getId(), user.getUsername());
+            }
+        }
+    }
+
+    private User put(User user) {
+        return arena != null ? arena.put(user) : usersById.put(user.getId(), user);
+    }
+
+    private void restore(int userId, User replaced) {
+        if (replaced != null) {
+            put(replaced);
+        } else if (arena != null) {
+            arena.remove(userId);
+        } else {
+            usersById.remove(userId);
+        }
+    }
+
+    private String usernameOf(int userId) {
+        if (arena != null) {
+            return arena.usernameOf(userId);
+        }
+        User user = usersById.get(userId);
+        return user != null ? user.getUsername() : null;
+    }
+
+    private List<User> usersOf(int[] userIds) {
+        List<User> users = new ArrayList<>(userIds.length);
+        for (int userId : userIds) {
+            User user = getUserById(userId);
+            // пользователь мог быть удален после поиска в индексе
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,342 @@
+package users;
+
+import java.util.Arrays;
+
+/**
+ * Индекс идентификаторов пользователей по имени: сжатое префиксное дерево (radix trie) над именами, приведенными
+ * к нижнему регистру. Поддерживает поиск без учета регистра и поиск по префиксу за O(k), где k - длина имени
+ * или префикса, независимо от количества пользователей.
+ * <p>
+ * Узлы неизменяемы: изменение строит новые узлы на пути от корня и публикует новый корень, поэтому чтение
+ * выполняется без блокировок и всегда видит согласованное дерево. Изменения выполняются под блокировкой
+ * индекса, поэтому проверка уникальности и вставка в {@link #putIfAbsent} атомарны.
+ * <p>
+ * Индекс хранит только идентификаторы и метки ребер в нижнем регистре, общие префиксы имен - один раз. Точное
+ * имя пользователя индекс берет у владельца через {@link Usernames}, поэтому пользователи могут храниться
+ * где угодно, в том числе вне кучи ({@link UserArena}). Имена, различающиеся только регистром, попадают в один
+ * узел и различаются по точному имени.
+ */
+public final class UsernameIndex {
+    private static final char[] NO_CHARS = new char[0];
+    private static final int[] NO_IDS = new int[0];
+    private static final Node[] NO_NODES = new Node[0];
+    private static final Node EMPTY_ROOT = new Node(NO_CHARS, 0, NO_CHARS, NO_NODES, NO_IDS);
+
+    private final Usernames usernames;
+    private final Object writeLock = new Object();
+    private volatile Node root = EMPTY_ROOT;
+    private volatile int size;
+
+    /**
+     * @param usernames Точные имена пользователей по идентификатору.
+     */
+    public UsernameIndex(Usernames usernames) {
+        this.usernames = usernames;
+    }
+
+    /**
+     * @param username Имя пользователя.
+     * @return Идентификаторы пользователей, имя которых совпадает с указанным без учета регистра.
+     */
+    public int[] getIgnoreCase(String username) {
+        Node node = find(username);
+        return node != null ? node.users.clone() : NO_IDS;
+    }
+
+    /**
+     * Ищет пользователей, имя которых начинается с префикса без учета регистра.
+     *
+     * @param prefix Префикс имени.
+     * @param limit  Максимальное количество пользователей.
+     * @return Идентификаторы пользователей в порядке имен в нижнем регистре.
+     */
+    public int[] findByPrefix(String prefix, int limit) {
+        Node node = root;
+        int position = 0;
+        while (position < prefix.length()) {
+            int index = Arrays.binarySearch(node.keys, fold(prefix.charAt(position)));
+            if (index < 0) {
+                return NO_IDS;
+            }
+            node = node.children[index];
+            int matched = match(node, prefix, position);
+            if (position + matched < Math.min(node.end, prefix.length())) {
+                return NO_IDS;
+            }
+            position += matched;
+        }
+        Ids result = new Ids(Math.min(limit, 16));
+        collect(node, result, limit);
+        return Arrays.copyOf(result.values, result.size);
+    }
+
+    /**
+     * Добавляет пользователя, если пользователя с точно таким же именем нет.
+     *
+     * @param userId   Идентификатор пользователя.
+     * @param username Имя пользователя.
+     * @return {@code true}, если пользователь добавлен; {@code false}, если имя уже занято.
+     */
+    public boolean putIfAbsent(int userId, String username) {
+        synchronized (writeLock) {
+            Node node = find(username);
+            if (node != null) {
+                for (int candidate : node.users) {
+                    if (username.equals(usernames.usernameOf(candidate))) {
+                        return false;
+                    }
+                }
+            }
+            root = insert(root, 0, userId, username);
+            size++;
+            return true;
+        }
+    }
+
+    /**
+     * Удаляет пользователя, если он находится в индексе под этим именем.
+     *
+     * @param userId   Идентификатор пользователя.
+     * @param username Имя, под которым пользователь был добавлен.
+     * @return {@code true}, если пользователь удален.
+     */
+    public boolean remove(int userId, String username) {
+        synchronized (writeLock) {
+            Node node = find(username);
+            if (node == null || indexOf(node.users, userId) < 0) {
+                return false;
+            }
+            Node updated = remove(root, 0, userId, username);
+            root = updated != null ? updated : EMPTY_ROOT;
+            size--;
+            return true;
+        }
+    }
+
+    /**
+     * @return Количество пользователей в индексе.
+     */
+    public int size() {
+        return size;
+    }
+
+    private Node find(String username) {
+        Node node = root;
+        int position = 0;
+        while (position < username.length()) {
+            int index = Arrays.binarySearch(node.keys, fold(username.charAt(position)));
+            if (index < 0) {
+                return null;
+            }
+            node = node.children[index];
+            int matched = match(node, username, position);
+            if (position + matched < node.end) {
+                return null;
+            }
+            position += matched;
+        }
+        return node;
+    }
+    private static void collect(Node node, Ids result, int limit) {
+        for (int i = 0; i < node.users.length && result.size < limit; i++) {
+            result.add(node.users[i]);
+        }
+        for (Node child : node.children) {
+            if (result.size >= limit) {
+                return;
+            }
+            collect(child, result, limit);
+        }
+    }
+
+    /**
+     * @param position Глубина начала метки узла, то есть длина пути от корня до родителя.
+     */
+    private static Node insert(Node node, int position, int userId, String username) {
+        if (position == node.end && position == username.length()) {
+            return new Node(node.label, node.end, node.keys, node.children, append(node.users, userId));
+        }
+        int matched = match(node, username, position);
+        if (position + matched < node.end) {
+            // имя расходится с меткой ребра: ребро делится на общую часть и остаток
+            Node tail = new Node(Arrays.copyOfRange(node.label, matched, node.label.length), node.end, node.keys,
+                    node.children, node.users);
+            Node split = new Node(Arrays.copyOf(node.label, matched), position + matched, new char[]{tail.label[0]},
+                    new Node[]{tail}, NO_IDS);
+            return insert(split, position, userId, username);
+        }
+        int depth = node.end;
+        if (depth == username.length()) {
+            return new Node(node.label, node.end, node.keys, node.children, append(node.users, userId));
+        }
+        int index = Arrays.binarySearch(node.keys, fold(username.charAt(depth)));
+        if (index < 0) {
+            char[] label = new char[username.length() - depth];
+            for (int i = 0; i < label.length; i++) {
+                label[i] = fold(username.charAt(depth + i));
+            }
+            Node leaf = new Node(label, username.length(), NO_CHARS, NO_NODES, new int[]{userId});
+            return node.withChild(-index - 1, leaf, label[0], true);
+        }
+        Node child = insert(node.children[index], depth, userId, username);
+        return node.withChild(index, child, node.keys[index], false);
+    }
+
+    private static Node remove(Node node, int position, int userId, String username) {
+        Node updated;
+        if (node.end == username.length()) {
+            updated = new Node(node.label, node.end, node.keys, node.children, without(node.users, userId));
+        } else {
+            int index = Arrays.binarySearch(node.keys, fold(username.charAt(node.end)));
+            Node child = remove(node.children[index], node.end, userId, username);
+            if (child != null) {
+                updated = node.withChild(index, child, node.keys[index], false);
+            } else {
+                char[] keys = new char[node.keys.length - 1];
+                Node[] children = new Node[node.children.length - 1];
+                System.arraycopy(node.keys, 0, keys, 0, index);
+                System.arraycopy(node.keys, index + 1, keys, index, keys.length - index);
+                System.arraycopy(node.children, 0, children, 0, index);
+                System.arraycopy(node.children, index + 1, children, index, children.length - index);
+                updated = new Node(node.label, node.end, keys, children, node.users);
+            }
+        }
+        return compact(updated, position);
+    }
+
+    /**
+     * Удаляет пустой узел и сливает узел без пользователей с единственным потомком. Корень не сливается:
+     * у него пустая метка.
+     */
+    private static Node compact(Node node, int position) {
+        if (node.users.length == 0 && node.children.length == 0) {
+            return null;
+        }
+        if (node.users.length == 0 && node.children.length == 1 && node.end > position) {
+            Node child = node.children[0];
+            char[] label = Arrays.copyOf(node.label, node.label.length + child.label.length);
+            System.arraycopy(child.label, 0, label, node.label.length, child.label.length);
+            return new Node(label, child.end, child.keys, child.children, child.users);
+        }
+        return node;
+    }
+
+    private static int[] append(int[] users, int userId) {
+        int[] result = Arrays.copyOf(users, users.length + 1);
+        result[users.length] = userId;
+        return result;
+    }
+
+    private static int[] without(int[] users, int userId) {
+        int index = indexOf(users, userId);
+        if (users.length == 1) {
+            return NO_IDS;
+        }
+        int[] result = new int[users.length - 1];
+        System.arraycopy(users, 0, result, 0, index);
+        System.arraycopy(users, index + 1, result, index, result.length - index);
+        return result;
+    }
+
+    private static int indexOf(int[] users, int userId) {
+        for (int i = 0; i < users.length; i++) {
+            if (users[i] == userId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Количество символов метки узла, совпадающих с именем начиная с позиции без учета регистра.
+     */
+    private static int match(Node node, String username, int position) {
+        int limit = Math.min(node.end, username.length());
+        int i = position;
+        while (i < limit && node.label[i - position] == fold(username.charAt(i))) {
+            i++;
+        }
+        return i - position;
+    }
+
+    /**
+     * Посимвольное приведение к нижнему регистру: в отличие от {@link String#toLowerCase()} не меняет длину
+     * строки, поэтому позиции в имени и в ключе совпадают.
+     */
+    private static char fold(char c) {
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(c);
+    }
+
+    /**
+     * Точные имена пользователей по идентификатору.
+     */
+    @FunctionalInterface
+    public interface Usernames {
+        /**
+         * @param userId Идентификатор пользователя.
+         * @return Имя пользователя или {@code null}, если пользователя уже нет.
+         */
+        String usernameOf(int userId);
+    }
+
+    /**
+     * Неизменяемый узел дерева. {@code label} - символы {@code [начало, end)} имени в нижнем регистре, где
+     * начало - глубина родителя. Потомки упорядочены по первому символу метки, который хранится в {@code keys}
+     * для двоичного поиска без обращения к потомкам. {@code users} - идентификаторы пользователей, имена
+     * которых заканчиваются в этом узле и совпадают без учета регистра.
+     */
+    private static final class Node {
+        final char[] label;
+        final int end;
+        final char[] keys;
+        final Node[] children;
+        final int[] users;
+
+        Node(char[] label, int end, char[] keys, Node[] children, int[] users) {
+            this.label = label;
+            this.end = end;
+            this.keys = keys;
+            this.children = children;
+            this.users = users;
+        }
+
+        Node withChild(int index, Node child, char key, boolean insert) {
+            if (!insert) {
+                Node[] children = this.children.clone();
+                children[index] = child;
+                return new Node(label, end, keys, children, users);
+            }
+            char[] keys = new char[this.keys.length + 1];
+            Node[] children = new Node[this.children.length + 1];
+            System.arraycopy(this.keys, 0, keys, 0, index);
+            System.arraycopy(this.keys, index, keys, index + 1, this.keys.length - index);
+            System.arraycopy(this.children, 0, children, 0, index);
+            System.arraycopy(this.children, index, children, index + 1, this.children.length - index);
+            keys[index] = key;
+            children[index] = child;
+            return new Node(label, end, keys, children, users);
+        }
+    }
+
+    /**
+     * Растущий массив идентификаторов для результата поиска по префиксу.
+     */
+    private static final class Ids {
+        int[] values;
+        int size;
+
+        Ids(int capacity) {
+            values = new int[Math.max(1, capacity)];
+        }
+
+        void add(int userId) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = userId;
+        }
+    }
+}